@@ -0,0 +1,126 @@
+package com.chatapp.admin;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.security.FileVaultService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites v1 single-shot vault files as v2 chunks, so they support Range requests and
+ * per-chunk authentication. Runs on a background thread after startup; files stay
+ * readable in either format the whole time. Hard links of one deduplicated file (see
+ * {@code FileBlobStore}) are migrated once and linked to the result again.
+ */
+@Component
+public class ChunkVaultFilesRunner implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(ChunkVaultFilesRunner.class);
+    private static final boolean UNIX_ATTRIBUTES =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final FileStorageConfig config;
+    private final FileVaultService fileVaultService;
+
+    public ChunkVaultFilesRunner(FileStorageConfig config, FileVaultService fileVaultService) {
+        this.config = config;
+        this.fileVaultService = fileVaultService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!config.isChunkLegacyOnStartup()) {
+            return;
+        }
+        Thread thread = new Thread(this::migrateAll, "vault-chunk-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrateAll() {
+        Path root = Path.of(config.getFullUploadDir());
+        if (!Files.exists(root)) {
+            log.warn("CHUNK_LEGACY upload root missing: {}", root);
+            return;
+        }
+        Map<Object, List<Path>> byInode = new LinkedHashMap<>();
+        try (var stream = Files.walk(root)) {
+            for (Path encPath : stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".enc"))
+                    .toList()) {
+                String encName = encPath.getFileName().toString();
+                Path basePath = encPath.resolveSibling(encName.substring(0, encName.length() - ".enc".length()));
+                byInode.computeIfAbsent(inodeKey(encPath), key -> new ArrayList<>()).add(basePath);
+            }
+        } catch (IOException e) {
+            log.error("CHUNK_LEGACY walk failed under {}", root, e);
+        }
+        Path blobRoot = Path.of(config.getFullBlobDir());
+        int migrated = 0;
+        int relinked = 0;
+        int skipped = 0;
+        int errors = 0;
+        for (List<Path> links : byInode.values()) {
+            // Deduplicated owners and their blob share one inode: migrate it once through an
+            // owner, then link the others to the result, so the copies stay shared.
+            Path first = links.stream().filter(path -> !path.startsWith(blobRoot)).findFirst().orElse(links.get(0));
+            Path rel = root.relativize(first);
+            if (!fileVaultService.isEncrypted(first)) {
+                skipped += links.size();
+                continue;
+            }
+            try {
+                if (fileVaultService.migrateToChunked(first)) {
+                    migrated++;
+                    log.info("CHUNK_LEGACY MIGRATED {}", rel);
+                } else {
+                    skipped++;
+                }
+            } catch (Exception e) {
+                errors += links.size();
+                log.error("CHUNK_LEGACY ERROR {}", rel, e);
+                continue;
+            }
+            for (Path link : links) {
+                if (link.equals(first)) {
+                    continue;
+                }
+                try {
+                    if (fileVaultService.relinkToChunked(link, first)) {
+                        relinked++;
+                        log.info("CHUNK_LEGACY RELINKED {} -> {}", root.relativize(link), rel);
+                    } else {
+                        skipped++;
+                    }
+                } catch (Exception e) {
+                    errors++;
+                    log.error("CHUNK_LEGACY ERROR {}", root.relativize(link), e);
+                }
+            }
+        }
+        log.info("CHUNK_LEGACY done: migrated={} relinked={} skipped={} errors={}", migrated, relinked, skipped, errors);
+    }
+
+    /** Identity of the file behind {@code path}; the path itself where inodes are not exposed. */
+    private static Object inodeKey(Path path) {
+        if (!UNIX_ATTRIBUTES) {
+            return path;
+        }
+        try {
+            return List.of(Files.getAttribute(path, "unix:dev"), Files.getAttribute(path, "unix:ino"));
+        } catch (IOException | UnsupportedOperationException e) {
+            return path;
+        }
+    }
+}
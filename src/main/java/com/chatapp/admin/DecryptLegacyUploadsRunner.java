@@ -32,6 +32,7 @@ public class DecryptLegacyUploadsRunner implements ApplicationRunner {
             return;
         }
         Path root = Path.of(config.getFullUploadDir());
+        Path blobRoot = Path.of(config.getFullBlobDir());
         Set<String> excluded = excludedDirs();
         int decrypted = 0;
         int skipped = 0;
@@ -49,6 +50,11 @@ public class DecryptLegacyUploadsRunner implements ApplicationRunner {
                     .filter(path -> path.getFileName().toString().endsWith(".enc"))
                     .toList()) {
                 Path rel = root.relativize(encPath);
+                if (encPath.startsWith(blobRoot)) {
+                    // dedup index only; every upload linked to a blob is decrypted under its own name
+                    excludedCount++;
+                    continue;
+                }
                 if (isExcluded(rel, excluded)) {
                     excludedCount++;
                     log.info("DECRYPT_LEGACY EXCLUDED {}", rel);
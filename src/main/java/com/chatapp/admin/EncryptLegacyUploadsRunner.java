@@ -48,6 +48,7 @@ public class EncryptLegacyUploadsRunner implements ApplicationRunner {
             return;
         }
         Path root = Path.of(config.getFullUploadDir());
+        Path stagingRoot = Path.of(config.getFullUploadStagingDir());
         Set<String> excluded = excludedDirs();
         Summary summary = new Summary();
         Map<String, Integer> byDir = new HashMap<>();
@@ -66,6 +67,11 @@ public class EncryptLegacyUploadsRunner implements ApplicationRunner {
                     log.info("ENCRYPT_LEGACY EXCLUDED {}", rel);
                     continue;
                 }
+                if (path.startsWith(stagingRoot)) {
+                    // resumable upload parts are already ciphertext; the session owns them
+                    summary.skipped++;
+                    continue;
+                }
                 if (fileName.endsWith(".enc") || fileName.endsWith(".meta.json")) {
                     summary.skipped++;
                     continue;
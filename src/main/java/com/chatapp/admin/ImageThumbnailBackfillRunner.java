@@ -0,0 +1,74 @@
+package com.chatapp.admin;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.entity.Message;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.service.ImageDerivativeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Generates thumbnails, previews and BlurHash placeholders for image messages sent
+ * before the pipeline existed (uploads the live queue skips are re-queued by
+ * {@link ImageDerivativeService#catchUp()}). Opt-in, once per startup; runs one message
+ * at a time on its own background thread, so it never competes with the request-driven
+ * workers for more than one core.
+ */
+@Component
+public class ImageThumbnailBackfillRunner implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(ImageThumbnailBackfillRunner.class);
+    private static final int BATCH_SIZE = 100;
+
+    private final FileStorageConfig config;
+    private final MessageRepository messageRepository;
+    private final ImageDerivativeService imageDerivativeService;
+
+    public ImageThumbnailBackfillRunner(FileStorageConfig config,
+                                        MessageRepository messageRepository,
+                                        ImageDerivativeService imageDerivativeService) {
+        this.config = config;
+        this.messageRepository = messageRepository;
+        this.imageDerivativeService = imageDerivativeService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!config.isThumbnailBackfillOnStartup()) {
+            return;
+        }
+        Thread thread = new Thread(this::backfillAll, "image-thumbnail-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void backfillAll() {
+        long afterId = 0;
+        int generated = 0;
+        int skipped = 0;
+        while (true) {
+            List<Message> batch = messageRepository.findImagesWithoutThumbnail(
+                    Message.MessageType.IMAGE, afterId, PageRequest.of(0, BATCH_SIZE));
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (Message message : batch) {
+                afterId = message.getId();
+                if (imageDerivativeService.generate(message.getId(), message.getChatRoom().getId(),
+                        message.getFileUrl())) {
+                    generated++;
+                } else {
+                    skipped++;
+                }
+            }
+            log.info("THUMBNAIL_BACKFILL progress: lastMessageId={} generated={} skipped={}",
+                    afterId, generated, skipped);
+        }
+        log.info("THUMBNAIL_BACKFILL done: generated={} skipped={}", generated, skipped);
+    }
+}
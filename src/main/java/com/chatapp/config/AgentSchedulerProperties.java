@@ -0,0 +1,30 @@
+package com.chatapp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Agent run scheduling. {@link #maxConcurrent} caps agent runs on this node and
+ * {@link #providerMaxConcurrent} caps them per LLM provider (keyed by provider
+ * name, e.g. {@code HERMES: 4}); waiting runs are admitted fairly across rooms,
+ * then across users within a room.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "agent.scheduler")
+@Data
+public class AgentSchedulerProperties {
+
+    private int maxConcurrent = 8;
+    private Map<String, Integer> providerMaxConcurrent = new LinkedHashMap<>();
+    /** Share of an interactive room-bot run relative to a queued workflow task (weight 1). */
+    private int interactiveWeight = 2;
+    /** How long an interactive run waits for a slot before the bot reports it is busy. */
+    private long admissionTimeoutMs = 60_000;
+    private long leaseSeconds = 60;
+    private int maxAttempts = 3;
+    private long retryBackoffSeconds = 30;
+}
@@ -1,16 +1,27 @@
 package com.chatapp.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 public class AsyncConfig {
 
+    /**
+     * {@code @Async} work. In virtual-thread mode each task gets its own virtual thread,
+     * up to {@code async.virtual.max-concurrency} running tasks, instead of the 2–8
+     * platform workers and their 100-slot queue.
+     */
     @Bean(name = "taskExecutor")
-    public Executor taskExecutor() {
+    public Executor taskExecutor(WorkerThreads workerThreads,
+                                 @Value("${async.virtual.max-concurrency:256}") int virtualMaxConcurrency) {
+        if (workerThreads.isVirtual()) {
+            return workerThreads.boundedExecutor("pmchat-async", virtualMaxConcurrency);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(2);
         executor.setMaxPoolSize(8);
@@ -19,4 +30,50 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * Runs agent work admitted by {@link com.chatapp.service.AgentTaskScheduler}, kept off
+     * {@code taskExecutor} so admitted runs never queue behind other {@code @Async} work
+     * while holding their slots. The slots already cap runs at
+     * {@code agent.scheduler.max-concurrent}, so there is one thread per slot plus one for
+     * the queue poll a wake-up triggers.
+     */
+    @Bean(name = "agentRunExecutor")
+    public Executor agentRunExecutor(WorkerThreads workerThreads, AgentSchedulerProperties properties) {
+        int threads = Math.max(1, properties.getMaxConcurrent()) + 1;
+        if (workerThreads.isVirtual()) {
+            // A task frees its slot just before its thread ends; the headroom covers that overlap.
+            return workerThreads.boundedExecutor("pmchat-agent-run", threads * 2);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        // Holds a run admitted into a slot whose previous thread has not returned to the pool yet.
+        executor.setQueueCapacity(threads);
+        executor.setThreadNamePrefix("pmchat-agent-run-");
+        // Let admitted runs finish (and post their replies) before the context closes.
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /** Runs read-only agent tool calls of one model turn in parallel. */
+    @Bean(name = "agentToolExecutor")
+    public Executor agentToolExecutor(WorkerThreads workerThreads,
+                                      @Value("${async.virtual.max-concurrency:256}") int virtualMaxConcurrency) {
+        if (workerThreads.isVirtual()) {
+            return workerThreads.boundedCallerRunsExecutor("pmchat-agent-tool", virtualMaxConcurrency);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(16);
+        executor.setQueueCapacity(64);
+        executor.setThreadNamePrefix("pmchat-agent-tool-");
+        // When saturated, the agent loop thread runs the tool itself instead of failing it.
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
 }
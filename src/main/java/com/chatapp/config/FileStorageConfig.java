@@ -101,6 +101,11 @@ public class FileStorageConfig {
      */
     private boolean decryptLegacyOnStartup = false;
 
+    /**
+     * Background rewrite of v1 single-shot encrypted uploads into the chunked v2 format.
+     */
+    private boolean chunkLegacyOnStartup = false;
+
     /**
      * Directory names skipped by the legacy encryption runner.
      */
@@ -111,6 +116,82 @@ public class FileStorageConfig {
      */
     private long streamingThresholdBytes = 1024 * 1024;
 
+    /**
+     * 解密后热点素材（头像、背景、贴纸）的内存缓存总字节数，0 表示关闭
+     */
+    private long hotAssetCacheBytes = 32 * 1024 * 1024;
+
+    /**
+     * 超过该大小的文件不进热点素材缓存
+     */
+    private long hotAssetMaxBytes = 512 * 1024;
+
+    /**
+     * 图片消息缩略图生成线程数
+     */
+    private int thumbnailWorkers = 2;
+
+    /**
+     * 缩略图任务队列长度，队列满时跳过，由定时补偿任务在队列空出后重新入队
+     */
+    private int thumbnailQueueCapacity = 256;
+
+    /**
+     * 补偿任务的执行间隔（毫秒），把队列满时跳过的图片重新放回缩略图队列
+     */
+    private long thumbnailCatchUpIntervalMs = 60 * 1000;
+
+    /**
+     * 启动后在后台为没有缩略图的历史图片消息补生成派生图
+     */
+    private boolean thumbnailBackfillOnStartup = false;
+
+    /**
+     * 内容相同的上传只保存一份密文，各自的文件名以硬链接指向它；文件系统不支持硬链接时退回逐个保存
+     */
+    private boolean dedupEnabled = true;
+
+    /**
+     * 按内容寻址的 blob 目录，需要和其他上传目录在同一文件系统上
+     */
+    private String blobDir = "blobs";
+
+    /**
+     * 不再被任何文件链接的 blob 至少闲置多少分钟才清理
+     */
+    private long blobSweepGraceMinutes = 60;
+
+    /**
+     * blob 清理任务的 cron 表达式
+     */
+    private String blobSweepCron = "0 15 4 * * *";
+
+    /**
+     * 断点续传的分片暂存目录，需要和聊天文件目录在同一文件系统上
+     */
+    private String uploadStagingDir = "upload-staging";
+
+    /**
+     * 断点续传会话闲置多少分钟后过期，过期的分片由定时任务清理
+     */
+    private long uploadSessionTtlMinutes = 24 * 60;
+
+    /**
+     * 每个用户同时进行的断点续传会话上限
+     */
+    private int maxUploadSessionsPerUser = 5;
+
+    /**
+     * 断点续传单个 PATCH 请求体的上限（字节）。整段校验通过后才加密落盘，所以会先读进内存；
+     * 不能小于 64KB 的加密分块，否则传不满一块就无法推进
+     */
+    private int maxUploadChunkBytes = 8 * 1024 * 1024;
+
+    /**
+     * 过期断点续传会话的清理间隔（毫秒）
+     */
+    private long uploadSweepIntervalMs = 10 * 60 * 1000;
+
     /**
      * 最大文件大小（字节）- 默认10MB
      */
@@ -184,6 +265,20 @@ public class FileStorageConfig {
         return resolveChildDir(getFullUploadDir(), backgroundDir);
     }
 
+    /**
+     * 获取完整的 blob 目录路径
+     */
+    public String getFullBlobDir() {
+        return resolveChildDir(getFullUploadDir(), blobDir);
+    }
+
+    /**
+     * 获取完整的断点续传暂存目录路径
+     */
+    public String getFullUploadStagingDir() {
+        return resolveChildDir(getFullUploadDir(), uploadStagingDir);
+    }
+
     private String resolveDir(String dir) {
         Path path = Paths.get(dir);
         return path.isAbsolute()
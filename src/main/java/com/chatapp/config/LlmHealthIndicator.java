@@ -1,21 +1,23 @@
 package com.chatapp.config;
 
-import lombok.RequiredArgsConstructor;
+import com.chatapp.service.OutboundHttpClients;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
 
 @Component("llm")
-@RequiredArgsConstructor
 public class LlmHealthIndicator implements HealthIndicator {
 
+    private final OkHttpClient probeClient;
+
     @Value("${llm.required:false}")
     private boolean required;
 
@@ -40,6 +42,20 @@ public class LlmHealthIndicator implements HealthIndicator {
     @Value("${llm.hermes.base-url:}")
     private String hermesBaseUrl;
 
+    public LlmHealthIndicator() {
+        this(OutboundHttpClients.standalone());
+    }
+
+    // Probes must see the real upstream state, so no circuit breaker or retries.
+    @Autowired
+    public LlmHealthIndicator(OutboundHttpClients httpClients) {
+        this.probeClient = httpClients.client("llm-health", OutboundHttpClients.Spec
+                .timeouts(Duration.ofMillis(1500), Duration.ofMillis(1500), Duration.ofMillis(1500))
+                .withMaxConcurrent(2)
+                .withCircuitBreaker(0, Duration.ZERO)
+                .withMaxRetries(0));
+    }
+
     @Override
     public Health health() {
         boolean openaiConfigured = hasText(openaiApiKey);
@@ -77,10 +93,6 @@ public class LlmHealthIndicator implements HealthIndicator {
     }
 
     private boolean probeOllama() {
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(1500, TimeUnit.MILLISECONDS)
-                .readTimeout(1500, TimeUnit.MILLISECONDS)
-                .build();
         String base = ollamaBaseUrl.replaceAll("/+$", "");
         Request.Builder requestBuilder = new Request.Builder()
                 .url(hasText(ollamaApiKey) ? base + "/v1/models" : base + "/api/tags")
@@ -89,7 +101,7 @@ public class LlmHealthIndicator implements HealthIndicator {
             requestBuilder.header("Authorization", "Bearer " + ollamaApiKey);
         }
         Request request = requestBuilder.build();
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = probeClient.newCall(request).execute()) {
             return response.isSuccessful();
         } catch (IOException e) {
             return false;
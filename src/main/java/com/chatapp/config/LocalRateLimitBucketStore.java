@@ -0,0 +1,140 @@
+package com.chatapp.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Refill;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-JVM bucket store with a hard entry cap and per-entry idle expiry.
+ *
+ * <p>A bucket is dropped once it has been idle for one full refill period: by then
+ * it would have refilled to capacity anyway, so eviction never hands a throttled
+ * client extra tokens. Beyond that, the size cap evicts least-recently-used buckets
+ * so an IP scan cannot grow the heap without limit.
+ *
+ * <p>Counters (login failures) live in their own cache that only expires at the end
+ * of each fixed window. Evicting one early would reset a lockout, so a flood of
+ * distinct keys must not be able to push them out. They grow only with failed
+ * logins, which the per-IP login limit already throttles.
+ */
+public class LocalRateLimitBucketStore implements RateLimitBucketStore {
+
+    public static final long DEFAULT_MAXIMUM_ENTRIES = 100_000;
+
+    private final Cache<String, BucketEntry> buckets;
+    private final Cache<String, WindowCounter> counters;
+
+    public LocalRateLimitBucketStore(long maximumEntries) {
+        this(maximumEntries, ForkJoinPool.commonPool(), Ticker.systemTicker());
+    }
+
+    LocalRateLimitBucketStore(long maximumEntries, Executor executor, Ticker ticker) {
+        long cap = maximumEntries > 0 ? maximumEntries : DEFAULT_MAXIMUM_ENTRIES;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(cap)
+                .expireAfter(new IdleExpiry())
+                .executor(executor)
+                .ticker(ticker)
+                .build();
+        this.counters = Caffeine.newBuilder()
+                .expireAfter(new WindowExpiry())
+                .executor(executor)
+                .ticker(ticker)
+                .build();
+    }
+
+    @Override
+    public boolean tryConsume(String key, long capacity, Duration refillPeriod) {
+        BucketEntry entry = buckets.get(key, k -> new BucketEntry(
+                Bucket.builder()
+                        .addLimit(Bandwidth.classic(capacity, Refill.greedy(capacity, refillPeriod)))
+                        .build(),
+                refillPeriod.toNanos()));
+        return entry.bucket.tryConsume(1);
+    }
+
+    @Override
+    public long incrementCounter(String key, Duration window) {
+        WindowCounter counter = counters.asMap().compute(key, (k, existing) -> {
+            if (existing == null) {
+                return new WindowCounter(window.toNanos());
+            }
+            existing.count.incrementAndGet();
+            return existing;
+        });
+        return counter.count.get();
+    }
+
+    @Override
+    public long getCounter(String key) {
+        WindowCounter counter = counters.getIfPresent(key);
+        return counter == null ? 0 : counter.count.get();
+    }
+
+    @Override
+    public void resetCounter(String key) {
+        counters.invalidate(key);
+    }
+
+    /** Approximate live bucket + counter count, after running pending maintenance. */
+    long estimatedSize() {
+        buckets.cleanUp();
+        counters.cleanUp();
+        return buckets.estimatedSize() + counters.estimatedSize();
+    }
+
+    private record BucketEntry(Bucket bucket, long refillNanos) {
+    }
+
+    private static final class WindowCounter {
+        private final long windowNanos;
+        private final AtomicLong count = new AtomicLong(1);
+
+        private WindowCounter(long windowNanos) {
+            this.windowNanos = windowNanos;
+        }
+    }
+
+    private static final class IdleExpiry implements Expiry<String, BucketEntry> {
+        @Override
+        public long expireAfterCreate(String key, BucketEntry value, long currentTime) {
+            return value.refillNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, BucketEntry value, long currentTime, long currentDuration) {
+            return value.refillNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String key, BucketEntry value, long currentTime, long currentDuration) {
+            return value.refillNanos;
+        }
+    }
+
+    private static final class WindowExpiry implements Expiry<String, WindowCounter> {
+        @Override
+        public long expireAfterCreate(String key, WindowCounter value, long currentTime) {
+            return value.windowNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, WindowCounter value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String key, WindowCounter value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.chatapp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shared outbound HTTP settings. Connection pool and dispatcher limits apply to
+ * every destination; {@link #destinations} overrides the per-destination
+ * defaults each caller declares (timeouts, bulkhead, circuit breaker, retries),
+ * keyed by destination name such as {@code llm-openai} or {@code web-search}.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "outbound-http")
+@Data
+public class OutboundHttpProperties {
+
+    private int maxIdleConnections = 32;
+    private long keepAliveSeconds = 300;
+    private int maxRequests = 256;
+    private int maxRequestsPerHost = 64;
+    private Map<String, Destination> destinations = new LinkedHashMap<>();
+
+    /** Unset fields keep the default declared by the calling service. */
+    @Data
+    public static class Destination {
+        private Long connectTimeoutMs;
+        private Long readTimeoutMs;
+        private Long writeTimeoutMs;
+        private Long callTimeoutMs;
+        private Integer maxConcurrent;
+        private Long acquireTimeoutMs;
+        private Integer failureThreshold;
+        private Long openDurationMs;
+        private Integer maxRetries;
+        private Double retryBudgetRatio;
+        private Long retryBackoffMs;
+    }
+}
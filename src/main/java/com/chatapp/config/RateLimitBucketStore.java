@@ -0,0 +1,34 @@
+package com.chatapp.config;
+
+import java.time.Duration;
+
+/**
+ * Backing store for every token bucket and failure counter the app keeps.
+ *
+ * <p>{@link RateLimitConfig} (HTTP filter + login lockout) and
+ * {@link com.chatapp.service.BotRateLimitService} (agent runs, web search) both
+ * resolve their limits through this interface instead of holding their own
+ * unbounded maps. {@link LocalRateLimitBucketStore} is the size-bounded,
+ * idle-expiring per-JVM tier; {@link RedisRateLimitBucketStore} shares limits
+ * across nodes and falls back to the local tier when Redis is unreachable.
+ */
+public interface RateLimitBucketStore {
+
+    /**
+     * Takes one token from the bucket identified by {@code key}, creating it full
+     * if absent. The bucket holds {@code capacity} tokens and refills greedily over
+     * {@code refillPeriod}.
+     */
+    boolean tryConsume(String key, long capacity, Duration refillPeriod);
+
+    /**
+     * Increments a fixed-window counter and returns the new value. The window starts
+     * at the first increment and the counter resets once {@code window} has elapsed.
+     */
+    long incrementCounter(String key, Duration window);
+
+    /** Current value of a fixed-window counter, or 0 if absent or expired. */
+    long getCounter(String key);
+
+    void resetCounter(String key);
+}
@@ -1,77 +1,58 @@
 package com.chatapp.config;
 
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Refill;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
 import java.util.Locale;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class RateLimitConfig {
 
+    private static final int LOGIN_LOCK_THRESHOLD = 50;
+    private static final Duration LOGIN_FAILURE_WINDOW = Duration.ofHours(24);
+
     @Value("${rate-limit.requests-per-minute:60}")
     private int requestsPerMinute;
 
     @Value("${rate-limit.auth-requests-per-minute:10}")
     private int authRequestsPerMinute;
 
-    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
-    private final Map<String, LoginFailureCounter> loginFailures = new ConcurrentHashMap<>();
+    private final RateLimitBucketStore store;
+
+    public RateLimitConfig(RateLimitBucketStore store) {
+        this.store = store;
+    }
 
-    public Bucket resolveBucket(String key) {
-        return buckets.computeIfAbsent(key, k -> createBucket(requestsPerMinute));
+    public boolean tryConsume(String key) {
+        return store.tryConsume("ip:" + key, requestsPerMinute, Duration.ofMinutes(1));
     }
 
-    public Bucket resolveAuthBucket(String key) {
-        return buckets.computeIfAbsent("auth:" + key, k -> createBucket(authRequestsPerMinute));
+    public boolean tryConsumeAuth(String key) {
+        return store.tryConsume("auth:" + key, authRequestsPerMinute, Duration.ofMinutes(1));
     }
 
-    public Bucket resolveSaltLookupBucket(String username) {
-        return buckets.computeIfAbsent("salt:" + normalizeUsername(username),
-                k -> Bucket.builder()
-                        .addLimit(Bandwidth.classic(30, Refill.greedy(30, Duration.ofHours(1))))
-                        .build());
+    public boolean tryConsumeSaltLookup(String username) {
+        return store.tryConsume("salt:" + normalizeUsername(username), 30, Duration.ofHours(1));
     }
 
     public boolean isLoginLocked(String username) {
-        LoginFailureCounter counter = loginFailures.get(normalizeUsername(username));
-        return counter != null && !counter.isExpired() && counter.failures >= 50;
+        return store.getCounter(loginFailureKey(username)) >= LOGIN_LOCK_THRESHOLD;
     }
 
     public void recordLoginFailure(String username) {
-        loginFailures.compute(normalizeUsername(username), (key, existing) -> {
-            LoginFailureCounter counter = existing == null || existing.isExpired()
-                    ? new LoginFailureCounter()
-                    : existing;
-            counter.failures++;
-            return counter;
-        });
+        store.incrementCounter(loginFailureKey(username), LOGIN_FAILURE_WINDOW);
     }
 
     public void resetLoginFailures(String username) {
-        loginFailures.remove(normalizeUsername(username));
+        store.resetCounter(loginFailureKey(username));
     }
 
-    private Bucket createBucket(int capacity) {
-        Bandwidth limit = Bandwidth.classic(capacity, Refill.greedy(capacity, Duration.ofMinutes(1)));
-        return Bucket.builder().addLimit(limit).build();
+    private String loginFailureKey(String username) {
+        return "login-fail:" + normalizeUsername(username);
     }
 
     private String normalizeUsername(String username) {
         return username == null ? "" : username.trim().toLowerCase(Locale.ROOT);
     }
-
-    private static final class LoginFailureCounter {
-        private int failures = 0;
-        private final long windowStartMs = System.currentTimeMillis();
-
-        private boolean isExpired() {
-            return System.currentTimeMillis() - windowStartMs > Duration.ofHours(24).toMillis();
-        }
-    }
 }
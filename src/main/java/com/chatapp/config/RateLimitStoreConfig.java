@@ -0,0 +1,36 @@
+package com.chatapp.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Locale;
+
+@Configuration
+@Slf4j
+public class RateLimitStoreConfig {
+
+    /**
+     * {@code rate-limit.store=local} (default) keeps buckets per JVM;
+     * {@code redis} shares them across nodes with the local tier as fallback.
+     */
+    @Bean
+    public RateLimitBucketStore rateLimitBucketStore(
+            @Value("${rate-limit.store:local}") String store,
+            @Value("${rate-limit.local-max-entries:100000}") long localMaxEntries,
+            ObjectProvider<StringRedisTemplate> redisTemplateProvider) {
+        LocalRateLimitBucketStore local = new LocalRateLimitBucketStore(localMaxEntries);
+        if (!"redis".equals(store == null ? "" : store.trim().toLowerCase(Locale.ROOT))) {
+            return local;
+        }
+        StringRedisTemplate redisTemplate = redisTemplateProvider.getIfAvailable();
+        if (redisTemplate == null) {
+            log.warn("rate-limit.store=redis but no StringRedisTemplate is configured; using per-node buckets");
+            return local;
+        }
+        return new RedisRateLimitBucketStore(redisTemplate, local);
+    }
+}
@@ -0,0 +1,125 @@
+package com.chatapp.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cluster-wide bucket store: every node consumes from the same Redis-held bucket,
+ * so a limit of N/min is N/min for the deployment rather than per JVM.
+ *
+ * <p>Each bucket is one hash ({@code tokens}, {@code ts}) refilled and debited in a
+ * single Lua script using the Redis server clock, so nodes with skewed clocks still
+ * agree. Keys carry a PEXPIRE of one refill period, which is when an idle bucket
+ * would be full again. If Redis errors, calls fall through to the local tier (same
+ * fail-open-to-memory approach as {@code AnonymousRerollQuotaService}).
+ */
+@Slf4j
+public class RedisRateLimitBucketStore implements RateLimitBucketStore {
+
+    static final String KEY_PREFIX = "ratelimit:";
+
+    private static final RedisScript<Long> TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>("""
+            local capacity = tonumber(ARGV[1])
+            local period_ms = tonumber(ARGV[2])
+            local t = redis.call('TIME')
+            local now_ms = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+            local data = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+            local tokens = tonumber(data[1])
+            local ts = tonumber(data[2])
+            if tokens == nil or ts == nil then
+              tokens = capacity
+              ts = now_ms
+            end
+            local elapsed = math.max(0, now_ms - ts)
+            tokens = math.min(capacity, tokens + (elapsed * capacity / period_ms))
+            local allowed = 0
+            if tokens >= 1 then
+              tokens = tokens - 1
+              allowed = 1
+            end
+            redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now_ms))
+            redis.call('PEXPIRE', KEYS[1], period_ms)
+            return allowed
+            """, Long.class);
+
+    private static final RedisScript<Long> WINDOW_COUNTER_SCRIPT = new DefaultRedisScript<>("""
+            local count = redis.call('INCR', KEYS[1])
+            if count == 1 then
+              redis.call('PEXPIRE', KEYS[1], tonumber(ARGV[1]))
+            end
+            return count
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RateLimitBucketStore fallback;
+    private final AtomicBoolean fallbackWarned = new AtomicBoolean(false);
+
+    public RedisRateLimitBucketStore(StringRedisTemplate redisTemplate, RateLimitBucketStore fallback) {
+        this.redisTemplate = redisTemplate;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public boolean tryConsume(String key, long capacity, Duration refillPeriod) {
+        try {
+            Long allowed = redisTemplate.execute(TOKEN_BUCKET_SCRIPT, List.of(KEY_PREFIX + "b:" + key),
+                    Long.toString(capacity), Long.toString(Math.max(1, refillPeriod.toMillis())));
+            if (allowed == null) {
+                throw new IllegalStateException("Redis token bucket script returned null");
+            }
+            return allowed == 1L;
+        } catch (RuntimeException ex) {
+            warnFallback(ex);
+            return fallback.tryConsume(key, capacity, refillPeriod);
+        }
+    }
+
+    @Override
+    public long incrementCounter(String key, Duration window) {
+        try {
+            Long count = redisTemplate.execute(WINDOW_COUNTER_SCRIPT, List.of(KEY_PREFIX + "c:" + key),
+                    Long.toString(Math.max(1, window.toMillis())));
+            if (count == null) {
+                throw new IllegalStateException("Redis counter script returned null");
+            }
+            return count;
+        } catch (RuntimeException ex) {
+            warnFallback(ex);
+            return fallback.incrementCounter(key, window);
+        }
+    }
+
+    @Override
+    public long getCounter(String key) {
+        try {
+            String value = redisTemplate.opsForValue().get(KEY_PREFIX + "c:" + key);
+            return value == null || value.isBlank() ? 0 : Long.parseLong(value);
+        } catch (RuntimeException ex) {
+            warnFallback(ex);
+            return fallback.getCounter(key);
+        }
+    }
+
+    @Override
+    public void resetCounter(String key) {
+        try {
+            redisTemplate.delete(KEY_PREFIX + "c:" + key);
+        } catch (RuntimeException ex) {
+            warnFallback(ex);
+        }
+        fallback.resetCounter(key);
+    }
+
+    private void warnFallback(RuntimeException ex) {
+        if (fallbackWarned.compareAndSet(false, true)) {
+            log.warn("Redis unavailable for rate limiting; falling back to per-node buckets: {}",
+                    ex.getMessage());
+        }
+    }
+}
@@ -61,9 +61,12 @@ public class SecurityConfig {
         CorsConfiguration configuration = new CorsConfiguration();
         List<String> origins = Arrays.asList(allowedOrigins.split(","));
         configuration.setAllowedOriginPatterns(origins);
-        configuration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS"));
-        configuration.setAllowedHeaders(Arrays.asList("Authorization", "Content-Type", "X-Requested-With", "X-Publish-Token"));
-        configuration.setExposedHeaders(Arrays.asList("Authorization"));
+        configuration.setAllowedMethods(Arrays.asList("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS"));
+        // Upload-* and Tus-Resumable carry the resumable upload protocol (/api/v1/uploads).
+        configuration.setAllowedHeaders(Arrays.asList("Authorization", "Content-Type", "X-Requested-With", "X-Publish-Token",
+                "Upload-Offset", "Upload-Checksum", "Tus-Resumable"));
+        configuration.setExposedHeaders(Arrays.asList("Authorization", "Location", "Upload-Offset", "Upload-Length",
+                "Upload-Expires", "Tus-Resumable"));
         configuration.setAllowCredentials(true);
         configuration.setMaxAge(3600L);
 
@@ -0,0 +1,98 @@
+package com.chatapp.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks platform or virtual threads for the app's own workers. With
+ * {@code spring.threads.virtual.enabled=true} on Java 21 (build with {@code -Pjava21}),
+ * Spring Boot moves Tomcat request handling to virtual threads and the executors built
+ * from here follow. On Java 17 the flag has no effect and every worker stays a platform
+ * thread.
+ */
+@Component
+public class WorkerThreads {
+
+    private final boolean virtual;
+
+    @Autowired
+    public WorkerThreads(Environment environment) {
+        this(Threading.VIRTUAL.isActive(environment));
+    }
+
+    WorkerThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    /** Platform threads, for callers constructed outside Spring. */
+    public static WorkerThreads platform() {
+        return new WorkerThreads(false);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** Named daemon platform threads, or virtual threads named {@code name-N}. */
+    public ThreadFactory threadFactory(String name) {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor(name + "-").getVirtualThreadFactory();
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One new thread per task, at most {@code maxConcurrency} running at once. Beyond that
+     * it throws {@link RejectedExecutionException} like a full pool rather than making the
+     * submitter wait, since several callers submit while holding a monitor.
+     */
+    public Executor boundedExecutor(String name, int maxConcurrency) {
+        ThreadFactory threads = threadFactory(name);
+        Semaphore permits = new Semaphore(Math.max(1, maxConcurrency));
+        return task -> {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException(name + " is at " + maxConcurrency + " running tasks");
+            }
+            try {
+                threads.newThread(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }).start();
+            } catch (RuntimeException | Error e) {
+                permits.release();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Like {@link #boundedExecutor}, but past the limit the submitting thread runs the
+     * task itself, matching {@code CallerRunsPolicy} on the platform pools. For callers
+     * that must not see a rejection and are not holding a monitor.
+     */
+    public Executor boundedCallerRunsExecutor(String name, int maxConcurrency) {
+        Executor bounded = boundedExecutor(name, maxConcurrency);
+        return task -> {
+            try {
+                bounded.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        };
+    }
+}
@@ -7,7 +7,6 @@ import com.chatapp.entity.AgentTask;
 import com.chatapp.service.AgentWorkflowService;
 import com.chatapp.service.AuditLogService;
 import com.chatapp.service.UserService;
-import com.chatapp.websocket.RawWebSocketHandler;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -27,7 +26,6 @@ public class AgentTaskController {
 
     private final AgentWorkflowService agentWorkflowService;
     private final UserService userService;
-    private final RawWebSocketHandler rawWebSocketHandler;
     private final AuditLogService auditLogService;
 
     @PostMapping
@@ -36,10 +34,8 @@ public class AgentTaskController {
             @RequestBody AgentTaskDto.CreateRequest request,
             Authentication auth) {
         UserDto currentUser = userService.findByUsername(auth.getName());
-        AgentTask task = agentWorkflowService.createAndRun(currentUser.getId(), request);
-        if (task.getResultMessage() != null) {
-            rawWebSocketHandler.broadcastMessageExcept(task.getResultMessage(), currentUser.getId());
-        }
+        // Runs asynchronously; the result message reaches the room over the websocket.
+        AgentTask task = agentWorkflowService.enqueue(currentUser.getId(), request);
         auditLogService.record(
                 task.getRequestedBy(),
                 "AGENT_TASK_RUN",
@@ -47,7 +43,7 @@ public class AgentTaskController {
                 task.getId(),
                 request.getChatRoomId(),
                 task.getStatus().name());
-        return ResponseEntity.ok(ApiResponse.success("Agent 任务已执行", AgentTaskDto.fromEntity(task)));
+        return ResponseEntity.ok(ApiResponse.success("Agent 任务已提交", AgentTaskDto.fromEntity(task)));
     }
 
     @GetMapping
@@ -8,8 +8,11 @@ import com.chatapp.service.AuditLogService;
 import com.chatapp.service.FileStorageService;
 import com.chatapp.service.UserService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -17,6 +20,8 @@ import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -38,18 +43,11 @@ public class FileController {
      * 获取头像文件
      */
     @GetMapping("/avatar/{fileName}")
-    public ResponseEntity<ByteArrayResource> getAvatar(@PathVariable String fileName) {
+    public ResponseEntity<Resource> getAvatar(
+            @PathVariable String fileName,
+            @RequestHeader HttpHeaders headers) {
         try {
-            byte[] fileData = fileStorageService.getFile("avatar", fileName);
-            ByteArrayResource resource = new ByteArrayResource(fileData);
-            
-            // 确定文件类型
-            String contentType = getContentType(fileName);
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"")
-                    .body(resource);
+            return streamFile("avatar", fileName, "inline", headers, CachePolicy.PUBLIC_ASSET);
         } catch (IOException e) {
             return ResponseEntity.notFound().build();
         }
@@ -59,15 +57,11 @@ public class FileController {
      * 获取聊天背景文件。背景属于展示素材，和头像一样允许浏览器直接加载。
      */
     @GetMapping("/background/{fileName}")
-    public ResponseEntity<ByteArrayResource> getBackground(@PathVariable String fileName) {
+    public ResponseEntity<Resource> getBackground(
+            @PathVariable String fileName,
+            @RequestHeader HttpHeaders headers) {
         try {
-            byte[] fileData = fileStorageService.getFile("background", fileName);
-            ByteArrayResource resource = new ByteArrayResource(fileData);
-            String contentType = getContentType(fileName);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"")
-                    .body(resource);
+            return streamFile("background", fileName, "inline", headers, CachePolicy.PUBLIC_ASSET);
         } catch (IOException e) {
             return ResponseEntity.notFound().build();
         }
@@ -77,23 +71,26 @@ public class FileController {
      * 获取聊天文件
      */
     @GetMapping("/chat/{fileName}")
-    public ResponseEntity<ByteArrayResource> getChatFile(
+    public ResponseEntity<Resource> getChatFile(
             @PathVariable String fileName,
+            @RequestHeader HttpHeaders headers,
             Authentication auth) {
-        return getMessageScopedFile(fileName, "/api/files/chat/" + fileName, "chat", auth);
+        return getMessageScopedFile(fileName, "/api/files/chat/" + fileName, "chat", headers, auth);
     }
 
     @GetMapping("/image-gen/{fileName}")
-    public ResponseEntity<ByteArrayResource> getGeneratedImage(
+    public ResponseEntity<Resource> getGeneratedImage(
             @PathVariable String fileName,
+            @RequestHeader HttpHeaders headers,
             Authentication auth) {
-        return getMessageScopedFile(fileName, "/api/files/image-gen/" + fileName, "image-gen", auth);
+        return getMessageScopedFile(fileName, "/api/files/image-gen/" + fileName, "image-gen", headers, auth);
     }
 
-    private ResponseEntity<ByteArrayResource> getMessageScopedFile(
+    private ResponseEntity<Resource> getMessageScopedFile(
             String fileName,
             String fileUrl,
             String storageType,
+            HttpHeaders headers,
             Authentication auth) {
         try {
             if (auth == null || auth.getName() == null) {
@@ -101,6 +98,12 @@ public class FileController {
             }
             User currentUser = userService.findUserByUsername(auth.getName());
             Optional<Message> message = messageRepository.findFirstByFileUrlAndIsDeletedFalse(fileUrl);
+            // 缩略图、预览图跟随所属消息鉴权。
+            boolean derivative = message.isEmpty();
+            if (derivative) {
+                message = messageRepository.findFirstByThumbnailUrlAndIsDeletedFalse(fileUrl)
+                        .or(() -> messageRepository.findFirstByPreviewUrlAndIsDeletedFalse(fileUrl));
+            }
             if (message.isEmpty()) {
                 return ResponseEntity.notFound().build();
             }
@@ -109,28 +112,186 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
 
-            byte[] fileData = fileStorageService.getFile(storageType, fileName);
-            ByteArrayResource resource = new ByteArrayResource(fileData);
-            auditLogService.record(
-                    currentUser,
-                    "FILE_DOWNLOAD",
-                    "MESSAGE",
-                    message.get().getId(),
-                    roomId,
-                    fileName);
-            
-            // 确定文件类型
-            String contentType = getContentType(fileName);
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
+            CachePolicy policy = message.get().getStickerId() != null
+                    ? CachePolicy.STICKER
+                    : CachePolicy.PRIVATE_FILE;
+            ResponseEntity<Resource> response = streamFile(storageType, fileName, "attachment", headers, policy);
+            // 视频拖动会发出很多 Range 请求，只在从头读取时记一次下载；304 不算下载。
+            if (!derivative && response.getStatusCode().is2xx() && startsAtZero(response)) {
+                auditLogService.record(
+                        currentUser,
+                        "FILE_DOWNLOAD",
+                        "MESSAGE",
+                        message.get().getId(),
+                        roomId,
+                        fileName);
+            }
+            return response;
         } catch (IOException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    /**
+     * 边解密边写出响应，内存占用与文件大小无关。流由消息转换器写完后关闭。
+     * ETag 取自存储时记录的内容哈希，If-None-Match / If-Modified-Since 命中时直接返回 304，不解密。
+     * 带 Range 时返回 206 和对应区间；多个区间合并成一个覆盖区间返回；If-Range 不匹配时返回整个文件。
+     */
+    private ResponseEntity<Resource> streamFile(
+            String storageType,
+            String fileName,
+            String disposition,
+            HttpHeaders headers,
+            CachePolicy policy) throws IOException {
+        FileStorageService.FileVersion version = fileStorageService.fileVersion(storageType, fileName);
+        String etag = "\"" + version.tag() + "\"";
+        if (notModified(headers, etag, version.lastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .lastModified(version.lastModified())
+                    .cacheControl(policy.cacheControl)
+                    .build();
+        }
+        long size = fileStorageService.fileSize(storageType, fileName);
+        String range = rangeIfCurrent(headers, etag, version.lastModified());
+        if (range == null || range.isBlank()) {
+            return fileResponse(HttpStatus.OK, fileName, disposition, etag, version, policy)
+                    .contentLength(size)
+                    .body(new DownloadResource(open(storageType, fileName, 0, size, policy)));
+        }
+        long start;
+        long end;
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(range);
+            if (ranges.isEmpty()) {
+                throw new IllegalArgumentException("empty range");
+            }
+            start = Long.MAX_VALUE;
+            end = -1;
+            for (HttpRange httpRange : ranges) {
+                start = Math.min(start, httpRange.getRangeStart(size));
+                end = Math.max(end, httpRange.getRangeEnd(size));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
+        }
+        long length = end - start + 1;
+        return fileResponse(HttpStatus.PARTIAL_CONTENT, fileName, disposition, etag, version, policy)
+                .contentLength(length)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+                .body(new DownloadResource(open(storageType, fileName, start, length, policy)));
+    }
+
+    private FileStorageService.FileDownload open(
+            String storageType,
+            String fileName,
+            long start,
+            long length,
+            CachePolicy policy) throws IOException {
+        return policy.hot
+                ? fileStorageService.openHotAsset(storageType, fileName, start, length)
+                : fileStorageService.openFile(storageType, fileName, start, length);
+    }
+
+    private ResponseEntity.BodyBuilder fileResponse(
+            HttpStatus status,
+            String fileName,
+            String disposition,
+            String etag,
+            FileStorageService.FileVersion version,
+            CachePolicy policy) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.parseMediaType(getContentType(fileName)))
+                .eTag(etag)
+                .lastModified(version.lastModified())
+                .cacheControl(policy.cacheControl)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + fileName + "\"");
+    }
+
+    /**
+     * If-None-Match 优先于 If-Modified-Since；If-None-Match 按弱比较匹配。
+     */
+    private boolean notModified(HttpHeaders headers, String etag, long lastModified) {
+        try {
+            List<String> ifNoneMatch = headers.getIfNoneMatch();
+            if (!ifNoneMatch.isEmpty()) {
+                return ifNoneMatch.stream().anyMatch(tag -> "*".equals(tag) || etag.equals(stripWeak(tag)));
+            }
+            long ifModifiedSince = headers.getIfModifiedSince();
+            return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * If-Range 要求强匹配：ETag 相同或 Last-Modified 精确相同才按 Range 返回，否则忽略 Range。
+     */
+    private String rangeIfCurrent(HttpHeaders headers, String etag, long lastModified) {
+        String range = headers.getFirst(HttpHeaders.RANGE);
+        String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+        if (range == null || ifRange == null || ifRange.isBlank()) {
+            return range;
+        }
+        String validator = ifRange.trim();
+        if (validator.startsWith("\"") || validator.startsWith("W/")) {
+            return etag.equals(validator) ? range : null;
+        }
+        try {
+            return headers.getFirstDate(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000 ? range : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private boolean startsAtZero(ResponseEntity<Resource> response) {
+        String contentRange = response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE);
+        return contentRange == null || contentRange.startsWith("bytes 0-");
+    }
+
+    /**
+     * 缓存策略。文件名是上传时生成的 UUID，同一 URL 的内容不会变化：
+     * 公共素材和贴纸可以长期缓存；普通聊天文件每次都回源校验，
+     * 这样成员资格、撤回和阅后即焚仍然生效，只是命中时返回 304 而不是整个文件。
+     */
+    private enum CachePolicy {
+        PUBLIC_ASSET(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable(), true),
+        STICKER(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable(), true),
+        PRIVATE_FILE(CacheControl.noCache().cachePrivate(), false);
+
+        private final CacheControl cacheControl;
+        private final boolean hot;
+
+        CachePolicy(CacheControl cacheControl, boolean hot) {
+            this.cacheControl = cacheControl;
+            this.hot = hot;
+        }
+    }
+
+    /**
+     * 已知长度的流式资源：覆盖 contentLength，避免为计算长度把流读完。
+     */
+    private static final class DownloadResource extends InputStreamResource {
+        private final long size;
+
+        private DownloadResource(FileStorageService.FileDownload download) {
+            super(download.stream());
+            this.size = download.size();
+        }
+
+        @Override
+        public long contentLength() {
+            return size;
+        }
+    }
+
     /**
      * 根据文件名确定内容类型
      */
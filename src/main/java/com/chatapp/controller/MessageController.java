@@ -3,12 +3,15 @@ package com.chatapp.controller;
 import com.chatapp.dto.MessageDto;
 import com.chatapp.entity.Message;
 import com.chatapp.entity.User;
+import com.chatapp.exception.UploadSessionException;
 import com.chatapp.service.AuditLogService;
 import com.chatapp.service.BotService;
 import com.chatapp.service.BotReplyDeliveryService;
 import com.chatapp.service.FileStorageService;
+import com.chatapp.service.ImageDerivativeService;
 import com.chatapp.service.MessageService;
 import com.chatapp.service.MessageReactionService;
+import com.chatapp.service.ResumableUploadService;
 import com.chatapp.service.UserService;
 import com.chatapp.websocket.RawWebSocketHandler;
 import lombok.RequiredArgsConstructor;
@@ -44,6 +47,8 @@ public class MessageController {
     private final BotReplyDeliveryService botReplyDeliveryService;
     private final AuditLogService auditLogService;
     private final MessageReactionService messageReactionService;
+    private final ImageDerivativeService imageDerivativeService;
+    private final ResumableUploadService resumableUploadService;
 
     /**
      * 发送文本消息
@@ -115,49 +120,89 @@ public class MessageController {
             User currentUser = userService.findUserByUsername(auth.getName());
             messageService.validateCanSendMessage(currentUser.getId(), chatRoomId);
             String fileUrl = fileStorageService.uploadChatFile(file);
-            String fileName = file.getOriginalFilename();
-            if (fileName == null || fileName.isBlank()) {
-                fileName = "file";
-            }
-            String contentType = file.getContentType();
+            Message message = persistAttachment(currentUser, chatRoomId, file.getOriginalFilename(), fileUrl,
+                    file.getContentType(), file.getSize(), requestedMessageType, encryptedContent, encryptionVersion);
+            return ResponseEntity.ok(publishAttachment(currentUser, chatRoomId, message));
+        } catch (Exception e) {
+            log.error("发送文件消息失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 用断点续传上传完的文件发送文件消息，见 {@link UploadController}。
+     * 消息保存成功后才删除上传会话；保存失败时会话保留，客户端可以直接重试，不用重新上传。
+     */
+    @PostMapping("/file/resumable/{uploadId}")
+    public ResponseEntity<?> sendResumableFileMessage(
+            @PathVariable String uploadId,
+            @RequestParam("chatRoomId") Long chatRoomId,
+            @RequestParam(value = "messageType", required = false) Message.MessageType requestedMessageType,
+            @RequestParam(value = "encryptedContent", required = false) String encryptedContent,
+            @RequestParam(value = "encryptionVersion", required = false) Integer encryptionVersion,
+            Authentication auth) {
+        try {
+            User currentUser = userService.findUserByUsername(auth.getName());
+            messageService.validateCanSendMessage(currentUser.getId(), chatRoomId);
+            Message message = resumableUploadService.complete(currentUser.getId(), uploadId,
+                    upload -> persistAttachment(currentUser, chatRoomId, upload.fileName(), upload.fileUrl(),
+                            upload.contentType(), upload.size(), requestedMessageType, encryptedContent,
+                            encryptionVersion));
+            return ResponseEntity.ok(publishAttachment(currentUser, chatRoomId, message));
+        } catch (UploadSessionException e) {
+            return ResponseEntity.status(e.getStatus()).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("发送断点续传文件消息失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
 
+    private Message persistAttachment(User currentUser, Long chatRoomId, String fileName, String fileUrl,
+                                      String contentType, long size, Message.MessageType requestedMessageType,
+                                      String encryptedContent, Integer encryptionVersion) {
+        if (fileName == null || fileName.isBlank()) {
+            fileName = "file";
+        }
+        try {
             Message.MessageType messageType = requestedMessageType != null
                     ? normalizeAttachmentMessageType(requestedMessageType)
                     : inferAttachmentMessageType(fileName, contentType);
-            
-            Message message = messageService.sendFileMessage(
+            return messageService.sendFileMessage(
                 currentUser.getId(),
                 chatRoomId,
                 fileName,
                 fileUrl,
                 contentType,
-                file.getSize(),
+                size,
                 messageType,
                 encryptedContent,
                 encryptionVersion
             );
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("message", "文件消息发送成功");
-            response.put("data", MessageDto.fromEntity(message));
-
-            rawWebSocketHandler.broadcastMessageExcept(message, currentUser.getId());
-            auditLogService.record(
-                    currentUser,
-                    "FILE_SEND",
-                    "MESSAGE",
-                    message.getId(),
-                    chatRoomId,
-                    fileName);
-            processBotsAndBroadcast(message, currentUser.getId());
-            
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            log.error("发送文件消息失败: {}", e.getMessage());
-            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (RuntimeException e) {
+            // 消息没保存下来，删掉这次放进聊天目录的文件，以免成为孤儿文件
+            fileStorageService.deleteFile(fileUrl);
+            throw e;
         }
     }
 
+    private Map<String, Object> publishAttachment(User currentUser, Long chatRoomId, Message message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "文件消息发送成功");
+        response.put("data", MessageDto.fromEntity(message));
+
+        rawWebSocketHandler.broadcastMessageExcept(message, currentUser.getId());
+        auditLogService.record(
+                currentUser,
+                "FILE_SEND",
+                "MESSAGE",
+                message.getId(),
+                chatRoomId,
+                message.getFileName());
+        imageDerivativeService.schedule(message);
+        processBotsAndBroadcast(message, currentUser.getId());
+        return response;
+    }
+
     /**
      * 回复消息
      */
@@ -749,7 +794,9 @@ public class MessageController {
                 message.getChatRoom().getId(),
                 message.getContent(),
                 senderId,
-                message);
+                message,
+                rawWebSocketHandler::broadcastBotMessageDelta,
+                replies -> botReplyDeliveryService.deliver(replies, rawWebSocketHandler::broadcastMessage));
         botReplyDeliveryService.deliver(
                 botMessages,
                 rawWebSocketHandler::broadcastMessage);
@@ -0,0 +1,126 @@
+package com.chatapp.controller;
+
+import com.chatapp.dto.ApiResponse;
+import com.chatapp.dto.UserDto;
+import com.chatapp.service.ResumableUploadService;
+import com.chatapp.service.UserService;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 断点续传接口，协议参照 tus 1.0：POST 创建会话，HEAD 查询服务端已确认的偏移量，
+ * PATCH 从该偏移量追加一段（Content-Type: application/offset+octet-stream，
+ * Upload-Checksum 必填），DELETE 放弃上传。传完后调用
+ * POST /api/v1/messages/file/resumable/{uploadId} 发送文件消息。
+ *
+ * 每次 PATCH 不超过 maxChunkSize，最好是 chunkSize 的整数倍；多出的不足一块的尾巴
+ * 不会保存，按返回的 Upload-Offset 续传即可。返回 410 表示会话已失效，需要重新上传。
+ */
+@RestController
+@RequestMapping("/api/v1/uploads")
+@RequiredArgsConstructor
+public class UploadController {
+
+    private static final String TUS_RESUMABLE = "1.0.0";
+    private static final String OFFSET_OCTET_STREAM = "application/offset+octet-stream";
+
+    private final ResumableUploadService resumableUploadService;
+    private final UserService userService;
+
+    @PostMapping
+    public ResponseEntity<ApiResponse<Map<String, Object>>> createUpload(
+            @Valid @RequestBody CreateUploadRequest request,
+            Authentication auth) throws IOException {
+        UserDto currentUser = userService.findByUsername(auth.getName());
+        ResumableUploadService.UploadSession session = resumableUploadService.create(
+                currentUser.getId(), request.getFileName(), request.getContentType(), request.getSize());
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("uploadId", session.id());
+        data.put("offset", session.offset());
+        data.put("size", session.size());
+        data.put("chunkSize", session.vault().chunkSize());
+        data.put("maxChunkSize", resumableUploadService.maxChunkBytes());
+        data.put("expiresAt", Instant.ofEpochMilli(session.expiresAt()).toString());
+        return ResponseEntity.created(URI.create("/api/v1/uploads/" + session.id()))
+                .headers(uploadHeaders(session))
+                .body(ApiResponse.success("上传会话已创建", data));
+    }
+
+    @RequestMapping(value = "/{uploadId}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> uploadOffset(@PathVariable String uploadId, Authentication auth) {
+        UserDto currentUser = userService.findByUsername(auth.getName());
+        ResumableUploadService.UploadSession session = resumableUploadService.get(currentUser.getId(), uploadId);
+        return ResponseEntity.ok()
+                .headers(uploadHeaders(session))
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .build();
+    }
+
+    @PatchMapping(value = "/{uploadId}", consumes = OFFSET_OCTET_STREAM)
+    public ResponseEntity<Void> appendChunk(
+            @PathVariable String uploadId,
+            @RequestHeader("Upload-Offset") long offset,
+            @RequestHeader(value = "Upload-Checksum", required = false) String checksum,
+            InputStream body,
+            Authentication auth) throws IOException {
+        UserDto currentUser = userService.findByUsername(auth.getName());
+        ResumableUploadService.UploadSession session = resumableUploadService.append(
+                currentUser.getId(), uploadId, offset, checksum, body);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT)
+                .headers(uploadHeaders(session))
+                .build();
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> terminateUpload(@PathVariable String uploadId, Authentication auth)
+            throws IOException {
+        UserDto currentUser = userService.findByUsername(auth.getName());
+        resumableUploadService.terminate(currentUser.getId(), uploadId);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT)
+                .header("Tus-Resumable", TUS_RESUMABLE)
+                .build();
+    }
+
+    private static HttpHeaders uploadHeaders(ResumableUploadService.UploadSession session) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Tus-Resumable", TUS_RESUMABLE);
+        headers.set("Upload-Offset", Long.toString(session.offset()));
+        headers.set("Upload-Length", Long.toString(session.size()));
+        headers.set("Upload-Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(session.expiresAt()).atOffset(ZoneOffset.UTC)));
+        return headers;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CreateUploadRequest {
+        @NotBlank
+        private String fileName;
+        private String contentType;
+        @NotNull
+        @Positive
+        private Long size;
+    }
+}
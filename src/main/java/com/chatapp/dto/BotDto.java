@@ -53,6 +53,7 @@ public class BotDto {
     private String roomNickname;
     private String roomPromptSuffix;
     private Boolean enabledInRoom;
+    private Integer coalesceWindowMs;
     private Boolean hasCharacterCard;
     private String characterPersona;
     private String characterScenario;
@@ -160,6 +161,8 @@ public class BotDto {
         private String roomNickname;
         private String roomPromptSuffix;
         private Boolean enabledInRoom;
+        /** Debounce window for trigger bursts; 0 disables it, null keeps the server default. */
+        private Integer coalesceWindowMs;
     }
 
     @Data
@@ -170,6 +173,12 @@ public class BotDto {
         private String toolCallId;
         private String name;
         private List<ToolCall> toolCalls;
+        /**
+         * Length of the leading part of a system message's text that is identical
+         * across turns. Providers with explicit prompt caching (Claude) place a cache
+         * breakpoint after it; null means no breakpoint.
+         */
+        private Integer cacheablePrefixLength;
 
         public ChatMessage(String role, String content) {
             this.role = role;
@@ -197,6 +206,14 @@ public class BotDto {
             this.toolCalls = toolCalls;
         }
 
+        public static ChatMessage systemWithCacheablePrefix(String stablePrefix, String volatileSuffix) {
+            ChatMessage message = new ChatMessage("system", stablePrefix + volatileSuffix);
+            if (!stablePrefix.isEmpty()) {
+                message.setCacheablePrefixLength(stablePrefix.length());
+            }
+            return message;
+        }
+
         public static ChatMessage userWithImages(String text, List<ImageAttachment> attachments) {
             if (attachments == null || attachments.isEmpty()) {
                 return new ChatMessage("user", text);
@@ -304,6 +321,26 @@ public class BotDto {
         private String argumentsJson;
     }
 
+    /**
+     * One {@code bot_message_delta} WebSocket frame: a slice of a bot reply that is
+     * still being generated. The final frame has {@code done=true} and lists the ids
+     * of the persisted messages that replace the streamed bubble.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class StreamDelta {
+        private Long chatRoomId;
+        private String streamId;
+        private Long botConfigId;
+        private String botDisplayName;
+        private Integer seq;
+        private String delta;
+        private Boolean done;
+        private List<Long> messageIds;
+    }
+
     @Data
     @NoArgsConstructor
     public static class LLMResponse {
@@ -311,6 +348,8 @@ public class BotDto {
         private Integer tokensUsed;
         private String model;
         private List<ToolCall> toolCalls;
+        /** Prompt tokens served from the provider's prompt cache, when reported. */
+        private Integer cachedTokens;
 
         public LLMResponse(String content, Integer tokensUsed, String model) {
             this.content = content;
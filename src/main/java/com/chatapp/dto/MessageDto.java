@@ -43,6 +43,8 @@ public class MessageDto {
     private Long fileSize;
     private String fileType;
     private String thumbnailUrl;
+    private String previewUrl;
+    private String blurHash;
     private UrlPreviewDto linkPreview;
     private Long stickerId;
     private Long pollId;
@@ -127,6 +129,10 @@ public class MessageDto {
         dto.setFileSize(message.getFileSize());
         dto.setFileType(message.getFileType());
         dto.setThumbnailUrl(message.getThumbnailUrl());
+        dto.setPreviewUrl(message.getPreviewUrl());
+        // An empty blur hash only marks an image that could not be rendered.
+        dto.setBlurHash(message.getBlurHash() == null || message.getBlurHash().isEmpty()
+                ? null : message.getBlurHash());
         dto.setLinkPreview(parseLinkPreview(message.getLinkPreviewJson()));
         dto.setStickerId(message.getStickerId());
         dto.setPollId(message.getPollId());
@@ -85,6 +85,21 @@ public class AgentTask {
     @Column(name = "completed_at")
     private LocalDateTime completedAt;
 
+    /** Times the queue has claimed this task; abandoned runs are retried up to a limit. */
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    /** Node holding the task while RUNNING, renewed by its heartbeat. */
+    @Column(name = "lease_owner", length = 64)
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    /** Earliest time a PENDING task may be claimed (retry backoff); null = now. */
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
     public enum Status {
         PENDING,
         RUNNING,
@@ -45,6 +45,10 @@ public class ChatRoomBot {
     @Column(name = "enabled_in_room")
     private Boolean enabledInRoom = true;
 
+    // Burst triggers within this window collapse into one run; null = default for the trigger mode.
+    @Column(name = "coalesce_window_ms")
+    private Integer coalesceWindowMs;
+
     @Column(name = "is_active")
     private Boolean isActive = true;
 
@@ -91,6 +91,12 @@ public class Message {
     @Column(name = "thumbnail_url")
     private String thumbnailUrl;
 
+    @Column(name = "preview_url")
+    private String previewUrl; // 图片查看器用的中等尺寸派生图
+
+    @Column(name = "blur_hash", length = 64)
+    private String blurHash; // 缩略图加载前的模糊占位；空串表示图片无法解码，不再生成派生图
+
     @Column(name = "link_preview_json", columnDefinition = "TEXT")
     private String linkPreviewJson;
 
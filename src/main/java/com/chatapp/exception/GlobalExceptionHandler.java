@@ -70,6 +70,13 @@ public class GlobalExceptionHandler {
                 .body(ApiResponse.error(ex.getStatus().value(), ex.getMessage()));
     }
 
+    @ExceptionHandler(UploadSessionException.class)
+    public ResponseEntity<ApiResponse<Void>> handleUploadSessionException(UploadSessionException ex) {
+        return ResponseEntity.status(ex.getStatus())
+                .header("Tus-Resumable", "1.0.0")
+                .body(ApiResponse.error(ex.getStatus(), ex.getMessage()));
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<ApiResponse<Void>> handleRuntime(RuntimeException ex) {
         log.error("运行时异常: ", ex);
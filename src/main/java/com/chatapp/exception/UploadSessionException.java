@@ -0,0 +1,18 @@
+package com.chatapp.exception;
+
+/**
+ * Resumable upload errors. The status is a plain int because the protocol uses codes
+ * outside {@link org.springframework.http.HttpStatus}, such as 460 for a checksum mismatch.
+ */
+public class UploadSessionException extends RuntimeException {
+    private final int status;
+
+    public UploadSessionException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -1,14 +1,19 @@
 package com.chatapp.repository;
 
 import com.chatapp.entity.AgentTask;
+import com.chatapp.entity.BotConfig;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -20,4 +25,54 @@ public interface AgentTaskRepository extends JpaRepository<AgentTask, Long> {
     @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"chatRoom", "requestedBy", "botConfig", "resultMessage", "resultMessage.sender", "resultMessage.botConfig", "resultMessage.anonymousIdentity", "resultMessage.replyToMessage", "resultMessage.replyToMessage.sender", "resultMessage.replyToMessage.anonymousIdentity"})
     @Query("SELECT t FROM AgentTask t WHERE t.id = :id")
     Optional<AgentTask> findWithDetailsById(@Param("id") Long id);
+
+    /** Oldest claimable PENDING tasks; only the columns the scheduler orders by. */
+    @Query("SELECT t.id AS id, t.chatRoom.id AS roomId, t.requestedBy.id AS userId, b.llmProvider AS provider " +
+           "FROM AgentTask t LEFT JOIN t.botConfig b " +
+           "WHERE t.status = com.chatapp.entity.AgentTask.Status.PENDING " +
+           "AND (t.nextAttemptAt IS NULL OR t.nextAttemptAt <= :now) ORDER BY t.id")
+    List<QueuedTask> findClaimable(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /** Conditional claim; 0 when another node got the task first. */
+    @Modifying
+    @Query("UPDATE AgentTask t SET t.status = com.chatapp.entity.AgentTask.Status.RUNNING, " +
+           "t.leaseOwner = :owner, t.leaseExpiresAt = :leaseUntil, t.attempts = t.attempts + 1 " +
+           "WHERE t.id = :id AND t.status = com.chatapp.entity.AgentTask.Status.PENDING")
+    int claim(@Param("id") Long id, @Param("owner") String owner, @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    @Modifying
+    @Query("UPDATE AgentTask t SET t.leaseExpiresAt = :leaseUntil " +
+           "WHERE t.id IN :ids AND t.leaseOwner = :owner " +
+           "AND t.status = com.chatapp.entity.AgentTask.Status.RUNNING")
+    int renewLeases(@Param("ids") Collection<Long> ids, @Param("owner") String owner,
+                    @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /** Returns tasks whose owner stopped heartbeating to the queue. */
+    @Modifying
+    @Query("UPDATE AgentTask t SET t.status = com.chatapp.entity.AgentTask.Status.PENDING, " +
+           "t.leaseOwner = NULL, t.leaseExpiresAt = NULL, t.nextAttemptAt = :retryAt " +
+           "WHERE t.status = com.chatapp.entity.AgentTask.Status.RUNNING " +
+           "AND t.leaseExpiresAt < :now AND t.attempts < :maxAttempts")
+    int requeueAbandoned(@Param("now") LocalDateTime now, @Param("retryAt") LocalDateTime retryAt,
+                         @Param("maxAttempts") int maxAttempts);
+
+    @Modifying
+    @Query("UPDATE AgentTask t SET t.status = com.chatapp.entity.AgentTask.Status.FAILED, " +
+           "t.leaseOwner = NULL, t.leaseExpiresAt = NULL, t.errorMessage = :reason, t.completedAt = :now " +
+           "WHERE t.status = com.chatapp.entity.AgentTask.Status.RUNNING " +
+           "AND t.leaseExpiresAt < :now AND t.attempts >= :maxAttempts")
+    int failAbandoned(@Param("now") LocalDateTime now, @Param("maxAttempts") int maxAttempts,
+                      @Param("reason") String reason);
+
+    long countByStatus(AgentTask.Status status);
+
+    interface QueuedTask {
+        Long getId();
+
+        Long getRoomId();
+
+        Long getUserId();
+
+        BotConfig.LLMProvider getProvider();
+    }
 }
@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,5 +24,10 @@ public interface ChatRoomBotRepository extends JpaRepository<ChatRoomBot, Long>
            "WHERE crb.chatRoom.id = :chatRoomId AND crb.isActive = true")
     List<ChatRoomBot> findActiveBotsWithConfig(@Param("chatRoomId") Long chatRoomId);
 
+    @Query("SELECT crb FROM ChatRoomBot crb JOIN FETCH crb.botConfig bc " +
+           "LEFT JOIN FETCH bc.providerCredential " +
+           "WHERE crb.id IN :ids AND crb.isActive = true")
+    List<ChatRoomBot> findActiveBotsWithConfigByIdIn(@Param("ids") Collection<Long> ids);
+
     void deleteByChatRoomIdAndBotConfigId(Long chatRoomId, Long botConfigId);
 }
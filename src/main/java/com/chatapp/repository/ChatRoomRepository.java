@@ -130,7 +130,7 @@ public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     List<PrivateRoomParticipantProjection> findPrivateParticipantsByRoomIds(
             @Param("roomIds") List<Long> roomIds);
 
-    @Query("SELECT crm FROM ChatRoomMember crm JOIN FETCH crm.user WHERE crm.chatRoom.id = :roomId")
+    @Query("SELECT crm FROM ChatRoomMember crm JOIN FETCH crm.user WHERE crm.chatRoom.id = :roomId ORDER BY crm.id")
     List<ChatRoomMember> findMembersByRoomId(@Param("roomId") Long roomId);
 
     @Query("SELECT crm.user.id FROM ChatRoomMember crm WHERE crm.chatRoom.id = :roomId")
@@ -12,6 +12,9 @@ public interface MemoryEntryRepository extends JpaRepository<MemoryEntry, Long>
 
     long countByChatRoomIdAndArchivedFalse(Long chatRoomId);
 
+    /** Every active entry of a room regardless of visibility; loads {@code MemoryRecallIndex}. */
+    List<MemoryEntry> findByChatRoomIdAndArchivedFalse(Long chatRoomId);
+
     /**
      * Room-visible, non-archived entries plus the requesting user's own PRIVATE ones,
      * pinned first then most-recently updated. ({@code userId} may be null for a
@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -69,6 +70,18 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     @Query("DELETE FROM Message m WHERE m.selfDestructAt IS NOT NULL AND m.selfDestructAt <= :now")
     int deleteExpiredSelfDestructMessages(@Param("now") LocalDateTime now);
 
+    interface MessageFileUrls {
+        String getFileUrl();
+        String getImageGenUrl();
+        String getThumbnailUrl();
+        String getPreviewUrl();
+    }
+
+    @Query("SELECT m.fileUrl AS fileUrl, m.imageGenUrl AS imageGenUrl, m.thumbnailUrl AS thumbnailUrl, " +
+           "m.previewUrl AS previewUrl FROM Message m " +
+           "WHERE m.selfDestructAt IS NOT NULL AND m.selfDestructAt <= :now")
+    List<MessageFileUrls> findFileUrlsOfExpiredSelfDestructMessages(@Param("now") LocalDateTime now);
+
     // --- Methods required by MessageService ---
 
     @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"sender", "chatRoom", "anonymousIdentity", "botConfig", "replyToMessage", "replyToMessage.sender", "replyToMessage.anonymousIdentity"})
@@ -86,6 +99,20 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     @Query("SELECT m FROM Message m WHERE m.chatRoom.id = :chatRoomId AND m.isDeleted = false ORDER BY m.createdAt DESC")
     List<Message> findRecentMessagesList(@Param("chatRoomId") Long chatRoomId, Pageable pageable);
 
+    /**
+     * Rows an agent context window starting at {@code fromId} has not seen: ids after
+     * {@code afterId}, plus rows of the window updated since {@code changedSince}.
+     * Deleted rows are included so the window can drop them.
+     */
+    @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"sender", "chatRoom", "anonymousIdentity", "botConfig", "replyToMessage", "replyToMessage.sender", "replyToMessage.anonymousIdentity"})
+    @Query("SELECT m FROM Message m WHERE m.chatRoom.id = :chatRoomId AND m.id >= :fromId " +
+           "AND (m.id > :afterId OR m.updatedAt >= :changedSince) ORDER BY m.id ASC")
+    List<Message> findContextDelta(@Param("chatRoomId") Long chatRoomId,
+                                   @Param("fromId") Long fromId,
+                                   @Param("afterId") Long afterId,
+                                   @Param("changedSince") LocalDateTime changedSince,
+                                   Pageable pageable);
+
     @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"sender", "chatRoom", "anonymousIdentity", "botConfig", "replyToMessage", "replyToMessage.sender", "replyToMessage.anonymousIdentity"})
     @Query("SELECT m FROM Message m WHERE m.chatRoom.id = :chatRoomId AND m.isDeleted = false " +
            "AND (:clearedBeforeMessageId IS NULL OR m.id > :clearedBeforeMessageId) ORDER BY m.createdAt DESC")
@@ -218,9 +245,50 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     Page<Message> findExpiredForRetention(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
 
     @Query("SELECT CASE WHEN COUNT(m) > 0 THEN true ELSE false END " +
-           "FROM Message m WHERE m.isDeleted = false AND (m.fileUrl = :fileUrl OR m.imageGenUrl = :fileUrl)")
+           "FROM Message m WHERE m.isDeleted = false AND (m.fileUrl = :fileUrl OR m.imageGenUrl = :fileUrl " +
+           "OR m.thumbnailUrl = :fileUrl OR m.previewUrl = :fileUrl)")
     boolean existsActiveMessageReferencingFileUrl(@Param("fileUrl") String fileUrl);
 
     @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"sender", "chatRoom"})
     Optional<Message> findFirstByFileUrlAndIsDeletedFalse(String fileUrl);
+
+    @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"sender", "chatRoom"})
+    Optional<Message> findFirstByThumbnailUrlAndIsDeletedFalse(String thumbnailUrl);
+
+    @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"sender", "chatRoom"})
+    Optional<Message> findFirstByPreviewUrlAndIsDeletedFalse(String previewUrl);
+
+    @EntityGraph(type = EntityGraph.EntityGraphType.LOAD, attributePaths = {"chatRoom"})
+    @Query("SELECT m FROM Message m WHERE m.isDeleted = false AND m.messageType = :messageType " +
+           "AND m.thumbnailUrl IS NULL AND (m.blurHash IS NULL OR m.blurHash <> '') " +
+           "AND m.fileUrl LIKE '/api/files/chat/%' AND m.id > :afterId ORDER BY m.id ASC")
+    List<Message> findImagesWithoutThumbnail(@Param("messageType") Message.MessageType messageType,
+                                             @Param("afterId") Long afterId,
+                                             Pageable pageable);
+
+    /**
+     * Fills in generated derivatives unless the message was deleted or already has a thumbnail
+     * (set by the client, or by a concurrent run). Width and height are only filled when absent.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Message m SET m.thumbnailUrl = :thumbnailUrl, m.previewUrl = :previewUrl, " +
+           "m.blurHash = :blurHash, m.width = COALESCE(m.width, :width), m.height = COALESCE(m.height, :height) " +
+           "WHERE m.id = :messageId AND m.isDeleted = false AND m.thumbnailUrl IS NULL")
+    int attachImageDerivatives(@Param("messageId") Long messageId,
+                               @Param("thumbnailUrl") String thumbnailUrl,
+                               @Param("previewUrl") String previewUrl,
+                               @Param("blurHash") String blurHash,
+                               @Param("width") Integer width,
+                               @Param("height") Integer height);
+
+    /**
+     * Marks an image the thumbnailer could not render with an empty blur hash, so
+     * {@link #findImagesWithoutThumbnail} stops returning it.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Message m SET m.blurHash = '' " +
+           "WHERE m.id = :messageId AND m.thumbnailUrl IS NULL AND m.blurHash IS NULL")
+    int markImageUndecodable(@Param("messageId") Long messageId);
 }
@@ -15,4 +15,6 @@ public interface StickerPackRepository extends JpaRepository<StickerPack, Long>
            "WHERE p.isPublic = true OR p.ownerUser.id = :userId OR s.user.id = :userId " +
            "ORDER BY p.createdAt DESC, p.id DESC")
     List<StickerPack> findAvailableForUser(@Param("userId") Long userId);
+
+    boolean existsByCoverUrl(String coverUrl);
 }
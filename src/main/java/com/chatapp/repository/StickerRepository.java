@@ -12,4 +12,6 @@ public interface StickerRepository extends JpaRepository<Sticker, Long> {
 
     @EntityGraph(attributePaths = {"pack"})
     List<Sticker> findByPackIdOrderByIndexInPackAscIdAsc(Long packId);
+
+    boolean existsByUrl(String url);
 }
@@ -0,0 +1,291 @@
+package com.chatapp.security;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+
+/**
+ * The v2 vault layout: plaintext split into fixed-size chunks, each sealed on its own
+ * with AES-GCM and stored as {@code ciphertext || tag}, back to back. Chunk {@code i}
+ * uses the file's base IV with {@code i} XORed into its last 8 bytes, and its AAD is
+ * {@code i} plus a final-chunk flag, so chunks cannot be reordered, dropped or cut off
+ * at a chunk boundary without failing authentication. Only the last chunk may be short,
+ * and it is empty only when the whole file is.
+ *
+ * <p>Every chunk starts at a known offset, so a byte range decrypts just the chunks it
+ * touches, and each one is authenticated before any of its bytes are released.
+ */
+final class ChunkedVault {
+    static final int TAG_BYTES = 16;
+    private static final int IV_BYTES = 12;
+
+    private ChunkedVault() {
+    }
+
+    static long plaintextSize(long cipherSize, int chunkSize) {
+        long chunks = chunkCount(cipherSize, chunkSize);
+        return Math.max(0, cipherSize - chunks * TAG_BYTES);
+    }
+
+    static long cipherSize(long plainSize, int chunkSize) {
+        long chunks = Math.max(1, (plainSize + chunkSize - 1) / chunkSize);
+        return plainSize + chunks * TAG_BYTES;
+    }
+
+    static void encrypt(InputStream in, OutputStream out, SecretKeySpec key, byte[] baseIv, int chunkSize,
+                        CipherPool ciphers) throws IOException {
+        byte[] current = new byte[chunkSize];
+        byte[] next = new byte[chunkSize];
+        byte[] sealed = new byte[chunkSize + TAG_BYTES];
+        Cipher cipher = borrow(ciphers);
+        try {
+            int length = in.readNBytes(current, 0, chunkSize);
+            for (long index = 0; ; index++) {
+                int nextLength = length == chunkSize ? in.readNBytes(next, 0, chunkSize) : 0;
+                boolean last = nextLength == 0;
+                out.write(sealed, 0, seal(cipher, key, baseIv, index, last, current, length, sealed));
+                if (last) {
+                    return;
+                }
+                byte[] swap = current;
+                current = next;
+                next = swap;
+                length = nextLength;
+            }
+        } finally {
+            ciphers.release(cipher);
+        }
+    }
+
+    /**
+     * Seals chunks {@code firstIndex} onward from {@code in} and writes them to {@code out}.
+     * Used for uploads that arrive in pieces, where the caller knows the final size up
+     * front: a piece must start on a chunk boundary, every chunk but the file's last must
+     * be full, and bytes after the last full chunk that do not finish the file are read
+     * but not sealed. The caller must never seal the same index twice with different
+     * bytes; the nonce depends only on the index.
+     *
+     * @return the number of chunks written
+     */
+    static long encryptFrom(InputStream in, OutputStream out, SecretKeySpec key, byte[] baseIv, int chunkSize,
+                            long firstIndex, long plainSize, CipherPool ciphers) throws IOException {
+        long lastIndex = Math.max(0, (plainSize + chunkSize - 1) / chunkSize - 1);
+        byte[] plain = new byte[chunkSize];
+        byte[] sealed = new byte[chunkSize + TAG_BYTES];
+        Cipher cipher = borrow(ciphers);
+        try {
+            long index = firstIndex;
+            while (index <= lastIndex) {
+                int expected = (int) Math.min(chunkSize, plainSize - index * chunkSize);
+                int length = in.readNBytes(plain, 0, expected);
+                if (length < expected) {
+                    break;
+                }
+                out.write(sealed, 0, seal(cipher, key, baseIv, index, index == lastIndex, plain, length, sealed));
+                index++;
+            }
+            if (index > lastIndex && in.read() != -1) {
+                throw new IllegalArgumentException("上传内容超出声明的文件长度");
+            }
+            return index - firstIndex;
+        } finally {
+            ciphers.release(cipher);
+        }
+    }
+
+    /**
+     * Opens {@code length} plaintext bytes from {@code start}. The first chunk is read and
+     * authenticated here, so a corrupt or truncated file fails before a response starts.
+     */
+    static InputStream decrypt(Path cipherPath, SecretKeySpec key, byte[] baseIv, int chunkSize,
+                               long start, long length, CipherPool ciphers) throws IOException {
+        return decrypt(FileChannel.open(cipherPath, StandardOpenOption.READ), key, baseIv, chunkSize, start, length,
+                ciphers);
+    }
+
+    /** Same, over a ciphertext the caller already opened; the stream owns {@code channel}. */
+    static InputStream decrypt(FileChannel channel, SecretKeySpec key, byte[] baseIv, int chunkSize,
+                               long start, long length, CipherPool ciphers) throws IOException {
+        Cipher cipher = null;
+        try {
+            if (baseIv.length != IV_BYTES) {
+                throw new IOException("不支持的 IV 长度: " + baseIv.length);
+            }
+            long cipherSize = channel.size();
+            long plainSize = plaintextSize(cipherSize, chunkSize);
+            if (start < 0 || length < 0 || start + length > plainSize) {
+                throw new IOException("请求的范围超出文件长度: " + start + "+" + length + "/" + plainSize);
+            }
+            cipher = borrow(ciphers);
+            Reader reader = new Reader(channel, cipher, ciphers, key, baseIv, chunkSize, cipherSize,
+                    start, length);
+            reader.fill();
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (cipher != null) {
+                ciphers.release(cipher);
+            }
+            throw e;
+        }
+    }
+
+    private static int seal(Cipher cipher, SecretKeySpec key, byte[] baseIv, long index, boolean last,
+                            byte[] plain, int length, byte[] sealed) throws IOException {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, nonce(baseIv, index)));
+            cipher.updateAAD(aad(index, last));
+            return cipher.doFinal(plain, 0, length, sealed, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM 操作失败", e);
+        }
+    }
+
+    private static long chunkCount(long cipherSize, int chunkSize) {
+        long sealedChunk = (long) chunkSize + TAG_BYTES;
+        return Math.max(1, (cipherSize + sealedChunk - 1) / sealedChunk);
+    }
+
+    private static byte[] nonce(byte[] baseIv, long index) {
+        byte[] nonce = baseIv.clone();
+        for (int i = 0; i < Long.BYTES; i++) {
+            nonce[IV_BYTES - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        return nonce;
+    }
+
+    private static byte[] aad(long index, boolean last) {
+        return ByteBuffer.allocate(Long.BYTES + 1).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    private static Cipher borrow(CipherPool ciphers) throws IOException {
+        try {
+            return ciphers.borrow();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM 操作失败", e);
+        }
+    }
+
+    private static final class Reader extends InputStream {
+        private final FileChannel channel;
+        private final Cipher cipher;
+        private final CipherPool ciphers;
+        private final SecretKeySpec key;
+        private final byte[] baseIv;
+        private final int chunkSize;
+        private final long cipherSize;
+        private final long lastChunk;
+        private final ByteBuffer sealed;
+        private final byte[] plain;
+        private long nextChunk;
+        private long skip;
+        private long remaining;
+        private int position;
+        private int limit;
+        private boolean closed;
+
+        private Reader(FileChannel channel, Cipher cipher, CipherPool ciphers, SecretKeySpec key, byte[] baseIv,
+                       int chunkSize, long cipherSize, long start, long length) {
+            this.channel = channel;
+            this.cipher = cipher;
+            this.ciphers = ciphers;
+            this.key = key;
+            this.baseIv = baseIv;
+            this.chunkSize = chunkSize;
+            this.cipherSize = cipherSize;
+            this.lastChunk = chunkCount(cipherSize, chunkSize) - 1;
+            this.sealed = ByteBuffer.allocate(chunkSize + TAG_BYTES);
+            this.plain = new byte[chunkSize + TAG_BYTES];
+            this.nextChunk = start / chunkSize;
+            this.skip = start % chunkSize;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return plain[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(plain, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                ciphers.release(cipher);
+                channel.close();
+            }
+        }
+
+        private boolean fill() throws IOException {
+            while (remaining > 0) {
+                if (nextChunk > lastChunk) {
+                    throw new EOFException("密文被截断");
+                }
+                int opened = openChunk(nextChunk++);
+                int from = (int) Math.min(skip, opened);
+                skip -= from;
+                int take = (int) Math.min(opened - from, remaining);
+                if (take > 0) {
+                    position = from;
+                    limit = from + take;
+                    remaining -= take;
+                    return true;
+                }
+            }
+            position = limit;
+            return false;
+        }
+
+        private int openChunk(long index) throws IOException {
+            long offset = index * ((long) chunkSize + TAG_BYTES);
+            sealed.clear().limit((int) Math.min(sealed.capacity(), cipherSize - offset));
+            while (sealed.hasRemaining()) {
+                if (channel.read(sealed, offset + sealed.position()) < 0) {
+                    throw new EOFException("密文被截断");
+                }
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, nonce(baseIv, index)));
+                cipher.updateAAD(aad(index, index == lastChunk));
+                return cipher.doFinal(sealed.array(), 0, sealed.limit(), plain, 0);
+            } catch (AEADBadTagException e) {
+                throw new IOException("文件完整性校验失败", e);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM 操作失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.chatapp.security;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reusable {@link Cipher} instances for one transformation. {@code Cipher.getInstance}
+ * walks the provider list and builds a fresh SPI on every call, which adds up at one
+ * call per chunk. Callers always {@code init} a borrowed cipher, so no state carries
+ * over between uses.
+ */
+final class CipherPool {
+    private final String transformation;
+    private final BlockingQueue<Cipher> idle;
+
+    CipherPool(String transformation, int capacity) {
+        this.transformation = transformation;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    Cipher borrow() throws GeneralSecurityException {
+        Cipher cipher = idle.poll();
+        return cipher != null ? cipher : Cipher.getInstance(transformation);
+    }
+
+    void release(Cipher cipher) {
+        idle.offer(cipher);
+    }
+}
@@ -1,32 +1,40 @@
 package com.chatapp.security;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.UUID;
 
@@ -40,11 +48,22 @@ public class FileVaultService {
     private static final String META_SUFFIX = ".meta.json";
     private static final String CIPHER_SUFFIX = ".enc";
     private static final int META_VERSION = 1;
+    private static final int CHUNKED_META_VERSION = 2;
+    /** Plaintext bytes per sealed chunk in the v2 format, and per staged upload chunk. */
+    public static final int CHUNK_BYTES = 64 * 1024;
+    private static final int POOLED_CIPHERS = 64;
+    private static final int PAIR_ATTEMPTS = 3;
+    private static final String CONTENT_TAG_LABEL = "pmchat-file-content-tag-v1";
+    private static final String CONTENT_ADDRESS_LABEL = "pmchat-file-content-address-v1";
 
     private final SecretKeySpec masterKey;
+    private final SecretKeySpec contentKey;
+    private final SecretKeySpec addressKey;
     private final long streamingThreshold;
     private final SecureRandom rng = new SecureRandom();
     private final ObjectMapper mapper = new ObjectMapper();
+    private final CipherPool gcmCiphers = new CipherPool(ALG, POOLED_CIPHERS);
+    private final CipherPool ctrCiphers = new CipherPool("AES/CTR/NoPadding", POOLED_CIPHERS);
     private final boolean prodProfile;
 
     public FileVaultService(
@@ -62,6 +81,14 @@ public class FileVaultService {
             masterRaw = "DEV-INSECURE-FILE-STORAGE-KEY-DO-NOT-USE-IN-PROD";
         }
         this.masterKey = new SecretKeySpec(sha256(masterRaw), "AES");
+        this.contentKey = new SecretKeySpec(
+                hmac(new SecretKeySpec(masterKey.getEncoded(), "HmacSHA256"),
+                        CONTENT_TAG_LABEL.getBytes(StandardCharsets.UTF_8)),
+                "HmacSHA256");
+        this.addressKey = new SecretKeySpec(
+                hmac(new SecretKeySpec(masterKey.getEncoded(), "HmacSHA256"),
+                        CONTENT_ADDRESS_LABEL.getBytes(StandardCharsets.UTF_8)),
+                "HmacSHA256");
         this.streamingThreshold = streamingThreshold;
     }
 
@@ -75,44 +102,317 @@ public class FileVaultService {
     }
 
     public void storeEncrypted(Path basePath, byte[] plaintext) throws IOException {
-        EncryptedPayload payload = encryptObject(plaintext);
-        writeEncryptedFiles(basePath, payload.ciphertext(), readMeta(payload.metaJson()));
+        byte[] safePlaintext = plaintext == null ? new byte[0] : plaintext;
+        storeEncryptedStream(basePath, new ByteArrayInputStream(safePlaintext), safePlaintext.length);
     }
 
+    /** Writes the chunked v2 format; see {@link ChunkedVault}. */
     public void storeEncryptedStream(Path basePath, InputStream plaintextStream, long expectedSize)
             throws IOException {
         ensureNotEncrypted(basePath);
         Files.createDirectories(basePath.getParent());
+        try (InputStream in = plaintextStream) {
+            writeChunkedFiles(basePath, in, expectedSize);
+        }
+    }
+
+    /**
+     * Rewrites a v1 single-shot file as v2 chunks under a fresh data key. The old file
+     * is read through the streaming decryptor, whose tag check runs before the new
+     * ciphertext replaces it, so a corrupt v1 file is left as it was.
+     *
+     * <p>The ciphertext and its header are two files, so they cannot be swapped in one
+     * step. The new ciphertext is written aside first, then the header is replaced by one
+     * that carries both the new header and the old one ({@code previous}), plus the last
+     * tag of the new ciphertext ({@code cipher_tail}). Only then does the new ciphertext
+     * move into place, and a final header drops {@code previous}. Readers pick whichever
+     * header matches the ciphertext they opened (see {@link #openPair}), so the file stays
+     * readable at every step, and a migration cut off part-way is finished (or redone) by
+     * the next call.
+     *
+     * @return false if the file already is chunked
+     */
+    public boolean migrateToChunked(Path basePath) throws IOException {
+        requireEncrypted(basePath);
+        VaultMeta onDisk = mapper.readValue(metaPath(basePath).toFile(), VaultMeta.class);
+        VaultMeta current;
+        try (Opened pair = openPair(basePath)) {
+            current = pair.meta();
+        }
+        if (current.isChunked()) {
+            if (onDisk.previous() == null) {
+                return false;
+            }
+            // Cut off after the new ciphertext was in place; only the final header is missing.
+            writeMeta(metaPath(basePath), current);
+            return true;
+        }
+        try (InputStream in = loadDecryptedStream(basePath)) {
+            replaceWithChunked(basePath, in, current);
+        }
+        return true;
+    }
+
+    /**
+     * Points {@code basePath}, a hard link of a v1 file that {@link #migrateToChunked} has
+     * since rewritten at {@code migrated}, at {@code migrated}'s chunked pair again, so
+     * deduplicated owners keep sharing one copy. The steps mirror the migration: a header
+     * carrying both versions, then a link to the new ciphertext, then a link to the final
+     * header.
+     *
+     * @return false if {@code basePath} already shares {@code migrated}'s pair
+     */
+    public boolean relinkToChunked(Path basePath, Path migrated) throws IOException {
+        requireEncrypted(basePath);
+        requireEncrypted(migrated);
+        if (Files.isSameFile(cipherPath(basePath), cipherPath(migrated))
+                && Files.isSameFile(metaPath(basePath), metaPath(migrated))) {
+            return false;
+        }
+        VaultMeta chunked = mapper.readValue(metaPath(migrated).toFile(), VaultMeta.class);
+        if (!chunked.isChunked() || chunked.previous() != null) {
+            throw new IOException("目标文件尚未完成分块迁移: " + migrated.getFileName());
+        }
+        VaultMeta current;
+        try (Opened pair = openPair(basePath)) {
+            current = pair.meta();
+        }
+        if (!Files.isSameFile(cipherPath(basePath), cipherPath(migrated))) {
+            writeMeta(metaPath(basePath), chunked.withPrevious(current));
+            linkOver(cipherPath(migrated), cipherPath(basePath));
+        }
+        linkOver(metaPath(migrated), metaPath(basePath));
+        return true;
+    }
+
+    public boolean isChunked(Path basePath) throws IOException {
+        try (Opened pair = openPair(basePath)) {
+            return pair.meta().isChunked();
+        }
+    }
+
+    public byte[] loadDecrypted(Path basePath) throws IOException {
+        try {
+            Opened pair = openPair(basePath);
+            if (pair.meta().isChunked()) {
+                try (InputStream in = openChunked(pair, 0, plaintextSize(pair))) {
+                    return in.readAllBytes();
+                }
+            }
+            try (pair) {
+                return decryptWhole(pair);
+            }
+        } catch (Exception e) {
+            throw asIOException("文件解密失败", e);
+        }
+    }
+
+    /**
+     * Opens a file for download. Chunked files stream with each chunk authenticated
+     * before it is released. Legacy v1 files up to the streaming threshold are
+     * authenticated in full first; larger ones are only checked at the end of the
+     * stream (see {@link GcmDecryptingInputStream}).
+     */
+    public InputStream openDecrypted(Path basePath) throws IOException {
+        Opened pair = openPair(basePath);
+        if (pair.meta().isChunked()) {
+            return openChunked(pair, 0, plaintextSize(pair));
+        }
+        return openSingleShot(pair);
+    }
+
+    /**
+     * Opens {@code length} plaintext bytes from {@code start}. A chunked file decrypts
+     * only the chunks the range touches. A v1 file has to be decrypted from the start,
+     * and a range that stops before its end is never authenticated, so those are served
+     * only until the background migration has rewritten them.
+     */
+    public InputStream openDecryptedRange(Path basePath, long start, long length) throws IOException {
+        Opened pair = openPair(basePath);
+        long size;
+        try {
+            size = plaintextSize(pair);
+        } catch (IOException | RuntimeException e) {
+            pair.close();
+            throw e;
+        }
+        if (start < 0 || length < 0 || start + length > size) {
+            pair.close();
+            throw new IOException("请求的范围超出文件长度: " + start + "+" + length + "/" + size);
+        }
+        if (pair.meta().isChunked()) {
+            return openChunked(pair, start, length);
+        }
+        InputStream in = openSingleShot(pair);
+        try {
+            in.skipNBytes(start);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    /**
+     * Strong validator for the stored plaintext: a keyed hash of the content recorded when
+     * the file was written, so equal files only match for someone holding the master key.
+     * Files written before the hash was recorded fall back to a keyed hash of their
+     * wrapped data key, which changes whenever the file is re-encrypted.
+     */
+    public String contentTag(Path basePath) throws IOException {
+        VaultMeta meta = readMetaFor(basePath);
+        if (meta.contentTag() != null) {
+            return meta.contentTag();
+        }
+        return encodeTag(hmac(contentKey, decode(meta.wrappedDkB64())));
+    }
 
+    /**
+     * Name under which equal plaintexts share one stored copy. Keyed like the content tag,
+     * so a blob on disk cannot be matched against a known file without the master key,
+     * but under a separate key, so the ETags clients see do not name blobs.
+     */
+    public String contentAddress(InputStream plaintext) throws IOException {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[CHUNK_BYTES];
+        int read;
+        while ((read = plaintext.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return encodeTag(hmac(addressKey, digest.digest()));
+    }
+
+    /** {@link #contentAddress(InputStream)} for a SHA-256 the caller already has. */
+    public String contentAddress(byte[] sha256) {
+        return encodeTag(hmac(addressKey, sha256));
+    }
+
+    /**
+     * Starts a file that arrives in pieces: creates an empty part file and returns the v2
+     * header for it, without a content tag yet. The caller keeps the header next to the
+     * part and hands it back on every call; the data key inside stays wrapped.
+     */
+    public VaultMeta beginStaged(Path partPath, long sizePlain) throws IOException {
         byte[] dk = randomBytes(DK_BYTES);
         byte[] iv = randomBytes(IV_BYTES);
         byte[] wrapIv = randomBytes(IV_BYTES);
         byte[] wrappedDk = crypt(Cipher.ENCRYPT_MODE, masterKey, wrapIv, dk);
-        VaultMeta meta = VaultMeta.create(iv, wrapIv, wrappedDk, expectedSize);
+        Files.createDirectories(partPath.getParent());
+        Files.newOutputStream(partPath, StandardOpenOption.CREATE_NEW).close();
+        return VaultMeta.createChunked(iv, wrapIv, wrappedDk, sizePlain, CHUNK_BYTES, null);
+    }
 
-        Path cipherPath = cipherPath(basePath);
-        Path metaPath = metaPath(basePath);
-        Path cipherTmp = tmpSibling(cipherPath);
-        Path metaTmp = tmpSibling(metaPath);
-        try {
-            Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, new SecretKeySpec(dk, "AES"), iv);
-            try (InputStream in = plaintextStream;
-                 CipherOutputStream out = new CipherOutputStream(Files.newOutputStream(
-                         cipherTmp, StandardOpenOption.CREATE_NEW), cipher)) {
-                in.transferTo(out);
+    /**
+     * Seals the next piece of a staged file onto its part file and returns the plaintext
+     * length now in the part. Each chunk index is sealed once: sealing it again with other
+     * bytes would reuse a GCM nonce under the file's key, so the caller must have verified
+     * the piece before handing it over, and {@code offset} has to be
+     * {@link #stagedOffset}. Bytes after the last full chunk that do not finish the file
+     * are not stored, since that would mean keeping plaintext on disk, so the returned
+     * offset can be short of the piece and the sender resumes from it. If writing fails,
+     * the part is unusable and the upload has to start over.
+     */
+    public long appendStaged(Path partPath, VaultMeta staged, long offset, byte[] piece) throws IOException {
+        if (offset != stagedOffset(partPath, staged)) {
+            throw new IOException("分片文件和上传偏移量不一致: " + partPath.getFileName());
+        }
+        if (piece.length > staged.sizePlain() - offset) {
+            throw new IllegalArgumentException("上传内容超出声明的文件长度");
+        }
+        if (offset == staged.sizePlain()) {
+            return offset;
+        }
+        int chunkSize = staged.chunkSize();
+        long index = offset / chunkSize;
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(partPath, StandardOpenOption.APPEND), CHUNK_BYTES)) {
+            long written = ChunkedVault.encryptFrom(new ByteArrayInputStream(piece), out, dataKey(staged),
+                    decode(staged.ivB64()), chunkSize, index, staged.sizePlain(), gcmCiphers);
+            return Math.min(staged.sizePlain(), (index + written) * chunkSize);
+        }
+    }
+
+    /**
+     * Plaintext length sealed into a part file so far. A part that ends partway through a
+     * chunk was cut off mid-write and cannot be resumed, because finishing it would mean
+     * sealing that chunk a second time.
+     */
+    public long stagedOffset(Path partPath, VaultMeta staged) throws IOException {
+        long cipherSize = Files.size(partPath);
+        long sealedChunk = (long) staged.chunkSize() + ChunkedVault.TAG_BYTES;
+        if (cipherSize % sealedChunk == 0) {
+            return Math.min(staged.sizePlain(), cipherSize / sealedChunk * staged.chunkSize());
+        }
+        if (cipherSize == ChunkedVault.cipherSize(staged.sizePlain(), staged.chunkSize())) {
+            return staged.sizePlain();
+        }
+        throw new IOException("分片文件在分块中间被截断: " + partPath.getFileName());
+    }
+
+    /**
+     * Reads a finished part file back through the chunk decryptor and returns the SHA-256
+     * of its plaintext. Every chunk is authenticated, including the final-chunk flag, so
+     * this fails for a part that is incomplete or was tampered with on disk.
+     */
+    public byte[] stagedDigest(Path partPath, VaultMeta staged) throws IOException {
+        long size = ChunkedVault.plaintextSize(Files.size(partPath), staged.chunkSize());
+        if (size != staged.sizePlain()) {
+            throw new IOException("分片文件长度不符: " + size + "/" + staged.sizePlain());
+        }
+        MessageDigest digest = sha256Digest();
+        try (InputStream in = ChunkedVault.decrypt(partPath, dataKey(staged), decode(staged.ivB64()),
+                staged.chunkSize(), 0, size, gcmCiphers)) {
+            byte[] buffer = new byte[CHUNK_BYTES];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
             }
-            mapper.writeValue(metaTmp.toFile(), meta);
-            Files.move(cipherTmp, cipherPath, StandardCopyOption.ATOMIC_MOVE);
-            Files.move(metaTmp, metaPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Turns a finished part file into a stored file at {@code basePath}: writes its meta
+     * with the content tag and hard-links the part into place, copying it where links are
+     * not supported. The ciphertext is not touched and the part is left where it is, so
+     * the upload can be completed again if whatever uses the stored file fails; the caller
+     * deletes the part once it is done with it.
+     */
+    public void completeStaged(Path partPath, VaultMeta staged, byte[] sha256, Path basePath) throws IOException {
+        ensureNotEncrypted(basePath);
+        Files.createDirectories(basePath.getParent());
+        Path metaTmp = tmpSibling(metaPath(basePath));
+        boolean placed = false;
+        try {
+            mapper.writeValue(metaTmp.toFile(), new VaultMeta(staged.version(), staged.alg(), staged.ivB64(),
+                    staged.wrapIvB64(), staged.wrappedDkB64(), staged.sizePlain(), Instant.now().toString(),
+                    staged.chunkSize(), encodeTag(hmac(contentKey, sha256)), null, null));
+            linkOrCopy(partPath, cipherPath(basePath));
+            placed = true;
+            Files.move(metaTmp, metaPath(basePath), StandardCopyOption.ATOMIC_MOVE);
         } catch (Exception e) {
-            cleanupTmp(cipherTmp, metaTmp);
+            cleanupTmp(metaTmp);
+            if (placed) {
+                cleanupTmp(cipherPath(basePath));
+            }
             throw asIOException("文件加密写入失败", e);
         }
     }
 
-    public byte[] loadDecrypted(Path basePath) throws IOException {
-        try (InputStream in = loadDecryptedStream(basePath)) {
-            return in.readAllBytes();
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target);
+        }
+    }
+
+    /** Plaintext length, derived from the ciphertext length. */
+    public long decryptedSize(Path basePath) throws IOException {
+        try (Opened pair = openPair(basePath)) {
+            return plaintextSize(pair);
         }
     }
 
@@ -123,7 +423,7 @@ public class FileVaultService {
         byte[] wrapIv = randomBytes(IV_BYTES);
         byte[] cipherText = crypt(Cipher.ENCRYPT_MODE, new SecretKeySpec(dk, "AES"), iv, safePlaintext);
         byte[] wrappedDk = crypt(Cipher.ENCRYPT_MODE, masterKey, wrapIv, dk);
-        VaultMeta meta = VaultMeta.create(iv, wrapIv, wrappedDk, safePlaintext.length);
+        VaultMeta meta = VaultMeta.create(iv, wrapIv, wrappedDk, safePlaintext.length, contentTag(safePlaintext));
         return new EncryptedPayload(cipherText, mapper.writeValueAsBytes(meta));
     }
 
@@ -133,38 +433,23 @@ public class FileVaultService {
         }
         try {
             VaultMeta meta = readMeta(metaJson);
-            byte[] dk = crypt(
-                    Cipher.DECRYPT_MODE,
-                    masterKey,
-                    decode(meta.wrapIvB64()),
-                    decode(meta.wrappedDkB64()));
-            return crypt(Cipher.DECRYPT_MODE, new SecretKeySpec(dk, "AES"), decode(meta.ivB64()), ciphertext);
+            return crypt(Cipher.DECRYPT_MODE, dataKey(meta), decode(meta.ivB64()), ciphertext);
         } catch (Exception e) {
             throw asIOException("对象解密失败", e);
         }
     }
 
+    /**
+     * Decrypts as the caller reads, holding a few fixed-size buffers instead of the file.
+     * Chunked files fail on the first chunk that does not authenticate; a v1 file's tag
+     * is checked when its last bytes are read.
+     */
     public InputStream loadDecryptedStream(Path basePath) throws IOException {
-        Path cipherPath = cipherPath(basePath);
-        Path metaPath = metaPath(basePath);
-        if (!Files.exists(cipherPath) || !Files.exists(metaPath)) {
-            throw new IOException("加密文件缺少密文或元数据: " + basePath.getFileName());
-        }
-        try {
-            VaultMeta meta = mapper.readValue(metaPath.toFile(), VaultMeta.class);
-            byte[] dk = crypt(
-                    Cipher.DECRYPT_MODE,
-                    masterKey,
-                    decode(meta.wrapIvB64()),
-                    decode(meta.wrappedDkB64()));
-            Cipher cipher = initCipher(
-                    Cipher.DECRYPT_MODE,
-                    new SecretKeySpec(dk, "AES"),
-                    decode(meta.ivB64()));
-            return new CipherInputStream(Files.newInputStream(cipherPath), cipher);
-        } catch (Exception e) {
-            throw asIOException("文件解密失败", e);
+        Opened pair = openPair(basePath);
+        if (pair.meta().isChunked()) {
+            return openChunked(pair, 0, plaintextSize(pair));
         }
+        return openStreaming(pair);
     }
 
     public boolean deleteEncrypted(Path basePath) throws IOException {
@@ -185,24 +470,215 @@ public class FileVaultService {
         return basePath.resolveSibling(basePath.getFileName() + META_SUFFIX);
     }
 
-    private void writeEncryptedFiles(Path basePath, byte[] cipherText, VaultMeta meta) throws IOException {
-        ensureNotEncrypted(basePath);
-        Files.createDirectories(basePath.getParent());
+    /** Encrypts a new file into temp siblings, then moves them into place. */
+    private void writeChunkedFiles(Path basePath, InputStream plaintext, long expectedSize) throws IOException {
+        byte[] dk = randomBytes(DK_BYTES);
+        byte[] iv = randomBytes(IV_BYTES);
+        byte[] wrapIv = randomBytes(IV_BYTES);
+        byte[] wrappedDk = crypt(Cipher.ENCRYPT_MODE, masterKey, wrapIv, dk);
+        DigestInputStream digesting = new DigestInputStream(plaintext, sha256Digest());
+
         Path cipherPath = cipherPath(basePath);
         Path metaPath = metaPath(basePath);
         Path cipherTmp = tmpSibling(cipherPath);
         Path metaTmp = tmpSibling(metaPath);
         try {
-            Files.write(cipherTmp, cipherText, StandardOpenOption.CREATE_NEW);
-            mapper.writeValue(metaTmp.toFile(), meta);
-            Files.move(cipherTmp, cipherPath, StandardCopyOption.ATOMIC_MOVE);
-            Files.move(metaTmp, metaPath, StandardCopyOption.ATOMIC_MOVE);
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(cipherTmp, StandardOpenOption.CREATE_NEW), CHUNK_BYTES)) {
+                ChunkedVault.encrypt(digesting, out, new SecretKeySpec(dk, "AES"), iv, CHUNK_BYTES, gcmCiphers);
+            }
+            String contentTag = encodeTag(hmac(contentKey, digesting.getMessageDigest().digest()));
+            mapper.writeValue(metaTmp.toFile(),
+                    VaultMeta.createChunked(iv, wrapIv, wrappedDk, expectedSize, CHUNK_BYTES, contentTag));
+            Files.move(cipherTmp, cipherPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(metaTmp, metaPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
             cleanupTmp(cipherTmp, metaTmp);
             throw asIOException("文件加密写入失败", e);
         }
     }
 
+    /** Replaces an existing pair in the steps described on {@link #migrateToChunked}. */
+    private void replaceWithChunked(Path basePath, InputStream plaintext, VaultMeta old) throws IOException {
+        byte[] dk = randomBytes(DK_BYTES);
+        byte[] iv = randomBytes(IV_BYTES);
+        byte[] wrapIv = randomBytes(IV_BYTES);
+        byte[] wrappedDk = crypt(Cipher.ENCRYPT_MODE, masterKey, wrapIv, dk);
+        DigestInputStream digesting = new DigestInputStream(plaintext, sha256Digest());
+
+        Path cipherPath = cipherPath(basePath);
+        Path metaPath = metaPath(basePath);
+        Path cipherTmp = tmpSibling(cipherPath);
+        try {
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(cipherTmp, StandardOpenOption.CREATE_NEW), CHUNK_BYTES)) {
+                ChunkedVault.encrypt(digesting, out, new SecretKeySpec(dk, "AES"), iv, CHUNK_BYTES, gcmCiphers);
+            }
+            String contentTag = encodeTag(hmac(contentKey, digesting.getMessageDigest().digest()));
+            VaultMeta chunked = VaultMeta.createChunked(iv, wrapIv, wrappedDk, old.sizePlain(), CHUNK_BYTES, contentTag);
+            try (FileChannel written = FileChannel.open(cipherTmp, StandardOpenOption.READ)) {
+                chunked = chunked.withCipherTail(Base64.getEncoder().encodeToString(readTail(written)));
+            }
+            writeMeta(metaPath, chunked.withPrevious(old));
+            Files.move(cipherTmp, cipherPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            writeMeta(metaPath, chunked);
+        } catch (Exception e) {
+            cleanupTmp(cipherTmp);
+            throw asIOException("文件加密写入失败", e);
+        }
+    }
+
+    /** Atomically replaces {@code target} with a hard link to {@code existing}. */
+    private void linkOver(Path existing, Path target) throws IOException {
+        Path linkTmp = tmpSibling(target);
+        try {
+            Files.createLink(linkTmp, existing);
+            Files.move(linkTmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            cleanupTmp(linkTmp);
+            throw e;
+        }
+    }
+
+    private void writeMeta(Path metaPath, VaultMeta meta) throws IOException {
+        Path metaTmp = tmpSibling(metaPath);
+        try {
+            mapper.writeValue(metaTmp.toFile(), meta);
+            Files.move(metaTmp, metaPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            cleanupTmp(metaTmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the ciphertext, then reads the header and checks the two belong together: a
+     * header with a {@code cipher_tail} only fits a ciphertext ending in that tag, else
+     * its {@code previous} header does. Reading in this order means a migration can only
+     * have moved forward between the two reads, so a ciphertext that neither header fits
+     * was replaced after it was opened and is opened again.
+     */
+    private Opened openPair(Path basePath) throws IOException {
+        requireEncrypted(basePath);
+        for (int attempt = 1; ; attempt++) {
+            FileChannel channel = FileChannel.open(cipherPath(basePath), StandardOpenOption.READ);
+            try {
+                VaultMeta meta = mapper.readValue(metaPath(basePath).toFile(), VaultMeta.class);
+                if (meta.cipherTail() == null) {
+                    return new Opened(channel, meta, basePath.getFileName().toString());
+                }
+                if (Arrays.equals(decode(meta.cipherTail()), readTail(channel))) {
+                    return new Opened(channel, meta.withPrevious(null), basePath.getFileName().toString());
+                }
+                if (meta.previous() != null) {
+                    return new Opened(channel, meta.previous(), basePath.getFileName().toString());
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+            if (attempt == PAIR_ATTEMPTS) {
+                throw new IOException("密文和元数据不匹配: " + basePath.getFileName());
+            }
+        }
+    }
+
+    private byte[] readTail(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, ChunkedVault.TAG_BYTES));
+        while (tail.hasRemaining()) {
+            if (channel.read(tail, size - tail.capacity() + tail.position()) < 0) {
+                throw new IOException("密文被截断");
+            }
+        }
+        return tail.array();
+    }
+
+    /** Takes over {@code pair}: the stream closes it, and so does a failure to open one. */
+    private InputStream openChunked(Opened pair, long start, long length) throws IOException {
+        VaultMeta meta = pair.meta();
+        SecretKeySpec key;
+        try {
+            key = dataKey(meta);
+        } catch (IOException | RuntimeException e) {
+            pair.close();
+            throw e;
+        }
+        return ChunkedVault.decrypt(pair.channel(), key, decode(meta.ivB64()), meta.chunkSize(), start, length,
+                gcmCiphers);
+    }
+
+    /**
+     * A v1 file up to the streaming threshold is authenticated in full first; larger ones
+     * are only checked at the end of the stream. Takes over {@code pair}.
+     */
+    private InputStream openSingleShot(Opened pair) throws IOException {
+        try {
+            if (plaintextSize(pair) <= streamingThreshold) {
+                try (pair) {
+                    return new ByteArrayInputStream(decryptWhole(pair));
+                }
+            }
+        } catch (Exception e) {
+            pair.close();
+            throw asIOException("文件解密失败", e);
+        }
+        return openStreaming(pair);
+    }
+
+    /** Takes over {@code pair}. */
+    private InputStream openStreaming(Opened pair) throws IOException {
+        VaultMeta meta = pair.meta();
+        SecretKeySpec key;
+        try {
+            key = dataKey(meta);
+        } catch (IOException | RuntimeException e) {
+            pair.close();
+            throw e;
+        }
+        try {
+            return GcmDecryptingInputStream.open(pair.channel(), pair.name(), key, decode(meta.ivB64()),
+                    TAG_BITS, ctrCiphers);
+        } catch (Exception e) {
+            throw asIOException("文件解密失败", e);
+        }
+    }
+
+    private byte[] decryptWhole(Opened pair) throws IOException {
+        FileChannel channel = pair.channel();
+        ByteBuffer cipherText = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+        while (cipherText.hasRemaining()) {
+            if (channel.read(cipherText, cipherText.position()) < 0) {
+                throw new IOException("密文被截断");
+            }
+        }
+        return crypt(Cipher.DECRYPT_MODE, dataKey(pair.meta()), decode(pair.meta().ivB64()), cipherText.array());
+    }
+
+    private long plaintextSize(Opened pair) throws IOException {
+        long cipherSize = pair.channel().size();
+        return pair.meta().isChunked()
+                ? ChunkedVault.plaintextSize(cipherSize, pair.meta().chunkSize())
+                : Math.max(0, cipherSize - TAG_BITS / 8);
+    }
+
+    private VaultMeta readMetaFor(Path basePath) throws IOException {
+        requireEncrypted(basePath);
+        return mapper.readValue(metaPath(basePath).toFile(), VaultMeta.class);
+    }
+
+    private void requireEncrypted(Path basePath) throws IOException {
+        if (!Files.exists(cipherPath(basePath)) || !Files.exists(metaPath(basePath))) {
+            throw new IOException("加密文件缺少密文或元数据: " + basePath.getFileName());
+        }
+    }
+
+    private SecretKeySpec dataKey(VaultMeta meta) throws IOException {
+        byte[] dk = crypt(Cipher.DECRYPT_MODE, masterKey, decode(meta.wrapIvB64()), decode(meta.wrappedDkB64()));
+        return new SecretKeySpec(dk, "AES");
+    }
+
     private VaultMeta readMeta(byte[] metaJson) throws IOException {
         return mapper.readValue(metaJson, VaultMeta.class);
     }
@@ -214,20 +690,20 @@ public class FileVaultService {
     }
 
     private byte[] crypt(int mode, SecretKeySpec key, byte[] iv, byte[] input) throws IOException {
+        Cipher cipher = null;
         try {
-            Cipher cipher = initCipher(mode, key, iv);
+            cipher = gcmCiphers.borrow();
+            cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, iv));
             return cipher.doFinal(input);
         } catch (GeneralSecurityException e) {
             throw new IOException("AES-GCM 操作失败", e);
+        } finally {
+            if (cipher != null) {
+                gcmCiphers.release(cipher);
+            }
         }
     }
 
-    private Cipher initCipher(int mode, SecretKeySpec key, byte[] iv) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance(ALG);
-        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, iv));
-        return cipher;
-    }
-
     private byte[] randomBytes(int size) {
         byte[] bytes = new byte[size];
         rng.nextBytes(bytes);
@@ -235,13 +711,35 @@ public class FileVaultService {
     }
 
     private byte[] sha256(String raw) {
+        return sha256Digest().digest(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private MessageDigest sha256Digest() {
         try {
-            return MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8));
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException("SHA-256 not available", e);
         }
     }
 
+    private String contentTag(byte[] plaintext) {
+        return encodeTag(hmac(contentKey, sha256Digest().digest(plaintext)));
+    }
+
+    private byte[] hmac(SecretKeySpec key, byte[] input) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac.doFinal(input);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    private String encodeTag(byte[] tag) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(tag);
+    }
+
     private byte[] decode(String value) {
         return Base64.getDecoder().decode(value);
     }
@@ -270,20 +768,61 @@ public class FileVaultService {
             @JsonProperty("wrap_iv_b64") String wrapIvB64,
             @JsonProperty("wrapped_dk_b64") String wrappedDkB64,
             @JsonProperty("size_plain") long sizePlain,
-            @JsonProperty("created_at") String createdAt) {
-        static VaultMeta create(byte[] iv, byte[] wrapIv, byte[] wrappedDk, long sizePlain) {
+            @JsonProperty("created_at") String createdAt,
+            @JsonProperty("chunk_size") @JsonInclude(JsonInclude.Include.NON_NULL) Integer chunkSize,
+            @JsonProperty("content_tag") @JsonInclude(JsonInclude.Include.NON_NULL) String contentTag,
+            @JsonProperty("cipher_tail") @JsonInclude(JsonInclude.Include.NON_NULL) String cipherTail,
+            @JsonInclude(JsonInclude.Include.NON_NULL) VaultMeta previous) {
+        static VaultMeta create(byte[] iv, byte[] wrapIv, byte[] wrappedDk, long sizePlain, String contentTag) {
+            return create(META_VERSION, iv, wrapIv, wrappedDk, sizePlain, null, contentTag);
+        }
+
+        static VaultMeta createChunked(byte[] iv, byte[] wrapIv, byte[] wrappedDk, long sizePlain, int chunkSize,
+                                       String contentTag) {
+            return create(CHUNKED_META_VERSION, iv, wrapIv, wrappedDk, sizePlain, chunkSize, contentTag);
+        }
+
+        private static VaultMeta create(int version, byte[] iv, byte[] wrapIv, byte[] wrappedDk, long sizePlain,
+                                        Integer chunkSize, String contentTag) {
             Base64.Encoder encoder = Base64.getEncoder();
             return new VaultMeta(
-                    META_VERSION,
+                    version,
                     ALG,
                     encoder.encodeToString(iv),
                     encoder.encodeToString(wrapIv),
                     encoder.encodeToString(wrappedDk),
                     sizePlain,
-                    Instant.now().toString());
+                    Instant.now().toString(),
+                    chunkSize,
+                    contentTag,
+                    null,
+                    null);
+        }
+
+        VaultMeta withCipherTail(String tail) {
+            return new VaultMeta(version, alg, ivB64, wrapIvB64, wrappedDkB64, sizePlain, createdAt, chunkSize,
+                    contentTag, tail, previous);
+        }
+
+        VaultMeta withPrevious(VaultMeta old) {
+            return new VaultMeta(version, alg, ivB64, wrapIvB64, wrappedDkB64, sizePlain, createdAt, chunkSize,
+                    contentTag, cipherTail, old);
+        }
+
+        @JsonIgnore
+        boolean isChunked() {
+            return version >= CHUNKED_META_VERSION && chunkSize != null && chunkSize > 0;
         }
     }
 
     public record EncryptedPayload(byte[] ciphertext, byte[] metaJson) {
     }
+
+    /** An open ciphertext and the header that belongs to it. */
+    private record Opened(FileChannel channel, VaultMeta meta, String name) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
 }
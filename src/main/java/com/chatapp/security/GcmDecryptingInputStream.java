@@ -0,0 +1,194 @@
+package com.chatapp.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+/**
+ * Streams the plaintext of a single-shot AES-GCM vault file through fixed-size buffers.
+ * The JDK's GCM decryptor holds back every byte until it has checked the tag, so a
+ * {@link javax.crypto.CipherInputStream} over a 50MB file keeps 50MB on the heap. Here
+ * the body is decrypted as AES-CTR from the GCM counter block, and the tag is recomputed
+ * alongside by re-encrypting the plaintext with GCM under the same key and IV.
+ *
+ * <p>The final buffer is only released after the tag matched; a mismatch throws from
+ * {@code read}. Everything before that has already been handed out, so a caller must
+ * treat a failed read as a failed download (the HTTP response is cut short) rather than
+ * trust the prefix.
+ */
+final class GcmDecryptingInputStream extends InputStream {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int GCM_IV_BYTES = 12;
+
+    private final FileChannel channel;
+    private final Cipher ctr;
+    private final Cipher tagCipher;
+    private final CipherPool ctrCiphers;
+    private final byte[] expectedTag;
+    private final ByteBuffer cipherBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final byte[] plain = new byte[BUFFER_BYTES];
+    private final byte[] discard;
+    private long remaining;
+    private int position;
+    private int limit;
+    private boolean finished;
+    private boolean tampered;
+    private boolean closed;
+
+    private GcmDecryptingInputStream(FileChannel channel, Cipher ctr, Cipher tagCipher, CipherPool ctrCiphers,
+                                     byte[] expectedTag, long bodyBytes) {
+        this.channel = channel;
+        this.ctr = ctr;
+        this.tagCipher = tagCipher;
+        this.ctrCiphers = ctrCiphers;
+        this.expectedTag = expectedTag;
+        this.discard = new byte[BUFFER_BYTES + expectedTag.length];
+        this.remaining = bodyBytes;
+    }
+
+    /** Decrypts the ciphertext in {@code channel}, which the stream then owns; {@code name} is for errors. */
+    static GcmDecryptingInputStream open(FileChannel channel, String name, SecretKeySpec key, byte[] iv,
+                                         int tagBits, CipherPool ctrCiphers) throws IOException {
+        Cipher ctr = null;
+        try {
+            if (iv.length != GCM_IV_BYTES) {
+                throw new IOException("不支持的 IV 长度: " + iv.length);
+            }
+            int tagBytes = tagBits / 8;
+            long bodyBytes = channel.size() - tagBytes;
+            if (bodyBytes < 0) {
+                throw new IOException("密文长度不足: " + name);
+            }
+            ByteBuffer tag = ByteBuffer.allocate(tagBytes);
+            while (tag.hasRemaining()) {
+                if (channel.read(tag, bodyBytes + tag.position()) < 0) {
+                    throw new EOFException("密文被截断: " + name);
+                }
+            }
+            ctr = ctrCiphers.borrow();
+            ctr.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(firstCounterBlock(iv)));
+            // Not pooled: a GCM cipher refuses to encrypt twice under the key and IV it last
+            // used, which is exactly what a second download of the same file would ask.
+            Cipher tagCipher = Cipher.getInstance("AES/GCM/NoPadding");
+            tagCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(tagBits, iv));
+            return new GcmDecryptingInputStream(channel, ctr, tagCipher, ctrCiphers, tag.array(), bodyBytes);
+        } catch (IOException | RuntimeException e) {
+            abandon(channel, ctr, ctrCiphers);
+            throw e;
+        } catch (GeneralSecurityException e) {
+            abandon(channel, ctr, ctrCiphers);
+            throw new IOException("AES-GCM 操作失败", e);
+        }
+    }
+
+    private static void abandon(FileChannel channel, Cipher ctr, CipherPool ctrCiphers) throws IOException {
+        if (ctr != null) {
+            ctrCiphers.release(ctr);
+        }
+        channel.close();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return plain[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(plain, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            ctrCiphers.release(ctr);
+            channel.close();
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (tampered) {
+            throw new IOException("文件完整性校验失败");
+        }
+        while (!finished) {
+            if (remaining == 0) {
+                verifyTag();
+                return false;
+            }
+            cipherBuffer.clear().limit((int) Math.min(BUFFER_BYTES, remaining));
+            int read = channel.read(cipherBuffer);
+            if (read < 0) {
+                throw new EOFException("密文被截断");
+            }
+            remaining -= read;
+            try {
+                limit = ctr.update(cipherBuffer.array(), 0, read, plain, 0);
+                tagCipher.update(plain, 0, limit, discard, 0);
+            } catch (ShortBufferException e) {
+                throw new IOException("AES-GCM 操作失败", e);
+            }
+            position = 0;
+            if (remaining == 0) {
+                verifyTag();
+            }
+            if (limit > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void verifyTag() throws IOException {
+        finished = true;
+        byte[] computed;
+        try {
+            computed = tagCipher.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM 操作失败", e);
+        }
+        byte[] tag = new byte[expectedTag.length];
+        System.arraycopy(computed, computed.length - tag.length, tag, 0, tag.length);
+        if (!MessageDigest.isEqual(tag, expectedTag)) {
+            tampered = true;
+            limit = position;
+            throw new IOException("文件完整性校验失败");
+        }
+    }
+
+    /** GCM with a 96-bit IV encrypts the body from counter block IV || 0x00000002. */
+    private static byte[] firstCounterBlock(byte[] iv) {
+        byte[] block = new byte[16];
+        System.arraycopy(iv, 0, block, 0, iv.length);
+        block[15] = 2;
+        return block;
+    }
+}
@@ -2,7 +2,6 @@ package com.chatapp.security;
 
 import com.chatapp.config.RateLimitConfig;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.github.bucket4j.Bucket;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -29,14 +28,11 @@ public class RateLimitFilter extends OncePerRequestFilter {
         String clientIp = getClientIp(request);
         String path = request.getRequestURI();
 
-        Bucket bucket;
-        if (path.startsWith("/api/auth/")) {
-            bucket = rateLimitConfig.resolveAuthBucket(clientIp);
-        } else {
-            bucket = rateLimitConfig.resolveBucket(clientIp);
-        }
+        boolean allowed = path.startsWith("/api/auth/")
+                ? rateLimitConfig.tryConsumeAuth(clientIp)
+                : rateLimitConfig.tryConsume(clientIp);
 
-        if (!bucket.tryConsume(1)) {
+        if (!allowed) {
             writeRateLimited(response, null);
             return;
         }
@@ -45,7 +41,7 @@ public class RateLimitFilter extends OncePerRequestFilter {
                 && "/api/auth/client-salt-params".equals(path)) {
             String username = request.getParameter("username");
             if (username != null && !username.isBlank()
-                    && !rateLimitConfig.resolveSaltLookupBucket(username).tryConsume(1)) {
+                    && !rateLimitConfig.tryConsumeSaltLookup(username)) {
                 writeRateLimited(response, "3600");
                 return;
             }
@@ -10,12 +10,13 @@ import com.chatapp.entity.Message;
 import com.chatapp.entity.User;
 import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.MessageRepository;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,22 +25,24 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
  * Builds the dynamic context envelope used by agent LLM calls.
  *
- * Token estimation deliberately stays dependency-free: Han characters are
- * counted at roughly 1.5 chars/token, ASCII at 4 chars/token, and other text at
- * 3 chars/token. This is a conservative sizing guard, not a billing metric.
+ * Context budgets are measured with the bot's tokenizer from {@link TokenCounters}
+ * (exact BPE for OpenAI models, calibrated estimates elsewhere). History lines are
+ * counted once per message and memoized, so trimming long rooms does not re-tokenize
+ * the whole prompt for every dropped message. Lore books are matched by the
+ * per-bot compiled automaton in {@link LoreBookMatcher}. Room history and member
+ * names come from {@link AgentContextSnapshots}, which advances the previous turn's
+ * window by what changed, and system prompt templates are compiled once per
+ * distinct template text.
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 @Transactional(readOnly = true)
 public class AgentContextBuilder {
@@ -52,6 +55,7 @@ public class AgentContextBuilder {
     private static final int MEMORY_ENTRY_LIMIT = 10;
     private static final int MEMORY_SCAN_HISTORY_LIMIT = 10;
     private static final int MEMORY_RECALL_MIN_QUERY_LEN = 2;
+    private static final int MAX_COMPILED_TEMPLATES = 1_000;
     private static final DateTimeFormatter HISTORY_TIME_FORMAT =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss 'UTC'");
 
@@ -59,11 +63,51 @@ public class AgentContextBuilder {
     private final ChatRoomRepository chatRoomRepository;
     private final MemoryService memoryService;
     private final AgentVisionAttachmentService agentVisionAttachmentService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final TokenCounters tokenCounters;
+    private final LoreBookMatcher loreBookMatcher;
+    private final AgentContextSnapshots snapshots;
+    private final Cache<String, PromptTemplate> templates = Caffeine.newBuilder()
+            .maximumSize(MAX_COMPILED_TEMPLATES)
+            .build();
 
     @Value("${agent.product-faq:}")
     private String productFaq;
 
+    public AgentContextBuilder(MessageRepository messageRepository,
+                               ChatRoomRepository chatRoomRepository,
+                               MemoryService memoryService,
+                               AgentVisionAttachmentService agentVisionAttachmentService) {
+        this(messageRepository, chatRoomRepository, memoryService, agentVisionAttachmentService,
+                new TokenCounters(), new LoreBookMatcher());
+    }
+
+    public AgentContextBuilder(MessageRepository messageRepository,
+                               ChatRoomRepository chatRoomRepository,
+                               MemoryService memoryService,
+                               AgentVisionAttachmentService agentVisionAttachmentService,
+                               TokenCounters tokenCounters,
+                               LoreBookMatcher loreBookMatcher) {
+        this(messageRepository, chatRoomRepository, memoryService, agentVisionAttachmentService,
+                tokenCounters, loreBookMatcher, AgentContextSnapshots.disabled());
+    }
+
+    @Autowired
+    public AgentContextBuilder(MessageRepository messageRepository,
+                               ChatRoomRepository chatRoomRepository,
+                               MemoryService memoryService,
+                               AgentVisionAttachmentService agentVisionAttachmentService,
+                               TokenCounters tokenCounters,
+                               LoreBookMatcher loreBookMatcher,
+                               AgentContextSnapshots snapshots) {
+        this.messageRepository = messageRepository;
+        this.chatRoomRepository = chatRoomRepository;
+        this.memoryService = memoryService;
+        this.agentVisionAttachmentService = agentVisionAttachmentService;
+        this.tokenCounters = tokenCounters;
+        this.loreBookMatcher = loreBookMatcher;
+        this.snapshots = snapshots;
+    }
+
     public AgentContextEnvelope buildContext(AgentTask task) {
         BotConfig botConfig = task.getBotConfig();
         ChatRoom room = task.getChatRoom();
@@ -117,17 +161,12 @@ public class AgentContextBuilder {
                 tokenBudget,
                 0);
 
-        while (!env.conversationHistory().isEmpty()
-                && estimateTokens(assembleSystemPrompt(env)) > tokenBudget) {
-            List<HistoricalMessage> trimmed = new ArrayList<>(env.conversationHistory());
-            trimmed.remove(0);
-            env = env.withHistory(trimmed);
-        }
-
-        env = trimLoreToBudget(env, tokenBudget);
-        env = trimMemoryToBudget(env, tokenBudget);
+        TokenCounter counter = tokenCounters.forBot(botConfig);
+        env = trimHistoryToBudget(env, tokenBudget, counter);
+        env = trimLoreToBudget(env, tokenBudget, counter);
+        env = trimMemoryToBudget(env, tokenBudget, counter);
 
-        int estimatedTokens = estimateTokens(assembleSystemPrompt(env));
+        int estimatedTokens = promptTokens(env, counter);
         env = env.withEstimatedTokens(estimatedTokens);
         log.info("Agent context built: room='{}', members={}, history={}, loreMatched={}, loreDropped={}, memoryMatched={}, memoryDropped={}, estimatedTokens={}/{}",
                 env.roomMetadata().name(),
@@ -143,9 +182,21 @@ public class AgentContextBuilder {
     }
 
     public String assembleSystemPrompt(AgentContextEnvelope env) {
+        return assembleSystemPromptParts(env).text();
+    }
+
+    /**
+     * Assembles the system prompt split at the provider cache boundary. The stable
+     * prefix (product FAQ, persona or identity, behavior rules, room context) only
+     * changes when the bot or room is edited, so it stays byte-identical across turns
+     * and can be served from the provider's prompt cache. Lore, memory, history and
+     * the task change every turn and go in the volatile suffix.
+     */
+    public SystemPrompt assembleSystemPromptParts(AgentContextEnvelope env) {
         String template = env.agentIdentity().systemPromptTemplate();
         if (!env.characterCard().hasCard() && template != null && !template.isBlank()) {
-            return productFaqBlock() + substituteTemplate(template, env);
+            return templates.get(template, text -> PromptTemplate.compile(text, VOLATILE_TEMPLATE_TOKENS))
+                    .render(productFaqBlock(), token -> templateValue(token, env));
         }
 
         StringBuilder prompt = new StringBuilder();
@@ -184,24 +235,6 @@ public class AgentContextBuilder {
             prompt.append("- ").append(rule).append("\n");
         }
 
-        if (env.characterCard().hasCard()) {
-            prompt.append("\n[LORE BOOK]\n");
-            if (env.loreBook().matched().isEmpty()) {
-                prompt.append("(none matched)\n");
-            } else {
-                for (LoreBookEntry entry : env.loreBook().matched()) {
-                    prompt.append("- ").append(entry.content()).append("\n");
-                }
-            }
-        }
-
-        if (env.memorySectionEnabled()) {
-            // Header stays inline so the extracted helper can be reused by
-            // substituteTemplate's {{memory}} placeholder without forcing a header.
-            prompt.append("\n[MEMORY]\n");
-            prompt.append(formatMemoryBlock(env));
-        }
-
         prompt.append("\n[ROOM CONTEXT]\n");
         if (env.roomMetadata().included()) {
             prompt.append("Room: ").append(env.roomMetadata().name()).append("\n")
@@ -219,23 +252,33 @@ public class AgentContextBuilder {
         } else {
             prompt.append("Room metadata disabled for this agent.\n");
         }
+        String stablePrefix = prompt.toString();
+        prompt.setLength(0);
+
+        if (env.characterCard().hasCard()) {
+            prompt.append("\n[LORE BOOK]\n");
+            if (env.loreBook().matched().isEmpty()) {
+                prompt.append("(none matched)\n");
+            } else {
+                for (LoreBookEntry entry : env.loreBook().matched()) {
+                    prompt.append("- ").append(entry.content()).append("\n");
+                }
+            }
+        }
+
+        if (env.memorySectionEnabled()) {
+            // Header stays inline so the extracted helper can be reused by
+            // the template's {{memory}} placeholder without forcing a header.
+            prompt.append("\n[MEMORY]\n");
+            prompt.append(formatMemoryBlock(env));
+        }
 
         prompt.append("\n[RECENT CONVERSATION]\n");
         if (env.conversationHistory().isEmpty()) {
             prompt.append("(none)\n");
         } else {
             for (HistoricalMessage message : env.conversationHistory()) {
-                prompt.append("(")
-                        .append(message.timestamp())
-                        .append(") #")
-                        .append(message.messageId() != null ? message.messageId() : "?")
-                        .append(" ")
-                        .append(message.senderName())
-                        .append(" [")
-                        .append(message.messageType())
-                        .append("]: ")
-                        .append(message.content())
-                        .append("\n");
+                prompt.append(historyLine(message));
             }
         }
 
@@ -247,7 +290,15 @@ public class AgentContextBuilder {
                 .append(") is asking:\n\n")
                 .append("[TASK]\n")
                 .append(env.taskText());
-        return prompt.toString();
+        return new SystemPrompt(stablePrefix, prompt.toString());
+    }
+
+    private static String historyLine(HistoricalMessage message) {
+        return "(" + message.timestamp() + ") #"
+                + (message.messageId() != null ? message.messageId() : "?")
+                + " " + message.senderName()
+                + " [" + message.messageType() + "]: "
+                + message.content() + "\n";
     }
 
     private void appendProductFaq(StringBuilder prompt) {
@@ -261,44 +312,57 @@ public class AgentContextBuilder {
         return "[PM CHAT PRODUCT FAQ]\n" + productFaq.strip() + "\n\n";
     }
 
+    /** Tokenizer-agnostic estimate, for callers that do not know the target model. */
     public int estimateTokens(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
-        }
-        int han = 0;
-        int ascii = 0;
-        int other = 0;
-        for (int i = 0; i < text.length(); i++) {
-            char ch = text.charAt(i);
-            if (Character.UnicodeScript.of(ch) == Character.UnicodeScript.HAN) {
-                han++;
-            } else if (ch <= 127) {
-                ascii++;
-            } else {
-                other++;
-            }
+        return tokenCounters.count(tokenCounters.defaultEstimate(), text);
+    }
+
+    /** Token count with the tokenizer of the bot's provider/model. */
+    public int countTokens(BotConfig bot, String text) {
+        return tokenCounters.count(tokenCounters.forBot(bot), text);
+    }
+
+    private int promptTokens(AgentContextEnvelope env, TokenCounter counter) {
+        SystemPrompt prompt = assembleSystemPromptParts(env);
+        // Only the stable prefix repeats across passes and turns; the suffix is counted directly.
+        return tokenCounters.count(counter, prompt.stablePrefix()) + counter.count(prompt.volatileSuffix());
+    }
+
+    /**
+     * Drops the oldest history first. The running total is adjusted by each dropped
+     * line's memoized count instead of re-tokenizing the prompt; an exact pass then
+     * absorbs the small drift from BPE merges across line boundaries.
+     */
+    private AgentContextEnvelope trimHistoryToBudget(AgentContextEnvelope env, int tokenBudget, TokenCounter counter) {
+        int tokens = promptTokens(env, counter);
+        if (tokens <= tokenBudget || env.conversationHistory().isEmpty()) {
+            return env;
+        }
+        List<HistoricalMessage> trimmed = new ArrayList<>(env.conversationHistory());
+        while (!trimmed.isEmpty() && tokens > tokenBudget) {
+            HistoricalMessage dropped = trimmed.remove(0);
+            tokens -= tokenCounters.count(counter, dropped.messageId(), historyLine(dropped));
+        }
+        AgentContextEnvelope current = env.withHistory(trimmed);
+        while (!current.conversationHistory().isEmpty() && promptTokens(current, counter) > tokenBudget) {
+            List<HistoricalMessage> rest = new ArrayList<>(current.conversationHistory());
+            rest.remove(0);
+            current = current.withHistory(rest);
         }
-        return (int) Math.ceil(han / 1.5d + ascii / 4.0d + other / 3.0d);
+        return current;
     }
 
     private RoomMetadata buildRoomMetadata(ChatRoom room, User initiator, boolean anonymousRequest) {
         if (room == null || room.getId() == null) {
             return RoomMetadata.empty("");
         }
-        List<ChatRoomMember> members = chatRoomRepository.findMembersByRoomId(room.getId());
+        AgentContextSnapshots.RoomMembers members = snapshots.members(room.getId(), this::loadRoomMembers);
         boolean hideMemberNames = anonymousRequest && Boolean.TRUE.equals(room.getAnonymousEnabled());
-        List<String> names = hideMemberNames
-                ? new ArrayList<>()
-                : members.stream()
-                        .map(member -> displayName(member.getUser(), member.getNickname()))
-                        .filter(AgentContextBuilder::hasText)
-                        .distinct()
-                        .limit(TOP_MEMBER_LIMIT)
-                        .collect(Collectors.toCollection(ArrayList::new));
+        List<String> names = hideMemberNames ? new ArrayList<>() : new ArrayList<>(members.names());
         if (!hideMemberNames && names.isEmpty() && initiator != null) {
             names.add(displayName(initiator, null));
         }
-        long memberCount = Math.max(chatRoomRepository.countChatRoomMembers(room.getId()), members.size());
+        long memberCount = members.count();
         if (memberCount <= 0 && initiator != null) {
             memberCount = 1;
         }
@@ -312,6 +376,18 @@ public class AgentContextBuilder {
                 room.getRoomType() != ChatRoom.RoomType.PRIVATE);
     }
 
+    private AgentContextSnapshots.RoomMembers loadRoomMembers(Long roomId) {
+        List<ChatRoomMember> members = chatRoomRepository.findMembersByRoomId(roomId);
+        List<String> names = members.stream()
+                .map(member -> displayName(member.getUser(), member.getNickname()))
+                .filter(AgentContextBuilder::hasText)
+                .distinct()
+                .limit(TOP_MEMBER_LIMIT)
+                .toList();
+        return new AgentContextSnapshots.RoomMembers(
+                names, Math.max(chatRoomRepository.countChatRoomMembers(roomId), members.size()));
+    }
+
     private InitiatorInfo buildInitiatorInfo(ChatRoom room, User initiator, boolean anonymousRequest, String anonymousName) {
         if (anonymousRequest) {
             return new InitiatorInfo(defaultString(anonymousName, "Anonymous user"), "anonymous member", false);
@@ -337,34 +413,51 @@ public class AgentContextBuilder {
         if (room == null || room.getId() == null || historyLimit <= 0) {
             return List.of();
         }
-        List<Message> recent = new ArrayList<>(messageRepository.findRecentMessages(room.getId(), historyLimit));
-        Collections.reverse(recent);
-
-        List<HistoricalMessage> history = new ArrayList<>();
-        for (int i = 0; i < recent.size(); i++) {
-            Message message = recent.get(i);
-            boolean isImage = agentVisionAttachmentService.isImageMessage(message);
-            String content = message.getContent() != null ? message.getContent() : "";
-            AgentVisionAttachmentService.ImageContext imageContext = isImage
-                    ? agentVisionAttachmentService.resolve(message, false)
-                    : AgentVisionAttachmentService.ImageContext.empty();
-            if (imageContext.annotation() != null && !imageContext.annotation().isBlank()) {
-                content = content.isBlank() ? imageContext.annotation() : content + " " + imageContext.annotation();
-            }
-            if (content.isBlank() && imageContext.attachments().isEmpty()) {
-                continue;
+        Long roomId = room.getId();
+        LocalDateTime now = LocalDateTime.now();
+        AgentContextSnapshots.HistoryWindow window = snapshots.history(roomId, historyLimit, now);
+        if (window != null) {
+            // Twice the window: a larger delta means most of it changed, so a reload is cheaper.
+            int deltaLimit = historyLimit * 2;
+            List<Message> delta = messageRepository.findContextDelta(roomId, window.fromId(),
+                    window.lastSeenId(), window.changedSince(), PageRequest.of(0, deltaLimit));
+            window = delta.size() < deltaLimit
+                    ? window.advance(delta, historyLimit, this::toHistoricalMessage, now)
+                    : null;
+        }
+        if (window == null) {
+            List<Message> recent = new ArrayList<>(messageRepository.findRecentMessages(roomId, historyLimit));
+            Collections.reverse(recent);
+            window = AgentContextSnapshots.HistoryWindow.load(recent, this::toHistoricalMessage, now);
+            if (window == null) {
+                return recent.stream().map(this::toHistoricalMessage).filter(Objects::nonNull).toList();
             }
-            history.add(new HistoricalMessage(
-                    displayNameForHistory(message),
-                    message.getMessageType() != null ? message.getMessageType().name() : "TEXT",
-                    content,
-                    formatTimestamp(message.getCreatedAt()),
-                    message.getId(),
-                    List.of()));
         }
-        return history;
+        snapshots.putHistory(roomId, historyLimit, window);
+        return window.messages();
     }
 
+    /** Renders one history line's data, or null when the message has neither text nor an image. */
+    private HistoricalMessage toHistoricalMessage(Message message) {
+        boolean isImage = agentVisionAttachmentService.isImageMessage(message);
+        String content = message.getContent() != null ? message.getContent() : "";
+        AgentVisionAttachmentService.ImageContext imageContext = isImage
+                ? agentVisionAttachmentService.resolve(message, false)
+                : AgentVisionAttachmentService.ImageContext.empty();
+        if (imageContext.annotation() != null && !imageContext.annotation().isBlank()) {
+            content = content.isBlank() ? imageContext.annotation() : content + " " + imageContext.annotation();
+        }
+        if (content.isBlank() && imageContext.attachments().isEmpty()) {
+            return null;
+        }
+        return new HistoricalMessage(
+                displayNameForHistory(message),
+                message.getMessageType() != null ? message.getMessageType().name() : "TEXT",
+                content,
+                formatTimestamp(message.getCreatedAt()),
+                message.getId(),
+                List.of());
+    }
 
     private String displayNameForHistory(Message message) {
         if (message != null
@@ -379,39 +472,32 @@ public class AgentContextBuilder {
         return message != null ? displayName(message.getSender(), null) : "Unknown";
     }
 
-    private static final Pattern TEMPLATE_TOKEN = Pattern.compile("\\{\\{(\\w+)\\}\\}");
-
-    private String substituteTemplate(String template, AgentContextEnvelope env) {
-        Map<String, String> values = Map.ofEntries(
-                Map.entry("agent_display_name", env.agentIdentity().displayName()),
-                Map.entry("room_name", env.roomMetadata().name()),
-                Map.entry("room_topic", defaultString(env.roomMetadata().topic(), "")),
-                Map.entry("member_count", String.valueOf(env.roomMetadata().memberCount())),
-                Map.entry("member_names", String.join(", ", env.roomMetadata().memberNames())),
-                Map.entry("recent_conversation", env.conversationHistory().stream()
-                        .map(message -> message.senderName() + ": " + message.content())
-                        .collect(Collectors.joining("\n"))),
-                Map.entry("initiator_display_name", env.initiator().displayName()),
-                Map.entry("initiator_role", env.initiator().role()),
-                Map.entry("memory", env.memorySectionEnabled() ? formatMemoryBlock(env) : ""),
-                Map.entry("task", env.taskText()));
-        // Single non-recursive pass: each placeholder is resolved exactly once, so a token
-        // that appears *inside* substituted content (e.g. memory text literally containing
-        // "{{task}}") is never re-expanded. Unknown tokens are left verbatim.
-        Matcher matcher = TEMPLATE_TOKEN.matcher(template);
-        StringBuilder out = new StringBuilder();
-        while (matcher.find()) {
-            String key = matcher.group(1);
-            String replacement = values.containsKey(key) ? values.get(key) : matcher.group(0);
-            matcher.appendReplacement(out, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(out);
-        return out.toString();
+    /** Template placeholders whose values change from turn to turn. */
+    private static final Set<String> VOLATILE_TEMPLATE_TOKENS =
+            Set.of("recent_conversation", "initiator_display_name", "initiator_role", "memory", "task");
+
+    /** Value of a {{token}} in system_prompt_template, or null to leave an unknown token verbatim. */
+    private String templateValue(String token, AgentContextEnvelope env) {
+        return switch (token) {
+            case "agent_display_name" -> env.agentIdentity().displayName();
+            case "room_name" -> env.roomMetadata().name();
+            case "room_topic" -> defaultString(env.roomMetadata().topic(), "");
+            case "member_count" -> String.valueOf(env.roomMetadata().memberCount());
+            case "member_names" -> String.join(", ", env.roomMetadata().memberNames());
+            case "recent_conversation" -> env.conversationHistory().stream()
+                    .map(message -> message.senderName() + ": " + message.content())
+                    .collect(Collectors.joining("\n"));
+            case "initiator_display_name" -> env.initiator().displayName();
+            case "initiator_role" -> env.initiator().role();
+            case "memory" -> env.memorySectionEnabled() ? formatMemoryBlock(env) : "";
+            case "task" -> env.taskText();
+            default -> null;
+        };
     }
 
     /**
      * Renders the [MEMORY] body (no "[MEMORY]" header) so both the inline
-     * assembleSystemPrompt path and the substituteTemplate {{memory}} placeholder
+     * assembleSystemPrompt path and the template {{memory}} placeholder
      * share one format. Returns "(none matched)\n" when no memories matched, mirroring
      * the inline path's empty branch.
      */
@@ -447,49 +533,15 @@ public class AgentContextBuilder {
     }
 
     private LoreBookSection matchLoreBook(BotConfig bot, List<HistoricalMessage> history, int maxEntries) {
-        if (bot == null || !hasText(bot.getCharacterBookJson()) || history.isEmpty()) {
+        if (bot == null || !hasText(bot.getCharacterBookJson())) {
             return LoreBookSection.empty();
         }
-        List<String> haystack = history.stream()
+        List<String> window = history.stream()
                 .skip(Math.max(0, history.size() - LORE_SCAN_HISTORY_LIMIT))
                 .map(HistoricalMessage::content)
                 .filter(AgentContextBuilder::hasText)
-                .map(String::toLowerCase)
                 .toList();
-        if (haystack.isEmpty()) {
-            return LoreBookSection.empty();
-        }
-
-        List<LoreBookEntry> matched = new ArrayList<>();
-        try {
-            JsonNode entries = readJsonMaybeQuoted(bot.getCharacterBookJson()).path("entries");
-            if (!entries.isArray()) {
-                return LoreBookSection.empty();
-            }
-            int fallbackOrder = 0;
-            for (JsonNode entry : entries) {
-                if (entry.has("enabled") && !entry.path("enabled").asBoolean()) {
-                    continue;
-                }
-                String content = entry.path("content").asText("");
-                if (!hasText(content)) {
-                    continue;
-                }
-                if (keysMatch(entry.path("keys"), haystack)) {
-                    int insertionOrder = entry.has("insertion_order")
-                            ? entry.path("insertion_order").asInt(fallbackOrder)
-                            : fallbackOrder;
-                    matched.add(new LoreBookEntry(insertionOrder, content));
-                }
-                fallbackOrder++;
-            }
-        } catch (Exception e) {
-            log.warn("Failed to parse character book for bot {}: {}",
-                    bot.getId(), e.getMessage());
-            return LoreBookSection.empty();
-        }
-
-        matched.sort((left, right) -> Integer.compare(left.insertionOrder(), right.insertionOrder()));
+        List<LoreBookEntry> matched = loreBookMatcher.match(bot, window);
         if (matched.size() <= maxEntries) {
             return new LoreBookSection(List.copyOf(matched), List.of());
         }
@@ -498,6 +550,11 @@ public class AgentContextBuilder {
         return new LoreBookSection(List.copyOf(kept), List.copyOf(dropped));
     }
 
+    /** Drops the compiled lore book of a bot whose card was replaced or deleted. */
+    public void evictLoreBook(Long botId) {
+        loreBookMatcher.evict(botId);
+    }
+
     private MemoryBookSection recallMemoriesForContext(
             Long roomId,
             List<HistoricalMessage> history,
@@ -543,31 +600,13 @@ public class AgentContextBuilder {
         return query.length() < MEMORY_RECALL_MIN_QUERY_LEN ? "" : query;
     }
 
-    private boolean keysMatch(JsonNode keysNode, List<String> haystack) {
-        if (!keysNode.isArray()) {
-            return false;
-        }
-        for (JsonNode keyNode : keysNode) {
-            String key = keyNode.asText("").toLowerCase();
-            if (!hasText(key)) {
-                continue;
-            }
-            for (String content : haystack) {
-                if (content.contains(key)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    private AgentContextEnvelope trimLoreToBudget(AgentContextEnvelope env, int tokenBudget) {
+    private AgentContextEnvelope trimLoreToBudget(AgentContextEnvelope env, int tokenBudget, TokenCounter counter) {
         if (!env.characterCard().hasCard() || env.loreBook().matched().isEmpty()) {
             return env;
         }
         AgentContextEnvelope current = env;
         while (!current.loreBook().matched().isEmpty()
-                && estimateTokens(assembleSystemPrompt(current)) > tokenBudget) {
+                && promptTokens(current, counter) > tokenBudget) {
             List<LoreBookEntry> kept = new ArrayList<>(current.loreBook().matched());
             LoreBookEntry dropped = kept.remove(kept.size() - 1);
             List<LoreBookEntry> droppedAll = new ArrayList<>(current.loreBook().dropped());
@@ -577,7 +616,7 @@ public class AgentContextBuilder {
         return current;
     }
 
-    private AgentContextEnvelope trimMemoryToBudget(AgentContextEnvelope env, int tokenBudget) {
+    private AgentContextEnvelope trimMemoryToBudget(AgentContextEnvelope env, int tokenBudget, TokenCounter counter) {
         if (!env.memorySectionEnabled() || env.memoryBook().matched().isEmpty()) {
             return env;
         }
@@ -594,7 +633,7 @@ public class AgentContextBuilder {
         List<MemoryItem> droppedAll = new ArrayList<>(current.memoryBook().dropped());
 
         while (!unpinned.isEmpty()
-                && estimateTokens(assembleSystemPrompt(current)) > tokenBudget) {
+                && promptTokens(current, counter) > tokenBudget) {
             MemoryItem dropped = unpinned.remove(unpinned.size() - 1);
             droppedAll.add(0, dropped);
             List<MemoryItem> kept = new ArrayList<>(pinned);
@@ -603,21 +642,13 @@ public class AgentContextBuilder {
         }
 
         if (!pinned.isEmpty()
-                && estimateTokens(assembleSystemPrompt(current)) > tokenBudget) {
+                && promptTokens(current, counter) > tokenBudget) {
             log.warn("memory section over budget but only pinned remain; keeping pinned "
                     + "(pinnedCount={}, budget={})", pinned.size(), tokenBudget);
         }
         return current;
     }
 
-    private JsonNode readJsonMaybeQuoted(String value) throws Exception {
-        JsonNode root = objectMapper.readTree(value);
-        if (root.isTextual() && hasText(root.asText())) {
-            return objectMapper.readTree(root.asText());
-        }
-        return root;
-    }
-
     private static void appendIfPresent(StringBuilder prompt, String value) {
         if (hasText(value)) {
             prompt.append(value).append("\n\n");
@@ -673,6 +704,16 @@ public class AgentContextBuilder {
         return hasText(value) ? value : fallback;
     }
 
+    /**
+     * System prompt split into a prefix that is byte-stable across turns and a
+     * suffix that is rebuilt every turn; {@link #text()} is the full prompt.
+     */
+    public record SystemPrompt(String stablePrefix, String volatileSuffix) {
+        public String text() {
+            return stablePrefix + volatileSuffix;
+        }
+    }
+
     public record AgentIdentity(
             String displayName,
             String avatarUrl,
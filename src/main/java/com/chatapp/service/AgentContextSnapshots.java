@@ -0,0 +1,235 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.Message;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Per-room snapshots of what {@link AgentContextBuilder} reads every turn, so the
+ * next turn applies what changed instead of rebuilding from scratch.
+ *
+ * <p>A history window remembers the last N messages of a room (rendered once,
+ * image annotations included) plus the newest id it has seen. The next turn asks
+ * only for rows newer than that id or touched since the last refresh, replaces or
+ * drops those in place, appends the new ones and trims from the front. A window is
+ * reloaded in full when it is older than {@code snapshot-ttl-seconds}, when a
+ * deletion leaves it short of N, when a self-destructing message in it expires, or
+ * when the delta is larger than the window itself. Room member names and counts
+ * are cached until membership changes commit.
+ */
+@Component
+public class AgentContextSnapshots {
+
+    /** Rows whose update is stamped this long before the previous refresh are fetched again. */
+    static final Duration COMMIT_LAG = Duration.ofSeconds(30);
+    private static final long MAX_ROOMS = 10_000;
+
+    private final Duration maxAge;
+    private final Cache<HistoryKey, HistoryWindow> histories;
+    private final Cache<Long, RoomMembers> members;
+
+    @Autowired
+    public AgentContextSnapshots(@Value("${agent.context.snapshot-ttl-seconds:300}") long ttlSeconds) {
+        this.maxAge = Duration.ofSeconds(Math.max(0, ttlSeconds));
+        long capacity = ttlSeconds > 0 ? MAX_ROOMS : 0;
+        Duration idle = maxAge.isZero() ? Duration.ofSeconds(1) : maxAge;
+        this.histories = Caffeine.newBuilder().maximumSize(capacity).expireAfterAccess(idle).build();
+        this.members = Caffeine.newBuilder().maximumSize(capacity).expireAfterWrite(idle).build();
+    }
+
+    /** Snapshots that never keep anything; every turn reloads. */
+    static AgentContextSnapshots disabled() {
+        return new AgentContextSnapshots(0);
+    }
+
+    boolean enabled() {
+        return !maxAge.isZero();
+    }
+
+    RoomMembers members(Long roomId, Function<Long, RoomMembers> loader) {
+        return enabled() ? members.get(roomId, loader) : loader.apply(roomId);
+    }
+
+    /** A window still worth advancing at {@code now}, or null when it must be reloaded. */
+    HistoryWindow history(Long roomId, int limit, LocalDateTime now) {
+        if (!enabled()) {
+            return null;
+        }
+        HistoryWindow window = histories.getIfPresent(new HistoryKey(roomId, limit));
+        if (window == null
+                || window.loadedAt.plus(maxAge).isBefore(now)
+                || (window.expiresAt != null && !now.isBefore(window.expiresAt))) {
+            return null;
+        }
+        return window;
+    }
+
+    void putHistory(Long roomId, int limit, HistoryWindow window) {
+        if (enabled() && window != null) {
+            histories.put(new HistoryKey(roomId, limit), window);
+        }
+    }
+
+    /** Drops the room's member snapshot once the current transaction (if any) commits. */
+    public void roomMembersChanged(Long roomId) {
+        if (roomId == null || !enabled()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            members.invalidate(roomId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                members.invalidate(roomId);
+            }
+        });
+    }
+
+    record RoomMembers(List<String> names, long count) {
+    }
+
+    private record HistoryKey(Long roomId, int limit) {
+    }
+
+    /** One message in a window; {@code rendered} is null for messages that contribute no text. */
+    private record Slot(Long messageId, AgentContextBuilder.HistoricalMessage rendered) {
+    }
+
+    /** Immutable last-N view of a room; {@link #advance} returns a new window. */
+    static final class HistoryWindow {
+        private final List<Slot> slots;
+        private final long lastSeenId;
+        private final LocalDateTime loadedAt;
+        private final LocalDateTime refreshedAt;
+        private final LocalDateTime expiresAt;
+
+        private HistoryWindow(List<Slot> slots, long lastSeenId, LocalDateTime loadedAt,
+                              LocalDateTime refreshedAt, LocalDateTime expiresAt) {
+            this.slots = slots;
+            this.lastSeenId = lastSeenId;
+            this.loadedAt = loadedAt;
+            this.refreshedAt = refreshedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Builds a window from a full load, oldest first. Returns null when a message has
+         * no id, because such a window could not be advanced.
+         */
+        static HistoryWindow load(List<Message> oldestFirst,
+                                  Function<Message, AgentContextBuilder.HistoricalMessage> render,
+                                  LocalDateTime now) {
+            List<Slot> slots = new ArrayList<>(oldestFirst.size());
+            long lastSeenId = 0;
+            LocalDateTime expiresAt = null;
+            for (Message message : oldestFirst) {
+                if (message.getId() == null) {
+                    return null;
+                }
+                slots.add(new Slot(message.getId(), render.apply(message)));
+                lastSeenId = Math.max(lastSeenId, message.getId());
+                expiresAt = earliest(expiresAt, message.getSelfDestructAt());
+            }
+            return new HistoryWindow(Collections.unmodifiableList(slots), lastSeenId, now, now, expiresAt);
+        }
+
+        Long fromId() {
+            return slots.isEmpty() ? lastSeenId + 1 : slots.get(0).messageId;
+        }
+
+        long lastSeenId() {
+            return lastSeenId;
+        }
+
+        LocalDateTime changedSince() {
+            return refreshedAt.minus(COMMIT_LAG);
+        }
+
+        /**
+         * Applies rows that are new or were touched since the last refresh (ordered by id,
+         * deleted ones included) and trims to {@code limit}. Returns null when the result
+         * would be short of messages it cannot backfill, so the caller reloads.
+         */
+        HistoryWindow advance(List<Message> delta, int limit,
+                              Function<Message, AgentContextBuilder.HistoricalMessage> render,
+                              LocalDateTime now) {
+            if (delta.isEmpty()) {
+                return new HistoryWindow(slots, lastSeenId, loadedAt, now, expiresAt);
+            }
+            List<Slot> next = new ArrayList<>(slots);
+            long seen = lastSeenId;
+            boolean shrank = false;
+            LocalDateTime expiry = expiresAt;
+            for (Message message : delta) {
+                Long id = message.getId();
+                if (id == null) {
+                    return null;
+                }
+                seen = Math.max(seen, id);
+                int index = indexOf(next, id);
+                if (Boolean.TRUE.equals(message.getIsDeleted())) {
+                    if (index >= 0) {
+                        next.remove(index);
+                        shrank = true;
+                    }
+                    continue;
+                }
+                Slot slot = new Slot(id, render.apply(message));
+                if (index >= 0) {
+                    next.set(index, slot);
+                } else {
+                    next.add(slot);
+                }
+                expiry = earliest(expiry, message.getSelfDestructAt());
+            }
+            if (shrank && slots.size() >= limit && next.size() < limit) {
+                return null;
+            }
+            while (next.size() > limit) {
+                next.remove(0);
+            }
+            return new HistoryWindow(Collections.unmodifiableList(next), seen, loadedAt, now, expiry);
+        }
+
+        List<AgentContextBuilder.HistoricalMessage> messages() {
+            List<AgentContextBuilder.HistoricalMessage> messages = new ArrayList<>(slots.size());
+            for (Slot slot : slots) {
+                if (slot.rendered != null) {
+                    messages.add(slot.rendered);
+                }
+            }
+            return messages;
+        }
+
+        private static int indexOf(List<Slot> slots, Long id) {
+            for (int i = slots.size() - 1; i >= 0; i--) {
+                if (Objects.equals(slots.get(i).messageId, id)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static LocalDateTime earliest(LocalDateTime current, LocalDateTime candidate) {
+            if (candidate == null) {
+                return current;
+            }
+            return current == null || candidate.isBefore(current) ? candidate : current;
+        }
+    }
+}
@@ -11,8 +11,9 @@ import com.chatapp.service.tool.ToolExecutionException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
@@ -20,9 +21,13 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AgentExecutionLoop {
     private final LLMService llmService;
@@ -30,12 +35,39 @@ public class AgentExecutionLoop {
     private final AgentToolDispatcher toolDispatcher;
     private final AgentContextBuilder agentContextBuilder;
     private final ObjectMapper objectMapper;
+    private final Executor toolExecutor;
+
+    /** Runs every tool call on the loop thread; used outside Spring. */
+    public AgentExecutionLoop(LLMService llmService,
+                              AgentToolRegistry toolRegistry,
+                              AgentToolDispatcher toolDispatcher,
+                              AgentContextBuilder agentContextBuilder,
+                              ObjectMapper objectMapper) {
+        this(llmService, toolRegistry, toolDispatcher, agentContextBuilder, objectMapper, Runnable::run);
+    }
+
+    @Autowired
+    public AgentExecutionLoop(LLMService llmService,
+                              AgentToolRegistry toolRegistry,
+                              AgentToolDispatcher toolDispatcher,
+                              AgentContextBuilder agentContextBuilder,
+                              ObjectMapper objectMapper,
+                              @Qualifier("agentToolExecutor") Executor toolExecutor) {
+        this.llmService = llmService;
+        this.toolRegistry = toolRegistry;
+        this.toolDispatcher = toolDispatcher;
+        this.agentContextBuilder = agentContextBuilder;
+        this.objectMapper = objectMapper;
+        this.toolExecutor = toolExecutor;
+    }
 
     public AgentLoopResult runLoop(AgentTask task, AgentContextBuilder.AgentContextEnvelope envelope) {
         BotConfig bot = task.getBotConfig();
         List<Tool> availableTools = toolRegistry.listToolsForBot(bot);
         List<BotDto.ChatMessage> messages = new ArrayList<>();
-        messages.add(new BotDto.ChatMessage("system", agentContextBuilder.assembleSystemPrompt(envelope)));
+        AgentContextBuilder.SystemPrompt systemPrompt = agentContextBuilder.assembleSystemPromptParts(envelope);
+        messages.add(BotDto.ChatMessage.systemWithCacheablePrefix(
+                systemPrompt.stablePrefix(), systemPrompt.volatileSuffix()));
         messages.add(BotDto.ChatMessage.userWithImages(task.getPrompt(), task.getImageAttachments()));
 
         ToolContext toolContext = new ToolContext(
@@ -44,7 +76,8 @@ public class AgentExecutionLoop {
                 task.getId(),
                 bot != null ? bot.getId() : null,
                 Boolean.TRUE.equals(task.getAnonymousRequester()),
-                task.getAnonymousRequesterName());
+                task.getAnonymousRequesterName(),
+                VisionImagePreprocessor.Target.forBot(bot));
         List<ToolCallRecord> toolCalls = new ArrayList<>();
         Budget budget = Budget.from(bot);
         Instant startedAt = Instant.now();
@@ -69,8 +102,8 @@ public class AgentExecutionLoop {
             List<BotDto.ToolCall> requestedTools = response.getToolCalls() != null
                     ? response.getToolCalls()
                     : Collections.emptyList();
-            log.info("Agent loop iteration={} taskId={} toolCalls={} cumulativeTokens={}",
-                    iteration, task.getId(), requestedTools.size(), cumulativeTokens);
+            log.info("Agent loop iteration={} taskId={} toolCalls={} cumulativeTokens={} cachedTokens={}",
+                    iteration, task.getId(), requestedTools.size(), cumulativeTokens, response.getCachedTokens());
 
             if (requestedTools.isEmpty()) {
                 return new AgentLoopResult(
@@ -88,24 +121,33 @@ public class AgentExecutionLoop {
                     null,
                     requestedTools));
 
-            for (BotDto.ToolCall requestedTool : requestedTools) {
-                String rawResultJson = executeTool(
-                        requestedTool,
-                        toolContext,
-                        toolCalls,
-                        budget.remainingWallclockMs(startedAt));
-                BotDto.ChatMessage selectedImageMessage = selectedToolImageMessage(rawResultJson);
-                String resultJson = stripToolImagePayload(rawResultJson);
-                messages.add(new BotDto.ChatMessage(
-                        "tool",
-                        resultJson,
-                        requestedTool.getId(),
-                        requestedTool.getName(),
-                        null));
-                cumulativeTokens += agentContextBuilder.estimateTokens(resultJson);
-                if (selectedImageMessage != null) {
-                    messages.add(selectedImageMessage);
-                    cumulativeTokens += agentContextBuilder.estimateTokens(selectedImageMessage.textContent());
+            BudgetHit toolsHit = null;
+            for (List<BotDto.ToolCall> batch : toolBatches(requestedTools)) {
+                // Budgets are re-checked between batches; calls after a hit still get an
+                // error result so every tool_call id in the assistant turn is answered.
+                if (toolsHit == null) {
+                    toolsHit = budget.check(iteration, startedAt, cumulativeTokens);
+                }
+                List<ToolOutcome> outcomes = toolsHit == null
+                        ? executeBatch(batch, toolContext, budget.remainingWallclockMs(startedAt))
+                        : skipBatch(batch, toolsHit);
+                for (int i = 0; i < batch.size(); i++) {
+                    BotDto.ToolCall requestedTool = batch.get(i);
+                    ToolOutcome outcome = outcomes.get(i);
+                    toolCalls.add(outcome.record());
+                    BotDto.ChatMessage selectedImageMessage = selectedToolImageMessage(outcome.resultJson());
+                    String resultJson = stripToolImagePayload(outcome.resultJson());
+                    messages.add(new BotDto.ChatMessage(
+                            "tool",
+                            resultJson,
+                            requestedTool.getId(),
+                            requestedTool.getName(),
+                            null));
+                    cumulativeTokens += agentContextBuilder.estimateTokens(resultJson);
+                    if (selectedImageMessage != null) {
+                        messages.add(selectedImageMessage);
+                        cumulativeTokens += agentContextBuilder.estimateTokens(selectedImageMessage.textContent());
+                    }
                 }
             }
 
@@ -118,38 +160,122 @@ public class AgentExecutionLoop {
         return exhausted(lastAssistantContent, budget.maxIterations(), toolCalls, cumulativeTokens, BudgetHit.ITERATIONS, startedAt);
     }
 
-    private String executeTool(BotDto.ToolCall requestedTool,
-                               ToolContext context,
-                               List<ToolCallRecord> toolCalls,
-                               long remainingWallclockMs) {
+    /**
+     * Splits one turn's tool calls into batches in model order: consecutive read-only
+     * calls share a batch and run concurrently, while each mutating call (or unknown
+     * tool) is a batch of its own, so writes never overlap or reorder.
+     */
+    private List<List<BotDto.ToolCall>> toolBatches(List<BotDto.ToolCall> requestedTools) {
+        List<List<BotDto.ToolCall>> batches = new ArrayList<>();
+        List<BotDto.ToolCall> readOnly = new ArrayList<>();
+        for (BotDto.ToolCall requestedTool : requestedTools) {
+            if (isReadOnly(requestedTool)) {
+                readOnly.add(requestedTool);
+                continue;
+            }
+            if (!readOnly.isEmpty()) {
+                batches.add(readOnly);
+                readOnly = new ArrayList<>();
+            }
+            batches.add(List.of(requestedTool));
+        }
+        if (!readOnly.isEmpty()) {
+            batches.add(readOnly);
+        }
+        return batches;
+    }
+
+    private boolean isReadOnly(BotDto.ToolCall requestedTool) {
+        return toolRegistry.getTool(requestedTool.getName())
+                .map(tool -> tool.concurrency() == Tool.Concurrency.READ_ONLY)
+                .orElse(false);
+    }
+
+    private List<ToolOutcome> executeBatch(List<BotDto.ToolCall> batch,
+                                           ToolContext context,
+                                           long remainingWallclockMs) {
+        if (batch.size() == 1) {
+            return List.of(executeTool(batch.get(0), context, remainingWallclockMs));
+        }
+        List<CompletableFuture<ToolOutcome>> futures = new ArrayList<>(batch.size());
+        for (BotDto.ToolCall requestedTool : batch) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> executeTool(requestedTool, context, remainingWallclockMs), toolExecutor));
+        }
+        log.info("Tool batch dispatched: size={} roomId={} taskId={}", batch.size(), context.roomId(), context.taskId());
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingWallclockMs);
+        List<ToolOutcome> outcomes = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            BotDto.ToolCall requestedTool = batch.get(i);
+            CompletableFuture<ToolOutcome> future = futures.get(i);
+            try {
+                long waitNanos = Math.max(0L, deadlineNanos - System.nanoTime());
+                outcomes.add(future.get(waitNanos, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                log.warn("Tool timed out in parallel batch: {} roomId={} taskId={}",
+                        requestedTool.getName(), context.roomId(), context.taskId());
+                outcomes.add(failure(requestedTool, "tool_timeout",
+                        "Tool did not finish within the agent loop wall-clock budget"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                outcomes.add(failure(requestedTool, "tool_error", "Tool execution was interrupted"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                outcomes.add(failure(requestedTool, "tool_error",
+                        cause.getMessage() != null ? cause.getMessage() : "Tool execution failed"));
+            }
+        }
+        return outcomes;
+    }
+
+    private List<ToolOutcome> skipBatch(List<BotDto.ToolCall> batch, BudgetHit budgetHit) {
+        List<ToolOutcome> outcomes = new ArrayList<>(batch.size());
+        for (BotDto.ToolCall requestedTool : batch) {
+            outcomes.add(failure(requestedTool, "budget_exhausted",
+                    "Agent loop " + budgetHit.name().toLowerCase() + " budget exhausted before this tool ran"));
+        }
+        return outcomes;
+    }
+
+    private ToolOutcome executeTool(BotDto.ToolCall requestedTool,
+                                    ToolContext context,
+                                    long remainingWallclockMs) {
         String toolName = requestedTool.getName();
-        JsonNode arguments = parseArguments(requestedTool.getArgumentsJson());
         Instant started = Instant.now();
         try {
+            JsonNode arguments = parseArguments(requestedTool.getArgumentsJson());
             Tool tool = toolRegistry.getTool(toolName)
                     .orElseThrow(() -> new ToolExecutionException("tool_not_allowed", "Tool is not available: " + toolName));
             JsonNode result = toolDispatcher.dispatch(tool, arguments, context, remainingWallclockMs);
             String resultJson = result.toString();
-            toolCalls.add(new ToolCallRecord(toolName, requestedTool.getId(), result.has("error"), resultJson.length()));
             log.info("Tool executed: {} ctx={} roomId={} taskId={} resultBytes={}",
                     toolName, tool.executionContext(), context.roomId(), context.taskId(), resultJson.length());
-            return resultJson;
+            return new ToolOutcome(
+                    new ToolCallRecord(toolName, requestedTool.getId(), result.has("error"), resultJson.length()),
+                    resultJson);
         } catch (Exception e) {
             String code = e instanceof ToolExecutionException toolException
                     ? toolException.getCode()
                     : "tool_error";
-            ObjectNode root = objectMapper.createObjectNode();
-            ObjectNode error = root.putObject("error");
-            error.put("code", code);
-            error.put("message", e.getMessage() != null ? e.getMessage() : "Tool execution failed");
-            String resultJson = root.toString();
-            toolCalls.add(new ToolCallRecord(toolName, requestedTool.getId(), true, resultJson.length()));
             log.warn("Tool execution failed: {} roomId={} taskId={} elapsedMs={} error={}",
                     toolName, context.roomId(), context.taskId(), elapsedMs(started), e.getMessage());
-            return resultJson;
+            return failure(requestedTool, code, e.getMessage() != null ? e.getMessage() : "Tool execution failed");
         }
     }
 
+    private ToolOutcome failure(BotDto.ToolCall requestedTool, String code, String message) {
+        ObjectNode root = objectMapper.createObjectNode();
+        ObjectNode error = root.putObject("error");
+        error.put("code", code);
+        error.put("message", message);
+        String resultJson = root.toString();
+        return new ToolOutcome(
+                new ToolCallRecord(requestedTool.getName(), requestedTool.getId(), true, resultJson.length()),
+                resultJson);
+    }
+
     private JsonNode parseArguments(String argumentsJson) {
         if (argumentsJson == null || argumentsJson.isBlank()) {
             return objectMapper.createObjectNode();
@@ -284,6 +410,9 @@ public class AgentExecutionLoop {
         }
     }
 
+    private record ToolOutcome(ToolCallRecord record, String resultJson) {
+    }
+
     private enum BudgetHit {
         ITERATIONS,
         WALLCLOCK,
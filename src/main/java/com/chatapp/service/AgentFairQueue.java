@@ -0,0 +1,165 @@
+package com.chatapp.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Weighted fair queue of agent runs, two levels deep: rooms share the slots
+ * equally, and users share their room's turns. Uses start-time fair queuing:
+ * every room and user carries a virtual pass that grows by {@code 1 / weight}
+ * per run admitted, the lowest pass goes next, and a flow that (re)joins starts
+ * at the current virtual time so idle rooms cannot bank credit. One room
+ * flooding the queue therefore only delays its own runs. Not thread-safe.
+ */
+final class AgentFairQueue<T> {
+
+    private final Map<Long, RoomFlow> rooms = new LinkedHashMap<>();
+    private double virtualTime;
+    private int size;
+
+    Ticket<T> add(Long roomId, Long userId, String provider, int weight, T item) {
+        Ticket<T> ticket = new Ticket<>(roomId, userId, provider, Math.max(1, weight), item);
+        RoomFlow room = rooms.computeIfAbsent(roomId, id -> new RoomFlow(virtualTime));
+        room.users.computeIfAbsent(userId, id -> new UserFlow(room.virtualTime)).queue.addLast(ticket);
+        size++;
+        return ticket;
+    }
+
+    /**
+     * Removes and returns the next run whose provider {@code admits} accepts, or null.
+     * Within one user, runs keep their arrival order among the admissible ones.
+     */
+    Ticket<T> poll(Predicate<String> admits) {
+        RoomFlow bestRoom = null;
+        UserFlow bestUser = null;
+        Ticket<T> best = null;
+        for (RoomFlow room : rooms.values()) {
+            if (bestRoom != null && room.pass >= bestRoom.pass) {
+                continue;
+            }
+            UserFlow roomUser = null;
+            Ticket<T> roomTicket = null;
+            for (UserFlow user : room.users.values()) {
+                if (roomUser != null && user.pass >= roomUser.pass) {
+                    continue;
+                }
+                Ticket<T> eligible = firstAdmitted(user.queue, admits);
+                if (eligible != null) {
+                    roomUser = user;
+                    roomTicket = eligible;
+                }
+            }
+            if (roomTicket != null) {
+                bestRoom = room;
+                bestUser = roomUser;
+                best = roomTicket;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        double charge = 1.0d / best.weight();
+        virtualTime = bestRoom.pass;
+        bestRoom.virtualTime = bestUser.pass;
+        bestRoom.pass += charge;
+        bestUser.pass += charge;
+        remove(best);
+        return best;
+    }
+
+    boolean remove(Ticket<T> ticket) {
+        RoomFlow room = rooms.get(ticket.roomId());
+        UserFlow user = room != null ? room.users.get(ticket.userId()) : null;
+        if (user == null || !user.queue.remove(ticket)) {
+            return false;
+        }
+        size--;
+        if (user.queue.isEmpty()) {
+            room.users.remove(ticket.userId());
+            if (room.users.isEmpty()) {
+                rooms.remove(ticket.roomId());
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int roomCount() {
+        return rooms.size();
+    }
+
+    private static <T> Ticket<T> firstAdmitted(Deque<Ticket<T>> queue, Predicate<String> admits) {
+        Iterator<Ticket<T>> it = queue.iterator();
+        while (it.hasNext()) {
+            Ticket<T> ticket = it.next();
+            if (admits.test(ticket.provider())) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    /** One queued run. Identity-compared, so equal fields never alias two runs. */
+    static final class Ticket<T> {
+        private final Long roomId;
+        private final Long userId;
+        private final String provider;
+        private final int weight;
+        private final T item;
+
+        private Ticket(Long roomId, Long userId, String provider, int weight, T item) {
+            this.roomId = roomId;
+            this.userId = userId;
+            this.provider = provider;
+            this.weight = weight;
+            this.item = item;
+        }
+
+        Long roomId() {
+            return roomId;
+        }
+
+        Long userId() {
+            return userId;
+        }
+
+        String provider() {
+            return provider;
+        }
+
+        int weight() {
+            return weight;
+        }
+
+        T item() {
+            return item;
+        }
+    }
+
+    private final class RoomFlow {
+        private final Map<Long, UserFlow> users = new LinkedHashMap<>();
+        private double pass;
+        /** Users' virtual time inside this room. */
+        private double virtualTime;
+
+        private RoomFlow(double start) {
+            this.pass = start;
+        }
+    }
+
+    private final class UserFlow {
+        private final Deque<Ticket<T>> queue = new ArrayDeque<>();
+        private double pass;
+
+        private UserFlow(double start) {
+            this.pass = start;
+        }
+    }
+}
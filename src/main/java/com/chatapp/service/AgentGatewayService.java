@@ -6,7 +6,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -15,16 +14,17 @@ import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AgentGatewayService {
 
@@ -32,6 +32,19 @@ public class AgentGatewayService {
 
     private final AgentGatewayProperties properties;
     private final ObjectMapper objectMapper;
+    private final OutboundHttpClients httpClients;
+
+    public AgentGatewayService(AgentGatewayProperties properties, ObjectMapper objectMapper) {
+        this(properties, objectMapper, OutboundHttpClients.standalone());
+    }
+
+    @Autowired
+    public AgentGatewayService(AgentGatewayProperties properties, ObjectMapper objectMapper,
+                               OutboundHttpClients httpClients) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.httpClients = httpClients;
+    }
 
     public boolean isConfigured() {
         return properties.isConfigured();
@@ -101,11 +114,11 @@ public class AgentGatewayService {
     }
 
     private OkHttpClient client() {
-        return new OkHttpClient.Builder()
-                .connectTimeout(properties.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
-                .readTimeout(properties.getReadTimeoutMs(), TimeUnit.MILLISECONDS)
-                .writeTimeout(properties.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
-                .build();
+        return httpClients.client("agent-gateway", OutboundHttpClients.Spec
+                .timeouts(Duration.ofMillis(properties.getConnectTimeoutMs()),
+                        Duration.ofMillis(properties.getReadTimeoutMs()),
+                        Duration.ofMillis(properties.getConnectTimeoutMs()))
+                .withMaxConcurrent(8));
     }
 
     private boolean isOpenClawProvider() {
@@ -224,8 +237,6 @@ public class AgentGatewayService {
             throw new IOException("OpenClaw Gateway call interrupted", e);
         } finally {
             webSocket.close(1000, "done");
-            wsClient.dispatcher().executorService().shutdown();
-            wsClient.connectionPool().evictAll();
         }
 
         if (!completed) {
@@ -0,0 +1,409 @@
+package com.chatapp.service;
+
+import com.chatapp.config.AgentSchedulerProperties;
+import com.chatapp.entity.AgentTask;
+import com.chatapp.entity.BotConfig;
+import com.chatapp.repository.AgentTaskRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Admits agent runs under a node-wide and per-provider concurrency cap, fairly
+ * across rooms and then users (see {@link AgentFairQueue}), so one room spamming
+ * agent commands only queues behind itself.
+ *
+ * <p>Two kinds of runs share the slots. Interactive room-bot runs are queued with
+ * {@link #enqueue} after the triggering message commits and start on the agent run
+ * executor once admitted, so no thread waits for a slot while holding a database
+ * transaction ({@link #admit} and {@link #tryAdmit} remain for callers that may
+ * block or must not wait). Such a run lives only in memory: if it cannot start
+ * (executor full) or is still waiting when the node shuts down, its {@code dropped}
+ * callback runs instead so the caller can tell the room. Workflow
+ * tasks are durable: they are PENDING rows in {@code agent_tasks} that any node
+ * claims with a conditional update, under a lease its heartbeat keeps extending.
+ * When a node dies its leases lapse, and the sweep puts those tasks back in the
+ * queue (after a backoff) until {@code max-attempts} is reached.
+ */
+@Component
+@Slf4j
+public class AgentTaskScheduler {
+
+    static final String NO_PROVIDER = "NONE";
+    private static final int CLAIM_BATCH = 50;
+
+    private final AgentSchedulerProperties properties;
+    private final AgentTaskRepository agentTaskRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor executor;
+    private final ObjectProvider<AgentWorkflowService> workflowService;
+    private final String nodeId = "agent-" + UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicBoolean polling = new AtomicBoolean();
+    /** Durable tasks this node holds a lease on, queued or running. */
+    private final Set<Long> leased = ConcurrentHashMap.newKeySet();
+    private volatile long queuedInDatabase;
+    private volatile boolean shuttingDown;
+
+    // Guarded by this.
+    private final AgentFairQueue<Admission> queue = new AgentFairQueue<>();
+    private final Map<String, Integer> runningByProvider = new HashMap<>();
+    private int running;
+
+    @Autowired
+    public AgentTaskScheduler(AgentSchedulerProperties properties,
+                              AgentTaskRepository agentTaskRepository,
+                              TransactionTemplate transactionTemplate,
+                              @Qualifier("agentRunExecutor") Executor executor,
+                              ObjectProvider<AgentWorkflowService> workflowService,
+                              ObjectProvider<MeterRegistry> meterRegistry) {
+        this(properties, agentTaskRepository, transactionTemplate, executor, workflowService,
+                meterRegistry.getIfAvailable());
+    }
+
+    AgentTaskScheduler(AgentSchedulerProperties properties,
+                       AgentTaskRepository agentTaskRepository,
+                       TransactionTemplate transactionTemplate,
+                       Executor executor,
+                       ObjectProvider<AgentWorkflowService> workflowService,
+                       MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.agentTaskRepository = agentTaskRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.executor = executor;
+        this.workflowService = workflowService;
+        if (meterRegistry != null) {
+            Gauge.builder("agent.tasks.queued", this, scheduler -> scheduler.queuedInDatabase)
+                    .description("PENDING workflow tasks in the durable queue")
+                    .register(meterRegistry);
+            Gauge.builder("agent.scheduler.waiting", this, AgentTaskScheduler::waiting)
+                    .description("Agent runs on this node waiting for a slot")
+                    .register(meterRegistry);
+            Gauge.builder("agent.scheduler.running", this, AgentTaskScheduler::running)
+                    .description("Agent runs executing on this node")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Waits for a fair slot for an interactive run. Returns null when none frees up
+     * within {@code admission-timeout-ms}; the caller must close the slot when done.
+     */
+    public Slot admit(Long roomId, Long userId, BotConfig bot) {
+        return admit(roomId, userId, bot, properties.getAdmissionTimeoutMs());
+    }
+
+    /** Takes a slot only if one is free right now and no run is queued ahead of it. */
+    public Slot tryAdmit(Long roomId, Long userId, BotConfig bot) {
+        return admit(roomId, userId, bot, 0);
+    }
+
+    /**
+     * Queues an interactive run without blocking. Once admitted, {@code run} is called
+     * on the agent run executor with the slot, which is released when it returns. If the run
+     * never starts, {@code dropped} is called instead, possibly on the calling thread.
+     */
+    public void enqueue(Long roomId, Long userId, BotConfig bot, Consumer<Slot> run, Runnable dropped) {
+        Admission admission = new Admission(null, run, dropped);
+        synchronized (this) {
+            if (!shuttingDown) {
+                queue.add(roomId, userId, providerOf(bot), properties.getInteractiveWeight(), admission);
+                admission = null;
+            }
+        }
+        if (admission != null) {
+            drop(admission);
+            return;
+        }
+        pump();
+    }
+
+    private Slot admit(Long roomId, Long userId, BotConfig bot, long timeoutMs) {
+        Admission admission = new Admission(null, null, null);
+        AgentFairQueue.Ticket<Admission> ticket;
+        synchronized (this) {
+            ticket = queue.add(roomId, userId, providerOf(bot), properties.getInteractiveWeight(), admission);
+        }
+        pump();
+        try {
+            if (admission.admitted.await(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS)) {
+                return admission.slot;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (queue.remove(ticket)) {
+                return null;
+            }
+            // Admitted at the same moment the wait gave up.
+            return admission.slot;
+        }
+    }
+
+    /** Nudges the queue right after a workflow task was committed, instead of at the next poll. */
+    public void wakeUp() {
+        try {
+            executor.execute(this::pollQueue);
+        } catch (RejectedExecutionException e) {
+            log.debug("Agent queue wake-up skipped: executor saturated");
+        }
+    }
+
+    /** Claims as many PENDING workflow tasks as there are free slots, in fair order. */
+    @Scheduled(fixedDelayString = "${agent.scheduler.poll-ms:2000}")
+    public void pollQueue() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            queuedInDatabase = agentTaskRepository.countByStatus(AgentTask.Status.PENDING);
+            int free;
+            synchronized (this) {
+                free = shuttingDown ? 0 : properties.getMaxConcurrent() - running - queue.size();
+            }
+            if (free <= 0 || queuedInDatabase == 0) {
+                return;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            List<AgentTaskRepository.QueuedTask> candidates =
+                    agentTaskRepository.findClaimable(now, PageRequest.of(0, CLAIM_BATCH));
+            AgentFairQueue<AgentTaskRepository.QueuedTask> order = new AgentFairQueue<>();
+            for (AgentTaskRepository.QueuedTask candidate : candidates) {
+                order.add(candidate.getRoomId(), candidate.getUserId(), providerName(candidate.getProvider()), 1,
+                        candidate);
+            }
+            LocalDateTime leaseUntil = now.plusSeconds(properties.getLeaseSeconds());
+            int claimed = 0;
+            AgentFairQueue.Ticket<AgentTaskRepository.QueuedTask> next;
+            while (claimed < free && (next = order.poll(provider -> true)) != null) {
+                Long taskId = next.item().getId();
+                Integer updated = transactionTemplate.execute(status ->
+                        agentTaskRepository.claim(taskId, nodeId, leaseUntil));
+                if (updated == null || updated != 1) {
+                    continue;
+                }
+                leased.add(taskId);
+                synchronized (this) {
+                    queue.add(next.roomId(), next.userId(), next.provider(), 1, new Admission(taskId, null, null));
+                }
+                claimed++;
+            }
+            if (claimed > 0) {
+                log.debug("Claimed {} agent task(s) as {}", claimed, nodeId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Agent 任务队列轮询失败: {}", e.getMessage());
+        } finally {
+            polling.set(false);
+        }
+        pump();
+    }
+
+    /**
+     * Extends this node's leases and returns other nodes' lapsed tasks to the queue,
+     * failing those that have used up their attempts.
+     */
+    @Scheduled(fixedDelayString = "${agent.scheduler.heartbeat-ms:15000}")
+    public void heartbeat() {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            if (!leased.isEmpty()) {
+                List<Long> ids = List.copyOf(leased);
+                transactionTemplate.executeWithoutResult(status -> agentTaskRepository.renewLeases(
+                        ids, nodeId, now.plusSeconds(properties.getLeaseSeconds())));
+            }
+            int[] swept = transactionTemplate.execute(status -> new int[] {
+                    agentTaskRepository.requeueAbandoned(now,
+                            now.plusSeconds(properties.getRetryBackoffSeconds()), properties.getMaxAttempts()),
+                    agentTaskRepository.failAbandoned(now, properties.getMaxAttempts(), "任务多次中断，已放弃执行")
+            });
+            if (swept != null && (swept[0] > 0 || swept[1] > 0)) {
+                log.warn("回收了 {} 个中断的 agent 任务，{} 个因超过重试次数标记为失败", swept[0], swept[1]);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Agent 任务租约续期失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops admitting and drops the interactive runs still queued, so their rooms hear
+     * that the run will not happen. Queued workflow tasks keep their rows and are
+     * picked up again once their lease lapses.
+     */
+    @PreDestroy
+    void shutdown() {
+        List<Admission> waiting = new ArrayList<>();
+        synchronized (this) {
+            shuttingDown = true;
+            AgentFairQueue.Ticket<Admission> next;
+            while ((next = queue.poll(provider -> true)) != null) {
+                waiting.add(next.item());
+            }
+        }
+        for (Admission admission : waiting) {
+            if (admission.run != null) {
+                drop(admission);
+            } else if (admission.taskId != null) {
+                leased.remove(admission.taskId);
+            }
+            // A blocked admit() times out and reports the bot as busy.
+        }
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+
+    synchronized int waiting() {
+        return queue.size();
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    private void pump() {
+        List<Admission> started = new ArrayList<>();
+        synchronized (this) {
+            AgentFairQueue.Ticket<Admission> next;
+            while (running < properties.getMaxConcurrent()
+                    && (next = queue.poll(this::providerHasCapacity)) != null) {
+                running++;
+                runningByProvider.merge(next.provider(), 1, Integer::sum);
+                Admission admission = next.item();
+                admission.slot = new Slot(this, next.provider());
+                if (admission.taskId == null && admission.run == null) {
+                    admission.admitted.countDown();
+                } else {
+                    started.add(admission);
+                }
+            }
+        }
+        for (Admission admission : started) {
+            try {
+                executor.execute(() -> {
+                    if (admission.taskId != null) {
+                        runDurable(admission);
+                    } else {
+                        runQueued(admission);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admission.slot.close();
+                if (admission.taskId == null) {
+                    log.warn("排队的 agent 运行无法启动: 执行线程池已满");
+                    drop(admission);
+                    continue;
+                }
+                // The lease lapses and the sweep requeues the task.
+                log.warn("Agent 任务 {} 无法启动: 执行线程池已满", admission.taskId);
+                leased.remove(admission.taskId);
+            }
+        }
+    }
+
+    private void runQueued(Admission admission) {
+        try {
+            admission.run.accept(admission.slot);
+        } catch (RuntimeException e) {
+            log.warn("排队的 agent 运行异常: {}", e.getMessage());
+        } finally {
+            admission.slot.close();
+        }
+    }
+
+    private static void drop(Admission admission) {
+        try {
+            admission.dropped.run();
+        } catch (RuntimeException e) {
+            log.warn("排队的 agent 运行取消通知失败: {}", e.getMessage());
+        }
+    }
+
+    private void runDurable(Admission admission) {
+        try (Slot ignored = admission.slot) {
+            workflowService.getObject().execute(admission.taskId, nodeId);
+        } catch (RuntimeException e) {
+            log.warn("Agent 任务 {} 执行异常: {}", admission.taskId, e.getMessage());
+        } finally {
+            leased.remove(admission.taskId);
+        }
+    }
+
+    private void release(String provider) {
+        synchronized (this) {
+            running--;
+            runningByProvider.computeIfPresent(provider, (key, count) -> count > 1 ? count - 1 : null);
+        }
+        pump();
+    }
+
+    private boolean providerHasCapacity(String provider) {
+        Integer limit = properties.getProviderMaxConcurrent().get(provider);
+        return limit == null || limit <= 0 || runningByProvider.getOrDefault(provider, 0) < limit;
+    }
+
+    private static String providerOf(BotConfig bot) {
+        return providerName(bot != null ? bot.getLlmProvider() : null);
+    }
+
+    private static String providerName(BotConfig.LLMProvider provider) {
+        return provider != null ? provider.name() : NO_PROVIDER;
+    }
+
+    private static final class Admission {
+        private final Long taskId;
+        private final Consumer<Slot> run;
+        private final Runnable dropped;
+        private final CountDownLatch admitted = new CountDownLatch(1);
+        private Slot slot;
+
+        private Admission(Long taskId, Consumer<Slot> run, Runnable dropped) {
+            this.taskId = taskId;
+            this.run = run;
+            this.dropped = dropped;
+        }
+    }
+
+    /** A granted run slot; closing it (once) lets the next queued run start. */
+    public static final class Slot implements AutoCloseable {
+        private final AgentTaskScheduler scheduler;
+        private final String provider;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Slot(AgentTaskScheduler scheduler, String provider) {
+            this.scheduler = scheduler;
+            this.provider = provider;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                scheduler.release(provider);
+            }
+        }
+    }
+}
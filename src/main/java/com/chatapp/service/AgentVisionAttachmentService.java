@@ -2,13 +2,16 @@ package com.chatapp.service;
 
 import com.chatapp.dto.BotDto;
 import com.chatapp.entity.Message;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.List;
 import java.util.Locale;
@@ -18,12 +21,34 @@ import java.util.Locale;
  *
  * All file bytes are read through {@link FileStorageService}, so FileVault and
  * workspace object decryption stay centralized in the existing storage layer.
+ * Images are shrunk to the provider's effective resolution by
+ * {@link VisionImagePreprocessor}, and the encoded data URL is cached per
+ * (stored file, target size) so follow-up turns about the same picture neither
+ * decrypt nor re-encode it.
  */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AgentVisionAttachmentService {
+    /** Bound on cached data URL characters (roughly bytes), about 64 MB. */
+    private static final long MAX_CACHED_DATA_URL_CHARS = 64L * 1024 * 1024;
+
     private final FileStorageService fileStorageService;
+    private final VisionImagePreprocessor preprocessor;
+    private final Cache<PreparedKey, PreparedImage> prepared = Caffeine.newBuilder()
+            .maximumWeight(MAX_CACHED_DATA_URL_CHARS)
+            .weigher((PreparedKey key, PreparedImage value) -> value.dataUrl().length())
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
+    public AgentVisionAttachmentService(FileStorageService fileStorageService) {
+        this(fileStorageService, new VisionImagePreprocessor());
+    }
+
+    @Autowired
+    public AgentVisionAttachmentService(FileStorageService fileStorageService, VisionImagePreprocessor preprocessor) {
+        this.fileStorageService = fileStorageService;
+        this.preprocessor = preprocessor;
+    }
 
     public boolean isImageMessage(Message message) {
         if (message == null) {
@@ -41,7 +66,15 @@ public class AgentVisionAttachmentService {
         return hasImageExtension(name);
     }
 
+    /**
+     * Resolves at the default target size. Callers attaching the image for a known bot
+     * pass {@link VisionImagePreprocessor.Target#forBot} instead.
+     */
     public ImageContext resolve(Message message, boolean includeBinary) {
+        return resolve(message, includeBinary, VisionImagePreprocessor.Target.DEFAULT);
+    }
+
+    public ImageContext resolve(Message message, boolean includeBinary, VisionImagePreprocessor.Target target) {
         if (!isImageMessage(message)) {
             return ImageContext.empty();
         }
@@ -52,9 +85,9 @@ public class AgentVisionAttachmentService {
             return new ImageContext(List.of(), annotation, false);
         }
         try {
-            byte[] bytes = readImageBytes(message);
-            String dataUrl = "data:" + mediaType + ";base64," + Base64.getEncoder().encodeToString(bytes);
-            return new ImageContext(List.of(new BotDto.ImageAttachment(fileName, mediaType, dataUrl)), annotation, false);
+            PreparedImage image = preparedImage(message, mediaType, target);
+            return new ImageContext(List.of(new BotDto.ImageAttachment(fileName, image.mediaType(), image.dataUrl())),
+                    annotation, false);
         } catch (Exception e) {
             log.warn("Agent vision image decode failed messageId={} file='{}' url='{}': {}",
                     message.getId(), fileName, message.getFileUrl(), e.getMessage());
@@ -62,9 +95,23 @@ public class AgentVisionAttachmentService {
         }
     }
 
-    private byte[] readImageBytes(Message message) throws IOException {
+    private PreparedImage preparedImage(Message message, String mediaType, VisionImagePreprocessor.Target target)
+            throws IOException {
         StorageRef ref = storageRef(message);
-        return fileStorageService.getFile(ref.type(), ref.fileName());
+        // Workspace paths can be overwritten in place, so only immutable uploads are cached.
+        PreparedKey key = "workspace".equals(ref.type()) ? null : new PreparedKey(ref, target);
+        PreparedImage cached = key != null ? prepared.getIfPresent(key) : null;
+        if (cached != null) {
+            return cached;
+        }
+        byte[] bytes = fileStorageService.getFile(ref.type(), ref.fileName());
+        VisionImagePreprocessor.Prepared shrunk = preprocessor.prepare(bytes, mediaType, target);
+        PreparedImage image = new PreparedImage(shrunk.mediaType(),
+                "data:" + shrunk.mediaType() + ";base64," + Base64.getEncoder().encodeToString(shrunk.bytes()));
+        if (key != null) {
+            prepared.put(key, image);
+        }
+        return image;
     }
 
     private StorageRef storageRef(Message message) {
@@ -168,4 +215,10 @@ public class AgentVisionAttachmentService {
 
     private record StorageRef(String type, String fileName) {
     }
+
+    private record PreparedKey(StorageRef ref, VisionImagePreprocessor.Target target) {
+    }
+
+    private record PreparedImage(String mediaType, String dataUrl) {
+    }
 }
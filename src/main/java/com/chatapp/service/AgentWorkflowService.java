@@ -12,8 +12,11 @@ import com.chatapp.repository.BotConfigRepository;
 import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
+import com.chatapp.util.TransactionHooks;
+import com.chatapp.websocket.RawWebSocketHandler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -24,6 +27,9 @@ import java.time.LocalDateTime;
 
 /**
  * Agent Gateway/工作流任务服务。
+ *
+ * <p>Tasks are queued durably and run by {@link AgentTaskScheduler}; the result
+ * message is broadcast to the room once the run commits.
  */
 @Service
 @RequiredArgsConstructor
@@ -41,9 +47,12 @@ public class AgentWorkflowService {
     private final WorkspaceService workspaceService;
     private final AgentContextBuilder agentContextBuilder;
     private final AgentExecutionLoop agentExecutionLoop;
+    private final AgentTaskScheduler agentTaskScheduler;
+    private final ObjectProvider<RawWebSocketHandler> rawWebSocketHandler;
 
+    /** Validates and queues a task; it runs asynchronously once the scheduler admits it. */
     @Deprecated(forRemoval = false)
-    public AgentTask createAndRun(Long requestedById, AgentTaskDto.CreateRequest request) {
+    public AgentTask enqueue(Long requestedById, AgentTaskDto.CreateRequest request) {
         if (request.getChatRoomId() == null) {
             throw new IllegalArgumentException("chatRoomId 不能为空");
         }
@@ -68,10 +77,36 @@ public class AgentWorkflowService {
         task.setRequestedBy(requestedBy);
         task.setBotConfig(botConfig);
         task.setPrompt(request.getPrompt().trim());
+        // The requested artifact target is kept on the task until the run saves the file.
+        task.setArtifactWorkspaceId(request.getArtifactWorkspaceId());
+        task.setArtifactFolderId(request.getArtifactFolderId());
+        task.setArtifactFileName(request.getArtifactFileName());
         task.setStatus(AgentTask.Status.PENDING);
         task = agentTaskRepository.save(task);
 
-        return runTask(task, botConfig, request);
+        TransactionHooks.afterCommit(agentTaskScheduler::wakeUp);
+        return task;
+    }
+
+    /**
+     * Runs a task this node has claimed. Skips it if the lease moved to another node
+     * in the meantime (e.g. after a missed heartbeat).
+     */
+    public void execute(Long taskId, String leaseOwner) {
+        AgentTask task = agentTaskRepository.findWithDetailsById(taskId).orElse(null);
+        if (task == null || task.getStatus() != AgentTask.Status.RUNNING
+                || !leaseOwner.equals(task.getLeaseOwner())) {
+            log.info("Agent task {} is no longer leased to {}, skipping", taskId, leaseOwner);
+            return;
+        }
+        if (task.getAttempts() != null && task.getAttempts() > 1) {
+            log.info("Agent task {} resumed (attempt {})", taskId, task.getAttempts());
+        }
+        AgentTask finished = runTask(task, task.getBotConfig());
+        Message resultMessage = finished.getResultMessage();
+        if (resultMessage != null) {
+            TransactionHooks.afterCommit(() -> rawWebSocketHandler.getObject().broadcastMessage(resultMessage));
+        }
     }
 
     @Deprecated(forRemoval = false)
@@ -92,13 +127,10 @@ public class AgentWorkflowService {
         return task;
     }
 
-    private AgentTask runTask(AgentTask task, BotConfig botConfig, AgentTaskDto.CreateRequest request) {
-        task.setStatus(AgentTask.Status.RUNNING);
-        task = agentTaskRepository.save(task);
-
+    private AgentTask runTask(AgentTask task, BotConfig botConfig) {
         try {
             String result = runGateway(task, botConfig);
-            WorkspaceDto.FileDto artifact = saveResultArtifact(task, botConfig, request, result);
+            WorkspaceDto.FileDto artifact = saveResultArtifact(task, botConfig, result);
             if (artifact != null) {
                 task.setArtifactWorkspaceId(artifact.getWorkspaceId());
                 task.setArtifactFolderId(artifact.getFolderId());
@@ -130,6 +162,8 @@ public class AgentWorkflowService {
             task.setStatus(AgentTask.Status.FAILED);
         }
         task.setCompletedAt(LocalDateTime.now());
+        task.setLeaseOwner(null);
+        task.setLeaseExpiresAt(null);
         return agentTaskRepository.save(task);
     }
 
@@ -159,19 +193,18 @@ public class AgentWorkflowService {
     private WorkspaceDto.FileDto saveResultArtifact(
             AgentTask task,
             BotConfig botConfig,
-            AgentTaskDto.CreateRequest request,
             String result) throws java.io.IOException {
-        if (request.getArtifactWorkspaceId() == null) {
+        if (task.getArtifactWorkspaceId() == null) {
             return null;
         }
-        String fileName = request.getArtifactFileName();
+        String fileName = task.getArtifactFileName();
         if (fileName == null || fileName.isBlank()) {
             fileName = "agent-task-" + task.getId() + "-result.txt";
         }
         return workspaceService.saveGeneratedFile(
-                request.getArtifactWorkspaceId(),
+                task.getArtifactWorkspaceId(),
                 task.getRequestedBy().getId(),
-                request.getArtifactFolderId(),
+                task.getArtifactFolderId(),
                 botConfig != null ? botConfig.getId() : null,
                 fileName,
                 "text/plain",
@@ -0,0 +1,113 @@
+package com.chatapp.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Minimal Aho-Corasick automaton over chars, reporting every (possibly overlapping)
+ * match in a single pass. Each pattern carries a caller-defined payload.
+ */
+final class AhoCorasick<T> {
+    private final List<Map<Character, Integer>> transitions;
+    private final int[] failure;
+    private final List<List<Output<T>>> outputs;
+
+    private AhoCorasick(List<Map<Character, Integer>> transitions, int[] failure, List<List<Output<T>>> outputs) {
+        this.transitions = transitions;
+        this.failure = failure;
+        this.outputs = outputs;
+    }
+
+    static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    boolean isEmpty() {
+        return transitions.size() <= 1;
+    }
+
+    void scan(String text, MatchListener<T> listener) {
+        if (isEmpty()) {
+            return;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            Integer next = transitions.get(state).get(ch);
+            while (next == null && state != 0) {
+                state = failure[state];
+                next = transitions.get(state).get(ch);
+            }
+            state = next == null ? 0 : next;
+            for (Output<T> output : outputs.get(state)) {
+                listener.onMatch(output.ref(), i + 1 - output.length(), i + 1);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface MatchListener<T> {
+        void onMatch(T ref, int start, int end);
+    }
+
+    private record Output<T>(T ref, int length) {
+    }
+
+    static final class Builder<T> {
+        private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+        private final List<List<Output<T>>> outputs = new ArrayList<>();
+
+        private Builder() {
+            newState();
+        }
+
+        Builder<T> add(String pattern, T ref) {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char ch = pattern.charAt(i);
+                Integer next = transitions.get(state).get(ch);
+                if (next == null) {
+                    next = newState();
+                    transitions.get(state).put(ch, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(new Output<>(ref, pattern.length()));
+            return this;
+        }
+
+        AhoCorasick<T> build() {
+            int[] failure = new int[transitions.size()];
+            List<Integer> queue = new ArrayList<>(transitions.get(0).values());
+            for (int head = 0; head < queue.size(); head++) {
+                int state = queue.get(head);
+                for (Map.Entry<Character, Integer> edge : transitions.get(state).entrySet()) {
+                    int child = edge.getValue();
+                    int fallback = failure[state];
+                    Integer target = transitions.get(fallback).get(edge.getKey());
+                    while (target == null && fallback != 0) {
+                        fallback = failure[fallback];
+                        target = transitions.get(fallback).get(edge.getKey());
+                    }
+                    failure[child] = target == null || Objects.equals(target, child) ? 0 : target;
+                    outputs.get(child).addAll(outputs.get(failure[child]));
+                    queue.add(child);
+                }
+            }
+            List<List<Output<T>>> frozen = new ArrayList<>(outputs.size());
+            for (List<Output<T>> output : outputs) {
+                frozen.add(List.copyOf(output));
+            }
+            return new AhoCorasick<>(List.copyOf(transitions), failure, frozen);
+        }
+
+        private int newState() {
+            transitions.add(new HashMap<>());
+            outputs.add(new ArrayList<>());
+            return transitions.size() - 1;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.chatapp.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * BlurHash encoder (https://blurha.sh). The image is reduced to a few DCT components in
+ * linear light and packed into a short base-83 string that clients decode into a
+ * blurred placeholder while the thumbnail loads. Callers pass a small image; the cost
+ * is {@code width * height * components}.
+ */
+final class BlurHash {
+
+    private static final String BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHash() {
+    }
+
+    static String encode(BufferedImage image, int componentsX, int componentsY) {
+        if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+            throw new IllegalArgumentException("BlurHash components must be between 1 and 9");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        double[] linearR = new double[pixels.length];
+        double[] linearG = new double[pixels.length];
+        double[] linearB = new double[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            linearR[i] = toLinear((pixels[i] >> 16) & 0xFF);
+            linearG[i] = toLinear((pixels[i] >> 8) & 0xFF);
+            linearB[i] = toLinear(pixels[i] & 0xFF);
+        }
+
+        double[][] factors = new double[componentsX * componentsY][];
+        for (int j = 0; j < componentsY; j++) {
+            double[] cosY = cosines(j, height);
+            for (int i = 0; i < componentsX; i++) {
+                double[] cosX = cosines(i, width);
+                double r = 0;
+                double g = 0;
+                double b = 0;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        double basis = cosX[x] * cosY[y];
+                        int p = y * width + x;
+                        r += basis * linearR[p];
+                        g += basis * linearG[p];
+                        b += basis * linearB[p];
+                    }
+                }
+                double scale = (i == 0 && j == 0 ? 1.0d : 2.0d) / (width * height);
+                factors[j * componentsX + i] = new double[] {r * scale, g * scale, b * scale};
+            }
+        }
+
+        StringBuilder hash = new StringBuilder(4 + 2 * factors.length);
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+        double maximum = 1.0d;
+        if (factors.length > 1) {
+            double actualMaximum = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double value : factors[k]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            int quantised = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5d)));
+            maximum = (quantised + 1) / 166.0d;
+            encode83(hash, quantised, 1);
+        } else {
+            encode83(hash, 0, 1);
+        }
+        double[] dc = factors[0];
+        encode83(hash, (toSrgb(dc[0]) << 16) + (toSrgb(dc[1]) << 8) + toSrgb(dc[2]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            encode83(hash, quantiseAc(ac[0], maximum) * 19 * 19
+                    + quantiseAc(ac[1], maximum) * 19
+                    + quantiseAc(ac[2], maximum), 2);
+        }
+        return hash.toString();
+    }
+
+    private static double[] cosines(int component, int size) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = Math.cos(Math.PI * component * i / size);
+        }
+        return values;
+    }
+
+    private static int quantiseAc(double value, double maximum) {
+        double scaled = Math.signum(value) * Math.sqrt(Math.abs(value / maximum));
+        return (int) Math.max(0, Math.min(18, Math.floor(scaled * 9 + 9.5d)));
+    }
+
+    private static double toLinear(int srgb) {
+        double v = srgb / 255.0d;
+        return v <= 0.04045d ? v / 12.92d : Math.pow((v + 0.055d) / 1.055d, 2.4d);
+    }
+
+    private static int toSrgb(double linear) {
+        double v = Math.max(0, Math.min(1, linear));
+        return v <= 0.0031308d
+                ? (int) (v * 12.92d * 255 + 0.5d)
+                : (int) ((1.055d * Math.pow(v, 1 / 2.4d) - 0.055d) * 255 + 0.5d);
+    }
+
+    private static void encode83(StringBuilder out, int value, int length) {
+        int divisor = 1;
+        for (int i = 1; i < length; i++) {
+            divisor *= 83;
+        }
+        for (int i = 0; i < length; i++) {
+            out.append(BASE83.charAt((value / divisor) % 83));
+            divisor /= 83;
+        }
+    }
+}
@@ -350,6 +350,8 @@ public class BotGatewayService {
         message.setFileType(source.getFileType());
         message.setFileSize(source.getFileSize());
         message.setThumbnailUrl(source.getThumbnailUrl());
+        message.setPreviewUrl(source.getPreviewUrl());
+        message.setBlurHash(source.getBlurHash());
         message = messageRepository.save(message);
 
         broadcastBotMessage(message, chatRoomId, sender.getId());
@@ -5,12 +5,12 @@ import com.chatapp.entity.ProviderCredential;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
@@ -24,7 +24,6 @@ import java.util.zip.ZipInputStream;
 
 /** Executes image generation against a bot owner's encrypted BYO provider. */
 @Service
-@RequiredArgsConstructor
 public class BotImageGenerationClient {
 
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
@@ -34,12 +33,30 @@ public class BotImageGenerationClient {
     private final ObjectMapper objectMapper;
     private final ProviderCredentialService providerCredentialService;
     private final OutboundUrlPolicy outboundUrlPolicy;
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(Duration.ofSeconds(15))
-            .writeTimeout(Duration.ofSeconds(30))
-            .readTimeout(Duration.ofSeconds(240))
-            .callTimeout(Duration.ofSeconds(250))
-            .build();
+    private final OkHttpClient httpClient;
+
+    public BotImageGenerationClient(ObjectMapper objectMapper,
+                                    ProviderCredentialService providerCredentialService,
+                                    OutboundUrlPolicy outboundUrlPolicy) {
+        this(objectMapper, providerCredentialService, outboundUrlPolicy, OutboundHttpClients.standalone());
+    }
+
+    // Owners bring their own endpoints, so no shared circuit breaker: one owner's
+    // broken provider must not fail image generation for everyone else.
+    @Autowired
+    public BotImageGenerationClient(ObjectMapper objectMapper,
+                                    ProviderCredentialService providerCredentialService,
+                                    OutboundUrlPolicy outboundUrlPolicy,
+                                    OutboundHttpClients httpClients) {
+        this.objectMapper = objectMapper;
+        this.providerCredentialService = providerCredentialService;
+        this.outboundUrlPolicy = outboundUrlPolicy;
+        this.httpClient = httpClients.client("image-byo", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(15), Duration.ofSeconds(240), Duration.ofSeconds(30))
+                .withCallTimeout(Duration.ofSeconds(250))
+                .withMaxConcurrent(8)
+                .withCircuitBreaker(0, Duration.ZERO));
+    }
 
     public ProviderConfig resolve(BotConfig botConfig) {
         if (botConfig == null
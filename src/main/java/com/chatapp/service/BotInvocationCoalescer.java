@@ -0,0 +1,246 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.ChatRoomBot;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Debounces bot invocations per (room, bot binding) during message bursts.
+ *
+ * <p>Each trigger replaces the pending one and restarts the window, so a burst
+ * collapses into a single run over the latest message (and therefore the latest
+ * room history). The window never pushes a run past {@code maxWaitMs} after the
+ * first trigger of the burst. A trigger arriving while a run is in flight marks
+ * that run superseded (streaming replies stop at the next delta, blocking ones are
+ * discarded instead of posted), but only while the oldest unanswered trigger is
+ * younger than {@code maxWaitMs}; past that the in-flight reply is delivered and
+ * the newer messages are folded into the next run, so continuous chatter still
+ * gets replies. At most one run per key is in flight; the next starts when it
+ * finishes. A run the executor rejects stays pending and is retried after
+ * {@link #REJECTED_RETRY_MS}.
+ */
+@Component
+@Slf4j
+public class BotInvocationCoalescer {
+
+    static final long REJECTED_RETRY_MS = 1000;
+
+    private final long defaultWindowMs;
+    private final long maxWaitMs;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final LongSupplier clockMs;
+    // Guarded by this; operations are a few field writes, so one lock is enough.
+    private final Map<Key, Slot> slots = new HashMap<>();
+
+    @Autowired
+    public BotInvocationCoalescer(@Value("${bot.coalesce.default-window-ms:1500}") long defaultWindowMs,
+                                  @Value("${bot.coalesce.max-wait-ms:6000}") long maxWaitMs,
+                                  @Qualifier("taskExecutor") Executor executor) {
+        this(defaultWindowMs, maxWaitMs, executor, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bot-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        }), System::currentTimeMillis);
+    }
+
+    BotInvocationCoalescer(long defaultWindowMs, long maxWaitMs, Executor executor,
+                           ScheduledExecutorService timer, LongSupplier clockMs) {
+        this.defaultWindowMs = Math.max(0, defaultWindowMs);
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.executor = executor;
+        this.timer = timer;
+        this.clockMs = clockMs;
+    }
+
+    /**
+     * Debounce window for a binding. An explicit per-room setting wins (0 = off);
+     * otherwise ambient triggers (ALL, KEYWORD, REGEX) use the server default and
+     * direct mentions are answered immediately.
+     */
+    public long windowMs(ChatRoomBot crb) {
+        if (crb == null || crb.getId() == null) {
+            return 0;
+        }
+        if (crb.getCoalesceWindowMs() != null) {
+            return Math.max(0, Math.min(crb.getCoalesceWindowMs(), maxWaitMs));
+        }
+        ChatRoomBot.TriggerMode mode = crb.getTriggerMode() != null
+                ? crb.getTriggerMode()
+                : ChatRoomBot.TriggerMode.MENTION;
+        return mode == ChatRoomBot.TriggerMode.MENTION ? 0 : defaultWindowMs;
+    }
+
+    /** Replaces any pending invocation for the binding and (re)starts its window. */
+    public synchronized void submit(Long roomId, Long bindingId, long windowMs, Consumer<Run> task) {
+        Key key = new Key(roomId, bindingId);
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+        long now = clockMs.getAsLong();
+        if (slot.pending == null) {
+            slot.burstStartedAtMs = now;
+        } else {
+            log.debug("Coalesced bot trigger for binding {} in room {}", bindingId, roomId);
+        }
+        if (slot.unansweredSinceMs < 0) {
+            slot.unansweredSinceMs = now;
+        }
+        slot.pending = task;
+        if (slot.running != null) {
+            if (now - slot.unansweredSinceMs < maxWaitMs) {
+                slot.running.supersede();
+            } else {
+                log.debug("Bot binding {} in room {} unanswered for {} ms; delivering the in-flight run",
+                        bindingId, roomId, now - slot.unansweredSinceMs);
+            }
+        }
+        if (slot.timer != null) {
+            slot.timer.cancel(false);
+        }
+        long generation = ++slot.generation;
+        long delay = Math.max(0, Math.min(windowMs, slot.burstStartedAtMs + maxWaitMs - now));
+        slot.timer = timer.schedule(() -> fire(key, generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private synchronized void fire(Key key, long generation) {
+        Slot slot = slots.get(key);
+        if (slot == null || slot.generation != generation || slot.pending == null) {
+            return;
+        }
+        slot.timer = null;
+        if (slot.running == null) {
+            start(key, slot);
+        }
+        // Otherwise the in-flight (now superseded) run starts this one when it finishes.
+    }
+
+    private void start(Key key, Slot slot) {
+        Consumer<Run> task = slot.pending;
+        slot.pending = null;
+        Run run = new Run(this, key);
+        slot.running = run;
+        try {
+            executor.execute(() -> execute(key, run, task));
+        } catch (RejectedExecutionException e) {
+            // Keep the trigger and try again on a later tick; a newer trigger still replaces it.
+            log.warn("Bot invocation for binding {} in room {} rejected: executor saturated, retrying in {} ms",
+                    key.bindingId(), key.roomId(), REJECTED_RETRY_MS);
+            slot.running = null;
+            slot.pending = task;
+            long generation = ++slot.generation;
+            slot.timer = timer.schedule(() -> fire(key, generation), REJECTED_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void execute(Key key, Run run, Consumer<Run> task) {
+        try {
+            task.accept(run);
+        } catch (RuntimeException e) {
+            log.warn("Coalesced bot invocation for binding {} in room {} failed: {}",
+                    key.bindingId(), key.roomId(), e.getMessage());
+        } finally {
+            if (!run.handedOff) {
+                finished(key, run);
+            }
+        }
+    }
+
+    private synchronized void finished(Key key, Run run) {
+        Slot slot = slots.get(key);
+        if (slot == null || slot.running != run) {
+            return;
+        }
+        slot.running = null;
+        if (!run.isSuperseded()) {
+            // Triggers the delivered run already covered are answered; only those
+            // still pending (which arrived after it started) are waiting.
+            slot.unansweredSinceMs = slot.pending != null ? slot.burstStartedAtMs : -1;
+        }
+        if (slot.pending == null) {
+            slots.remove(key);
+        } else if (slot.timer == null) {
+            start(key, slot);
+        }
+    }
+
+    synchronized int activeSlots() {
+        return slots.size();
+    }
+
+    private record Key(Long roomId, Long bindingId) {
+    }
+
+    private static final class Slot {
+        private Consumer<Run> pending;
+        private ScheduledFuture<?> timer;
+        private Run running;
+        private long burstStartedAtMs;
+        // Arrival of the oldest trigger no delivered run has answered yet; -1 if none.
+        private long unansweredSinceMs = -1;
+        private long generation;
+    }
+
+    /** Handle of one invocation; a newer trigger for the same binding supersedes it. */
+    public static final class Run {
+        private final BotInvocationCoalescer coalescer;
+        private final Key key;
+        private volatile boolean superseded;
+        // Only read and written by the thread running the task.
+        private boolean handedOff;
+
+        private Run(BotInvocationCoalescer coalescer, Key key) {
+            this.coalescer = coalescer;
+            this.key = key;
+        }
+
+        /**
+         * Keeps this run in flight after the task returns, for a task that passes the
+         * work on to another executor. The returned callback ends the run and must be
+         * called exactly once, when that work is done or dropped.
+         */
+        public Runnable handOff() {
+            handedOff = true;
+            return () -> coalescer.finished(key, this);
+        }
+
+        void supersede() {
+            superseded = true;
+        }
+
+        public boolean isSuperseded() {
+            return superseded;
+        }
+
+        public void throwIfSuperseded() {
+            if (superseded) {
+                throw new SupersededException();
+            }
+        }
+    }
+
+    /** Aborts a streaming reply whose trigger has been superseded. */
+    public static final class SupersededException extends RuntimeException {
+        SupersededException() {
+            super("superseded by a newer trigger", null, false, false);
+        }
+    }
+}
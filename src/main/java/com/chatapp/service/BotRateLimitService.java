@@ -1,14 +1,12 @@
 package com.chatapp.service;
 
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Refill;
+import com.chatapp.config.LocalRateLimitBucketStore;
+import com.chatapp.config.RateLimitBucketStore;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Per-principal (per-room / per-bot) rate limiter for bot-driven work.
@@ -21,6 +19,9 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  * <p>A configured limit of {@code <= 0} disables that limit (always allows), which
  * keeps unit tests that construct this service directly from being throttled.
+ *
+ * <p>Buckets live in the shared {@link RateLimitBucketStore}, so they are bounded,
+ * idle-expiring and (with {@code rate-limit.store=redis}) shared across nodes.
  */
 @Service
 public class BotRateLimitService {
@@ -31,7 +32,17 @@ public class BotRateLimitService {
     @Value("${bot.rate-limit.web-search-per-minute:60}")
     private int webSearchPerMinute;
 
-    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final RateLimitBucketStore store;
+
+    /** Standalone instance with its own local store, for tests and tools built outside Spring. */
+    public BotRateLimitService() {
+        this(new LocalRateLimitBucketStore(LocalRateLimitBucketStore.DEFAULT_MAXIMUM_ENTRIES));
+    }
+
+    @Autowired
+    public BotRateLimitService(RateLimitBucketStore store) {
+        this.store = store;
+    }
 
     /** One agent-loop run, scoped per (room, bot). */
     public boolean tryAcquireAgentRun(Long roomId, Long botConfigId) {
@@ -53,12 +64,8 @@ public class BotRateLimitService {
         if (capacity <= 0) {
             return true;
         }
-        String bucketKey = scopedKey + "|" + capacity + "|" + window.toMillis();
-        Bucket bucket = buckets.computeIfAbsent(bucketKey, k -> {
-            Bandwidth limit = Bandwidth.classic(capacity, Refill.greedy(capacity, window));
-            return Bucket.builder().addLimit(limit).build();
-        });
-        return bucket.tryConsume(1);
+        String bucketKey = "bot:" + scopedKey + "|" + capacity + "|" + window.toMillis();
+        return store.tryConsume(bucketKey, capacity, window);
     }
 
     private static String key(Long value) {
@@ -1,13 +1,17 @@
 package com.chatapp.service;
 
+import com.chatapp.config.WorkerThreads;
 import com.chatapp.entity.BotConfig;
 import com.chatapp.entity.Message;
 import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -20,17 +24,27 @@ public class BotReplyDeliveryService {
     private static final long MS_PER_CHARACTER = 28;
 
     private final ScheduledExecutorService scheduler;
+    private final Executor broadcasts;
 
-    public BotReplyDeliveryService() {
-        this(Executors.newSingleThreadScheduledExecutor(runnable -> {
-            Thread thread = new Thread(runnable, "bot-reply-delivery");
-            thread.setDaemon(true);
-            return thread;
-        }));
+    /**
+     * One timer thread paces every room. With virtual threads each due chunk is broadcast
+     * on its own virtual thread, so a slow WebSocket send in one room does not hold back
+     * the others; otherwise the timer thread broadcasts inline.
+     */
+    @Autowired
+    public BotReplyDeliveryService(WorkerThreads workerThreads) {
+        this(Executors.newSingleThreadScheduledExecutor(WorkerThreads.platform().threadFactory("bot-reply-delivery")),
+                workerThreads.isVirtual() ? broadcastThreads(workerThreads.threadFactory("bot-reply-broadcast"))
+                        : Runnable::run);
     }
 
     BotReplyDeliveryService(ScheduledExecutorService scheduler) {
+        this(scheduler, Runnable::run);
+    }
+
+    BotReplyDeliveryService(ScheduledExecutorService scheduler, Executor broadcasts) {
         this.scheduler = scheduler;
+        this.broadcasts = broadcasts;
     }
 
     public void deliver(List<Message> messages, Consumer<Message> broadcaster) {
@@ -50,10 +64,10 @@ public class BotReplyDeliveryService {
             return;
         }
         long delayMs = gapAfter(messages.get(index - 1));
-        scheduler.schedule(() -> {
+        scheduler.schedule(() -> broadcasts.execute(() -> {
             broadcaster.accept(messages.get(index));
             scheduleNext(messages, index + 1, broadcaster);
-        }, delayMs, TimeUnit.MILLISECONDS);
+        }), delayMs, TimeUnit.MILLISECONDS);
     }
 
     @PreDestroy
@@ -61,6 +75,10 @@ public class BotReplyDeliveryService {
         scheduler.shutdownNow();
     }
 
+    private static Executor broadcastThreads(ThreadFactory threads) {
+        return runnable -> threads.newThread(runnable).start();
+    }
+
     static long gapAfter(Message message) {
         BotConfig bot = message != null ? message.getBotConfig() : null;
         Double configuredSeconds = bot != null ? bot.getReplyIntervalSeconds() : null;
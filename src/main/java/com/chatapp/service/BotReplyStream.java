@@ -0,0 +1,86 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.BotDto;
+import com.chatapp.entity.Message;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Relays provider token deltas for one bot reply as {@code bot_message_delta}
+ * frames. Providers emit a delta per token; forwarding each one would mean a
+ * WebSocket write per room member per token, so small deltas are coalesced until
+ * {@link #MIN_CHARS} characters or {@link #MAX_DELAY_MS} have accumulated.
+ *
+ * <p>Not thread-safe: used on the single thread that reads the LLM response.
+ */
+class BotReplyStream implements Consumer<String> {
+
+    static final int MIN_CHARS = 24;
+    static final long MAX_DELAY_MS = 80;
+
+    private final Consumer<BotDto.StreamDelta> sink;
+    private final Long chatRoomId;
+    private final Long botConfigId;
+    private final String botDisplayName;
+    private final String streamId = UUID.randomUUID().toString();
+    private final LongSupplier clockMs;
+    private final StringBuilder pending = new StringBuilder();
+    private int seq = 0;
+    private long lastFlushMs;
+
+    BotReplyStream(Consumer<BotDto.StreamDelta> sink, Long chatRoomId, Long botConfigId, String botDisplayName) {
+        this(sink, chatRoomId, botConfigId, botDisplayName, System::currentTimeMillis);
+    }
+
+    BotReplyStream(Consumer<BotDto.StreamDelta> sink, Long chatRoomId, Long botConfigId, String botDisplayName,
+                   LongSupplier clockMs) {
+        this.sink = sink;
+        this.chatRoomId = chatRoomId;
+        this.botConfigId = botConfigId;
+        this.botDisplayName = botDisplayName;
+        this.clockMs = clockMs;
+        this.lastFlushMs = clockMs.getAsLong();
+    }
+
+    @Override
+    public void accept(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        pending.append(delta);
+        if (pending.length() >= MIN_CHARS || clockMs.getAsLong() - lastFlushMs >= MAX_DELAY_MS) {
+            flush();
+        }
+    }
+
+    /** Flushes any buffered text and sends the terminal frame naming the persisted messages. */
+    void complete(List<Message> persisted) {
+        flush();
+        List<Long> ids = persisted == null ? List.of() : persisted.stream()
+                .filter(Objects::nonNull)
+                .map(Message::getId)
+                .filter(Objects::nonNull)
+                .toList();
+        sink.accept(new BotDto.StreamDelta(chatRoomId, streamId, botConfigId, botDisplayName,
+                seq++, null, true, ids));
+    }
+
+    String streamId() {
+        return streamId;
+    }
+
+    private void flush() {
+        lastFlushMs = clockMs.getAsLong();
+        if (pending.isEmpty()) {
+            return;
+        }
+        String text = pending.toString();
+        pending.setLength(0);
+        sink.accept(new BotDto.StreamDelta(chatRoomId, streamId, botConfigId, botDisplayName,
+                seq++, text, false, null));
+    }
+}
@@ -10,6 +10,7 @@ import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.UserRepository;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.service.tool.AgentToolRegistry;
+import com.chatapp.util.TransactionHooks;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -19,7 +20,10 @@ import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -30,9 +34,9 @@ import java.util.LinkedHashMap;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -76,6 +80,7 @@ public class BotService {
             输出仍按阿雷/Kirara 风格，用 <break> 分成 3-5 条短消息。
             """;
     private static final String MENTION_ONLY_MARKER = "[MENTION_ONLY]";
+    private static final String AGENT_RUN_DROPPED_REPLY = "⚠️ 这次 agent 任务没能开始执行（服务繁忙或正在重启），请稍后再试。";
     private static final ObjectMapper JSON = new ObjectMapper();
     private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
     private static final TypeReference<List<String>> STRING_LIST_TYPE = new TypeReference<>() {};
@@ -96,6 +101,10 @@ public class BotService {
     private final BotWebhookService botWebhookService;
     private final FileStorageService fileStorageService;
     private final BotVisionAttachmentSelector botVisionAttachmentSelector;
+    private final BotTriggerIndex botTriggerIndex;
+    private final BotInvocationCoalescer botInvocationCoalescer;
+    private final TransactionTemplate transactionTemplate;
+    private final AgentTaskScheduler agentTaskScheduler;
     // Lazy to break the cycle: AgentExecutionLoop -> AgentToolDispatcher ->
     // RawWebSocketHandler -> BotService.
     private final ObjectProvider<AgentExecutionLoop> agentExecutionLoopProvider;
@@ -197,6 +206,8 @@ public class BotService {
         if (request.getAccessPolicy() != null) bot.setAccessPolicy(request.getAccessPolicy());
 
         bot = botConfigRepository.save(bot);
+        // The bot name is a mention token in every room the bot has joined.
+        botTriggerIndex.invalidateAll();
         if (request.getAllowedUserIds() != null || request.getAllowedUsernames() != null) {
             replaceAllowedUsers(bot, request.getAllowedUserIds(), request.getAllowedUsernames());
         }
@@ -258,6 +269,8 @@ public class BotService {
         bot.setCharacterBookJson(characterBook == null ? null : writeJson(characterBook));
 
         bot = botConfigRepository.save(bot);
+        agentContextBuilder.evictLoreBook(botId);
+        botTriggerIndex.invalidateAll();
         return toDto(bot, true);
     }
 
@@ -321,7 +334,9 @@ public class BotService {
         crb.setEnabledInRoom(request == null || request.getEnabledInRoom() == null
                 ? true
                 : request.getEnabledInRoom());
+        crb.setCoalesceWindowMs(request != null ? request.getCoalesceWindowMs() : null);
         chatRoomBotRepository.save(crb);
+        botTriggerIndex.invalidate(chatRoomId);
 
         log.info("机器人 {} 已添加到聊天室 {}", bot.getBotName(), chatRoomId);
     }
@@ -343,14 +358,17 @@ public class BotService {
         if (request.getRoomNickname() != null) crb.setRoomNickname(request.getRoomNickname());
         if (request.getRoomPromptSuffix() != null) crb.setRoomPromptSuffix(request.getRoomPromptSuffix());
         if (request.getEnabledInRoom() != null) crb.setEnabledInRoom(request.getEnabledInRoom());
+        if (request.getCoalesceWindowMs() != null) crb.setCoalesceWindowMs(request.getCoalesceWindowMs());
 
         crb = chatRoomBotRepository.save(crb);
+        botTriggerIndex.invalidate(chatRoomId);
         return toDto(crb, bot.getCreatedBy() != null && bot.getCreatedBy().getId().equals(operatorId));
     }
 
     @Transactional
     public void removeBotFromChatRoom(Long chatRoomId, Long botId) {
         chatRoomBotRepository.deleteByChatRoomIdAndBotConfigId(chatRoomId, botId);
+        botTriggerIndex.invalidate(chatRoomId);
         log.info("机器人 {} 已从聊天室 {} 移除", botId, chatRoomId);
     }
 
@@ -360,6 +378,7 @@ public class BotService {
                 .orElseThrow(() -> new RuntimeException("机器人不存在"));
         validateCanManageRoomBot(chatRoomId, bot, operatorId);
         chatRoomBotRepository.deleteByChatRoomIdAndBotConfigId(chatRoomId, botId);
+        botTriggerIndex.invalidate(chatRoomId);
         log.info("机器人 {} 已从聊天室 {} 移除", botId, chatRoomId);
     }
 
@@ -377,9 +396,40 @@ public class BotService {
 
     @Transactional
     public List<Message> processMessageForBots(Long chatRoomId, String messageContent, Long senderId, Message sourceMessage) {
+        return processMessageForBots(chatRoomId, messageContent, senderId, sourceMessage, null);
+    }
+
+    /**
+     * Same as {@link #processMessageForBots(Long, String, Long, Message)}, but one-shot
+     * persona replies are streamed to {@code streamSink} as {@code bot_message_delta}
+     * frames while the model generates. The reply is still persisted once, at
+     * completion, and returned for normal delivery.
+     */
+    @Transactional
+    public List<Message> processMessageForBots(Long chatRoomId, String messageContent, Long senderId,
+                                               Message sourceMessage, Consumer<BotDto.StreamDelta> streamSink) {
+        return processMessageForBots(chatRoomId, messageContent, senderId, sourceMessage, streamSink, null);
+    }
+
+    /**
+     * Like the streaming variant, but bindings with a coalescing window (see
+     * {@link BotInvocationCoalescer}) are debounced instead of answered inline: a
+     * burst of triggers becomes one run over the latest message, and its replies are
+     * handed to {@code deferredReplies} once committed. Tool-enabled (agent-loop)
+     * bindings are also answered that way, after this transaction commits, so waiting
+     * for an {@link AgentTaskScheduler} slot never holds it open. Only immediate
+     * replies are returned. A null {@code deferredReplies} answers every binding inline.
+     */
+    @Transactional
+    public List<Message> processMessageForBots(Long chatRoomId, String messageContent, Long senderId,
+                                               Message sourceMessage, Consumer<BotDto.StreamDelta> streamSink,
+                                               Consumer<List<Message>> deferredReplies) {
         String safeContent = messageContent != null ? messageContent : "";
         List<Message> botMessages = new ArrayList<>();
-        List<ChatRoomBot> bots = chatRoomBotRepository.findActiveBotsWithConfig(chatRoomId);
+        // Only bindings whose trigger matches are returned (and, for an indexed room, loaded).
+        List<ChatRoomBot> bots = botTriggerIndex.triggered(chatRoomId, safeContent,
+                chatRoomBotRepository::findActiveBotsWithConfig,
+                chatRoomBotRepository::findActiveBotsWithConfigByIdIn);
         if (bots.isEmpty()) return botMessages;
 
         for (ChatRoomBot crb : bots) {
@@ -391,93 +441,194 @@ public class BotService {
                         crb.getBotConfig().getBotName(), chatRoomId, senderId);
                 continue;
             }
-            String displayName = roomDisplayName(crb);
-            ChatRoomBot.TriggerMode triggerMode = crb.getTriggerMode() != null
-                    ? crb.getTriggerMode()
-                    : ChatRoomBot.TriggerMode.MENTION;
-            boolean shouldRespond = switch (triggerMode) {
-                case ALL -> true;
-                case MENTION -> safeContent.contains("@" + displayName)
-                        || safeContent.contains("@" + crb.getBotConfig().getBotName());
-                case KEYWORD -> keywordTriggerMatches(crb.getTriggerKeywords(), safeContent);
-                case REGEX -> regexTriggerMatches(crb, safeContent);
-            };
-
-            if (shouldRespond) {
-                try {
-                    BotConfig config = crb.getBotConfig();
-                    // External bridge: if this bot has an active webhook subscription, forward
-                    // the event to the external bot (it replies via the inbound gateway) and
-                    // skip the in-app LLM entirely.
-                    if (botWebhookService.dispatchIfSubscribed(config, chatRoomId, safeContent, senderId)) {
-                        log.info("机器人 {} 已转发到外部 webhook (聊天室 {})", config.getBotName(), chatRoomId);
-                        continue;
-                    }
-                    String replyContent;
-                    if (agentToolRegistry.hasExplicitToolWhitelist(config)) {
-                        // Tool-enabled bots run the full multi-turn agent loop
-                        // (room history + tools), not a single LLM call.
-                        replyContent = respondViaAgentLoop(chatRoomId, crb, safeContent, senderId, sourceMessage);
-                    } else {
-                        // Persona / tool-less bots keep the lightweight one-shot path.
-                        if (isKiraraTwoPass(config)) {
-                            replyContent = respondViaKiraraTwoPass(chatRoomId, crb, safeContent, sourceMessage);
-                        } else {
-                            List<BotDto.ChatMessage> chatMessages = buildContext(chatRoomId, crb, safeContent, sourceMessage);
-                            BotDto.LLMResponse response = llmService.chat(config, chatMessages);
-                            replyContent = response.getContent();
-                            log.info("机器人 {} 在聊天室 {} 回复了消息 (tokens: {})",
-                                    config.getBotName(), chatRoomId, response.getTokensUsed());
-                        }
-                    }
-
-                    if (replyContent != null) {
-                        botMessages.addAll(saveBotReplyMessages(chatRoomId, crb, replyContent));
-                    }
-                } catch (Exception e) {
-                    log.error("机器人 {} 处理消息失败: {}", crb.getBotConfig().getBotName(), e.getMessage());
-                    Message errorMessage = saveBotFailureMessage(chatRoomId, crb, e);
-                    if (errorMessage != null) {
-                        botMessages.add(errorMessage);
-                    }
-                }
+            long windowMs = deferredReplies != null ? botInvocationCoalescer.windowMs(crb) : 0;
+            Long bindingId = crb.getId();
+            Long sourceMessageId = sourceMessage != null ? sourceMessage.getId() : null;
+            BotConfig agentBot = deferredReplies != null
+                    && agentToolRegistry.hasExplicitToolWhitelist(crb.getBotConfig())
+                    ? crb.getBotConfig()
+                    : null;
+            if (windowMs > 0) {
+                botInvocationCoalescer.submit(chatRoomId, bindingId, windowMs, run -> respondCoalesced(
+                        run, agentBot, chatRoomId, bindingId, safeContent, senderId, sourceMessageId, streamSink,
+                        deferredReplies));
+                continue;
+            }
+            if (agentBot != null) {
+                TransactionHooks.afterCommit(() -> agentTaskScheduler.enqueue(chatRoomId, senderId, agentBot,
+                        slot -> respondDeferred(null, slot, chatRoomId, bindingId, safeContent, senderId,
+                                sourceMessageId, streamSink, deferredReplies),
+                        () -> respondDropped(chatRoomId, bindingId, deferredReplies)));
+                continue;
             }
+            botMessages.addAll(respondInRoom(chatRoomId, crb, safeContent, senderId, sourceMessage, streamSink,
+                    null, null));
         }
         return botMessages;
     }
 
-    private boolean keywordTriggerMatches(String rawKeywords, String safeContent) {
-        if (rawKeywords == null || rawKeywords.isBlank()) {
-            return false;
+    /**
+     * Runs a debounced invocation on a worker thread, in its own transaction. An
+     * agent-loop bot is queued with the scheduler instead of waiting for a slot on this
+     * thread; the coalescer keeps the run in flight until the queued run ends.
+     */
+    private void respondCoalesced(BotInvocationCoalescer.Run run, BotConfig agentBot, Long chatRoomId,
+                                  Long bindingId, String content, Long senderId, Long sourceMessageId,
+                                  Consumer<BotDto.StreamDelta> streamSink, Consumer<List<Message>> deferredReplies) {
+        if (agentBot == null) {
+            respondDeferred(run, null, chatRoomId, bindingId, content, senderId, sourceMessageId, streamSink,
+                    deferredReplies);
+            return;
         }
-        String[] keywords = rawKeywords.split(",");
-        for (String kw : keywords) {
-            String keyword = kw.trim();
-            if (!keyword.isBlank() && safeContent.contains(keyword)) {
-                return true;
+        Runnable done = run.handOff();
+        agentTaskScheduler.enqueue(chatRoomId, senderId, agentBot, slot -> {
+            try {
+                respondDeferred(run, slot, chatRoomId, bindingId, content, senderId, sourceMessageId, streamSink,
+                        deferredReplies);
+            } finally {
+                done.run();
             }
+        }, () -> {
+            try {
+                if (!run.isSuperseded()) {
+                    respondDropped(chatRoomId, bindingId, deferredReplies);
+                }
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    /** Answers one binding outside the triggering transaction and hands its replies to {@code deferredReplies}. */
+    private void respondDeferred(BotInvocationCoalescer.Run run, AgentTaskScheduler.Slot slot, Long chatRoomId,
+                                 Long bindingId, String content, Long senderId, Long sourceMessageId,
+                                 Consumer<BotDto.StreamDelta> streamSink, Consumer<List<Message>> deferredReplies) {
+        List<Message> replies = transactionTemplate.execute(status -> {
+            ChatRoomBot crb = chatRoomBotRepository.findActiveBotsWithConfigByIdIn(List.of(bindingId)).stream()
+                    .findFirst()
+                    .orElse(null);
+            if (crb == null || Boolean.FALSE.equals(crb.getEnabledInRoom()) || (run != null && run.isSuperseded())) {
+                return List.<Message>of();
+            }
+            Message sourceMessage = sourceMessageId != null
+                    ? messageRepository.findById(sourceMessageId).orElse(null)
+                    : null;
+            return respondInRoom(chatRoomId, crb, content, senderId, sourceMessage, streamSink, run, slot);
+        });
+        if (replies != null && !replies.isEmpty()) {
+            deferredReplies.accept(replies);
         }
-        return false;
     }
 
-    private boolean regexTriggerMatches(ChatRoomBot crb, String safeContent) {
-        String pattern = crb.getTriggerKeywords();
-        if (pattern == null || pattern.isBlank()) {
-            return false;
+    /**
+     * Posts a notice for a queued agent run that will never start (executor full or
+     * node shutting down), so the trigger is not left unanswered. It can run inside the
+     * triggering transaction's afterCommit, so it writes in a transaction of its own.
+     */
+    private void respondDropped(Long chatRoomId, Long bindingId, Consumer<List<Message>> deferredReplies) {
+        TransactionTemplate ownTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        List<Message> notice = ownTransaction.execute(status -> chatRoomBotRepository
+                .findActiveBotsWithConfigByIdIn(List.of(bindingId)).stream()
+                .findFirst()
+                .map(crb -> saveBotMessage(chatRoomId, crb, AGENT_RUN_DROPPED_REPLY))
+                .map(List::of)
+                .orElse(List.of()));
+        if (notice != null && !notice.isEmpty()) {
+            deferredReplies.accept(notice);
         }
+    }
+
+    /**
+     * Produces and persists one binding's reply. With a non-null {@code run}, a reply
+     * superseded by a newer trigger is dropped: streaming stops at the next delta and
+     * nothing (not even a failure notice) is posted. {@code agentSlot} is a scheduler
+     * slot the caller already holds for an agent-loop bot, or null.
+     */
+    private List<Message> respondInRoom(Long chatRoomId, ChatRoomBot crb, String safeContent, Long senderId,
+                                        Message sourceMessage, Consumer<BotDto.StreamDelta> streamSink,
+                                        BotInvocationCoalescer.Run run, AgentTaskScheduler.Slot agentSlot) {
+        String displayName = roomDisplayName(crb);
+        BotReplyStream replyStream = null;
         try {
-            return Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)
-                    .matcher(safeContent)
-                    .find();
+            BotConfig config = crb.getBotConfig();
+            // External bridge: if this bot has an active webhook subscription, forward
+            // the event to the external bot (it replies via the inbound gateway) and
+            // skip the in-app LLM entirely.
+            if (botWebhookService.dispatchIfSubscribed(config, chatRoomId, safeContent, senderId)) {
+                log.info("机器人 {} 已转发到外部 webhook (聊天室 {})", config.getBotName(), chatRoomId);
+                return List.of();
+            }
+            String replyContent;
+            if (agentToolRegistry.hasExplicitToolWhitelist(config)) {
+                // Tool-enabled bots run the full multi-turn agent loop
+                // (room history + tools), not a single LLM call.
+                replyContent = respondViaAgentLoop(chatRoomId, crb, safeContent, senderId, sourceMessage, agentSlot);
+            } else {
+                // Persona / tool-less bots keep the lightweight one-shot path.
+                if (isKiraraTwoPass(config)) {
+                    replyContent = respondViaKiraraTwoPass(chatRoomId, crb, safeContent, sourceMessage);
+                } else {
+                    List<BotDto.ChatMessage> chatMessages = buildContext(chatRoomId, crb, safeContent, sourceMessage);
+                    BotDto.LLMResponse response;
+                    if (streamSink != null) {
+                        replyStream = new BotReplyStream(streamSink, chatRoomId, config.getId(), displayName);
+                        Consumer<String> listener = replyStream;
+                        if (run != null) {
+                            BotReplyStream stream = replyStream;
+                            listener = delta -> {
+                                run.throwIfSuperseded();
+                                stream.accept(delta);
+                            };
+                        }
+                        response = llmService.chatStream(config, chatMessages, listener);
+                    } else {
+                        response = llmService.chat(config, chatMessages);
+                    }
+                    replyContent = response.getContent();
+                    log.info("机器人 {} 在聊天室 {} 回复了消息 (tokens: {}, cached: {})",
+                            config.getBotName(), chatRoomId, response.getTokensUsed(),
+                            response.getCachedTokens());
+                }
+            }
+            if (run != null) {
+                run.throwIfSuperseded();
+            }
+
+            List<Message> saved = replyContent != null
+                    ? saveBotReplyMessages(chatRoomId, crb, replyContent)
+                    : List.of();
+            if (replyStream != null) {
+                completeAfterCommit(replyStream, saved);
+            }
+            return saved;
         } catch (Exception e) {
-            log.warn("机器人 {} 在聊天室 {} 的正则触发式无效，已跳过: {}",
-                    crb.getBotConfig() != null ? crb.getBotConfig().getBotName() : "<unknown>",
-                    crb.getChatRoom() != null ? crb.getChatRoom().getId() : "<unknown>",
-                    e.getMessage());
-            return false;
+            if (run != null && run.isSuperseded()) {
+                log.info("机器人 {} 在聊天室 {} 的回复已被新消息取代，已丢弃",
+                        crb.getBotConfig().getBotName(), chatRoomId);
+                if (replyStream != null) {
+                    completeAfterCommit(replyStream, List.of());
+                }
+                return List.of();
+            }
+            log.error("机器人 {} 处理消息失败: {}", crb.getBotConfig().getBotName(), e.getMessage());
+            Message errorMessage = saveBotFailureMessage(chatRoomId, crb, e);
+            if (replyStream != null) {
+                completeAfterCommit(replyStream, errorMessage != null ? List.of(errorMessage) : List.of());
+            }
+            return errorMessage != null ? List.of(errorMessage) : List.of();
         }
     }
 
+    /**
+     * Sends the stream's done frame once the transaction that persisted its messages has
+     * committed, right before the replies are handed to delivery, so clients never look
+     * up message ids that are not visible yet. A rolled-back reply ends with no ids.
+     */
+    private static void completeAfterCommit(BotReplyStream replyStream, List<Message> persisted) {
+        TransactionHooks.afterCompletion(committed -> replyStream.complete(committed ? persisted : List.of()));
+    }
+
     private boolean isKiraraTwoPass(BotConfig config) {
         return config != null && config.getWorkflowMode() == BotConfig.WorkflowMode.KIRARA_TWO_PASS;
     }
@@ -523,10 +674,11 @@ public class BotService {
             String cleanMessage,
             Message sourceMessage) {
         List<BotDto.ChatMessage> messages = new ArrayList<>();
-        String roomAwareContext = buildRoomAwareOneShotSystemPrompt(chatRoomId, crb, cleanMessage, sourceMessage);
-        messages.add(new BotDto.ChatMessage(
-                "system",
-                KIRARA_ANALYSIS_SYSTEM_PROMPT + "\n\n[ROOM AND RECENT CONTEXT]\n" + roomAwareContext));
+        AgentContextBuilder.SystemPrompt roomAwareContext =
+                buildRoomAwareOneShotSystemPrompt(chatRoomId, crb, cleanMessage, sourceMessage);
+        messages.add(BotDto.ChatMessage.systemWithCacheablePrefix(
+                KIRARA_ANALYSIS_SYSTEM_PROMPT + "\n\n[ROOM AND RECENT CONTEXT]\n" + roomAwareContext.stablePrefix(),
+                roomAwareContext.volatileSuffix()));
         messages.add(new BotDto.ChatMessage(
                 "user",
                 "当前触发文本：\n" + nullToEmpty(cleanMessage) + "\n\n只输出 JSON。"));
@@ -707,9 +859,12 @@ public class BotService {
     /**
      * Runs the multi-turn agent loop for a tool-enabled room bot, persisting a
      * transient {@link AgentTask} for audit/observability. Returns the final answer,
-     * or {@code null} when the per-(room,bot) rate limit is exceeded.
+     * or {@code null} when the per-(room,bot) rate limit is exceeded. The run needs a
+     * fair slot from {@link AgentTaskScheduler}: {@code admitted} if the caller already
+     * holds one, otherwise it waits for one, but only when no transaction is open.
      */
-    private String respondViaAgentLoop(Long chatRoomId, ChatRoomBot crb, String messageContent, Long senderId, Message sourceMessage) {
+    private String respondViaAgentLoop(Long chatRoomId, ChatRoomBot crb, String messageContent, Long senderId,
+                                       Message sourceMessage, AgentTaskScheduler.Slot admitted) {
         BotConfig config = crb.getBotConfig();
         if (!botRateLimitService.tryAcquireAgentRun(chatRoomId, config.getId())) {
             log.warn("机器人 {} 在聊天室 {} 的 agent 运行被限流，返回可见提示", config.getBotName(), chatRoomId);
@@ -727,6 +882,26 @@ public class BotService {
                     .orElseThrow(() -> new RuntimeException("任务发起人不存在"));
         }
 
+        AgentTaskScheduler.Slot slot;
+        if (admitted != null) {
+            slot = admitted;
+        } else if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            slot = agentTaskScheduler.tryAdmit(chatRoomId, requester.getId(), config);
+        } else {
+            slot = agentTaskScheduler.admit(chatRoomId, requester.getId(), config);
+        }
+        if (slot == null) {
+            log.warn("机器人 {} 在聊天室 {} 的 agent 运行排队超时，返回可见提示", config.getBotName(), chatRoomId);
+            return "⚠️ 现在排队的 agent 任务太多了，请稍后再试。";
+        }
+        try (slot) {
+            return runAgentLoop(chatRoomId, crb, messageContent, requester, chatRoom, sourceMessage);
+        }
+    }
+
+    private String runAgentLoop(Long chatRoomId, ChatRoomBot crb, String messageContent, User requester,
+                                ChatRoom chatRoom, Message sourceMessage) {
+        BotConfig config = crb.getBotConfig();
         AgentTask task = new AgentTask();
         task.setChatRoom(chatRoom);
         task.setRequestedBy(requester);
@@ -787,19 +962,6 @@ public class BotService {
         BotConfig config = crb.getBotConfig();
         List<BotDto.ChatMessage> messages = new ArrayList<>();
 
-        String systemPrompt = joinSections(
-                config.getSystemPrompt(),
-                config.getCharacterSystemPrompt(),
-                config.getCharacterPersona(),
-                config.getCharacterScenario(),
-                matchedLore(config, userMessage));
-        if (crb.getRoomPromptSuffix() != null && !crb.getRoomPromptSuffix().isBlank()) {
-            systemPrompt = (systemPrompt == null ? "" : systemPrompt + "\n\n") + crb.getRoomPromptSuffix();
-        }
-        if (systemPrompt != null && !systemPrompt.isBlank()) {
-            messages.add(new BotDto.ChatMessage("system", systemPrompt));
-        }
-
         // Clean @mention and attach the relevant current/replied/recent room image.
         String cleanMessage = cleanMentions(userMessage, crb);
         AgentVisionAttachmentService.ImageContext sourceImage = selectVisionImage(
@@ -808,8 +970,10 @@ public class BotService {
             cleanMessage = cleanMessage + "\n" + sourceImage.annotation();
         }
 
-        messages.clear();
-        messages.add(new BotDto.ChatMessage("system", buildRoomAwareOneShotSystemPrompt(chatRoomId, crb, cleanMessage, sourceMessage)));
+        AgentContextBuilder.SystemPrompt roomPrompt =
+                buildRoomAwareOneShotSystemPrompt(chatRoomId, crb, cleanMessage, sourceMessage);
+        messages.add(BotDto.ChatMessage.systemWithCacheablePrefix(
+                roomPrompt.stablePrefix(), roomPrompt.volatileSuffix()));
         if (config.getCharacterPostHistoryInstructions() != null
                 && !config.getCharacterPostHistoryInstructions().isBlank()) {
             messages.add(new BotDto.ChatMessage("system", config.getCharacterPostHistoryInstructions().trim()));
@@ -819,7 +983,12 @@ public class BotService {
         return messages;
     }
 
-    private String buildRoomAwareOneShotSystemPrompt(Long chatRoomId, ChatRoomBot crb, String cleanMessage, Message sourceMessage) {
+    /**
+     * Room-aware system prompt for one-shot replies. The room bot binding and room
+     * instructions join the builder's stable prefix so the whole prefix stays
+     * byte-identical across turns in the same room.
+     */
+    private AgentContextBuilder.SystemPrompt buildRoomAwareOneShotSystemPrompt(Long chatRoomId, ChatRoomBot crb, String cleanMessage, Message sourceMessage) {
         BotConfig config = crb.getBotConfig();
         ChatRoom chatRoom = crb.getChatRoom();
         if (chatRoom == null && sourceMessage != null) {
@@ -849,9 +1018,9 @@ public class BotService {
         }
 
         AgentContextBuilder.AgentContextEnvelope envelope = agentContextBuilder.buildContext(task);
-        String prompt = agentContextBuilder.assembleSystemPrompt(envelope);
+        AgentContextBuilder.SystemPrompt prompt = agentContextBuilder.assembleSystemPromptParts(envelope);
         String displayName = roomDisplayName(crb);
-        StringBuilder builder = new StringBuilder(prompt == null ? "" : prompt.strip());
+        StringBuilder builder = new StringBuilder(prompt == null ? "" : prompt.stablePrefix().strip());
         builder.append("\n\n[ROOM BOT BINDING]\n")
                 .append("In this room, your visible bot name is \"")
                 .append(displayName)
@@ -862,7 +1031,9 @@ public class BotService {
                     .append(crb.getRoomPromptSuffix().trim())
                     .append("\n");
         }
-        return builder.toString();
+        String volatileSuffix = prompt == null ? "" : prompt.volatileSuffix().strip();
+        return new AgentContextBuilder.SystemPrompt(
+                builder.toString(), volatileSuffix.isEmpty() ? "" : "\n" + volatileSuffix + "\n");
     }
 
     private AgentVisionAttachmentService.ImageContext selectVisionImage(
@@ -1013,6 +1184,8 @@ public class BotService {
             throw new IllegalArgumentException("只能删除自己创建的机器人");
         }
         botConfigRepository.delete(bot);
+        agentContextBuilder.evictLoreBook(botId);
+        botTriggerIndex.invalidateAll();
         log.info("机器人 {} 已删除", bot.getBotName());
     }
 
@@ -1221,6 +1394,7 @@ public class BotService {
         dto.setRoomNickname(entity.getRoomNickname());
         dto.setRoomPromptSuffix(entity.getRoomPromptSuffix());
         dto.setEnabledInRoom(entity.getEnabledInRoom());
+        dto.setCoalesceWindowMs(entity.getCoalesceWindowMs());
         return dto;
     }
 
@@ -1325,32 +1499,6 @@ public class BotService {
         return result;
     }
 
-    private String matchedLore(BotConfig config, String userMessage) {
-        if (config.getCharacterBookJson() == null || config.getCharacterBookJson().isBlank()) {
-            return null;
-        }
-        Map<String, Object> book = readJsonMap(config.getCharacterBookJson());
-        Object rawEntries = book.get("entries");
-        if (!(rawEntries instanceof List<?> entries)) {
-            return null;
-        }
-        String text = userMessage == null ? "" : userMessage.toLowerCase(Locale.ROOT);
-        List<String> matched = new ArrayList<>();
-        for (Object rawEntry : entries) {
-            if (!(rawEntry instanceof Map<?, ?> entry)) continue;
-            if (Boolean.FALSE.equals(entry.get("enabled"))) continue;
-            String content = stringValue(entry.get("content"));
-            if (content.isBlank()) continue;
-            for (String key : readStringList(entry.get("keys"))) {
-                if (!key.isBlank() && text.contains(key.toLowerCase(Locale.ROOT))) {
-                    matched.add(content);
-                    break;
-                }
-            }
-        }
-        return matched.isEmpty() ? null : "Relevant lore:\n" + String.join("\n\n", matched);
-    }
-
     private String writeJson(Object value) {
         try {
             return JSON.writeValueAsString(value);
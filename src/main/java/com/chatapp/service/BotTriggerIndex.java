@@ -0,0 +1,194 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import com.chatapp.entity.ChatRoomBot;
+import com.chatapp.util.TransactionHooks;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Per-room index of the active bots' triggers, used by
+ * {@link BotService#processMessageForBots} to find which bots a message wakes up.
+ *
+ * <p>Each room's bindings are compiled once: mention tokens ({@code @nickname},
+ * {@code @botName}) and KEYWORD triggers go into one case-sensitive Aho-Corasick
+ * automaton, REGEX triggers are precompiled, and ALL bindings always match. A
+ * message then costs one pass over its text and no query when nothing triggers;
+ * only the matching bindings are loaded. Only trigger metadata is cached, never
+ * entities. Writers call {@link #invalidate(Long)} / {@link #invalidateAll()},
+ * which take effect after commit; rooms also expire after {@link #MAX_STALENESS}
+ * so edits made through another instance are picked up.
+ */
+@Component
+@Slf4j
+public class BotTriggerIndex {
+
+    static final Duration MAX_STALENESS = Duration.ofMinutes(5);
+    private static final long MAX_CACHED_ROOMS = 10_000;
+
+    private final Cache<Long, RoomTriggers> rooms = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_ROOMS)
+            .expireAfterWrite(MAX_STALENESS)
+            .build();
+
+    /**
+     * Active bindings of {@code roomId} whose trigger matches {@code content}, in
+     * binding order. {@code loadRoom} is only called for a cold room (and its result
+     * reused directly); on a warm room only the matches are fetched via {@code loadByIds}.
+     */
+    public List<ChatRoomBot> triggered(Long roomId, String content,
+                                       Function<Long, List<ChatRoomBot>> loadRoom,
+                                       Function<Collection<Long>, List<ChatRoomBot>> loadByIds) {
+        String text = content != null ? content : "";
+        List<List<ChatRoomBot>> loaded = new ArrayList<>(1);
+        RoomTriggers triggers = rooms.get(roomId, id -> {
+            List<ChatRoomBot> bindings = loadRoom.apply(id);
+            loaded.add(bindings);
+            // Unsaved bindings cannot be re-fetched by id, so such rooms are not cached.
+            return bindings.stream().allMatch(crb -> crb.getId() != null) ? compile(id, bindings) : null;
+        });
+        if (triggers == null) {
+            triggers = compile(roomId, loaded.get(0));
+        }
+        BitSet hits = triggers.match(text);
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        if (!loaded.isEmpty()) {
+            List<ChatRoomBot> bindings = loaded.get(0);
+            return hits.stream().mapToObj(bindings::get).toList();
+        }
+        List<Long> ids = hits.stream().mapToObj(triggers::bindingId).toList();
+        Map<Long, ChatRoomBot> byId = new HashMap<>();
+        for (ChatRoomBot crb : loadByIds.apply(ids)) {
+            byId.put(crb.getId(), crb);
+        }
+        // A binding removed since the room was indexed is simply missing here.
+        return ids.stream().map(byId::get).filter(crb -> crb != null).toList();
+    }
+
+    /** Drops a room's index once the current transaction (if any) commits. */
+    public void invalidate(Long roomId) {
+        if (roomId != null) {
+            TransactionHooks.afterCommit(() -> rooms.invalidate(roomId));
+        }
+    }
+
+    /** For bot-level edits (name, deletion) that can affect any room the bot is in. */
+    public void invalidateAll() {
+        TransactionHooks.afterCommit(rooms::invalidateAll);
+    }
+
+    static RoomTriggers compile(Long roomId, List<ChatRoomBot> bindings) {
+        Long[] ids = new Long[bindings.size()];
+        BitSet always = new BitSet(bindings.size());
+        AhoCorasick.Builder<Integer> literals = AhoCorasick.builder();
+        List<RegexTrigger> regexes = new ArrayList<>();
+        for (int slot = 0; slot < bindings.size(); slot++) {
+            ChatRoomBot crb = bindings.get(slot);
+            ids[slot] = crb.getId();
+            if (Boolean.FALSE.equals(crb.getEnabledInRoom())) {
+                continue;
+            }
+            ChatRoomBot.TriggerMode mode = crb.getTriggerMode() != null
+                    ? crb.getTriggerMode()
+                    : ChatRoomBot.TriggerMode.MENTION;
+            switch (mode) {
+                case ALL -> always.set(slot);
+                case MENTION -> {
+                    BotConfig bot = crb.getBotConfig();
+                    String botName = bot != null ? bot.getBotName() : null;
+                    String nickname = crb.getRoomNickname() != null && !crb.getRoomNickname().isBlank()
+                            ? crb.getRoomNickname().trim()
+                            : botName;
+                    if (nickname != null) {
+                        literals.add("@" + nickname, slot);
+                    }
+                    if (botName != null && !botName.equals(nickname)) {
+                        literals.add("@" + botName, slot);
+                    }
+                }
+                case KEYWORD -> {
+                    String raw = crb.getTriggerKeywords();
+                    if (raw != null) {
+                        for (String keyword : raw.split(",")) {
+                            if (!keyword.isBlank()) {
+                                literals.add(keyword.trim(), slot);
+                            }
+                        }
+                    }
+                }
+                case REGEX -> {
+                    Pattern pattern = compileRegex(roomId, crb);
+                    if (pattern != null) {
+                        regexes.add(new RegexTrigger(slot, pattern));
+                    }
+                }
+            }
+        }
+        return new RoomTriggers(ids, always, literals.build(), List.copyOf(regexes));
+    }
+
+    private static Pattern compileRegex(Long roomId, ChatRoomBot crb) {
+        String pattern = crb.getTriggerKeywords();
+        if (pattern == null || pattern.isBlank()) {
+            return null;
+        }
+        try {
+            return Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        } catch (Exception e) {
+            // Reported once per compile rather than once per message.
+            log.warn("机器人 {} 在聊天室 {} 的正则触发式无效，已跳过: {}",
+                    crb.getBotConfig() != null ? crb.getBotConfig().getBotName() : "<unknown>",
+                    roomId != null ? roomId : "<unknown>",
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    private record RegexTrigger(int slot, Pattern pattern) {
+    }
+
+    static final class RoomTriggers {
+        private final Long[] bindingIds;
+        private final BitSet always;
+        private final AhoCorasick<Integer> literals;
+        private final List<RegexTrigger> regexes;
+
+        private RoomTriggers(Long[] bindingIds, BitSet always, AhoCorasick<Integer> literals,
+                             List<RegexTrigger> regexes) {
+            this.bindingIds = bindingIds;
+            this.always = always;
+            this.literals = literals;
+            this.regexes = regexes;
+        }
+
+        Long bindingId(int slot) {
+            return bindingIds[slot];
+        }
+
+        /** Slots of the matching bindings. */
+        BitSet match(String text) {
+            BitSet hits = (BitSet) always.clone();
+            literals.scan(text, (slot, start, end) -> hits.set(slot));
+            for (RegexTrigger regex : regexes) {
+                if (!hits.get(regex.slot()) && regex.pattern().matcher(text).find()) {
+                    hits.set(regex.slot());
+                }
+            }
+            return hits;
+        }
+    }
+}
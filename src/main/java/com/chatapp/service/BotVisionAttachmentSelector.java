@@ -50,7 +50,8 @@ public class BotVisionAttachmentSelector {
             return Selection.empty();
         }
 
-        AgentVisionAttachmentService.ImageContext image = visionAttachmentService.resolve(selected, true);
+        AgentVisionAttachmentService.ImageContext image = visionAttachmentService.resolve(
+                selected, true, VisionImagePreprocessor.Target.forBot(bot));
         if (image == null || image.attachments().isEmpty()) {
             log.warn("Bot vision selection failed botId={} roomId={} messageId={} reason={}",
                     bot.getId(), roomId, selected.getId(), reason);
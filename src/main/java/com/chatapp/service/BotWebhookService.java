@@ -1,5 +1,6 @@
 package com.chatapp.service;
 
+import com.chatapp.config.WorkerThreads;
 import com.chatapp.entity.BotConfig;
 import com.chatapp.entity.BotWebhookSubscription;
 import com.chatapp.repository.BotConfigRepository;
@@ -13,6 +14,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -23,6 +25,7 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HexFormat;
@@ -60,33 +63,53 @@ public class BotWebhookService {
     // Bounded queue + capped pool: a slow/hung external endpoint or a burst of events
     // can no longer pile up unbounded tasks and OOM the JVM. Overflow is dropped with a
     // warning rather than blocking the chat message thread (no silent cap).
-    private final ExecutorService executor = new ThreadPoolExecutor(
-            2, 4, 30L, TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(1024),
-            r -> {
-                Thread t = new Thread(r, "bot-webhook-dispatch");
-                t.setDaemon(true);
-                return t;
-            },
-            (r, ex) -> log.warn("bot-webhook dispatch queue full (cap=1024) — dropping a delivery to avoid OOM"));
+    private final ExecutorService executor;
 
     public BotWebhookService(BotWebhookSubscriptionRepository subscriptionRepository,
                              BotConfigRepository botConfigRepository,
                              OutboundUrlPolicy outboundUrlPolicy,
                              CredentialCryptoService cryptoService,
                              ObjectMapper objectMapper) {
+        this(subscriptionRepository, botConfigRepository, outboundUrlPolicy, cryptoService, objectMapper,
+                OutboundHttpClients.standalone(), WorkerThreads.platform());
+    }
+
+    // Callbacks are user-supplied endpoints, so the shared circuit breaker is off (one
+    // broken subscriber must not block the others); per-subscription failure counting
+    // below covers that case.
+    @Autowired
+    public BotWebhookService(BotWebhookSubscriptionRepository subscriptionRepository,
+                             BotConfigRepository botConfigRepository,
+                             OutboundUrlPolicy outboundUrlPolicy,
+                             CredentialCryptoService cryptoService,
+                             ObjectMapper objectMapper,
+                             OutboundHttpClients httpClients,
+                             WorkerThreads workerThreads) {
         this.subscriptionRepository = subscriptionRepository;
         this.botConfigRepository = botConfigRepository;
         this.outboundUrlPolicy = outboundUrlPolicy;
         this.cryptoService = cryptoService;
         this.objectMapper = objectMapper;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(5, TimeUnit.SECONDS)
-                .readTimeout(8, TimeUnit.SECONDS)
-                .writeTimeout(5, TimeUnit.SECONDS)
+        this.httpClient = httpClients.client("bot-webhook", OutboundHttpClients.Spec
+                        .timeouts(Duration.ofSeconds(5), Duration.ofSeconds(8), Duration.ofSeconds(5))
+                        .withMaxConcurrent(8)
+                        .withCircuitBreaker(0, Duration.ZERO)
+                        .withMaxRetries(0))
+                .newBuilder()
                 .followRedirects(false)
                 .dns(hostname -> guardedLookup(outboundUrlPolicy, hostname))
                 .build();
+        // Virtual workers cost nothing while parked on a slow endpoint, so in that mode all
+        // 8 deliveries the bot-webhook bulkhead admits run at once instead of 2 (the pool
+        // only grows past its core size when the queue is full).
+        boolean virtual = workerThreads.isVirtual();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                virtual ? 8 : 2, virtual ? 8 : 4, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1024),
+                workerThreads.threadFactory("bot-webhook-dispatch"),
+                (r, ex) -> log.warn("bot-webhook dispatch queue full (cap=1024) — dropping a delivery to avoid OOM"));
+        pool.allowCoreThreadTimeOut(virtual);
+        this.executor = pool;
     }
 
     // ---- CRUD (owner-gated) ----
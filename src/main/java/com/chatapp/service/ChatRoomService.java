@@ -51,6 +51,7 @@ public class ChatRoomService {
     private final FileStorageService fileStorageService;
     private final BotConfigRepository botConfigRepository;
     private final ChatRoomBotRepository chatRoomBotRepository;
+    private final AgentContextSnapshots agentContextSnapshots;
 
     /**
      * 创建私聊房间
@@ -203,6 +204,7 @@ public class ChatRoomService {
 
         // 移除成员
         chatRoomRepository.removeMember(roomId, userId);
+        agentContextSnapshots.roomMembersChanged(roomId);
 
         log.info("用户 {} 退出聊天室 {}", userId, roomId);
     }
@@ -225,6 +227,7 @@ public class ChatRoomService {
 
         chatRoom.getMembers().add(member);
         chatRoomRepository.save(chatRoom);
+        agentContextSnapshots.roomMembersChanged(roomId);
     }
 
     /**
@@ -446,6 +449,7 @@ public class ChatRoomService {
         if (nickname != null) {
             String trimmed = nickname.trim();
             member.setNickname(trimmed.isEmpty() ? null : trimmed);
+            agentContextSnapshots.roomMembersChanged(roomId);
         }
         if (memberTitle != null) {
             String trimmed = memberTitle.trim();
@@ -711,6 +715,7 @@ public class ChatRoomService {
 
         // 移除成员
         chatRoomRepository.removeMember(roomId, targetUserId);
+        agentContextSnapshots.roomMembersChanged(roomId);
 
         log.info("用户 {} 踢出了用户 {} (聊天室: {})", operatorId, targetUserId, roomId);
     }
@@ -4,7 +4,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -17,15 +16,11 @@ import java.io.IOException;
 import java.time.Duration;
 
 @Component
-@RequiredArgsConstructor
 public class DashscopeImageGenerationClient implements ImageGenerationClient {
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
     private final ObjectMapper objectMapper;
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(Duration.ofSeconds(15))
-            .readTimeout(Duration.ofSeconds(60))
-            .build();
+    private final OkHttpClient httpClient;
 
     @Value("${dashscope.image.base-url:https://dashscope-intl.aliyuncs.com/api/v1}")
     private String baseUrl;
@@ -33,6 +28,13 @@ public class DashscopeImageGenerationClient implements ImageGenerationClient {
     @Value("${dashscope.image.model:wan2.7-image-pro}")
     private String model;
 
+    public DashscopeImageGenerationClient(ObjectMapper objectMapper, OutboundHttpClients httpClients) {
+        this.objectMapper = objectMapper;
+        this.httpClient = httpClients.client("image-dashscope", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(15), Duration.ofSeconds(60), Duration.ofSeconds(10))
+                .withMaxConcurrent(8));
+    }
+
     @Override
     public SubmitResult submit(String apiKey, String prompt, int count, String size) {
         try {
@@ -0,0 +1,206 @@
+package com.chatapp.service;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.security.FileVaultService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 按内容寻址的密文索引。内容相同的上传共享同一份密文：第一份写入后以内容地址硬链接进
+ * blob 目录，之后相同内容的上传直接链接过去，不再加密和写盘。每个所有者（消息附件、贴纸、
+ * 工作区版本）仍持有自己的文件名，删除文件只是去掉一个链接，inode 的链接数就是引用计数；
+ * 只剩 blob 目录自己那一个链接的 blob 由定时任务清理。
+ *
+ * 内容地址是带密钥的哈希，没有主密钥无法用已知文件去比对 blob；上传方无论是否命中都会拿到
+ * 新的文件名，响应里看不出别人是否传过同样的内容。
+ */
+@Component
+public class FileBlobStore {
+    private static final Logger log = LoggerFactory.getLogger(FileBlobStore.class);
+    private static final boolean UNIX_ATTRIBUTES =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final FileStorageConfig config;
+    private final FileVaultService fileVaultService;
+    private volatile boolean linksAvailable = true;
+
+    public FileBlobStore(FileStorageConfig config, FileVaultService fileVaultService) {
+        this.config = config;
+        this.fileVaultService = fileVaultService;
+    }
+
+    public boolean isEnabled() {
+        return config.isDedupEnabled() && linksAvailable && UNIX_ATTRIBUTES;
+    }
+
+    /**
+     * 计算内容地址，去重关闭时返回 null。
+     */
+    public String address(InputStreamSource source) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+        try (InputStream in = source.getInputStream()) {
+            return fileVaultService.contentAddress(in);
+        }
+    }
+
+    /**
+     * 按已经算好的 SHA-256 计算内容地址，去重关闭时返回 null。
+     */
+    public String address(byte[] sha256) {
+        return isEnabled() ? fileVaultService.contentAddress(sha256) : null;
+    }
+
+    /**
+     * 已有相同内容的 blob 时，把 basePath 链接过去。
+     *
+     * @return false 表示没有可用的 blob，调用方照常写入
+     */
+    public boolean linkExisting(String address, Path basePath) {
+        Path blob = blobPath(address);
+        if (!fileVaultService.isEncrypted(blob)
+                || Files.exists(fileVaultService.cipherPath(basePath))
+                || Files.exists(fileVaultService.metaPath(basePath))) {
+            return false;
+        }
+        try {
+            Files.createDirectories(basePath.getParent());
+            Files.createLink(fileVaultService.metaPath(basePath), fileVaultService.metaPath(blob));
+            Files.createLink(fileVaultService.cipherPath(basePath), fileVaultService.cipherPath(blob));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // 清理线程可能刚删掉这个 blob；已建的半个链接去掉，退回正常写入
+            deleteQuietly(fileVaultService.metaPath(basePath));
+            linkFailed(e);
+            return false;
+        }
+    }
+
+    /**
+     * 把刚写入的 basePath 登记为该内容的 blob。已有同内容的 blob 时保持原样。
+     */
+    public void register(String address, Path basePath) {
+        Path blob = blobPath(address);
+        Path blobCipher = fileVaultService.cipherPath(blob);
+        try {
+            Files.createDirectories(blob.getParent());
+            Files.createLink(blobCipher, fileVaultService.cipherPath(basePath));
+        } catch (FileAlreadyExistsException e) {
+            return;
+        } catch (IOException | UnsupportedOperationException e) {
+            linkFailed(e);
+            return;
+        }
+        try {
+            Files.createLink(fileVaultService.metaPath(blob), fileVaultService.metaPath(basePath));
+        } catch (IOException | UnsupportedOperationException e) {
+            // 元数据位置被占用时，不能留下一对不匹配的密文和元数据
+            try {
+                if (Files.isSameFile(blobCipher, fileVaultService.cipherPath(basePath))) {
+                    Files.deleteIfExists(blobCipher);
+                }
+            } catch (IOException ignored) {
+            }
+            linkFailed(e);
+        }
+    }
+
+    /**
+     * 删除只剩 blob 目录自己链接着的 blob，以及残缺的半个 blob。刚写入的不动，
+     * 给正在登记或链接的上传留出时间。
+     *
+     * @return 删除的 blob 数
+     */
+    @Scheduled(cron = "${file.storage.blob-sweep-cron:0 15 4 * * *}")
+    public int sweep() {
+        Path root = Paths.get(config.getFullBlobDir());
+        if (!UNIX_ATTRIBUTES || !Files.isDirectory(root)) {
+            return 0;
+        }
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(Math.max(0, config.getBlobSweepGraceMinutes())));
+        int removed = 0;
+        List<Path> files;
+        try (var stream = Files.walk(root, 2)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        } catch (IOException e) {
+            log.warn("blob 目录遍历失败: {}", e.getMessage());
+            return 0;
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Path blob;
+            if (name.endsWith(".enc")) {
+                blob = file.resolveSibling(name.substring(0, name.length() - ".enc".length()));
+            } else if (name.endsWith(".meta.json")) {
+                blob = file.resolveSibling(name.substring(0, name.length() - ".meta.json".length()));
+                if (Files.exists(fileVaultService.cipherPath(blob))) {
+                    continue;
+                }
+            } else {
+                continue;
+            }
+            try {
+                if (isUnreferenced(fileVaultService.cipherPath(blob), cutoff)
+                        && isUnreferenced(fileVaultService.metaPath(blob), cutoff)
+                        && fileVaultService.deleteEncrypted(blob)) {
+                    removed++;
+                }
+            } catch (IOException e) {
+                log.debug("blob 清理跳过 {}: {}", file.getFileName(), e.getMessage());
+            }
+        }
+        if (removed > 0) {
+            log.info("已清理 {} 个无引用的 blob", removed);
+        }
+        return removed;
+    }
+
+    Path blobPath(String address) {
+        return Paths.get(config.getFullBlobDir()).resolve(address.substring(0, 2)).resolve(address);
+    }
+
+    static int linkCount(Path path) throws IOException {
+        return ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+    }
+
+    private boolean isUnreferenced(Path path, Instant cutoff) throws IOException {
+        try {
+            return linkCount(path) <= 1 && Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private void linkFailed(Exception e) {
+        if (e instanceof FileAlreadyExistsException || e instanceof NoSuchFileException) {
+            log.debug("blob 链接与并发写入或清理冲突，本次不去重: {}", e.getMessage());
+            return;
+        }
+        // 硬链接不可用（跨文件系统、权限、文件系统不支持）时一直会失败，到重启前不再尝试
+        linksAvailable = false;
+        log.warn("无法在上传目录和 blob 目录之间建立硬链接，已关闭内容去重: {}", e.toString());
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.StickerPackRepository;
+import com.chatapp.repository.StickerRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * 消息附件、贴纸这类按 URL 共享的文件的引用计数。转发的消息、贴纸消息和原消息、贴纸共用
+ * 同一个 URL，某个所有者消失时不能直接删文件，只有再没有未删除的消息、贴纸或贴纸包封面
+ * 引用它时才删除。磁盘上内容相同的文件另由 {@link FileBlobStore} 共享一份密文。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileReferenceService {
+
+    private final MessageRepository messageRepository;
+    private final StickerRepository stickerRepository;
+    private final StickerPackRepository stickerPackRepository;
+    private final FileStorageService fileStorageService;
+
+    /**
+     * 所有者已经不再引用 fileUrl（消息已删除或已清空文件字段）后调用，最后一个引用释放时删除文件。
+     *
+     * @return 是否删除了文件
+     */
+    public boolean release(String fileUrl) {
+        if (!isMessageScopedFile(fileUrl) || isReferenced(fileUrl)) {
+            return false;
+        }
+        boolean deleted = fileStorageService.deleteFile(fileUrl);
+        if (!deleted) {
+            log.debug("释放文件引用时未删除文件，可能已不存在: {}", fileUrl);
+        }
+        return deleted;
+    }
+
+    public boolean isReferenced(String fileUrl) {
+        return messageRepository.existsActiveMessageReferencingFileUrl(fileUrl)
+                || stickerRepository.existsByUrl(fileUrl)
+                || stickerPackRepository.existsByCoverUrl(fileUrl);
+    }
+
+    static boolean isMessageScopedFile(String fileUrl) {
+        return fileUrl != null
+                && (fileUrl.startsWith("/api/files/chat/")
+                || fileUrl.startsWith("/api/files/image-gen/"));
+    }
+}
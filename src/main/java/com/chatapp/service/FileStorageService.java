@@ -2,6 +2,8 @@ package com.chatapp.service;
 
 import com.chatapp.config.FileStorageConfig;
 import com.chatapp.security.FileVaultService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.minio.BucketExistsArgs;
 import io.minio.GetObjectArgs;
 import io.minio.ListObjectsArgs;
@@ -12,7 +14,9 @@ import io.minio.RemoveObjectArgs;
 import io.minio.Result;
 import io.minio.errors.ErrorResponseException;
 import io.minio.messages.Item;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +27,9 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -52,8 +59,13 @@ public class FileStorageService {
     @Autowired
     private FileVaultService fileVaultService;
 
+    @Autowired
+    private FileBlobStore fileBlobStore;
+
     private volatile MinioClient workspaceObjectClient;
 
+    private volatile Cache<Path, byte[]> hotAssets;
+
     /**
      * 初始化存储目录
      */
@@ -114,6 +126,36 @@ public class FileStorageService {
         return "/api/files/chat/" + fileName;
     }
 
+    /**
+     * 创建断点续传会话前校验聊天文件的类型和大小，规则和 {@link #uploadChatFile} 相同。
+     */
+    public void validateChatUpload(String originalFilename, long fileSize) {
+        validateChatFile(originalFilename, fileSize);
+    }
+
+    /**
+     * 把断点续传完成的分片文件放进聊天文件目录。分片在上传时已逐块加密，这里流式解密一遍
+     * 校验完整性并计算内容哈希，然后硬链接到位，不重新加密，也不把文件读进内存。
+     * 分片文件保留不动，由调用方在文件消息发送成功后删除。
+     */
+    public String completeChatUpload(String originalFilename, Path partPath, FileVaultService.VaultMeta staged)
+            throws IOException {
+        validateChatFile(originalFilename, staged.sizePlain());
+        String fileExtension = getFileExtension(cleanFileName(originalFilename, "file.bin"));
+        String fileName = UUID.randomUUID().toString() + "." + fileExtension;
+        Path targetLocation = Paths.get(fileStorageConfig.getFullChatFileDir()).resolve(fileName);
+
+        byte[] sha256 = fileVaultService.stagedDigest(partPath, staged);
+        String address = fileBlobStore == null ? null : fileBlobStore.address(sha256);
+        if (address == null || !fileBlobStore.linkExisting(address, targetLocation)) {
+            fileVaultService.completeStaged(partPath, staged, sha256, targetLocation);
+            if (address != null) {
+                fileBlobStore.register(address, targetLocation);
+            }
+        }
+        return "/api/files/chat/" + fileName;
+    }
+
     /**
      * 上传聊天背景。背景是视觉皮肤资源，和聊天附件 ACL 分开存储。
      */
@@ -140,6 +182,16 @@ public class FileStorageService {
         return "/api/files/chat/" + fileName;
     }
 
+    /**
+     * 保存图片消息的派生图（缩略图、预览图）。和聊天文件放在同一目录，同样加密存储、按消息鉴权。
+     */
+    public String storeChatImageDerivative(String extension, byte[] bytes) throws IOException {
+        String fileName = UUID.randomUUID() + "." + extension;
+        Path targetLocation = Paths.get(fileStorageConfig.getFullChatFileDir()).resolve(fileName);
+        storeEncryptedBytes(targetLocation, bytes);
+        return "/api/files/chat/" + fileName;
+    }
+
     public String uploadGeneratedImage(String originalFilename, String contentType, byte[] bytes) throws IOException {
         String safeName = cleanFileName(originalFilename, "image.png");
         validateImageFile(safeName, contentType, bytes == null ? 0 : bytes.length);
@@ -256,21 +308,10 @@ public class FileStorageService {
      * 获取文件
      */
     public byte[] getFile(String type, String fileName) throws IOException {
-        Path filePath;
-        if ("avatar".equals(type)) {
-            filePath = Paths.get(fileStorageConfig.getFullAvatarDir()).resolve(fileName);
-        } else if ("chat".equals(type)) {
-            filePath = Paths.get(fileStorageConfig.getFullChatFileDir()).resolve(fileName);
-        } else if ("image-gen".equals(type)) {
-            filePath = Paths.get(fileStorageConfig.getFullImageGenDir()).resolve(fileName);
-        } else if ("background".equals(type)) {
-            filePath = Paths.get(fileStorageConfig.getFullBackgroundDir()).resolve(fileName);
-        } else if ("workspace".equals(type)) {
+        if ("workspace".equals(type)) {
             return getWorkspaceFile(null, fileName);
-        } else {
-            throw new IllegalArgumentException("不支持的文件类型: " + type);
         }
-        
+        Path filePath = resolveFilePath(type, fileName);
         if (fileVaultService.isEncrypted(filePath)) {
             return fileVaultService.loadDecrypted(filePath);
         }
@@ -282,6 +323,122 @@ public class FileStorageService {
         return Files.readAllBytes(filePath);
     }
 
+    /**
+     * 以流的形式打开文件，供下载接口边解密边发送，不把整个文件读入内存。调用方负责关闭流。
+     */
+    public FileDownload openFile(String type, String fileName) throws IOException {
+        return openFile(type, fileName, 0, fileSize(type, fileName));
+    }
+
+    /**
+     * 打开文件中从 start 开始的 length 个字节，用于 Range 请求。分块加密的文件只解密涉及的分块。
+     */
+    public FileDownload openFile(String type, String fileName, long start, long length) throws IOException {
+        if ("workspace".equals(type)) {
+            byte[] bytes = getWorkspaceFile(null, fileName);
+            checkRange(start, length, bytes.length);
+            return new FileDownload(new ByteArrayInputStream(bytes, (int) start, (int) length), length);
+        }
+        Path filePath = resolveFilePath(type, fileName);
+        if (fileVaultService.isEncrypted(filePath)) {
+            long size = fileVaultService.decryptedSize(filePath);
+            checkRange(start, length, size);
+            InputStream stream = start == 0 && length == size
+                    ? fileVaultService.openDecrypted(filePath)
+                    : fileVaultService.openDecryptedRange(filePath, start, length);
+            return new FileDownload(stream, length);
+        }
+        if (!Files.exists(filePath)) {
+            throw new IOException("文件不存在: " + fileName);
+        }
+        checkRange(start, length, Files.size(filePath));
+        SeekableByteChannel channel = Files.newByteChannel(filePath);
+        try {
+            channel.position(start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new FileDownload(new BoundedInputStream(Channels.newInputStream(channel), length), length);
+    }
+
+    /**
+     * 文件明文长度
+     */
+    public long fileSize(String type, String fileName) throws IOException {
+        if ("workspace".equals(type)) {
+            return getWorkspaceFile(null, fileName).length;
+        }
+        Path filePath = resolveFilePath(type, fileName);
+        if (fileVaultService.isEncrypted(filePath)) {
+            return fileVaultService.decryptedSize(filePath);
+        }
+        if (!Files.exists(filePath)) {
+            throw new IOException("文件不存在: " + fileName);
+        }
+        return Files.size(filePath);
+    }
+
+    /**
+     * 文件的校验信息，用于 ETag / Last-Modified。加密文件取元数据里记录的内容哈希，不需要解密。
+     */
+    public FileVersion fileVersion(String type, String fileName) throws IOException {
+        Path filePath = resolveFilePath(type, fileName);
+        if (fileVaultService.isEncrypted(filePath)) {
+            return new FileVersion(
+                    fileVaultService.contentTag(filePath),
+                    Files.getLastModifiedTime(fileVaultService.cipherPath(filePath)).toMillis());
+        }
+        if (!Files.exists(filePath)) {
+            throw new IOException("文件不存在: " + fileName);
+        }
+        long lastModified = Files.getLastModifiedTime(filePath).toMillis();
+        return new FileVersion(
+                Long.toHexString(Files.size(filePath)) + "-" + Long.toHexString(lastModified),
+                lastModified);
+    }
+
+    /**
+     * 打开头像、背景、贴纸这类小而热的素材。解密后的字节放进按总字节数限额的 LRU，
+     * 列表反复渲染时不再重复解密；超过单个上限的文件照常流式读取。
+     */
+    public FileDownload openHotAsset(String type, String fileName, long start, long length) throws IOException {
+        Cache<Path, byte[]> cache = hotAssets();
+        if (cache == null) {
+            return openFile(type, fileName, start, length);
+        }
+        Path filePath = resolveFilePath(type, fileName);
+        byte[] bytes = cache.getIfPresent(filePath);
+        if (bytes == null) {
+            if (fileSize(type, fileName) > fileStorageConfig.getHotAssetMaxBytes()) {
+                return openFile(type, fileName, start, length);
+            }
+            bytes = getFile(type, fileName);
+            cache.put(filePath, bytes);
+        }
+        checkRange(start, length, bytes.length);
+        return new FileDownload(new ByteArrayInputStream(bytes, (int) start, (int) length), length);
+    }
+
+    private void checkRange(long start, long length, long size) throws IOException {
+        if (start < 0 || length < 0 || start + length > size) {
+            throw new IOException("请求的范围超出文件长度: " + start + "+" + length + "/" + size);
+        }
+    }
+
+    private Path resolveFilePath(String type, String fileName) {
+        if ("avatar".equals(type)) {
+            return Paths.get(fileStorageConfig.getFullAvatarDir()).resolve(fileName);
+        } else if ("chat".equals(type)) {
+            return Paths.get(fileStorageConfig.getFullChatFileDir()).resolve(fileName);
+        } else if ("image-gen".equals(type)) {
+            return Paths.get(fileStorageConfig.getFullImageGenDir()).resolve(fileName);
+        } else if ("background".equals(type)) {
+            return Paths.get(fileStorageConfig.getFullBackgroundDir()).resolve(fileName);
+        }
+        throw new IllegalArgumentException("不支持的文件类型: " + type);
+    }
+
     public byte[] getWorkspaceFile(String storageProvider, String storageNameOrObjectKey) throws IOException {
         if (isObjectWorkspaceProvider(storageProvider) || (storageProvider == null && !isLocalWorkspaceStorage())) {
             byte[] objectBytes = getWorkspaceObjectBytes(storageNameOrObjectKey);
@@ -364,21 +521,42 @@ public class FileStorageService {
         }
     }
 
+    /**
+     * 加密写入上传文件。内容和已有文件相同时只建硬链接，见 {@link FileBlobStore}。
+     */
     private void storeEncryptedFile(Path basePath, MultipartFile file) throws IOException {
+        String address = contentAddress(file);
+        if (address != null && fileBlobStore.linkExisting(address, basePath)) {
+            return;
+        }
         if (file.getSize() <= fileVaultService.getStreamingThreshold()) {
             fileVaultService.storeEncrypted(basePath, file.getBytes());
-            return;
+        } else {
+            fileVaultService.storeEncryptedStream(basePath, file.getInputStream(), file.getSize());
+        }
+        if (address != null) {
+            fileBlobStore.register(address, basePath);
         }
-        fileVaultService.storeEncryptedStream(basePath, file.getInputStream(), file.getSize());
     }
 
     private void storeEncryptedBytes(Path basePath, byte[] bytes) throws IOException {
         byte[] safeBytes = bytes == null ? new byte[0] : bytes;
+        String address = contentAddress(() -> new ByteArrayInputStream(safeBytes));
+        if (address != null && fileBlobStore.linkExisting(address, basePath)) {
+            return;
+        }
         if (safeBytes.length <= fileVaultService.getStreamingThreshold()) {
             fileVaultService.storeEncrypted(basePath, safeBytes);
-            return;
+        } else {
+            fileVaultService.storeEncryptedStream(basePath, new ByteArrayInputStream(safeBytes), safeBytes.length);
+        }
+        if (address != null) {
+            fileBlobStore.register(address, basePath);
         }
-        fileVaultService.storeEncryptedStream(basePath, new ByteArrayInputStream(safeBytes), safeBytes.length);
+    }
+
+    private String contentAddress(InputStreamSource source) throws IOException {
+        return fileBlobStore == null ? null : fileBlobStore.address(source);
     }
 
     private void putWorkspaceObject(String objectKey, byte[] bytes, String contentType) throws Exception {
@@ -420,6 +598,10 @@ public class FileStorageService {
     }
 
     private boolean deleteLocalFile(Path basePath) throws IOException {
+        Cache<Path, byte[]> cache = hotAssets;
+        if (cache != null) {
+            cache.invalidate(basePath);
+        }
         boolean deletedEncrypted = fileVaultService.deleteEncrypted(basePath);
         boolean deletedPlain = Files.deleteIfExists(basePath);
         return deletedEncrypted || deletedPlain;
@@ -625,6 +807,22 @@ public class FileStorageService {
         }
     }
 
+    private Cache<Path, byte[]> hotAssets() {
+        Cache<Path, byte[]> cache = hotAssets;
+        if (cache != null || fileStorageConfig.getHotAssetCacheBytes() <= 0) {
+            return cache;
+        }
+        synchronized (this) {
+            if (hotAssets == null) {
+                hotAssets = Caffeine.newBuilder()
+                        .maximumWeight(fileStorageConfig.getHotAssetCacheBytes())
+                        .weigher((Path path, byte[] bytes) -> bytes.length)
+                        .build();
+            }
+            return hotAssets;
+        }
+    }
+
     private MinioClient workspaceClient() {
         MinioClient client = workspaceObjectClient;
         if (client != null) {
@@ -654,6 +852,14 @@ public class FileStorageService {
         }
     }
 
+    /** 文件的强校验值（不带引号）和最后修改时间（毫秒）。 */
+    public record FileVersion(String tag, long lastModified) {
+    }
+
+    /** 下载用的明文流及其长度。 */
+    public record FileDownload(InputStream stream, long size) {
+    }
+
     public record StoredFile(
             String storageFileName,
             String originalFileName,
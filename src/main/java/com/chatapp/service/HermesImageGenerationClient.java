@@ -3,12 +3,12 @@ package com.chatapp.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
@@ -21,15 +21,11 @@ import java.time.Duration;
 
 @Component
 @Primary
-@RequiredArgsConstructor
 public class HermesImageGenerationClient implements ImageGenerationClient {
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
     private final ObjectMapper objectMapper;
-    private final OkHttpClient baseHttpClient = new OkHttpClient.Builder()
-            .connectTimeout(Duration.ofSeconds(10))
-            .writeTimeout(Duration.ofSeconds(10))
-            .build();
+    private final OkHttpClient baseHttpClient;
 
     @Value("${image-generation.hermes.draw-url:http://hermes-image-api:8765/draw}")
     private String drawUrl;
@@ -40,6 +36,18 @@ public class HermesImageGenerationClient implements ImageGenerationClient {
     @Value("${image-generation.hermes.timeout-seconds:240}")
     private long timeoutSeconds;
 
+    public HermesImageGenerationClient(ObjectMapper objectMapper) {
+        this(objectMapper, OutboundHttpClients.standalone());
+    }
+
+    @Autowired
+    public HermesImageGenerationClient(ObjectMapper objectMapper, OutboundHttpClients httpClients) {
+        this.objectMapper = objectMapper;
+        this.baseHttpClient = httpClients.client("image-hermes", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(10), Duration.ofSeconds(240), Duration.ofSeconds(10))
+                .withMaxConcurrent(4));
+    }
+
     @Override
     public SubmitResult submit(String apiKey, String prompt, int count, String size) {
         return submit(apiKey, prompt, count, size, true);
@@ -13,13 +13,14 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 @Component
 @Slf4j
@@ -34,16 +35,20 @@ public class HermesProvider {
     @Value("${llm.hermes.vision-model:grok-4.3}")
     private String visionModel;
 
+    public HermesProvider(ObjectMapper objectMapper, String internalToken) {
+        this(objectMapper, internalToken, OutboundHttpClients.standalone());
+    }
+
+    @Autowired
     public HermesProvider(
             ObjectMapper objectMapper,
-            @Value("${llm.hermes.internal-token:${HERMES_INTERNAL_TOKEN:}}") String internalToken) {
+            @Value("${llm.hermes.internal-token:${HERMES_INTERNAL_TOKEN:}}") String internalToken,
+            OutboundHttpClients httpClients) {
         this.objectMapper = objectMapper;
         this.internalToken = requireInternalToken(internalToken);
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(130, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this.httpClient = httpClients.client("hermes-chat", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(10), Duration.ofSeconds(130), Duration.ofSeconds(30))
+                .withMaxConcurrent(16));
     }
 
     private static String requireInternalToken(String token) {
@@ -0,0 +1,212 @@
+package com.chatapp.service;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.config.WorkerThreads;
+import com.chatapp.entity.Message;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.websocket.RawWebSocketHandler;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates thumbnails, previews and BlurHash placeholders for image messages off the
+ * request thread. Work runs on a small fixed pool with a bounded queue, so a burst of
+ * uploads queues up behind a couple of decoders instead of competing with request
+ * threads for CPU and heap. When the queue is full the upload is skipped and its id
+ * remembered; a periodic catch-up pass re-queues skipped uploads, oldest first, as
+ * the queue drains (history from before the pipeline is left to the opt-in startup
+ * backfill in {@code ImageThumbnailBackfillRunner}), leaving out uploads that are
+ * still queued. An upload the thumbnailer cannot render is marked with an empty
+ * blur hash, so neither pass picks it up again. Derivatives are stored
+ * encrypted next to the original and attached with a conditional update, so a client
+ * supplied thumbnail or a concurrent run is never overwritten.
+ */
+@Service
+@Slf4j
+public class ImageDerivativeService {
+
+    private static final String CHAT_FILE_PREFIX = "/api/files/chat/";
+    private static final long NO_BACKLOG = Long.MAX_VALUE;
+
+    private final FileStorageService fileStorageService;
+    private final MessageRepository messageRepository;
+    private final ImageThumbnailer thumbnailer;
+    private final RawWebSocketHandler rawWebSocketHandler;
+    private final ThreadPoolExecutor executor;
+    /** Id just below the oldest upload the full queue had to skip, or {@link #NO_BACKLOG}. */
+    private final AtomicLong backlogAfterId = new AtomicLong(NO_BACKLOG);
+    /** Messages waiting in or running on the pool; the catch-up pass does not queue them twice. */
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ImageDerivativeService(FileStorageService fileStorageService,
+                                  MessageRepository messageRepository,
+                                  ImageThumbnailer thumbnailer,
+                                  RawWebSocketHandler rawWebSocketHandler,
+                                  FileStorageConfig config,
+                                  WorkerThreads workerThreads) {
+        this.fileStorageService = fileStorageService;
+        this.messageRepository = messageRepository;
+        this.thumbnailer = thumbnailer;
+        this.rawWebSocketHandler = rawWebSocketHandler;
+        int workers = Math.max(1, config.getThumbnailWorkers());
+        int capacity = Math.max(1, config.getThumbnailQueueCapacity());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                workers, workers, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                workerThreads.threadFactory("image-derivatives"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /** Queues generation for a freshly sent message; never blocks the caller. */
+    public void schedule(Message message) {
+        if (!needsDerivatives(message)) {
+            return;
+        }
+        Long messageId = message.getId();
+        Long chatRoomId = message.getChatRoom().getId();
+        String fileUrl = message.getFileUrl();
+        if (!enqueue(messageId, chatRoomId, fileUrl)) {
+            backlogAfterId.accumulateAndGet(messageId - 1, Math::min);
+            log.warn("image derivative queue full — message {} left for the catch-up pass", messageId);
+        }
+    }
+
+    /**
+     * Re-queues uploads the full queue skipped, oldest first and no more than the queue
+     * has room for; the rest wait for the next pass.
+     */
+    @Scheduled(fixedDelayString = "${file.storage.thumbnail-catch-up-interval-ms:60000}")
+    public void catchUp() {
+        int room = executor.getQueue().remainingCapacity();
+        if (room == 0 || backlogAfterId.get() == NO_BACKLOG) {
+            return;
+        }
+        long afterId = backlogAfterId.getAndSet(NO_BACKLOG);
+        List<Message> batch;
+        try {
+            batch = messageRepository.findImagesWithoutThumbnail(
+                    Message.MessageType.IMAGE, afterId, PageRequest.of(0, room));
+        } catch (RuntimeException e) {
+            backlogAfterId.accumulateAndGet(afterId, Math::min);
+            throw e;
+        }
+        long cursor = batch.isEmpty() ? NO_BACKLOG : afterId;
+        for (Message message : batch) {
+            if (!enqueue(message.getId(), message.getChatRoom().getId(), message.getFileUrl())) {
+                break;
+            }
+            cursor = message.getId();
+        }
+        // A skip recorded meanwhile with a lower id wins; the next pass starts there.
+        backlogAfterId.accumulateAndGet(cursor, Math::min);
+    }
+
+    private boolean enqueue(Long messageId, Long chatRoomId, String fileUrl) {
+        if (!queued.add(messageId)) {
+            return true;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(messageId, chatRoomId, fileUrl);
+                } finally {
+                    queued.remove(messageId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.remove(messageId);
+            return false;
+        }
+    }
+
+    public static boolean needsDerivatives(Message message) {
+        return message != null
+                && message.getId() != null
+                && message.getMessageType() == Message.MessageType.IMAGE
+                && message.getThumbnailUrl() == null
+                && message.getFileUrl() != null
+                && message.getFileUrl().startsWith(CHAT_FILE_PREFIX);
+    }
+
+    /**
+     * Renders, stores and attaches the derivatives on the calling thread, then tells the
+     * room so open clients can swap in the thumbnail. An image that cannot be rendered
+     * is marked so later passes skip it.
+     *
+     * @return true if the message got a thumbnail
+     */
+    public boolean generate(Long messageId, Long chatRoomId, String fileUrl) {
+        List<String> stored = new ArrayList<>(2);
+        boolean attached = false;
+        try {
+            byte[] original = fileStorageService.getFile("chat", fileUrl.substring(CHAT_FILE_PREFIX.length()));
+            ImageThumbnailer.Rendered rendered = render(messageId, original);
+            if (rendered == null) {
+                log.debug("图片派生图跳过，无法解码: messageId={}", messageId);
+                messageRepository.markImageUndecodable(messageId);
+                return false;
+            }
+            for (ImageThumbnailer.Derivative derivative : rendered.derivatives()) {
+                stored.add(fileStorageService.storeChatImageDerivative(derivative.extension(), derivative.bytes()));
+            }
+            String thumbnailUrl = stored.get(0);
+            String previewUrl = stored.size() > 1 ? stored.get(1) : null;
+            attached = messageRepository.attachImageDerivatives(messageId, thumbnailUrl, previewUrl,
+                    rendered.blurHash(), rendered.width(), rendered.height()) > 0;
+            if (!attached) {
+                return false;
+            }
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("messageId", messageId);
+            payload.put("thumbnailUrl", thumbnailUrl);
+            payload.put("previewUrl", previewUrl);
+            payload.put("blurHash", rendered.blurHash());
+            payload.put("width", rendered.width());
+            payload.put("height", rendered.height());
+            rawWebSocketHandler.broadcastMessageAction(chatRoomId, "image_derivatives_ready", payload);
+            return true;
+        } catch (Exception e) {
+            log.warn("图片派生图生成失败: messageId={} error={}", messageId, e.toString());
+            return false;
+        } finally {
+            if (!attached) {
+                stored.forEach(fileStorageService::deleteFile);
+            }
+        }
+    }
+
+    /** Null when the bytes are not an image the thumbnailer can decode; retrying would not change that. */
+    private ImageThumbnailer.Rendered render(Long messageId, byte[] original) {
+        try {
+            return thumbnailer.render(original);
+        } catch (IOException | RuntimeException e) {
+            log.debug("图片解码失败: messageId={} error={}", messageId, e.toString());
+            return null;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
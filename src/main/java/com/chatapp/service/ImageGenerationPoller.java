@@ -0,0 +1,180 @@
+package com.chatapp.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks every pending provider-side image job from one place instead of a
+ * sleeping thread per job. A single timer ticks every {@code tick-ms} and hands
+ * the jobs that are due to a small poll pool; a job that is still running is
+ * put back with a growing delay (doubling up to {@code max-delay-ms}) until it
+ * finishes or {@code timeout-ms} passes. The first check happens right away.
+ */
+@Component
+@Slf4j
+public class ImageGenerationPoller {
+
+    private final ImageGenerationClient generationClient;
+    private final ScheduledExecutorService timer;
+    private final Executor pollExecutor;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final long timeoutMs;
+    private final LongSupplier clockMs;
+    // Guarded by itself; ordered by next check time.
+    private final PriorityQueue<Job> waiting = new PriorityQueue<>((a, b) -> Long.compare(a.dueAtMs, b.dueAtMs));
+    private final AtomicInteger pending = new AtomicInteger();
+
+    @Autowired
+    public ImageGenerationPoller(ImageGenerationClient generationClient,
+                                 @Value("${image-generation.poller.tick-ms:250}") long tickMs,
+                                 @Value("${image-generation.poller.initial-delay-ms:1000}") long initialDelayMs,
+                                 @Value("${image-generation.poller.max-delay-ms:5000}") long maxDelayMs,
+                                 @Value("${image-generation.poller.timeout-ms:120000}") long timeoutMs,
+                                 @Value("${image-generation.poller.max-concurrent-polls:4}") int maxConcurrentPolls) {
+        this(generationClient, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "image-gen-poller");
+            thread.setDaemon(true);
+            return thread;
+        }), pollPool(maxConcurrentPolls), tickMs, initialDelayMs, maxDelayMs, timeoutMs, System::currentTimeMillis);
+    }
+
+    ImageGenerationPoller(ImageGenerationClient generationClient, ScheduledExecutorService timer,
+                          Executor pollExecutor, long tickMs, long initialDelayMs, long maxDelayMs,
+                          long timeoutMs, LongSupplier clockMs) {
+        this.generationClient = generationClient;
+        this.timer = timer;
+        this.pollExecutor = pollExecutor;
+        this.initialDelayMs = Math.max(1, initialDelayMs);
+        this.maxDelayMs = Math.max(this.initialDelayMs, maxDelayMs);
+        this.timeoutMs = Math.max(0, timeoutMs);
+        this.clockMs = clockMs;
+        if (timer != null) {
+            long tick = Math.max(10, tickMs);
+            timer.scheduleWithFixedDelay(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Completes with the job's terminal poll result, or a FAILED result once the job
+     * times out. Completes exceptionally if the provider poll itself throws.
+     */
+    public CompletableFuture<ImageGenerationClient.PollResult> await(String apiKey, String taskId) {
+        Job job = new Job(apiKey, taskId, clockMs.getAsLong() + timeoutMs);
+        pending.incrementAndGet();
+        job.result.whenComplete((result, error) -> pending.decrementAndGet());
+        dispatch(job);
+        return job.result;
+    }
+
+    /** Jobs not yet finished, whether waiting for their next check or being checked. */
+    public int pending() {
+        return pending.get();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+        if (pollExecutor instanceof ThreadPoolExecutor pool) {
+            pool.shutdownNow();
+        }
+    }
+
+    void tick() {
+        long now = clockMs.getAsLong();
+        List<Job> due = new ArrayList<>();
+        synchronized (waiting) {
+            while (!waiting.isEmpty() && waiting.peek().dueAtMs <= now) {
+                due.add(waiting.poll());
+            }
+        }
+        due.forEach(this::dispatch);
+    }
+
+    private void dispatch(Job job) {
+        try {
+            pollExecutor.execute(() -> check(job));
+        } catch (RejectedExecutionException e) {
+            // Poll pool shutting down or saturated: try again on a later tick.
+            requeue(job);
+        }
+    }
+
+    private void check(Job job) {
+        ImageGenerationClient.PollResult result;
+        try {
+            result = generationClient.poll(job.apiKey, job.taskId);
+        } catch (RuntimeException e) {
+            job.result.completeExceptionally(e);
+            return;
+        }
+        if (result.status() == ImageGenerationClient.PollResult.Status.SUCCEEDED
+                || result.status() == ImageGenerationClient.PollResult.Status.FAILED) {
+            job.result.complete(result);
+            return;
+        }
+        if (clockMs.getAsLong() >= job.deadlineMs) {
+            log.warn("Image generation task {} timed out after {} ms", job.taskId, timeoutMs);
+            job.result.complete(new ImageGenerationClient.PollResult(
+                    ImageGenerationClient.PollResult.Status.FAILED,
+                    null,
+                    "图片生成超时"));
+            return;
+        }
+        requeue(job);
+    }
+
+    private void requeue(Job job) {
+        long delay = job.delayMs;
+        job.delayMs = Math.min(maxDelayMs, delay * 2);
+        job.dueAtMs = Math.min(clockMs.getAsLong() + delay, job.deadlineMs);
+        synchronized (waiting) {
+            waiting.add(job);
+        }
+    }
+
+    private static ThreadPoolExecutor pollPool(int maxConcurrentPolls) {
+        int threads = Math.max(1, maxConcurrentPolls);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "image-gen-poll-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private final class Job {
+        private final String apiKey;
+        private final String taskId;
+        private final long deadlineMs;
+        private final CompletableFuture<ImageGenerationClient.PollResult> result = new CompletableFuture<>();
+        private long delayMs = initialDelayMs;
+        private long dueAtMs;
+
+        private Job(String apiKey, String taskId, long deadlineMs) {
+            this.apiKey = apiKey;
+            this.taskId = taskId;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+}
@@ -18,15 +18,15 @@ import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 @Slf4j
 public class ImageGenerationService {
     private static final String FEATURE_KEY = "image_generation";
-    private static final int MAX_POLLS = 40;
-    private static final long POLL_DELAY_MS = 3_000L;
 
     private final MessageRepository messageRepository;
     private final ChatRoomRepository chatRoomRepository;
@@ -35,6 +35,7 @@ public class ImageGenerationService {
     private final PointsService pointsService;
     private final ImageGenerationClient generationClient;
     private final BotImageGenerationClient botImageGenerationClient;
+    private final ImageGenerationPoller generationPoller;
     private final FileStorageService fileStorageService;
     private final RawWebSocketHandler rawWebSocketHandler;
     private final TransactionTemplate transactionTemplate;
@@ -48,6 +49,7 @@ public class ImageGenerationService {
             PointsService pointsService,
             ImageGenerationClient generationClient,
             BotImageGenerationClient botImageGenerationClient,
+            ImageGenerationPoller generationPoller,
             FileStorageService fileStorageService,
             RawWebSocketHandler rawWebSocketHandler,
             TransactionTemplate transactionTemplate,
@@ -59,6 +61,7 @@ public class ImageGenerationService {
         this.pointsService = pointsService;
         this.generationClient = generationClient;
         this.botImageGenerationClient = botImageGenerationClient;
+        this.generationPoller = generationPoller;
         this.fileStorageService = fileStorageService;
         this.rawWebSocketHandler = rawWebSocketHandler;
         this.transactionTemplate = transactionTemplate;
@@ -157,39 +160,67 @@ public class ImageGenerationService {
                          BotImageGenerationClient.ProviderConfig providerConfig) {
         try {
             updateStatus(messageId, Message.ImageGenerationStatus.PROCESSING, Message.MessageStatus.SENDING, null, null);
-            byte[] bytes;
-            String mimeType;
             if (providerConfig == null
                     || providerConfig.provider() == BotConfig.ImageGenerationProvider.HERMES) {
                 ImageGenerationClient.SubmitResult submit = generationClient.submit("", prompt, 1, size, expand);
                 updateProviderTask(messageId, submit.taskId());
-                ImageGenerationClient.PollResult result = waitForResult("", submit.taskId());
-                if (result.status() != ImageGenerationClient.PollResult.Status.SUCCEEDED) {
-                    throw new IllegalStateException(result.errorMessage() == null
-                            ? "图片生成失败"
-                            : result.errorMessage());
-                }
-                bytes = generationClient.download(result.imageUrl());
-                mimeType = "image/png";
-            } else {
-                BotImageGenerationClient.GeneratedImage generated =
-                        botImageGenerationClient.generate(providerConfig, prompt, size);
-                bytes = generated.bytes();
-                mimeType = generated.mimeType();
+                // No thread waits on the provider; the poller resumes the job once it finishes.
+                generationPoller.await("", submit.taskId()).whenComplete((result, error) ->
+                        resume(() -> finishProviderTask(messageId, userId, refId, result, error)));
+                return;
             }
-            String fileUrl = fileStorageService.uploadGeneratedImage(
-                    "image-generation-" + messageId + ".png",
-                    mimeType,
-                    bytes);
-            complete(messageId, fileUrl, bytes.length);
+            BotImageGenerationClient.GeneratedImage generated =
+                    botImageGenerationClient.generate(providerConfig, prompt, size);
+            store(messageId, generated.bytes(), generated.mimeType());
         } catch (Exception e) {
-            log.warn("Image generation failed for message {}: {}", messageId, e.getMessage());
-            try {
-                pointsService.refund(userId, FEATURE_KEY, refId, "图片生成失败自动退还");
-            } catch (Exception refundError) {
-                log.warn("Image generation refund failed for message {}: {}", messageId, refundError.getMessage());
+            failAndRefund(messageId, userId, refId, e);
+        }
+    }
+
+    private void finishProviderTask(Long messageId,
+                                    Long userId,
+                                    String refId,
+                                    ImageGenerationClient.PollResult result,
+                                    Throwable error) {
+        try {
+            if (error != null) {
+                throw error instanceof Exception exception ? exception : new IllegalStateException(error);
+            }
+            if (result.status() != ImageGenerationClient.PollResult.Status.SUCCEEDED) {
+                throw new IllegalStateException(result.errorMessage() == null
+                        ? "图片生成失败"
+                        : result.errorMessage());
             }
-            fail(messageId, e.getMessage());
+            store(messageId, generationClient.download(result.imageUrl()), "image/png");
+        } catch (Exception e) {
+            failAndRefund(messageId, userId, refId, e);
+        }
+    }
+
+    private void store(Long messageId, byte[] bytes, String mimeType) throws IOException {
+        String fileUrl = fileStorageService.uploadGeneratedImage(
+                "image-generation-" + messageId + ".png",
+                mimeType,
+                bytes);
+        complete(messageId, fileUrl, bytes.length);
+    }
+
+    private void failAndRefund(Long messageId, Long userId, String refId, Exception e) {
+        log.warn("Image generation failed for message {}: {}", messageId, e.getMessage());
+        try {
+            pointsService.refund(userId, FEATURE_KEY, refId, "图片生成失败自动退还");
+        } catch (Exception refundError) {
+            log.warn("Image generation refund failed for message {}: {}", messageId, refundError.getMessage());
+        }
+        fail(messageId, e.getMessage());
+    }
+
+    /** Downloads and uploads on the task pool; falls back to the poller thread if the pool is full. */
+    private void resume(Runnable task) {
+        try {
+            taskExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
         }
     }
 
@@ -206,21 +237,6 @@ public class ImageGenerationService {
         });
     }
 
-    private ImageGenerationClient.PollResult waitForResult(String apiKey, String taskId) throws InterruptedException {
-        for (int i = 0; i < MAX_POLLS; i++) {
-            ImageGenerationClient.PollResult result = generationClient.poll(apiKey, taskId);
-            if (result.status() == ImageGenerationClient.PollResult.Status.SUCCEEDED
-                    || result.status() == ImageGenerationClient.PollResult.Status.FAILED) {
-                return result;
-            }
-            Thread.sleep(POLL_DELAY_MS);
-        }
-        return new ImageGenerationClient.PollResult(
-                ImageGenerationClient.PollResult.Status.FAILED,
-                null,
-                "图片生成超时");
-    }
-
     private void updateStatus(Long messageId,
                               Message.ImageGenerationStatus status,
                               Message.MessageStatus messageStatus,
@@ -0,0 +1,106 @@
+package com.chatapp.service;
+
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Renders the derivatives of an image message: a list thumbnail, a larger preview for the
+ * viewer and a BlurHash placeholder. The original is decoded once with source
+ * subsampling, turned upright per its EXIF orientation and re-encoded without metadata,
+ * so derivatives never carry the uploader's EXIF (GPS, device). Output is JPEG, or PNG
+ * when the image has transparency.
+ */
+@Component
+public class ImageThumbnailer {
+
+    /** Long edge of the chat-list thumbnail. */
+    static final int THUMBNAIL_EDGE = 320;
+    /** Long edge of the viewer preview; smaller originals get no preview. */
+    static final int PREVIEW_EDGE = 1280;
+    /** Long edge of the image the BlurHash is computed from. */
+    static final int BLUR_EDGE = 32;
+    /** Decompression-bomb guard: larger images are left without derivatives. */
+    static final long MAX_PIXELS = 100_000_000L;
+
+    /**
+     * @return the derivatives, or null when the bytes are not an image ImageIO can decode
+     */
+    public Rendered render(byte[] original) throws IOException {
+        if (original == null || original.length == 0) {
+            return null;
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(original))) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    return null;
+                }
+                int orientation = VisionImagePreprocessor.exifOrientation(original);
+                boolean swapped = orientation >= 5;
+                int orientedWidth = swapped ? height : width;
+                int orientedHeight = swapped ? width : height;
+                int longEdge = Math.max(orientedWidth, orientedHeight);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                double largest = Math.min(1.0d, PREVIEW_EDGE / (double) longEdge);
+                int subsample = (int) Math.floor(1.0d / (largest * 2.0d));
+                if (subsample > 1) {
+                    param.setSourceSubsampling(subsample, subsample, 0, 0);
+                }
+                BufferedImage decoded = reader.read(0, param);
+                boolean alpha = decoded.getColorModel().hasAlpha();
+
+                List<Derivative> derivatives = new ArrayList<>(2);
+                derivatives.add(derivative(decoded, orientation, orientedWidth, orientedHeight, THUMBNAIL_EDGE, alpha));
+                if (longEdge > PREVIEW_EDGE) {
+                    derivatives.add(derivative(decoded, orientation, orientedWidth, orientedHeight, PREVIEW_EDGE, alpha));
+                }
+                double blurScale = Math.min(1.0d, BLUR_EDGE / (double) longEdge);
+                BufferedImage blur = VisionImagePreprocessor.render(decoded, orientation,
+                        VisionImagePreprocessor.scaled(orientedWidth, blurScale),
+                        VisionImagePreprocessor.scaled(orientedHeight, blurScale), false);
+                String blurHash = orientedWidth >= orientedHeight
+                        ? BlurHash.encode(blur, 4, 3)
+                        : BlurHash.encode(blur, 3, 4);
+                return new Rendered(orientedWidth, orientedHeight, derivatives, blurHash);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Derivative derivative(BufferedImage decoded, int orientation, int width, int height, int edge,
+                                         boolean alpha) throws IOException {
+        double scale = Math.min(1.0d, edge / (double) Math.max(width, height));
+        BufferedImage image = VisionImagePreprocessor.render(decoded, orientation,
+                VisionImagePreprocessor.scaled(width, scale), VisionImagePreprocessor.scaled(height, scale), alpha);
+        return alpha
+                ? new Derivative(edge, VisionImagePreprocessor.encodePng(image), "png")
+                : new Derivative(edge, VisionImagePreprocessor.encodeJpeg(image), "jpg");
+    }
+
+    /** An encoded derivative; {@code edge} is the long-edge cap it was rendered for. */
+    public record Derivative(int edge, byte[] bytes, String extension) {
+    }
+
+    /** Upright dimensions of the original, its derivatives (thumbnail first) and the BlurHash. */
+    public record Rendered(int width, int height, List<Derivative> derivatives, String blurHash) {
+    }
+}
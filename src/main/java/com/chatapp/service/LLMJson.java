@@ -0,0 +1,85 @@
+package com.chatapp.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Streaming JSON for LLM provider calls. Request bodies are written field by field
+ * straight into the OkHttp sink, so a long context or a large tool schema list is
+ * never held as a tree, a String and a byte array at the same time. Responses are
+ * read from the socket and only the top-level fields a caller asks for become nodes;
+ * everything else is skipped without being materialized.
+ */
+final class LLMJson {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private LLMJson() {
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * A body that runs {@code writer} on every send. It is replayable, so 429 retries
+     * on another key and hedged requests re-encode instead of buffering a copy. The
+     * length is unknown up front, so the body goes out chunked.
+     */
+    static RequestBody requestBody(ObjectMapper objectMapper, Writer writer) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (JsonGenerator generator = objectMapper.createGenerator(sink.outputStream())) {
+                    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                    writer.write(generator);
+                }
+            }
+        };
+    }
+
+    /** Reads the top-level object of {@code body}, keeping only {@code fields}. */
+    static ObjectNode readFields(ObjectMapper objectMapper, ResponseBody body, Set<String> fields) throws IOException {
+        try (InputStream in = body.byteStream()) {
+            return readFields(objectMapper, in, fields);
+        }
+    }
+
+    static ObjectNode readFields(ObjectMapper objectMapper, InputStream in, Set<String> fields) throws IOException {
+        ObjectNode result = objectMapper.createObjectNode();
+        try (JsonParser parser = objectMapper.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("LLM response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if (fields.contains(name)) {
+                    JsonNode value = parser.readValueAsTree();
+                    result.set(name, value);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -3,29 +3,56 @@ package com.chatapp.service;
 import com.chatapp.dto.BotDto;
 import com.chatapp.entity.BotConfig;
 import com.chatapp.service.tool.Tool;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import okio.BufferedSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 public class LLMService {
 
-    private final OkHttpClient httpClient;
+    // A streamed reply holds its bulkhead permit until the stream ends (tens of
+    // seconds), so the bulkhead is sized for concurrent replies and a caller waits
+    // a few seconds for a slot instead of failing after the default 250ms.
+    private static final OutboundHttpClients.Spec LLM_DESTINATION = OutboundHttpClients.Spec
+            .timeouts(Duration.ofSeconds(30), Duration.ofSeconds(120), Duration.ofSeconds(30))
+            .withMaxConcurrent(64)
+            .withAcquireTimeout(Duration.ofSeconds(5));
+    // Credentials with their own base_url point at arbitrary user gateways: one bad
+    // URL must not open the provider's circuit for every other bot.
+    private static final OutboundHttpClients.Spec LLM_BYO_DESTINATION = LLM_DESTINATION
+            .withCircuitBreaker(0, Duration.ZERO);
+
+    /** The only top-level response fields read; the rest is skipped while parsing. */
+    private static final Set<String> OPENAI_RESPONSE_FIELDS = Set.of("choices", "usage");
+    private static final Set<String> CLAUDE_RESPONSE_FIELDS = Set.of("content", "usage");
+    private static final Set<String> OLLAMA_RESPONSE_FIELDS = Set.of("message", "prompt_eval_count", "eval_count");
+
+    private final OutboundHttpClients httpClients;
     private final ObjectMapper objectMapper;
     private final ProviderCredentialService providerCredentialService;
     private final HermesProvider hermesProvider;
+    private final ProviderKeyPool keyPool;
+    private final ReactiveLLMTransport reactiveTransport;
 
     @Value("${llm.openai.api-key:}")
     private String openaiApiKey;
@@ -83,17 +110,58 @@ public class LLMService {
         this(objectMapper, providerCredentialService, null);
     }
 
-    @Autowired
     public LLMService(ObjectMapper objectMapper, ProviderCredentialService providerCredentialService,
                       HermesProvider hermesProvider) {
+        this(objectMapper, providerCredentialService, hermesProvider, OutboundHttpClients.standalone());
+    }
+
+    public LLMService(ObjectMapper objectMapper, ProviderCredentialService providerCredentialService,
+                      HermesProvider hermesProvider, OutboundHttpClients httpClients) {
+        this(objectMapper, providerCredentialService, hermesProvider, httpClients, ProviderKeyPool.standalone());
+    }
+
+    public LLMService(ObjectMapper objectMapper, ProviderCredentialService providerCredentialService,
+                      HermesProvider hermesProvider, OutboundHttpClients httpClients, ProviderKeyPool keyPool) {
+        this(objectMapper, providerCredentialService, hermesProvider, httpClients, keyPool,
+                ReactiveLLMTransport.disabled(objectMapper));
+    }
+
+    @Autowired
+    public LLMService(ObjectMapper objectMapper, ProviderCredentialService providerCredentialService,
+                      HermesProvider hermesProvider, OutboundHttpClients httpClients, ProviderKeyPool keyPool,
+                      ReactiveLLMTransport reactiveTransport) {
         this.objectMapper = objectMapper;
         this.providerCredentialService = providerCredentialService;
         this.hermesProvider = hermesProvider;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(120, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this.httpClients = httpClients;
+        this.keyPool = keyPool;
+        this.reactiveTransport = reactiveTransport;
+    }
+
+    /**
+     * One destination per provider, so a slow or failing provider cannot starve the
+     * others. Calls to a credential's own base_url share {@code llm-byo}, which has
+     * no circuit breaker.
+     */
+    private OkHttpClient httpClient(BotConfig config) {
+        if (config != null && hasCustomBaseUrl(config)) {
+            return httpClients.client("llm-byo", LLM_BYO_DESTINATION);
+        }
+        return httpClients.client(providerDestination(config), LLM_DESTINATION);
+    }
+
+    /** The same destination guard {@link #httpClient} installs, for the reactive transport. */
+    private OutboundDestinationGuard destinationGuard(BotConfig config) {
+        if (config != null && hasCustomBaseUrl(config)) {
+            return httpClients.guard("llm-byo", LLM_BYO_DESTINATION);
+        }
+        return httpClients.guard(providerDestination(config), LLM_DESTINATION);
+    }
+
+    private static String providerDestination(BotConfig config) {
+        return config == null || config.getLlmProvider() == null
+                ? "llm"
+                : "llm-" + config.getLlmProvider().name().toLowerCase(Locale.ROOT);
     }
 
     public BotDto.LLMResponse chat(BotConfig botConfig, List<BotDto.ChatMessage> messages) {
@@ -109,64 +177,219 @@ public class LLMService {
                     imageCount,
                     tools == null ? 0 : tools.size());
         }
+        Route route = route(botConfig);
+        if (isReactive(botConfig, route)) {
+            return chatReactive(botConfig, messages, tools).block();
+        }
+        return switch (route.transport()) {
+            case OPENAI_COMPATIBLE -> callOpenAICompatible(
+                    route.apiKey(), route.baseUrl(), route.model(), messages, botConfig, tools);
+            case CLAUDE -> callClaude(route.apiKey(), route.baseUrl(), route.model(), messages, botConfig, tools);
+            case OLLAMA -> callOllama(route.baseUrl(), route.model(), messages, botConfig, tools);
+            case HERMES_CHAT -> {
+                if (hermesProvider == null) {
+                    throw new IllegalStateException("Hermes /chat provider is not configured");
+                }
+                log.info("LLM text route provider=hermes_chat model={} tools={}",
+                        route.model(), tools == null ? 0 : tools.size());
+                yield hermesProvider.chat(botConfig, messages, tools);
+            }
+        };
+    }
+
+    /**
+     * Streaming variant of {@link #chat(BotConfig, List)} for tool-less replies.
+     * Text deltas are pushed to {@code listener} as they arrive (SSE for the
+     * OpenAI-compatible providers and Claude, NDJSON for native Ollama); the
+     * returned response carries the full content and token usage once the stream
+     * ends. Routes without a streaming transport (Hermes /chat) fall back to one
+     * blocking call delivered as a single delta.
+     */
+    public BotDto.LLMResponse chatStream(BotConfig botConfig, List<BotDto.ChatMessage> messages,
+                                         Consumer<String> listener) {
+        Route route = route(botConfig);
+        if (isReactive(botConfig, route)) {
+            return chatStreamReactive(botConfig, messages)
+                    .doOnNext(event -> {
+                        if (event.delta() != null) {
+                            listener.accept(event.delta());
+                        }
+                    })
+                    .mapNotNull(StreamEvent::completed)
+                    .blockLast();
+        }
+        return switch (route.transport()) {
+            case OPENAI_COMPATIBLE -> streamOpenAICompatible(
+                    route.apiKey(), route.baseUrl(), route.model(), messages, botConfig, listener);
+            case CLAUDE -> streamClaude(route.apiKey(), route.baseUrl(), route.model(), messages, botConfig, listener);
+            case OLLAMA -> streamOllama(route.baseUrl(), route.model(), messages, botConfig, listener);
+            case HERMES_CHAT -> deliverWhole(chat(botConfig, messages), listener);
+        };
+    }
+
+    /**
+     * Non-blocking {@link #chat(BotConfig, List, List)}. Providers listed in
+     * {@code llm.reactive.providers} go through {@link ReactiveLLMTransport}, behind the same
+     * destination guard and key pool as the blocking path, and hold no thread while the
+     * provider thinks; the rest (and native Ollama / Hermes /chat) run
+     * the blocking call on {@link Schedulers#boundedElastic()}.
+     */
+    public Mono<BotDto.LLMResponse> chatReactive(BotConfig botConfig, List<BotDto.ChatMessage> messages,
+                                                 List<Tool> tools) {
+        return Mono.defer(() -> {
+            Route route = route(botConfig);
+            if (!isReactive(botConfig, route)) {
+                return Mono.fromCallable(() -> chat(botConfig, messages, tools))
+                        .subscribeOn(Schedulers.boundedElastic());
+            }
+            String model = route.model();
+            if (route.transport() == Transport.CLAUDE) {
+                if (tools != null && !tools.isEmpty()) {
+                    return Mono.error(new UnsupportedOperationException(
+                            "Claude tool calls are not implemented in PM chat yet"));
+                }
+                return reactiveTransport.post(destinationGuard(botConfig), route.baseUrl() + "/messages",
+                                claudeHeaders(route.apiKey()), claudeRequestWriter(model, messages, botConfig, false),
+                                CLAUDE_RESPONSE_FIELDS)
+                        .map(responseJson -> claudeResponse(responseJson, model));
+            }
+            return reactiveTransport.post(destinationGuard(botConfig), route.baseUrl() + "/chat/completions",
+                            openAiHeaders(route.apiKey()), openAiRequestWriter(model, messages, botConfig, tools, false),
+                            OPENAI_RESPONSE_FIELDS)
+                    .map(responseJson -> openAiResponse(responseJson, model));
+        });
+    }
+
+    /**
+     * Non-blocking {@link #chatStream}: one {@link StreamEvent} per text delta, then one
+     * carrying the full response. Demand is passed to the socket and cancelling the
+     * subscription aborts the provider call. Routes without a reactive transport run
+     * the blocking stream on {@link Schedulers#boundedElastic()}.
+     */
+    public Flux<StreamEvent> chatStreamReactive(BotConfig botConfig, List<BotDto.ChatMessage> messages) {
+        return Flux.defer(() -> {
+            Route route = route(botConfig);
+            if (!isReactive(botConfig, route)) {
+                return Flux.<StreamEvent>create(sink -> {
+                    try {
+                        BotDto.LLMResponse response = chatStream(botConfig, messages,
+                                delta -> sink.next(StreamEvent.text(delta)));
+                        sink.next(StreamEvent.done(response));
+                        sink.complete();
+                    } catch (RuntimeException e) {
+                        sink.error(e);
+                    }
+                }).subscribeOn(Schedulers.boundedElastic());
+            }
+            String model = route.model();
+            if (route.transport() == Transport.CLAUDE) {
+                ClaudeStream stream = new ClaudeStream();
+                return reactiveTransport.postForEvents(destinationGuard(botConfig), route.baseUrl() + "/messages",
+                                claudeHeaders(route.apiKey()), claudeRequestWriter(model, messages, botConfig, true))
+                        .map(this::readStreamChunk)
+                        .takeUntil(stream::isStop)
+                        .mapNotNull(event -> StreamEvent.textOrNull(stream.accept(event)))
+                        .concatWith(Mono.fromSupplier(() -> StreamEvent.done(stream.finish(model))));
+            }
+            OpenAiStream stream = new OpenAiStream();
+            return reactiveTransport.postForEvents(destinationGuard(botConfig), route.baseUrl() + "/chat/completions",
+                            openAiHeaders(route.apiKey()), openAiRequestWriter(model, messages, botConfig, List.of(), true))
+                    .takeWhile(data -> !"[DONE]".equals(data))
+                    .map(this::readStreamChunk)
+                    .mapNotNull(chunk -> StreamEvent.textOrNull(stream.accept(chunk)))
+                    .concatWith(Mono.fromSupplier(() -> StreamEvent.done(stream.finish(model))));
+        });
+    }
+
+    /** A text delta of a streamed reply, or (last) the completed response with token usage. */
+    public record StreamEvent(String delta, BotDto.LLMResponse completed) {
+        static StreamEvent text(String delta) {
+            return new StreamEvent(delta, null);
+        }
+
+        static StreamEvent textOrNull(String delta) {
+            return delta == null || delta.isEmpty() ? null : text(delta);
+        }
+
+        static StreamEvent done(BotDto.LLMResponse response) {
+            return new StreamEvent(null, response);
+        }
+    }
+
+    private enum Transport { OPENAI_COMPATIBLE, CLAUDE, OLLAMA, HERMES_CHAT }
+
+    /** Where a bot's text calls go: wire protocol, key, endpoint and model. */
+    private record Route(Transport transport, String apiKey, String baseUrl, String model) {
+    }
+
+    private Route route(BotConfig botConfig) {
         return switch (botConfig.getLlmProvider()) {
-            case OPENAI -> callOpenAICompatible(
+            case OPENAI -> new Route(Transport.OPENAI_COMPATIBLE,
                     requireApiKey(resolveApiKey(botConfig, openaiApiKey), "OpenAI"),
                     resolveBaseUrl(botConfig, openaiBaseUrl),
-                    resolveModel(botConfig, openaiModel),
-                    messages, botConfig, tools);
-            case CLAUDE -> callClaude(
+                    resolveModel(botConfig, openaiModel));
+            case CLAUDE -> new Route(Transport.CLAUDE,
                     requireApiKey(resolveApiKey(botConfig, claudeApiKey), "Claude"),
                     resolveBaseUrl(botConfig, claudeBaseUrl),
-                    resolveModel(botConfig, claudeModel),
-                    messages, botConfig, tools);
-            case DEEPSEEK -> callOpenAICompatible(
+                    resolveModel(botConfig, claudeModel));
+            case DEEPSEEK -> new Route(Transport.OPENAI_COMPATIBLE,
                     requireApiKey(resolveApiKey(botConfig, deepseekApiKey), "DeepSeek"),
                     resolveBaseUrl(botConfig, deepseekBaseUrl),
-                    resolveModel(botConfig, deepseekModel),
-                    messages, botConfig, tools);
+                    resolveModel(botConfig, deepseekModel));
             case OLLAMA -> {
                 String apiKey = resolveApiKey(botConfig, ollamaApiKey);
                 String baseUrl = resolveBaseUrl(botConfig, ollamaBaseUrl);
                 String model = resolveModel(botConfig, ollamaModel);
                 if (apiKey != null && !apiKey.isBlank()) {
-                    yield callOpenAICompatible(apiKey, ollamaOpenAiBaseUrl(baseUrl), model, messages, botConfig, tools);
+                    yield new Route(Transport.OPENAI_COMPATIBLE, apiKey, ollamaOpenAiBaseUrl(baseUrl), model);
                 }
-                yield callOllama(baseUrl, model, messages, botConfig, tools);
+                yield new Route(Transport.OLLAMA, null, baseUrl, model);
             }
             case HERMES -> {
                 String model = resolveModel(botConfig, hermesModel);
                 if (isHermesChatModel(model)) {
-                    if (hermesProvider == null) {
-                        throw new IllegalStateException("Hermes /chat provider is not configured");
-                    }
-                    log.info("LLM text route provider=hermes_chat model={} tools={}",
-                            model, tools == null ? 0 : tools.size());
-                    yield hermesProvider.chat(botConfig, messages, tools);
+                    yield new Route(Transport.HERMES_CHAT, null, null, model);
                 }
-                yield callOpenAICompatible(
+                yield new Route(Transport.OPENAI_COMPATIBLE,
                         requireApiKey(resolveApiKey(botConfig, hermesApiKey), "Hermes"),
                         resolveBaseUrl(botConfig, hermesBaseUrl),
-                        model,
-                        messages, botConfig, tools);
+                        model);
             }
             // DashScope chat goes through the OpenAI-compatible proxy. The proxy is
             // typically keyless, so a blank key is allowed (Authorization is omitted).
-            case DASHSCOPE -> callOpenAICompatible(
+            case DASHSCOPE -> new Route(Transport.OPENAI_COMPATIBLE,
                     resolveApiKey(botConfig, dashscopeApiKey),
                     resolveBaseUrl(botConfig, dashscopeBaseUrl),
-                    resolveModel(botConfig, dashscopeModel),
-                    messages, botConfig, tools);
-            case KIMI -> callOpenAICompatible(
+                    resolveModel(botConfig, dashscopeModel));
+            case KIMI -> new Route(Transport.OPENAI_COMPATIBLE,
                     requireApiKey(resolveApiKey(botConfig, kimiApiKey), "Kimi"),
                     resolveBaseUrl(botConfig, kimiBaseUrl),
-                    resolveModel(botConfig, kimiModel),
-                    messages, botConfig, tools);
+                    resolveModel(botConfig, kimiModel));
             case IMAGE_API, NOVELAI -> throw new IllegalArgumentException(
                     "Image-only credentials cannot be used as a text LLM provider");
         };
     }
 
+    private boolean isReactive(BotConfig botConfig, Route route) {
+        return (route.transport() == Transport.OPENAI_COMPATIBLE || route.transport() == Transport.CLAUDE)
+                && reactiveTransport.handles(botConfig.getLlmProvider());
+    }
+
+    private JsonNode readStreamChunk(String data) {
+        try {
+            return objectMapper.readTree(data);
+        } catch (IOException e) {
+            throw new RuntimeException("LLM服务调用失败", e);
+        }
+    }
+
+    private BotDto.LLMResponse deliverWhole(BotDto.LLMResponse response, Consumer<String> listener) {
+        if (response != null && response.getContent() != null && !response.getContent().isEmpty()) {
+            listener.accept(response.getContent());
+        }
+        return response;
+    }
+
     private int countImages(List<BotDto.ChatMessage> messages) {
         if (messages == null) {
             return 0;
@@ -182,83 +405,299 @@ public class LLMService {
     private BotDto.LLMResponse callOpenAICompatible(String apiKey, String baseUrl, String model,
                                                      List<BotDto.ChatMessage> messages, BotConfig config, List<Tool> tools) {
         try {
-            ObjectNode requestBody = objectMapper.createObjectNode();
-            requestBody.put("model", model);
+            RequestBody requestBody = openAiRequestBody(model, messages, config, tools, false);
+            try (Response response = keyPool.execute(httpClient(config), openAiRequest(apiKey, baseUrl, requestBody), true)) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.body() != null ? response.body().string() : "Unknown error";
+                    log.error("OpenAI API error: {} - {}", response.code(), errorBody);
+                    throw new RuntimeException("LLM API调用失败: " + response.code());
+                }
+
+                return openAiResponse(LLMJson.readFields(objectMapper, response.body(), OPENAI_RESPONSE_FIELDS), model);
+            }
+        } catch (IOException e) {
+            log.error("LLM API call failed: {}", e.getMessage());
+            throw new RuntimeException("LLM服务调用失败", e);
+        }
+    }
+
+    private BotDto.LLMResponse openAiResponse(JsonNode responseJson, String model) {
+        JsonNode messageNode = responseJson.path("choices").path(0).path("message");
+        String content = messageNode.path("content").isMissingNode() || messageNode.path("content").isNull()
+                ? ""
+                : messageNode.path("content").asText();
+        int tokens = responseJson.path("usage").path("total_tokens").asInt(0);
+
+        BotDto.LLMResponse llmResponse = new BotDto.LLMResponse();
+        llmResponse.setContent(content);
+        llmResponse.setTokensUsed(tokens);
+        llmResponse.setCachedTokens(openAiCachedTokens(responseJson.path("usage")));
+        llmResponse.setModel(model);
+        llmResponse.setToolCalls(parseToolCalls(messageNode.path("tool_calls")));
+        return llmResponse;
+    }
+
+    RequestBody openAiRequestBody(String model, List<BotDto.ChatMessage> messages,
+                                  BotConfig config, List<Tool> tools, boolean stream) {
+        return LLMJson.requestBody(objectMapper, openAiRequestWriter(model, messages, config, tools, stream));
+    }
+
+    /** Writes the chat/completions body; {@code stream} also asks for a final usage chunk. */
+    private LLMJson.Writer openAiRequestWriter(String model, List<BotDto.ChatMessage> messages,
+                                               BotConfig config, List<Tool> tools, boolean stream) {
+        return json -> {
+            json.writeStartObject();
+            json.writeStringField("model", model);
             int maxTokens = config.getMaxTokens() != null ? config.getMaxTokens() : 2048;
             if (usesOpenAiReasoningParameters(config, model)) {
-                requestBody.put("max_completion_tokens", maxTokens);
+                json.writeNumberField("max_completion_tokens", maxTokens);
             } else {
-                requestBody.put("temperature", config.getTemperature() != null ? config.getTemperature() : 0.7);
-                requestBody.put("max_tokens", maxTokens);
+                json.writeNumberField("temperature", config.getTemperature() != null ? config.getTemperature() : 0.7);
+                json.writeNumberField("max_tokens", maxTokens);
             }
 
-            ArrayNode messagesArray = requestBody.putArray("messages");
+            json.writeArrayFieldStart("messages");
             for (BotDto.ChatMessage msg : messages) {
-                ObjectNode msgNode = messagesArray.addObject();
-                msgNode.put("role", msg.getRole());
-                setOpenAiContent(msgNode, msg);
+                json.writeStartObject();
+                json.writeStringField("role", msg.getRole());
+                writeOpenAiContent(json, msg);
                 if (msg.getToolCallId() != null) {
-                    msgNode.put("tool_call_id", msg.getToolCallId());
+                    json.writeStringField("tool_call_id", msg.getToolCallId());
                 }
                 if (msg.getName() != null) {
-                    msgNode.put("name", msg.getName());
+                    json.writeStringField("name", msg.getName());
                 }
                 if (msg.getToolCalls() != null && !msg.getToolCalls().isEmpty()) {
-                    ArrayNode toolCalls = msgNode.putArray("tool_calls");
+                    json.writeArrayFieldStart("tool_calls");
                     for (BotDto.ToolCall toolCall : msg.getToolCalls()) {
-                        toolCalls.add(openAiToolCall(toolCall));
+                        writeOpenAiToolCall(json, toolCall);
                     }
+                    json.writeEndArray();
                 }
+                json.writeEndObject();
             }
+            json.writeEndArray();
 
             if (tools != null && !tools.isEmpty()) {
-                putToolDefinitions(requestBody, tools);
-                requestBody.put("tool_choice", "auto");
+                writeToolDefinitions(json, tools);
+                json.writeStringField("tool_choice", "auto");
             }
-
-            Request.Builder requestBuilder = new Request.Builder()
-                    .url(baseUrl + "/chat/completions")
-                    .header("Content-Type", "application/json")
-                    .post(RequestBody.create(objectMapper.writeValueAsString(requestBody),
-                            MediaType.parse("application/json")));
-            if (apiKey != null && !apiKey.isBlank()) {
-                requestBuilder.header("Authorization", "Bearer " + apiKey);
+            if (stream) {
+                json.writeBooleanField("stream", true);
+                json.writeObjectFieldStart("stream_options");
+                json.writeBooleanField("include_usage", true);
+                json.writeEndObject();
             }
-            Request request = requestBuilder.build();
+            json.writeEndObject();
+        };
+    }
+
+    private Request openAiRequest(String apiKey, String baseUrl, RequestBody requestBody) {
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(baseUrl + "/chat/completions")
+                .post(requestBody);
+        openAiHeaders(apiKey).forEach(requestBuilder::header);
+        return requestBuilder.build();
+    }
+
+    private static Map<String, String> openAiHeaders(String apiKey) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
+        if (apiKey != null && !apiKey.isBlank()) {
+            headers.put("Authorization", "Bearer " + apiKey);
+        }
+        return headers;
+    }
 
-            try (Response response = httpClient.newCall(request).execute()) {
+    private BotDto.LLMResponse streamOpenAICompatible(String apiKey, String baseUrl, String model,
+                                                       List<BotDto.ChatMessage> messages, BotConfig config,
+                                                       Consumer<String> listener) {
+        try {
+            RequestBody requestBody = openAiRequestBody(model, messages, config, List.of(), true);
+            try (Response response = keyPool.execute(httpClient(config), openAiRequest(apiKey, baseUrl, requestBody), false)) {
                 if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "Unknown error";
-                    log.error("OpenAI API error: {} - {}", response.code(), errorBody);
+                    log.error("OpenAI API stream error: {} - {}", response.code(), errorBody);
                     throw new RuntimeException("LLM API调用失败: " + response.code());
                 }
+                OpenAiStream stream = new OpenAiStream();
+                BufferedSource source = response.body().source();
+                String data;
+                while ((data = nextSseData(source)) != null) {
+                    if ("[DONE]".equals(data)) {
+                        break;
+                    }
+                    String delta = stream.accept(objectMapper.readTree(data));
+                    if (!delta.isEmpty()) {
+                        listener.accept(delta);
+                    }
+                }
+                return stream.finish(model);
+            }
+        } catch (IOException e) {
+            log.error("LLM API stream failed: {}", e.getMessage());
+            throw new RuntimeException("LLM服务调用失败", e);
+        }
+    }
 
-                JsonNode responseJson = objectMapper.readTree(response.body().string());
-                JsonNode messageNode = responseJson.path("choices").path(0).path("message");
-                String content = messageNode.path("content").isMissingNode() || messageNode.path("content").isNull()
-                        ? ""
-                        : messageNode.path("content").asText();
-                int tokens = responseJson.path("usage").path("total_tokens").asInt(0);
+    private BotDto.LLMResponse streamClaude(String apiKey, String baseUrl, String model,
+                                             List<BotDto.ChatMessage> messages, BotConfig config,
+                                             Consumer<String> listener) {
+        try {
+            RequestBody requestBody = claudeRequestBody(model, messages, config, true);
+            try (Response response = keyPool.execute(httpClient(config), claudeRequest(apiKey, baseUrl, requestBody), false)) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.body() != null ? response.body().string() : "Unknown error";
+                    log.error("Claude API stream error: {} - {}", response.code(), errorBody);
+                    throw new RuntimeException("Claude API调用失败: " + response.code());
+                }
+                ClaudeStream stream = new ClaudeStream();
+                BufferedSource source = response.body().source();
+                String data;
+                while ((data = nextSseData(source)) != null) {
+                    JsonNode event = objectMapper.readTree(data);
+                    String delta = stream.accept(event);
+                    if (!delta.isEmpty()) {
+                        listener.accept(delta);
+                    }
+                    if (stream.isStop(event)) {
+                        break;
+                    }
+                }
+                return stream.finish(model);
+            }
+        } catch (IOException e) {
+            log.error("Claude API stream failed: {}", e.getMessage());
+            throw new RuntimeException("Claude服务调用失败", e);
+        }
+    }
 
-                BotDto.LLMResponse llmResponse = new BotDto.LLMResponse();
-                llmResponse.setContent(content);
-                llmResponse.setTokensUsed(tokens);
-                llmResponse.setModel(model);
-                llmResponse.setToolCalls(parseToolCalls(messageNode.path("tool_calls")));
-                return llmResponse;
+    private BotDto.LLMResponse streamOllama(String baseUrl, String model, List<BotDto.ChatMessage> messages,
+                                             BotConfig config, Consumer<String> listener) {
+        try {
+            RequestBody requestBody = ollamaRequestBody(model, messages, config, List.of(), true);
+            try (Response response = httpClient(config).newCall(ollamaRequest(baseUrl, requestBody)).execute()) {
+                if (!response.isSuccessful()) {
+                    throw new RuntimeException("Ollama API调用失败: " + response.code());
+                }
+                StringBuilder content = new StringBuilder();
+                int tokens = 0;
+                BufferedSource source = response.body().source();
+                String line;
+                while ((line = source.readUtf8Line()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    JsonNode chunk = objectMapper.readTree(line);
+                    if (chunk.hasNonNull("error")) {
+                        throw new RuntimeException("Ollama API调用失败: " + chunk.path("error").asText());
+                    }
+                    String delta = chunk.path("message").path("content").asText("");
+                    if (!delta.isEmpty()) {
+                        content.append(delta);
+                        listener.accept(delta);
+                    }
+                    if (chunk.path("done").asBoolean(false)) {
+                        tokens = chunk.path("prompt_eval_count").asInt(0) + chunk.path("eval_count").asInt(0);
+                        break;
+                    }
+                }
+                return new BotDto.LLMResponse(content.toString(), tokens, model, List.of());
             }
         } catch (IOException e) {
-            log.error("LLM API call failed: {}", e.getMessage());
-            throw new RuntimeException("LLM服务调用失败", e);
+            log.error("Ollama API stream failed: {}", e.getMessage());
+            throw new RuntimeException("Ollama服务调用失败", e);
         }
     }
 
-    private void setOpenAiContent(ObjectNode msgNode, BotDto.ChatMessage msg) {
+    /** Accumulates an OpenAI-compatible SSE stream; {@link #accept} returns a chunk's text. */
+    private static final class OpenAiStream {
+        private final StringBuilder content = new StringBuilder();
+        private int tokens;
+        private Integer cachedTokens;
+
+        String accept(JsonNode chunk) {
+            String delta = chunk.path("choices").path(0).path("delta").path("content").asText("");
+            content.append(delta);
+            tokens = Math.max(tokens, chunk.path("usage").path("total_tokens").asInt(0));
+            if (cachedTokens == null) {
+                cachedTokens = openAiCachedTokens(chunk.path("usage"));
+            }
+            return delta;
+        }
+
+        BotDto.LLMResponse finish(String model) {
+            BotDto.LLMResponse llmResponse = new BotDto.LLMResponse(content.toString(), tokens, model, List.of());
+            llmResponse.setCachedTokens(cachedTokens);
+            return llmResponse;
+        }
+    }
+
+    /** Accumulates a Claude Messages SSE stream; {@link #accept} returns an event's text. */
+    private static final class ClaudeStream {
+        private final StringBuilder content = new StringBuilder();
+        private int inputTokens;
+        private int outputTokens;
+        private Integer cachedTokens;
+
+        String accept(JsonNode event) {
+            switch (event.path("type").asText("")) {
+                case "message_start" -> {
+                    JsonNode usage = event.path("message").path("usage");
+                    inputTokens = claudeInputTokens(usage);
+                    cachedTokens = claudeCachedTokens(usage);
+                }
+                case "content_block_delta" -> {
+                    String delta = event.path("delta").path("text").asText("");
+                    content.append(delta);
+                    return delta;
+                }
+                case "message_delta" -> outputTokens = event.path("usage").path("output_tokens").asInt(outputTokens);
+                case "error" -> throw new RuntimeException("Claude API调用失败: "
+                        + event.path("error").path("type").asText("stream_error"));
+                default -> {
+                }
+            }
+            return "";
+        }
+
+        boolean isStop(JsonNode event) {
+            return "message_stop".equals(event.path("type").asText(""));
+        }
+
+        BotDto.LLMResponse finish(String model) {
+            BotDto.LLMResponse llmResponse = new BotDto.LLMResponse(
+                    content.toString(), inputTokens + outputTokens, model, List.of());
+            llmResponse.setCachedTokens(cachedTokens);
+            return llmResponse;
+        }
+    }
+
+    /**
+     * Returns the payload of the next SSE {@code data:} field, skipping comments,
+     * {@code event:} lines and blank separators; {@code null} at end of stream.
+     */
+    private String nextSseData(BufferedSource source) throws IOException {
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.startsWith("data:")) {
+                String data = line.substring(5).trim();
+                if (!data.isEmpty()) {
+                    return data;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Writes {@code content} as-is: a string, or the multimodal parts list with its data URLs. */
+    private void writeOpenAiContent(JsonGenerator json, BotDto.ChatMessage msg) throws IOException {
+        json.writeFieldName("content");
         if (msg.getContent() == null) {
-            msgNode.putNull("content");
+            json.writeNull();
             return;
         }
-        msgNode.set("content", objectMapper.valueToTree(msg.getContent()));
+        json.writeObject(msg.getContent());
     }
 
     private boolean usesOpenAiReasoningParameters(BotConfig config, String model) {
@@ -270,15 +709,16 @@ public class LLMService {
                 || normalized.matches("^o[134](?:[-.].*)?$");
     }
 
-    private void addOllamaImages(ObjectNode msgNode, BotDto.ChatMessage msg) {
+    private void writeOllamaImages(JsonGenerator json, BotDto.ChatMessage msg) throws IOException {
         List<String> imageUrls = msg.imageDataUrls();
         if (imageUrls.isEmpty()) {
             return;
         }
-        ArrayNode images = msgNode.putArray("images");
+        json.writeArrayFieldStart("images");
         for (String imageUrl : imageUrls) {
-            images.add(stripDataUrlPrefix(imageUrl));
+            json.writeString(stripDataUrlPrefix(imageUrl));
         }
+        json.writeEndArray();
     }
 
     private String stripDataUrlPrefix(String dataUrl) {
@@ -296,26 +736,31 @@ public class LLMService {
      * Serializes the tool list into the OpenAI-style {@code tools} array shared by
      * the OpenAI-compatible providers and Ollama ({@code /api/chat} accepts the same shape).
      */
-    private void putToolDefinitions(ObjectNode requestBody, List<Tool> tools) {
-        ArrayNode toolsArray = requestBody.putArray("tools");
+    private void writeToolDefinitions(JsonGenerator json, List<Tool> tools) throws IOException {
+        json.writeArrayFieldStart("tools");
         for (Tool tool : tools) {
-            ObjectNode toolNode = toolsArray.addObject();
-            toolNode.put("type", "function");
-            ObjectNode functionNode = toolNode.putObject("function");
-            functionNode.put("name", tool.name());
-            functionNode.put("description", tool.description());
-            functionNode.set("parameters", tool.parametersSchema());
+            json.writeStartObject();
+            json.writeStringField("type", "function");
+            json.writeObjectFieldStart("function");
+            json.writeStringField("name", tool.name());
+            json.writeStringField("description", tool.description());
+            json.writeFieldName("parameters");
+            json.writeTree(tool.parametersSchema());
+            json.writeEndObject();
+            json.writeEndObject();
         }
+        json.writeEndArray();
     }
 
-    private ObjectNode openAiToolCall(BotDto.ToolCall toolCall) {
-        ObjectNode node = objectMapper.createObjectNode();
-        node.put("id", toolCall.getId());
-        node.put("type", "function");
-        ObjectNode function = node.putObject("function");
-        function.put("name", toolCall.getName());
-        function.put("arguments", toolCall.getArgumentsJson() != null ? toolCall.getArgumentsJson() : "{}");
-        return node;
+    private void writeOpenAiToolCall(JsonGenerator json, BotDto.ToolCall toolCall) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("id", toolCall.getId());
+        json.writeStringField("type", "function");
+        json.writeObjectFieldStart("function");
+        json.writeStringField("name", toolCall.getName());
+        json.writeStringField("arguments", toolCall.getArgumentsJson() != null ? toolCall.getArgumentsJson() : "{}");
+        json.writeEndObject();
+        json.writeEndObject();
     }
 
     private List<BotDto.ToolCall> parseToolCalls(JsonNode toolCallsNode) {
@@ -339,52 +784,15 @@ public class LLMService {
             throw new UnsupportedOperationException("Claude tool calls are not implemented in PM chat yet");
         }
         try {
-            ObjectNode requestBody = objectMapper.createObjectNode();
-            requestBody.put("model", model);
-            requestBody.put("max_tokens", config.getMaxTokens() != null ? config.getMaxTokens() : 2048);
-
-            // Extract system message if present
-            String systemMessage = null;
-            ArrayNode messagesArray = requestBody.putArray("messages");
-            for (BotDto.ChatMessage msg : messages) {
-                if ("system".equals(msg.getRole())) {
-                    systemMessage = msg.textContent();
-                } else {
-                    ObjectNode msgNode = messagesArray.addObject();
-                    msgNode.put("role", msg.getRole());
-                    setOpenAiContent(msgNode, msg);
-                }
-            }
-            if (systemMessage != null) {
-                requestBody.put("system", systemMessage);
-            }
-
-            Request request = new Request.Builder()
-                    .url(baseUrl + "/messages")
-                    .header("x-api-key", apiKey)
-                    .header("anthropic-version", "2023-06-01")
-                    .header("Content-Type", "application/json")
-                    .post(RequestBody.create(objectMapper.writeValueAsString(requestBody),
-                            MediaType.parse("application/json")))
-                    .build();
-
-            try (Response response = httpClient.newCall(request).execute()) {
+            RequestBody requestBody = claudeRequestBody(model, messages, config, false);
+            try (Response response = keyPool.execute(httpClient(config), claudeRequest(apiKey, baseUrl, requestBody), true)) {
                 if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "Unknown error";
                     log.error("Claude API error: {} - {}", response.code(), errorBody);
                     throw new RuntimeException("Claude API调用失败: " + response.code());
                 }
 
-                JsonNode responseJson = objectMapper.readTree(response.body().string());
-                String content = responseJson.path("content").path(0).path("text").asText();
-                int inputTokens = responseJson.path("usage").path("input_tokens").asInt(0);
-                int outputTokens = responseJson.path("usage").path("output_tokens").asInt(0);
-
-                BotDto.LLMResponse llmResponse = new BotDto.LLMResponse();
-                llmResponse.setContent(content);
-                llmResponse.setTokensUsed(inputTokens + outputTokens);
-                llmResponse.setModel(model);
-                return llmResponse;
+                return claudeResponse(LLMJson.readFields(objectMapper, response.body(), CLAUDE_RESPONSE_FIELDS), model);
             }
         } catch (IOException e) {
             log.error("Claude API call failed: {}", e.getMessage());
@@ -392,54 +800,133 @@ public class LLMService {
         }
     }
 
-    private BotDto.LLMResponse callOllama(String baseUrl, String model, List<BotDto.ChatMessage> messages, BotConfig config, List<Tool> tools) {
-        try {
-            ObjectNode requestBody = objectMapper.createObjectNode();
-            requestBody.put("model", model);
-            requestBody.put("stream", false);
+    private static BotDto.LLMResponse claudeResponse(JsonNode responseJson, String model) {
+        String content = responseJson.path("content").path(0).path("text").asText();
+        JsonNode usage = responseJson.path("usage");
+        int outputTokens = usage.path("output_tokens").asInt(0);
+
+        BotDto.LLMResponse llmResponse = new BotDto.LLMResponse();
+        llmResponse.setContent(content);
+        llmResponse.setTokensUsed(claudeInputTokens(usage) + outputTokens);
+        llmResponse.setCachedTokens(claudeCachedTokens(usage));
+        llmResponse.setModel(model);
+        return llmResponse;
+    }
+
+    private RequestBody claudeRequestBody(String model, List<BotDto.ChatMessage> messages, BotConfig config,
+                                          boolean stream) {
+        return LLMJson.requestBody(objectMapper, claudeRequestWriter(model, messages, config, stream));
+    }
+
+    private LLMJson.Writer claudeRequestWriter(String model, List<BotDto.ChatMessage> messages, BotConfig config,
+                                               boolean stream) {
+        return json -> {
+            json.writeStartObject();
+            json.writeStringField("model", model);
+            json.writeNumberField("max_tokens", config.getMaxTokens() != null ? config.getMaxTokens() : 2048);
 
-            ArrayNode messagesArray = requestBody.putArray("messages");
+            // Claude takes system text at the top level; every system message becomes one
+            // text block, and a message's stable prefix gets a cache breakpoint.
+            List<BotDto.ChatMessage> systemMessages = new ArrayList<>();
+            json.writeArrayFieldStart("messages");
             for (BotDto.ChatMessage msg : messages) {
-                ObjectNode msgNode = messagesArray.addObject();
-                msgNode.put("role", msg.getRole());
-                msgNode.put("content", msg.textContent());
-                addOllamaImages(msgNode, msg);
-                if (msg.getName() != null) {
-                    // Ollama identifies the tool a result belongs to via tool_name.
-                    msgNode.put("tool_name", msg.getName());
+                if ("system".equals(msg.getRole())) {
+                    systemMessages.add(msg);
+                } else {
+                    json.writeStartObject();
+                    json.writeStringField("role", msg.getRole());
+                    writeOpenAiContent(json, msg);
+                    json.writeEndObject();
                 }
-                if (msg.getToolCalls() != null && !msg.getToolCalls().isEmpty()) {
-                    ArrayNode toolCalls = msgNode.putArray("tool_calls");
-                    for (BotDto.ToolCall toolCall : msg.getToolCalls()) {
-                        ObjectNode callNode = toolCalls.addObject();
-                        ObjectNode function = callNode.putObject("function");
-                        function.put("name", toolCall.getName());
-                        // Ollama expects arguments as a JSON object, not a string.
-                        function.set("arguments", parseArgumentsToNode(toolCall.getArgumentsJson()));
+            }
+            json.writeEndArray();
+            boolean cacheable = systemMessages.stream().anyMatch(msg -> msg.getCacheablePrefixLength() != null);
+            if (systemMessages.size() == 1 && !cacheable) {
+                json.writeStringField("system", systemMessages.get(0).textContent());
+            } else if (!systemMessages.isEmpty()) {
+                json.writeArrayFieldStart("system");
+                for (BotDto.ChatMessage msg : systemMessages) {
+                    String text = msg.textContent();
+                    Integer prefixLength = msg.getCacheablePrefixLength();
+                    if (prefixLength != null && prefixLength > 0 && prefixLength <= text.length()) {
+                        json.writeStartObject();
+                        json.writeStringField("type", "text");
+                        json.writeStringField("text", text.substring(0, prefixLength));
+                        json.writeObjectFieldStart("cache_control");
+                        json.writeStringField("type", "ephemeral");
+                        json.writeEndObject();
+                        json.writeEndObject();
+                        text = text.substring(prefixLength);
+                    }
+                    if (!text.isEmpty()) {
+                        json.writeStartObject();
+                        json.writeStringField("type", "text");
+                        json.writeStringField("text", text);
+                        json.writeEndObject();
                     }
                 }
+                json.writeEndArray();
             }
-
-            if (tools != null && !tools.isEmpty()) {
-                putToolDefinitions(requestBody, tools);
+            if (stream) {
+                json.writeBooleanField("stream", true);
             }
+            json.writeEndObject();
+        };
+    }
 
-            ObjectNode options = requestBody.putObject("options");
-            options.put("temperature", config.getTemperature() != null ? config.getTemperature() : 0.7);
+    /** Claude reports cache reads and writes separately from uncached {@code input_tokens}. */
+    private static int claudeInputTokens(JsonNode usage) {
+        return usage.path("input_tokens").asInt(0)
+                + usage.path("cache_creation_input_tokens").asInt(0)
+                + usage.path("cache_read_input_tokens").asInt(0);
+    }
 
-            Request request = new Request.Builder()
-                    .url(baseUrl + "/api/chat")
-                    .header("Content-Type", "application/json")
-                    .post(RequestBody.create(objectMapper.writeValueAsString(requestBody),
-                            MediaType.parse("application/json")))
-                    .build();
+    private static Integer claudeCachedTokens(JsonNode usage) {
+        JsonNode cached = usage.path("cache_read_input_tokens");
+        return cached.isNumber() ? cached.asInt() : null;
+    }
 
-            try (Response response = httpClient.newCall(request).execute()) {
+    /**
+     * Prompt tokens served from the provider's automatic prefix cache. OpenAI and
+     * DashScope report {@code prompt_tokens_details.cached_tokens}, DeepSeek
+     * {@code prompt_cache_hit_tokens} and Kimi a top-level {@code cached_tokens}.
+     */
+    private static Integer openAiCachedTokens(JsonNode usage) {
+        JsonNode cached = usage.path("prompt_tokens_details").path("cached_tokens");
+        if (!cached.isNumber()) {
+            cached = usage.path("prompt_cache_hit_tokens");
+        }
+        if (!cached.isNumber()) {
+            cached = usage.path("cached_tokens");
+        }
+        return cached.isNumber() ? cached.asInt() : null;
+    }
+
+    private Request claudeRequest(String apiKey, String baseUrl, RequestBody requestBody) {
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(baseUrl + "/messages")
+                .post(requestBody);
+        claudeHeaders(apiKey).forEach(requestBuilder::header);
+        return requestBuilder.build();
+    }
+
+    private static Map<String, String> claudeHeaders(String apiKey) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("x-api-key", apiKey);
+        headers.put("anthropic-version", "2023-06-01");
+        headers.put("Content-Type", "application/json");
+        return headers;
+    }
+
+    private BotDto.LLMResponse callOllama(String baseUrl, String model, List<BotDto.ChatMessage> messages, BotConfig config, List<Tool> tools) {
+        try {
+            RequestBody requestBody = ollamaRequestBody(model, messages, config, tools, false);
+            try (Response response = httpClient(config).newCall(ollamaRequest(baseUrl, requestBody)).execute()) {
                 if (!response.isSuccessful()) {
                     throw new RuntimeException("Ollama API调用失败: " + response.code());
                 }
 
-                JsonNode responseJson = objectMapper.readTree(response.body().string());
+                JsonNode responseJson = LLMJson.readFields(objectMapper, response.body(), OLLAMA_RESPONSE_FIELDS);
                 JsonNode messageNode = responseJson.path("message");
                 String content = messageNode.path("content").asText("");
                 int tokens = responseJson.path("prompt_eval_count").asInt(0)
@@ -458,6 +945,60 @@ public class LLMService {
         }
     }
 
+    private RequestBody ollamaRequestBody(String model, List<BotDto.ChatMessage> messages, BotConfig config,
+                                          List<Tool> tools, boolean stream) {
+        return LLMJson.requestBody(objectMapper, json -> {
+            json.writeStartObject();
+            json.writeStringField("model", model);
+            json.writeBooleanField("stream", stream);
+
+            json.writeArrayFieldStart("messages");
+            for (BotDto.ChatMessage msg : messages) {
+                json.writeStartObject();
+                json.writeStringField("role", msg.getRole());
+                json.writeStringField("content", msg.textContent());
+                writeOllamaImages(json, msg);
+                if (msg.getName() != null) {
+                    // Ollama identifies the tool a result belongs to via tool_name.
+                    json.writeStringField("tool_name", msg.getName());
+                }
+                if (msg.getToolCalls() != null && !msg.getToolCalls().isEmpty()) {
+                    json.writeArrayFieldStart("tool_calls");
+                    for (BotDto.ToolCall toolCall : msg.getToolCalls()) {
+                        json.writeStartObject();
+                        json.writeObjectFieldStart("function");
+                        json.writeStringField("name", toolCall.getName());
+                        // Ollama expects arguments as a JSON object, not a string.
+                        json.writeFieldName("arguments");
+                        json.writeTree(parseArgumentsToNode(toolCall.getArgumentsJson()));
+                        json.writeEndObject();
+                        json.writeEndObject();
+                    }
+                    json.writeEndArray();
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+
+            if (tools != null && !tools.isEmpty()) {
+                writeToolDefinitions(json, tools);
+            }
+
+            json.writeObjectFieldStart("options");
+            json.writeNumberField("temperature", config.getTemperature() != null ? config.getTemperature() : 0.7);
+            json.writeEndObject();
+            json.writeEndObject();
+        });
+    }
+
+    private Request ollamaRequest(String baseUrl, RequestBody requestBody) {
+        return new Request.Builder()
+                .url(baseUrl + "/api/chat")
+                .header("Content-Type", "application/json")
+                .post(requestBody)
+                .build();
+    }
+
     private JsonNode parseArgumentsToNode(String argumentsJson) {
         if (argumentsJson == null || argumentsJson.isBlank()) {
             return objectMapper.createObjectNode();
@@ -508,7 +1049,7 @@ public class LLMService {
         if (config.getApiKeyEncrypted() != null && !config.getApiKeyEncrypted().isEmpty()) {
             return providerCredentialService.decryptLegacyBotKey(config.getApiKeyEncrypted());
         }
-        return defaultKey;
+        return keyPool.select(defaultKey);
     }
 
     private String requireApiKey(String apiKey, String provider) {
@@ -537,15 +1078,17 @@ public class LLMService {
      * dashscope-proxy / Ollama). Falls back to the server-configured endpoint.
      */
     String resolveBaseUrl(BotConfig config, String defaultBaseUrl) {
-        if (config.getProviderCredential() != null) {
-            String baseUrl = config.getProviderCredential().getBaseUrl();
-            if (baseUrl != null && !baseUrl.isBlank()) {
-                return baseUrl.trim();
-            }
+        if (hasCustomBaseUrl(config)) {
+            return config.getProviderCredential().getBaseUrl().trim();
         }
         return defaultBaseUrl;
     }
 
+    private boolean hasCustomBaseUrl(BotConfig config) {
+        String baseUrl = config.getProviderCredential() != null ? config.getProviderCredential().getBaseUrl() : null;
+        return baseUrl != null && !baseUrl.isBlank();
+    }
+
     String ollamaOpenAiBaseUrl(String baseUrl) {
         String trimmed = baseUrl == null ? "" : baseUrl.trim().replaceAll("/+$", "");
         if (trimmed.endsWith("/v1")) {
@@ -0,0 +1,304 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches SillyTavern / chara_card_v2 lore books against recent messages.
+ *
+ * <p>Each bot's {@code characterBookJson} is parsed once and compiled into two
+ * Aho-Corasick automata (case-folded and case-sensitive keys) plus precompiled
+ * regex keys, so a turn costs one pass over the scan window instead of
+ * entries x keys substring searches. Compiled books are cached per bot and
+ * fingerprinted by {@code updatedAt} and the JSON itself; editing the bot
+ * recompiles on the next turn, and {@link #evict(Long)} drops a book eagerly.
+ *
+ * <p>Supported entry fields: {@code keys}, {@code secondary_keys} with
+ * {@code selective}, {@code constant}, {@code case_sensitive},
+ * {@code use_regex} or {@code /pattern/flags} keys, and
+ * {@code extensions.match_whole_words}. Keys never match across messages.
+ */
+@Component
+@Slf4j
+public class LoreBookMatcher {
+
+    private static final long MAX_CACHED_BOOKS = 1_000;
+    private static final char MESSAGE_SEPARATOR = '\u0000';
+    private static final Pattern REGEX_KEY = Pattern.compile("^/(.+)/([a-z]*)$", Pattern.DOTALL);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Cache<Long, CompiledBook> books = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_BOOKS)
+            .expireAfterAccess(Duration.ofHours(6))
+            .build();
+
+    /** Matched entries, ordered by insertion order (ties keep book order). */
+    public List<AgentContextBuilder.LoreBookEntry> match(BotConfig bot, List<String> messages) {
+        if (bot == null || bot.getCharacterBookJson() == null || bot.getCharacterBookJson().isBlank()) {
+            return List.of();
+        }
+        return compiled(bot).match(messages);
+    }
+
+    public void evict(Long botId) {
+        if (botId != null) {
+            books.invalidate(botId);
+        }
+    }
+
+    CompiledBook compiled(BotConfig bot) {
+        Fingerprint fingerprint = Fingerprint.of(bot);
+        if (bot.getId() == null) {
+            return compile(bot);
+        }
+        CompiledBook cached = books.getIfPresent(bot.getId());
+        if (cached != null && cached.fingerprint().equals(fingerprint)) {
+            return cached;
+        }
+        CompiledBook fresh = compile(bot);
+        books.put(bot.getId(), fresh);
+        return fresh;
+    }
+
+    private CompiledBook compile(BotConfig bot) {
+        Fingerprint fingerprint = Fingerprint.of(bot);
+        try {
+            JsonNode root = objectMapper.readTree(bot.getCharacterBookJson());
+            if (root.isTextual() && !root.asText().isBlank()) {
+                root = objectMapper.readTree(root.asText());
+            }
+            return CompiledBook.compile(fingerprint, root.path("entries"), bot.getId());
+        } catch (Exception e) {
+            // Cached as empty so a broken card is reported once per edit, not once per turn.
+            log.warn("Failed to parse character book for bot {}: {}", bot.getId(), e.getMessage());
+            return CompiledBook.empty(fingerprint);
+        }
+    }
+
+    private record Fingerprint(LocalDateTime updatedAt, int length, int hash) {
+        static Fingerprint of(BotConfig bot) {
+            String json = bot.getCharacterBookJson();
+            return new Fingerprint(bot.getUpdatedAt(), json.length(), json.hashCode());
+        }
+    }
+
+    private record Entry(int insertionOrder, String content, boolean constant, boolean selective,
+                         boolean hasSecondary) {
+    }
+
+    private record KeyRef(int entry, boolean secondary, boolean wholeWord) {
+    }
+
+    private record RegexKey(int entry, boolean secondary, Pattern pattern) {
+    }
+
+    static final class CompiledBook {
+        private final Fingerprint fingerprint;
+        private final List<Entry> entries;
+        private final AhoCorasick<KeyRef> folded;
+        private final AhoCorasick<KeyRef> exact;
+        private final List<RegexKey> regexKeys;
+
+        private CompiledBook(Fingerprint fingerprint, List<Entry> entries, AhoCorasick<KeyRef> folded,
+                             AhoCorasick<KeyRef> exact, List<RegexKey> regexKeys) {
+            this.fingerprint = fingerprint;
+            this.entries = entries;
+            this.folded = folded;
+            this.exact = exact;
+            this.regexKeys = regexKeys;
+        }
+
+        static CompiledBook empty(Fingerprint fingerprint) {
+            return new CompiledBook(fingerprint, List.of(), AhoCorasick.<KeyRef>builder().build(),
+                    AhoCorasick.<KeyRef>builder().build(), List.of());
+        }
+
+        static CompiledBook compile(Fingerprint fingerprint, JsonNode entriesNode, Long botId) {
+            if (!entriesNode.isArray()) {
+                return empty(fingerprint);
+            }
+            List<Entry> entries = new ArrayList<>();
+            AhoCorasick.Builder<KeyRef> folded = AhoCorasick.builder();
+            AhoCorasick.Builder<KeyRef> exact = AhoCorasick.builder();
+            List<RegexKey> regexKeys = new ArrayList<>();
+            int fallbackOrder = 0;
+            for (JsonNode node : entriesNode) {
+                if (node.has("enabled") && !node.path("enabled").asBoolean()) {
+                    continue;
+                }
+                String content = node.path("content").asText("");
+                if (content.isBlank()) {
+                    continue;
+                }
+                int insertionOrder = node.has("insertion_order")
+                        ? node.path("insertion_order").asInt(fallbackOrder)
+                        : fallbackOrder;
+                fallbackOrder++;
+                JsonNode extensions = node.path("extensions");
+                boolean caseSensitive = flag(node, extensions, "case_sensitive");
+                boolean wholeWord = flag(node, extensions, "match_whole_words");
+                boolean useRegex = flag(node, extensions, "use_regex");
+                JsonNode secondary = node.path("secondary_keys");
+                boolean selective = node.path("selective").asBoolean(false);
+                int index = entries.size();
+                entries.add(new Entry(insertionOrder, content, node.path("constant").asBoolean(false),
+                        selective, selective && hasKeys(secondary)));
+                for (int pass = 0; pass < 2; pass++) {
+                    JsonNode keys = pass == 0 ? node.path("keys") : secondary;
+                    if (!keys.isArray()) {
+                        continue;
+                    }
+                    boolean isSecondary = pass == 1;
+                    for (JsonNode keyNode : keys) {
+                        String key = keyNode.asText("");
+                        if (key.isBlank()) {
+                            continue;
+                        }
+                        Pattern regex = regex(key, useRegex, caseSensitive, botId);
+                        if (regex != null) {
+                            regexKeys.add(new RegexKey(index, isSecondary, regex));
+                        } else if (caseSensitive) {
+                            exact.add(key, new KeyRef(index, isSecondary, wholeWord));
+                        } else {
+                            folded.add(fold(key), new KeyRef(index, isSecondary, wholeWord));
+                        }
+                    }
+                }
+            }
+            return new CompiledBook(fingerprint, List.copyOf(entries), folded.build(), exact.build(),
+                    List.copyOf(regexKeys));
+        }
+
+        Fingerprint fingerprint() {
+            return fingerprint;
+        }
+
+        List<AgentContextBuilder.LoreBookEntry> match(List<String> messages) {
+            if (entries.isEmpty()) {
+                return List.of();
+            }
+            BitSet primaryHits = new BitSet(entries.size());
+            BitSet secondaryHits = new BitSet(entries.size());
+            if (messages != null && !messages.isEmpty()) {
+                String window = String.join(String.valueOf(MESSAGE_SEPARATOR), messages);
+                scan(exact, window, window, primaryHits, secondaryHits);
+                if (!folded.isEmpty()) {
+                    scan(folded, fold(window), window, primaryHits, secondaryHits);
+                }
+                for (RegexKey key : regexKeys) {
+                    BitSet hits = key.secondary() ? secondaryHits : primaryHits;
+                    if (hits.get(key.entry())) {
+                        continue;
+                    }
+                    for (String message : messages) {
+                        if (key.pattern().matcher(message).find()) {
+                            hits.set(key.entry());
+                            break;
+                        }
+                    }
+                }
+            }
+
+            List<AgentContextBuilder.LoreBookEntry> matched = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                boolean active = entry.constant()
+                        || (primaryHits.get(i) && (!entry.hasSecondary() || secondaryHits.get(i)));
+                if (active) {
+                    matched.add(new AgentContextBuilder.LoreBookEntry(entry.insertionOrder(), entry.content()));
+                }
+            }
+            matched.sort((left, right) -> Integer.compare(left.insertionOrder(), right.insertionOrder()));
+            return matched;
+        }
+
+        private static void scan(AhoCorasick<KeyRef> automaton, String text, String original,
+                                 BitSet primaryHits, BitSet secondaryHits) {
+            automaton.scan(text, (ref, start, end) -> {
+                if (ref.wholeWord() && !isWholeWord(original, start, end)) {
+                    return;
+                }
+                (ref.secondary() ? secondaryHits : primaryHits).set(ref.entry());
+            });
+        }
+
+        private static boolean flag(JsonNode node, JsonNode extensions, String field) {
+            JsonNode value = node.has(field) ? node.path(field) : extensions.path(field);
+            return value.asBoolean(false);
+        }
+
+        private static boolean hasKeys(JsonNode keys) {
+            if (!keys.isArray()) {
+                return false;
+            }
+            for (JsonNode key : keys) {
+                if (!key.asText("").isBlank()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Pattern regex(String key, boolean useRegex, boolean caseSensitive, Long botId) {
+            Matcher slashed = REGEX_KEY.matcher(key.trim());
+            if (!useRegex && !slashed.matches()) {
+                return null;
+            }
+            String source = slashed.matches() ? slashed.group(1) : key;
+            String flags = slashed.matches() ? slashed.group(2) : "";
+            int options = Pattern.UNICODE_CASE;
+            if (!caseSensitive || flags.indexOf('i') >= 0) {
+                options |= Pattern.CASE_INSENSITIVE;
+            }
+            if (flags.indexOf('s') >= 0) {
+                options |= Pattern.DOTALL;
+            }
+            if (flags.indexOf('m') >= 0) {
+                options |= Pattern.MULTILINE;
+            }
+            try {
+                return Pattern.compile(source, options);
+            } catch (PatternSyntaxException e) {
+                log.warn("Ignoring invalid lore book regex for bot {}: {}", botId, e.getDescription());
+                // Fall back to the literal key rather than silently dropping the entry.
+                return Pattern.compile(Pattern.quote(key), options);
+            }
+        }
+    }
+
+    /** Per-char folding keeps indices aligned with the original text for word-boundary checks. */
+    static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Word boundaries only apply where the key edge is itself a letter or digit, so
+     * CJK keys (written without spaces) still match inside a sentence.
+     */
+    static boolean isWholeWord(String text, int start, int end) {
+        return !(isAsciiWordChar(text.charAt(start)) && start > 0 && isAsciiWordChar(text.charAt(start - 1)))
+                && !(isAsciiWordChar(text.charAt(end - 1)) && end < text.length() && isAsciiWordChar(text.charAt(end)));
+    }
+
+    private static boolean isAsciiWordChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+}
@@ -0,0 +1,270 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.MemoryEntry;
+import com.chatapp.repository.MemoryEntryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process BM25 index over each room's active memory entries, used by
+ * {@link MemoryService#recall} instead of a {@code LIKE} scan.
+ *
+ * <p>A room is loaded lazily on its first recall and then kept in step by
+ * {@link #upsert} / {@link #remove} from the memory write paths. Latin text is
+ * split into lower-cased words; Han, kana and Hangul runs become overlapping
+ * bigrams (a lone character stays a unigram), so Chinese queries match without
+ * a segmenter. Title and keyword terms count double. Rooms expire after
+ * {@link #MAX_STALENESS} so writes made by another instance are picked up.
+ *
+ * <p>The index only ranks ids; callers load the entities by primary key.
+ */
+@Component
+public class MemoryRecallIndex {
+
+    static final Duration MAX_STALENESS = Duration.ofMinutes(10);
+    private static final long MAX_INDEXED_ENTRIES = 200_000;
+    private static final double K1 = 1.2d;
+    private static final double B = 0.75d;
+    private static final int FIELD_BOOST = 2;
+
+    private final MemoryEntryRepository memoryRepository;
+    private final Cache<Long, RoomIndex> rooms = Caffeine.newBuilder()
+            .maximumWeight(MAX_INDEXED_ENTRIES)
+            .weigher((Long roomId, RoomIndex index) -> index.size() + 1)
+            .expireAfterWrite(MAX_STALENESS)
+            .build();
+
+    public MemoryRecallIndex(MemoryEntryRepository memoryRepository) {
+        this.memoryRepository = memoryRepository;
+    }
+
+    /**
+     * Ids of the best-matching entries visible to {@code userId} (null = ROOM only),
+     * pinned first, then by BM25 score, then most recently updated.
+     */
+    public List<Long> search(Long roomId, Long userId, String query, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (roomId == null || terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        return rooms.get(roomId, this::load).search(userId, terms, limit);
+    }
+
+    /** Re-indexes an entry if its room is loaded; archived entries are dropped. */
+    public void upsert(MemoryEntry entry) {
+        if (entry == null || entry.getId() == null || entry.getChatRoomId() == null) {
+            return;
+        }
+        RoomIndex index = rooms.getIfPresent(entry.getChatRoomId());
+        if (index == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(entry.getArchived())) {
+            index.remove(entry.getId());
+        } else {
+            index.put(Doc.of(entry));
+        }
+    }
+
+    public void remove(Long roomId, Long memoryId) {
+        RoomIndex index = roomId != null ? rooms.getIfPresent(roomId) : null;
+        if (index != null) {
+            index.remove(memoryId);
+        }
+    }
+
+    private RoomIndex load(Long roomId) {
+        RoomIndex index = new RoomIndex();
+        for (MemoryEntry entry : memoryRepository.findByChatRoomIdAndArchivedFalse(roomId)) {
+            index.put(Doc.of(entry));
+        }
+        return index;
+    }
+
+    /** Lower-cased words for Latin text, bigrams for CJK runs. */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        int cjkStart = -1;
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char ch = i < length ? text.charAt(i) : ' ';
+            boolean cjk = i < length && isCjk(ch);
+            if (cjk) {
+                if (cjkStart < 0) {
+                    cjkStart = i;
+                }
+            } else if (cjkStart >= 0) {
+                addBigrams(text, cjkStart, i, tokens);
+                cjkStart = -1;
+            }
+            if (!cjk && Character.isLetterOrDigit(ch)) {
+                word.append(Character.toLowerCase(ch));
+            } else if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static void addBigrams(String text, int start, int end, List<String> tokens) {
+        if (end - start == 1) {
+            tokens.add(text.substring(start, end));
+            return;
+        }
+        for (int i = start; i + 1 < end; i++) {
+            tokens.add(text.substring(i, i + 2));
+        }
+    }
+
+    private static boolean isCjk(char ch) {
+        return (ch >= '\u4E00' && ch <= '\u9FFF')
+                || (ch >= '\u3400' && ch <= '\u4DBF')
+                || (ch >= '\uF900' && ch <= '\uFAFF')
+                || (ch >= '\u3040' && ch <= '\u30FF')
+                || (ch >= '\uAC00' && ch <= '\uD7AF');
+    }
+
+    private record Doc(Long id, Long authorUserId, boolean roomVisible, boolean pinned,
+                       LocalDateTime updatedAt, Map<String, Integer> termFrequencies, int length) {
+
+        static Doc of(MemoryEntry entry) {
+            Map<String, Integer> tf = new HashMap<>();
+            int length = 0;
+            length += count(tf, entry.getTitle(), FIELD_BOOST);
+            length += count(tf, entry.getKeywords(), FIELD_BOOST);
+            length += count(tf, entry.getContent(), 1);
+            return new Doc(entry.getId(), entry.getAuthorUserId(),
+                    entry.getVisibility() != MemoryEntry.Visibility.PRIVATE,
+                    Boolean.TRUE.equals(entry.getPinned()), entry.getUpdatedAt(), Map.copyOf(tf), length);
+        }
+
+        private static int count(Map<String, Integer> tf, String text, int weight) {
+            List<String> tokens = tokenize(text);
+            for (String token : tokens) {
+                tf.merge(token, weight, Integer::sum);
+            }
+            return tokens.size() * weight;
+        }
+
+        boolean visibleTo(Long userId) {
+            return roomVisible || (userId != null && userId.equals(authorUserId));
+        }
+    }
+
+    private record Hit(Doc doc, double score) {
+    }
+
+    private static final class RoomIndex {
+        private static final Comparator<Hit> ORDER = Comparator
+                .comparing((Hit hit) -> !hit.doc().pinned())
+                .thenComparing(Hit::score, Comparator.reverseOrder())
+                .thenComparing(hit -> hit.doc().updatedAt(), Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(hit -> hit.doc().id(), Comparator.reverseOrder());
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, Doc> docs = new HashMap<>();
+        private final Map<String, Set<Long>> postings = new HashMap<>();
+        private long totalLength;
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return docs.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(Doc doc) {
+            lock.writeLock().lock();
+            try {
+                removeLocked(doc.id());
+                docs.put(doc.id(), doc);
+                totalLength += doc.length();
+                for (String term : doc.termFrequencies().keySet()) {
+                    postings.computeIfAbsent(term, key -> new LinkedHashSet<>()).add(doc.id());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(Long id) {
+            lock.writeLock().lock();
+            try {
+                removeLocked(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void removeLocked(Long id) {
+            Doc previous = docs.remove(id);
+            if (previous == null) {
+                return;
+            }
+            totalLength -= previous.length();
+            for (String term : previous.termFrequencies().keySet()) {
+                Set<Long> ids = postings.get(term);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+
+        List<Long> search(Long userId, List<String> terms, int limit) {
+            lock.readLock().lock();
+            try {
+                int n = docs.size();
+                if (n == 0) {
+                    return List.of();
+                }
+                double averageLength = Math.max(1.0d, (double) totalLength / n);
+                Map<Long, Double> scores = new HashMap<>();
+                for (String term : terms) {
+                    Set<Long> ids = postings.get(term);
+                    if (ids == null) {
+                        continue;
+                    }
+                    double idf = Math.log(1.0d + (n - ids.size() + 0.5d) / (ids.size() + 0.5d));
+                    for (Long id : ids) {
+                        Doc doc = docs.get(id);
+                        if (!doc.visibleTo(userId)) {
+                            continue;
+                        }
+                        int tf = doc.termFrequencies().get(term);
+                        double norm = K1 * (1.0d - B + B * doc.length() / averageLength);
+                        scores.merge(id, idf * tf * (K1 + 1.0d) / (tf + norm), Double::sum);
+                    }
+                }
+                List<Hit> hits = new ArrayList<>(scores.size());
+                scores.forEach((id, score) -> hits.add(new Hit(docs.get(id), score)));
+                hits.sort(ORDER);
+                return hits.stream().limit(limit).map(hit -> hit.doc().id()).toList();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
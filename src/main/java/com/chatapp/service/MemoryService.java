@@ -3,6 +3,7 @@ package com.chatapp.service;
 import com.chatapp.entity.MemoryEntry;
 import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.MemoryEntryRepository;
+import com.chatapp.util.TransactionHooks;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -10,7 +11,11 @@ import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Per-room memory library (Phase 5a / F2). Backs both the user-facing memory API and the
@@ -32,9 +37,12 @@ public class MemoryService {
     static final int MAX_CONTENT_LEN = 8000;
     static final int MAX_KEYWORDS_LEN = 500;
     static final int MAX_RECALL = 20;
+    /** Queries up to this length fall back to substring search when the index finds nothing. */
+    static final int SUBSTRING_FALLBACK_MAX_QUERY_LEN = 32;
 
     private final MemoryEntryRepository memoryRepository;
     private final ChatRoomRepository chatRoomRepository;
+    private final MemoryRecallIndex recallIndex;
 
     // ---- user-facing (membership-gated) ----
 
@@ -49,7 +57,7 @@ public class MemoryService {
         entry.setSourceType(MemoryEntry.SourceType.USER);
         entry.setVisibility(visibility != null ? visibility : MemoryEntry.Visibility.ROOM);
         applyContent(entry, title, content, keywords);
-        return memoryRepository.save(entry);
+        return indexed(memoryRepository.save(entry));
     }
 
     @Transactional(readOnly = true)
@@ -77,27 +85,29 @@ public class MemoryService {
         if (visibility != null) {
             entry.setVisibility(visibility);
         }
-        return memoryRepository.save(entry);
+        return indexed(memoryRepository.save(entry));
     }
 
     @Transactional
     public MemoryEntry setPinned(Long memoryId, Long userId, boolean pinned) {
         MemoryEntry entry = requireAccessible(memoryId, userId);
         entry.setPinned(pinned);
-        return memoryRepository.save(entry);
+        return indexed(memoryRepository.save(entry));
     }
 
     @Transactional
     public MemoryEntry setArchived(Long memoryId, Long userId, boolean archived) {
         MemoryEntry entry = requireAccessible(memoryId, userId);
         entry.setArchived(archived);
-        return memoryRepository.save(entry);
+        return indexed(memoryRepository.save(entry));
     }
 
     @Transactional
     public void delete(Long memoryId, Long userId) {
         MemoryEntry entry = requireAccessible(memoryId, userId);
         memoryRepository.delete(entry);
+        Long roomId = entry.getChatRoomId();
+        TransactionHooks.afterCommit(() -> recallIndex.remove(roomId, memoryId));
     }
 
     // ---- bot tools (ROOM visibility only) ----
@@ -117,13 +127,18 @@ public class MemoryService {
         entry.setSourceType(MemoryEntry.SourceType.BOT);
         entry.setVisibility(MemoryEntry.Visibility.ROOM);
         applyContent(entry, title, content, keywords);
-        return memoryRepository.save(entry);
+        return indexed(memoryRepository.save(entry));
     }
 
     /**
-     * Keyword recall over a room's memories. {@code userId} null restricts to ROOM-visible
+     * Ranked recall over a room's memories. {@code userId} null restricts to ROOM-visible
      * entries (the bot path); a real member also sees their own PRIVATE entries. A blank
      * query returns pinned-first recent entries.
+     *
+     * <p>Queries are answered by the in-process BM25 {@link MemoryRecallIndex}, so the long
+     * history-derived queries from the agent context cost no table scan. A short query the
+     * index cannot tokenize into a hit (e.g. a single Chinese character) still falls back to
+     * the substring search.
      */
     @Transactional(readOnly = true)
     public List<MemoryEntry> recall(Long roomId, Long userId, String query, int limit) {
@@ -132,7 +147,26 @@ public class MemoryService {
         if (query == null || query.isBlank()) {
             return memoryRepository.recent(roomId, userId, page);
         }
-        return memoryRepository.search(roomId, userId, query.trim(), page);
+        String q = query.trim();
+        List<Long> ids = recallIndex.search(roomId, userId, q, lim);
+        if (!ids.isEmpty()) {
+            Map<Long, MemoryEntry> byId = memoryRepository.findAllById(ids).stream()
+                    .collect(Collectors.toMap(MemoryEntry::getId, Function.identity()));
+            List<MemoryEntry> ranked = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                MemoryEntry entry = byId.get(id);
+                // Re-check: the index can briefly trail writes made by another instance.
+                if (entry != null && !Boolean.TRUE.equals(entry.getArchived()) && roomId.equals(entry.getChatRoomId())
+                        && isVisible(entry, userId)) {
+                    ranked.add(entry);
+                }
+            }
+            return ranked;
+        }
+        if (q.length() > SUBSTRING_FALLBACK_MAX_QUERY_LEN) {
+            return List.of();
+        }
+        return memoryRepository.search(roomId, userId, q, page);
     }
 
     // ---- helpers ----
@@ -154,6 +188,17 @@ public class MemoryService {
         return entry;
     }
 
+    private static boolean isVisible(MemoryEntry entry, Long userId) {
+        return entry.getVisibility() != MemoryEntry.Visibility.PRIVATE
+                || (userId != null && userId.equals(entry.getAuthorUserId()));
+    }
+
+    /** Keeps the recall index in step once the write is committed. */
+    private MemoryEntry indexed(MemoryEntry saved) {
+        TransactionHooks.afterCommit(() -> recallIndex.upsert(saved));
+        return saved;
+    }
+
     private void enforceCap(Long roomId) {
         if (memoryRepository.countByChatRoomIdAndArchivedFalse(roomId) >= MAX_ACTIVE_PER_ROOM) {
             throw new IllegalStateException(
@@ -5,15 +5,15 @@ import com.chatapp.repository.MessageRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -25,6 +25,8 @@ public class MessageRetentionService {
 
     private final MessageRepository messageRepository;
     private final FileStorageService fileStorageService;
+    private final FileReferenceService fileReferenceService;
+    private final TransactionTemplate transactionTemplate;
 
     @Value("${message.retention.enabled:true}")
     private boolean enabled;
@@ -36,7 +38,6 @@ public class MessageRetentionService {
     private int batchSize;
 
     @Scheduled(cron = "${message.retention.cleanup-cron:0 30 3 * * *}")
-    @Transactional
     public CleanupResult cleanupExpiredMessages() {
         if (!enabled) {
             log.debug("消息过期清理已关闭");
@@ -55,19 +56,29 @@ public class MessageRetentionService {
         int orphanImageFiles = 0;
 
         while (true) {
-            Page<Message> page = messageRepository.findExpiredForRetention(
-                    cutoff,
-                    PageRequest.of(0, safeBatchSize));
-            List<Message> messages = page.getContent();
-            if (messages.isEmpty()) {
+            // 每批单独提交；文件要等消息的清空提交后再释放，回滚时附件不会被误删
+            Set<String> releasedFiles = new LinkedHashSet<>();
+            List<Message> messages = transactionTemplate.execute(status -> {
+                List<Message> batch = messageRepository.findExpiredForRetention(
+                        cutoff,
+                        PageRequest.of(0, safeBatchSize)).getContent();
+                for (Message message : batch) {
+                    collectMessageFiles(message, seenFiles, releasedFiles);
+                    expireMessage(message);
+                }
+                if (!batch.isEmpty()) {
+                    messageRepository.saveAll(batch);
+                }
+                return batch;
+            });
+            if (messages == null || messages.isEmpty()) {
                 break;
             }
-
-            for (Message message : messages) {
-                deletedFiles += deleteMessageFiles(message, seenFiles);
-                expireMessage(message);
+            for (String fileUrl : releasedFiles) {
+                if (fileReferenceService.release(fileUrl)) {
+                    deletedFiles++;
+                }
             }
-            messageRepository.saveAll(messages);
             expiredMessages += messages.size();
 
             if (messages.size() < safeBatchSize) {
@@ -84,12 +95,13 @@ public class MessageRetentionService {
         return result;
     }
 
-    private int deleteMessageFiles(Message message, Set<String> seenFiles) {
-        int deleted = 0;
-        deleted += deleteFileIfMessageScoped(message.getFileUrl(), seenFiles);
-        deleted += deleteFileIfMessageScoped(message.getImageGenUrl(), seenFiles);
-        deleted += deleteFileIfMessageScoped(message.getThumbnailUrl(), seenFiles);
-        return deleted;
+    private void collectMessageFiles(Message message, Set<String> seenFiles, Set<String> releasedFiles) {
+        for (String fileUrl : new String[] {
+                message.getFileUrl(), message.getImageGenUrl(), message.getThumbnailUrl(), message.getPreviewUrl()}) {
+            if (FileReferenceService.isMessageScopedFile(fileUrl) && seenFiles.add(fileUrl)) {
+                releasedFiles.add(fileUrl);
+            }
+        }
     }
 
     private int cleanupExpiredOrphanImageGenFiles(LocalDateTime cutoff, int maxFiles, Set<String> seenFiles) {
@@ -99,8 +111,7 @@ public class MessageRetentionService {
                 if (!seenFiles.add(fileUrl)) {
                     continue;
                 }
-                if (!messageRepository.existsActiveMessageReferencingFileUrl(fileUrl)
-                        && fileStorageService.deleteFile(fileUrl)) {
+                if (fileReferenceService.release(fileUrl)) {
                     deleted++;
                 }
             }
@@ -110,23 +121,6 @@ public class MessageRetentionService {
         return deleted;
     }
 
-    private int deleteFileIfMessageScoped(String fileUrl, Set<String> seenFiles) {
-        if (!isMessageScopedFile(fileUrl) || !seenFiles.add(fileUrl)) {
-            return 0;
-        }
-        boolean deleted = fileStorageService.deleteFile(fileUrl);
-        if (!deleted) {
-            log.debug("消息过期清理未删除文件，可能已不存在或路径不受支持: {}", fileUrl);
-        }
-        return deleted ? 1 : 0;
-    }
-
-    private boolean isMessageScopedFile(String fileUrl) {
-        return fileUrl != null
-                && (fileUrl.startsWith("/api/files/chat/")
-                || fileUrl.startsWith("/api/files/image-gen/"));
-    }
-
     private void expireMessage(Message message) {
         message.setIsDeleted(true);
         message.setContent(EXPIRED_MESSAGE_CONTENT);
@@ -135,6 +129,8 @@ public class MessageRetentionService {
         message.setFileType(null);
         message.setFileSize(null);
         message.setThumbnailUrl(null);
+        message.setPreviewUrl(null);
+        message.setBlurHash(null);
         message.setImageGenUrl(null);
         message.setImageGenProviderTaskId(null);
         message.setEncryptedContent(null);
@@ -476,6 +476,8 @@ public class MessageService {
         forwarded.setFileSize(source.getFileSize());
         forwarded.setFileType(source.getFileType());
         forwarded.setThumbnailUrl(source.getThumbnailUrl());
+        forwarded.setPreviewUrl(source.getPreviewUrl());
+        forwarded.setBlurHash(source.getBlurHash());
         forwarded.setStickerId(source.getStickerId());
         forwarded.setPollId(source.getPollId());
         forwarded.setImageGenPrompt(source.getImageGenPrompt());
@@ -23,6 +23,7 @@ public class ModerationService {
 
     private final ChatRoomBotRepository chatRoomBotRepository;
     private final ChatRoomRepository chatRoomRepository;
+    private final AgentContextSnapshots agentContextSnapshots;
 
     /** A room OWNER sets a bot's moderation grant in their room. */
     public void setBotModerationGrant(Long roomId, Long ownerId, Long botConfigId,
@@ -50,6 +51,7 @@ public class ModerationService {
         requireGrantedBot(botConfigId, roomId, ChatRoomBot.ModerationGrant.KICK);
         requireModeratableTarget(roomId, targetUserId);
         chatRoomRepository.removeMember(roomId, targetUserId);
+        agentContextSnapshots.roomMembersChanged(roomId);
         log.info("机器人 {} 在聊天室 {} 移除了成员 {}", botConfigId, roomId, targetUserId);
     }
 
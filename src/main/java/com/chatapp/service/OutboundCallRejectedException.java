@@ -0,0 +1,22 @@
+package com.chatapp.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making an outbound call when the destination's circuit is
+ * open or its concurrency bulkhead is full. Extends {@link IOException} so the
+ * callers' existing transport-failure handling applies unchanged.
+ */
+public class OutboundCallRejectedException extends IOException {
+
+    private final String destination;
+
+    public OutboundCallRejectedException(String destination, String reason) {
+        super("Outbound call to " + destination + " rejected: " + reason);
+        this.destination = destination;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+}
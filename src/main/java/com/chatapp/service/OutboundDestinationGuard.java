@@ -0,0 +1,432 @@
+package com.chatapp.service;
+
+import com.chatapp.service.OutboundHttpClients.CircuitState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Application interceptor guarding one outbound destination.
+ *
+ * <ul>
+ *   <li>Bulkhead: at most {@code maxConcurrent} calls in flight. The permit is held
+ *       until the response body is closed, so streamed responses count for their
+ *       whole duration.</li>
+ *   <li>Circuit breaker: {@code failureThreshold} consecutive failures (I/O errors or
+ *       5xx) open the circuit for {@code openDuration}. Calls then fail fast with
+ *       {@link OutboundCallRejectedException} until one half-open trial succeeds.
+ *       Calls cancelled by the caller count as neither success nor failure.</li>
+ *   <li>Retries: connect failures, and for idempotent methods also other I/O errors
+ *       and 502/503/504, are retried with full-jitter exponential backoff. Each call
+ *       earns {@code retryBudgetRatio} retry tokens, so retries stay a bounded
+ *       fraction of traffic during an outage. A retry gives its bulkhead permit back
+ *       while it backs off and stops if the circuit has opened by the time it wakes.</li>
+ * </ul>
+ */
+@Slf4j
+class OutboundDestinationGuard implements Interceptor {
+
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(502, 503, 504);
+    private static final long TOKEN = 1_000;
+    private static final long MAX_RETRY_TOKENS = 10 * TOKEN;
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    private final String destination;
+    private final OutboundHttpClients.Spec spec;
+    private final LongSupplier nanoClock;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore bulkhead;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicReference<CircuitState> state = new AtomicReference<>(CircuitState.CLOSED);
+    private final AtomicLong openedAtNanos = new AtomicLong();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+    private final AtomicLong retryTokens = new AtomicLong(MAX_RETRY_TOKENS);
+    private final Counter retries;
+
+    OutboundDestinationGuard(String destination, OutboundHttpClients.Spec spec,
+                             MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.destination = destination;
+        this.spec = spec;
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        this.bulkhead = new Semaphore(Math.max(1, spec.maxConcurrent()));
+        if (meterRegistry != null) {
+            Gauge.builder("outbound.http.in_flight", inFlight, AtomicInteger::get)
+                    .tag("destination", destination)
+                    .register(meterRegistry);
+            Gauge.builder("outbound.http.circuit.state", state, s -> s.get().ordinal())
+                    .tag("destination", destination)
+                    .description("0 = closed, 1 = open, 2 = half-open")
+                    .register(meterRegistry);
+            this.retries = Counter.builder("outbound.http.retries")
+                    .tag("destination", destination)
+                    .register(meterRegistry);
+        } else {
+            this.retries = null;
+        }
+    }
+
+    CircuitState state() {
+        return state.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean trial = admitThroughCircuit();
+        if (!acquireBulkhead()) {
+            if (trial) {
+                trialInFlight.set(false);
+            }
+            throw reject("bulkhead_full");
+        }
+        boolean holding = true;
+        try {
+            depositRetryToken();
+            for (int attempt = 0; ; attempt++) {
+                long start = nanoClock.getAsLong();
+                Response response = null;
+                IOException failure = null;
+                try {
+                    response = chain.proceed(request);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                boolean failed = failure != null || response.code() >= 500;
+                record(start, failure != null ? "IO_ERROR" : outcome(response.code()));
+                if (failure != null && chain.call().isCanceled()) {
+                    // The caller gave up (e.g. a losing hedge); says nothing about the destination.
+                    if (trial) {
+                        trialInFlight.set(false);
+                    }
+                    throw failure;
+                }
+                if (failed) {
+                    onFailure();
+                } else {
+                    onSuccess();
+                }
+                if (failed && shouldRetry(chain, request, attempt, failure, response)) {
+                    if (response != null) {
+                        response.close();
+                    }
+                    if (retries != null) {
+                        retries.increment();
+                    }
+                    // Sleeping calls would otherwise fill the bulkhead during an outage.
+                    holding = false;
+                    release();
+                    backoff(attempt);
+                    readmitRetry();
+                    holding = true;
+                    continue;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                holding = false;
+                return releaseOnClose(response);
+            }
+        } finally {
+            if (holding) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Takes a permit again for a retry that gave its own back while backing off. The
+     * circuit may have opened in the meantime, in which case the retry is dropped.
+     */
+    private void readmitRetry() throws IOException {
+        if (spec.failureThreshold() > 0 && state.get() != CircuitState.CLOSED) {
+            throw reject("circuit_open");
+        }
+        if (!acquireBulkhead()) {
+            throw reject("bulkhead_full");
+        }
+    }
+
+    /**
+     * Admits a call that does not go through OkHttp (the reactive LLM transport). It
+     * passes the same circuit and bulkhead as intercepted calls but never blocks: a full
+     * bulkhead rejects it at once. {@code repeat} marks a retry or key failover of a call
+     * admitted before, which earns no retry token. The permit must be closed.
+     */
+    Permit admit(boolean repeat) throws OutboundCallRejectedException {
+        boolean trial = admitThroughCircuit();
+        if (!bulkhead.tryAcquire()) {
+            if (trial) {
+                trialInFlight.set(false);
+            }
+            throw reject("bulkhead_full");
+        }
+        inFlight.incrementAndGet();
+        if (!repeat) {
+            depositRetryToken();
+        }
+        return new Permit(trial, nanoClock.getAsLong());
+    }
+
+    /**
+     * Backoff before repeating an admitted call that failed with {@code failure}, or -1 if
+     * it must not be repeated. Such calls are POSTs, so as in {@link #shouldRetry} only a
+     * refused connection qualifies, and only while the circuit is closed and the retry
+     * budget lasts.
+     */
+    long retryDelayMillis(int attempt, Throwable failure) {
+        if (attempt >= spec.maxRetries() || (spec.failureThreshold() > 0 && state.get() != CircuitState.CLOSED)) {
+            return -1;
+        }
+        if (!refusedConnection(failure) || !withdrawRetryToken()) {
+            return -1;
+        }
+        if (retries != null) {
+            retries.increment();
+        }
+        return backoffMillis(attempt);
+    }
+
+    private static boolean refusedConnection(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns whether this call is the half-open trial; throws if the circuit rejects it. */
+    private boolean admitThroughCircuit() throws OutboundCallRejectedException {
+        if (spec.failureThreshold() <= 0) {
+            return false;
+        }
+        CircuitState current = state.get();
+        if (current == CircuitState.CLOSED) {
+            return false;
+        }
+        if (current == CircuitState.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos.get() < spec.openDuration().toNanos()) {
+                throw reject("circuit_open");
+            }
+            state.compareAndSet(CircuitState.OPEN, CircuitState.HALF_OPEN);
+        }
+        if (trialInFlight.compareAndSet(false, true)) {
+            return true;
+        }
+        throw reject("circuit_open");
+    }
+
+    private void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() != CircuitState.CLOSED && state.compareAndSet(CircuitState.HALF_OPEN, CircuitState.CLOSED)) {
+            log.info("Outbound destination {} recovered; circuit closed", destination);
+        }
+        trialInFlight.set(false);
+    }
+
+    private void onFailure() {
+        if (spec.failureThreshold() <= 0) {
+            return;
+        }
+        if (state.get() == CircuitState.HALF_OPEN) {
+            trip();
+        } else if (consecutiveFailures.incrementAndGet() >= spec.failureThreshold()
+                && state.get() == CircuitState.CLOSED) {
+            trip();
+        }
+        trialInFlight.set(false);
+    }
+
+    private void trip() {
+        openedAtNanos.set(nanoClock.getAsLong());
+        CircuitState previous = state.getAndSet(CircuitState.OPEN);
+        if (previous != CircuitState.OPEN) {
+            log.warn("Outbound destination {} circuit opened for {} after {} consecutive failures",
+                    destination, spec.openDuration(), consecutiveFailures.get());
+        }
+    }
+
+    private boolean shouldRetry(Chain chain, Request request, int attempt, IOException failure, Response response) {
+        if (attempt >= spec.maxRetries() || chain.call().isCanceled()) {
+            return false;
+        }
+        if (spec.failureThreshold() > 0 && state.get() != CircuitState.CLOSED) {
+            return false;
+        }
+        boolean idempotent = IDEMPOTENT_METHODS.contains(request.method());
+        boolean retryable;
+        if (failure != null) {
+            // A refused connection never reached the server, so even a POST is safe to resend.
+            retryable = failure instanceof ConnectException
+                    || (idempotent && !(failure instanceof InterruptedIOException && "Canceled".equals(failure.getMessage())));
+        } else {
+            retryable = idempotent && RETRYABLE_STATUS.contains(response.code());
+        }
+        return retryable && withdrawRetryToken();
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, spec.retryBackoff().toMillis() << Math.min(attempt, 10));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void backoff(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(backoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off " + destination);
+        }
+    }
+
+    private void depositRetryToken() {
+        long deposit = (long) (spec.retryBudgetRatio() * TOKEN);
+        retryTokens.getAndUpdate(tokens -> Math.min(MAX_RETRY_TOKENS, tokens + deposit));
+    }
+
+    private boolean withdrawRetryToken() {
+        long remaining = retryTokens.getAndUpdate(tokens -> tokens >= TOKEN ? tokens - TOKEN : tokens);
+        return remaining >= TOKEN;
+    }
+
+    private boolean acquireBulkhead() throws InterruptedIOException {
+        try {
+            if (!bulkhead.tryAcquire(spec.acquireTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + destination + " bulkhead");
+        }
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        bulkhead.release();
+    }
+
+    /** Keeps the bulkhead permit until the caller closes the body (upgrades release immediately). */
+    private Response releaseOnClose(Response response) {
+        ResponseBody body = response.body();
+        if (body == null || response.code() == 101) {
+            release();
+            return response;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        ForwardingSource source = new ForwardingSource(body.source()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        release();
+                    }
+                }
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+                .build();
+    }
+
+    private OutboundCallRejectedException reject(String reason) {
+        if (meterRegistry != null) {
+            Counter.builder("outbound.http.rejections")
+                    .tag("destination", destination)
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+        }
+        return new OutboundCallRejectedException(destination, reason);
+    }
+
+    private static String outcome(int status) {
+        if (status >= 500) {
+            return "SERVER_ERROR";
+        }
+        return status >= 400 ? "CLIENT_ERROR" : "SUCCESS";
+    }
+
+    private void record(long startNanos, String outcome) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Timer.builder("outbound.http.requests")
+                .tag("destination", destination)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanoClock.getAsLong() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** A call admitted by {@link #admit}; its outcome feeds the circuit like an intercepted call's. */
+    final class Permit implements AutoCloseable {
+        private final boolean trial;
+        private final long startNanos;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(boolean trial, long startNanos) {
+            this.trial = trial;
+            this.startNanos = startNanos;
+        }
+
+        /** The destination answered; 5xx counts as a failure. */
+        void responded(int status) {
+            if (recorded.compareAndSet(false, true)) {
+                record(startNanos, outcome(status));
+                if (status >= 500) {
+                    onFailure();
+                } else {
+                    onSuccess();
+                }
+            }
+        }
+
+        /** The call failed; ignored once a response has been recorded. */
+        void failed() {
+            if (recorded.compareAndSet(false, true)) {
+                record(startNanos, "IO_ERROR");
+                onFailure();
+            }
+        }
+
+        /** Frees the bulkhead slot. A call cancelled before any response counts as neither outcome. */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (recorded.compareAndSet(false, true) && trial) {
+                trialInFlight.set(false);
+            }
+            release();
+        }
+    }
+}
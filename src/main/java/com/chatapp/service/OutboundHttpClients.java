@@ -0,0 +1,177 @@
+package com.chatapp.service;
+
+import com.chatapp.config.OutboundHttpProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of outbound HTTP clients. Every destination shares one connection
+ * pool and dispatcher, and each gets its own timeouts plus a guard that applies a
+ * concurrency bulkhead, a circuit breaker and budgeted, jittered retries, with
+ * per-destination metrics under {@code outbound.http.*}.
+ *
+ * <p>Callers declare their defaults with a {@link Spec}; {@code outbound-http.destinations.<name>}
+ * overrides them. The first caller to request a destination fixes its spec.
+ * Callers that need extra settings (custom DNS, redirects) should call
+ * {@code newBuilder()} on the returned client, which keeps the shared pool and the guard.
+ */
+@Component
+@Slf4j
+public class OutboundHttpClients {
+
+    private final OutboundHttpProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+    private final OkHttpClient root;
+    private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<>();
+
+    public OutboundHttpClients(OutboundHttpProperties properties) {
+        this(properties, (MeterRegistry) null, System::nanoTime);
+    }
+
+    @Autowired
+    public OutboundHttpClients(OutboundHttpProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        this(properties, meterRegistry.getIfAvailable(), System::nanoTime);
+    }
+
+    OutboundHttpClients(OutboundHttpProperties properties, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(1, properties.getMaxRequests()));
+        dispatcher.setMaxRequestsPerHost(Math.max(1, properties.getMaxRequestsPerHost()));
+        this.root = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(Math.max(0, properties.getMaxIdleConnections()),
+                        Math.max(1L, properties.getKeepAliveSeconds()), TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /** Private registry for code constructed outside Spring (tests, convenience constructors). */
+    public static OutboundHttpClients standalone() {
+        return new OutboundHttpClients(new OutboundHttpProperties());
+    }
+
+    public OkHttpClient client(String destination, Spec defaults) {
+        return destinations.computeIfAbsent(destination, name -> create(name, defaults)).client();
+    }
+
+    /** The guard of a destination, for calls that do not go through its OkHttp client. */
+    OutboundDestinationGuard guard(String destination, Spec defaults) {
+        return destinations.computeIfAbsent(destination, name -> create(name, defaults)).guard();
+    }
+
+    /** Current circuit state of a destination, or {@code CLOSED} if it was never used. */
+    public CircuitState circuitState(String destination) {
+        Destination entry = destinations.get(destination);
+        return entry == null ? CircuitState.CLOSED : entry.guard().state();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        root.dispatcher().executorService().shutdown();
+        root.connectionPool().evictAll();
+    }
+
+    private Destination create(String name, Spec defaults) {
+        Spec spec = defaults.overriddenBy(properties.getDestinations().get(name));
+        OutboundDestinationGuard guard = new OutboundDestinationGuard(name, spec, meterRegistry, nanoClock);
+        OkHttpClient.Builder builder = root.newBuilder()
+                .connectTimeout(spec.connectTimeout())
+                .readTimeout(spec.readTimeout())
+                .writeTimeout(spec.writeTimeout())
+                .callTimeout(spec.callTimeout())
+                .addInterceptor(guard);
+        log.debug("Outbound destination {} registered: {}", name, spec);
+        return new Destination(builder.build(), guard);
+    }
+
+    public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    private record Destination(OkHttpClient client, OutboundDestinationGuard guard) {
+    }
+
+    /**
+     * Per-destination policy. {@code failureThreshold <= 0} disables the circuit
+     * breaker (used for user-supplied endpoints, where one bad URL must not trip
+     * the breaker for everyone); {@code callTimeout} of zero means no overall limit.
+     */
+    public record Spec(Duration connectTimeout,
+                       Duration readTimeout,
+                       Duration writeTimeout,
+                       Duration callTimeout,
+                       int maxConcurrent,
+                       Duration acquireTimeout,
+                       int failureThreshold,
+                       Duration openDuration,
+                       int maxRetries,
+                       double retryBudgetRatio,
+                       Duration retryBackoff) {
+
+        public static Spec timeouts(Duration connect, Duration read, Duration write) {
+            return new Spec(connect, read, write, Duration.ZERO, 32, Duration.ofMillis(250),
+                    5, Duration.ofSeconds(30), 2, 0.2, Duration.ofMillis(200));
+        }
+
+        public Spec withCallTimeout(Duration value) {
+            return new Spec(connectTimeout, readTimeout, writeTimeout, value, maxConcurrent, acquireTimeout,
+                    failureThreshold, openDuration, maxRetries, retryBudgetRatio, retryBackoff);
+        }
+
+        public Spec withMaxConcurrent(int value) {
+            return new Spec(connectTimeout, readTimeout, writeTimeout, callTimeout, value, acquireTimeout,
+                    failureThreshold, openDuration, maxRetries, retryBudgetRatio, retryBackoff);
+        }
+
+        public Spec withAcquireTimeout(Duration value) {
+            return new Spec(connectTimeout, readTimeout, writeTimeout, callTimeout, maxConcurrent, value,
+                    failureThreshold, openDuration, maxRetries, retryBudgetRatio, retryBackoff);
+        }
+
+        public Spec withCircuitBreaker(int threshold, Duration open) {
+            return new Spec(connectTimeout, readTimeout, writeTimeout, callTimeout, maxConcurrent, acquireTimeout,
+                    threshold, open, maxRetries, retryBudgetRatio, retryBackoff);
+        }
+
+        public Spec withMaxRetries(int value) {
+            return new Spec(connectTimeout, readTimeout, writeTimeout, callTimeout, maxConcurrent, acquireTimeout,
+                    failureThreshold, openDuration, value, retryBudgetRatio, retryBackoff);
+        }
+
+        Spec overriddenBy(OutboundHttpProperties.Destination o) {
+            if (o == null) {
+                return this;
+            }
+            return new Spec(
+                    millis(o.getConnectTimeoutMs(), connectTimeout),
+                    millis(o.getReadTimeoutMs(), readTimeout),
+                    millis(o.getWriteTimeoutMs(), writeTimeout),
+                    millis(o.getCallTimeoutMs(), callTimeout),
+                    o.getMaxConcurrent() != null ? o.getMaxConcurrent() : maxConcurrent,
+                    millis(o.getAcquireTimeoutMs(), acquireTimeout),
+                    o.getFailureThreshold() != null ? o.getFailureThreshold() : failureThreshold,
+                    millis(o.getOpenDurationMs(), openDuration),
+                    o.getMaxRetries() != null ? o.getMaxRetries() : maxRetries,
+                    o.getRetryBudgetRatio() != null ? o.getRetryBudgetRatio() : retryBudgetRatio,
+                    millis(o.getRetryBackoffMs(), retryBackoff));
+        }
+
+        private static Duration millis(Long override, Duration fallback) {
+            return override != null ? Duration.ofMillis(override) : fallback;
+        }
+    }
+}
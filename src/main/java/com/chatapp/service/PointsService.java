@@ -24,6 +24,7 @@ import java.util.Objects;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 @Service
@@ -37,7 +38,7 @@ public class PointsService {
     private final FeatureCostRepository featureCostRepository;
     private final PointsLedgerRepository ledgerRepository;
     private final TransactionTemplate transactionTemplate;
-    private final Object[] userPointLocks = createUserPointLocks();
+    private final ReentrantLock[] userPointLocks = createUserPointLocks();
 
     public PointsDto.DebitResult debit(Long userId, String featureKey, String refId) {
         return withUserPointLock(userId, () -> inTransaction(() -> debitInTransaction(userId, featureKey, refId)));
@@ -316,8 +317,14 @@ public class PointsService {
     }
 
     private <T> T withUserPointLock(Long userId, Supplier<T> action) {
-        synchronized (lockForUser(userId)) {
+        // A ReentrantLock rather than a monitor: the action waits on the database, and a
+        // virtual thread blocked inside synchronized would pin its carrier thread.
+        ReentrantLock lock = lockForUser(userId);
+        lock.lock();
+        try {
             return action.get();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -325,15 +332,15 @@ public class PointsService {
         return transactionTemplate.execute(status -> action.get());
     }
 
-    private Object lockForUser(Long userId) {
+    private ReentrantLock lockForUser(Long userId) {
         Objects.requireNonNull(userId, "userId");
         return userPointLocks[Math.floorMod(userId.hashCode(), userPointLocks.length)];
     }
 
-    private static Object[] createUserPointLocks() {
-        Object[] locks = new Object[64];
+    private static ReentrantLock[] createUserPointLocks() {
+        ReentrantLock[] locks = new ReentrantLock[64];
         for (int i = 0; i < locks.length; i++) {
-            locks[i] = new Object();
+            locks[i] = new ReentrantLock();
         }
         return locks;
     }
@@ -0,0 +1,83 @@
+package com.chatapp.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@code system_prompt_template} parsed once into literal and {@code {{token}}}
+ * segments, split where the first turn-volatile token starts so the part before it
+ * stays byte-stable across turns. Rendering is a single non-recursive pass: a value
+ * that itself contains {@code {{task}}} is never re-expanded, and unknown tokens are
+ * kept verbatim. Each token's value is computed at most once per render, and only
+ * when the template uses it.
+ */
+final class PromptTemplate {
+
+    private static final Pattern TOKEN = Pattern.compile("\\{\\{(\\w+)\\}\\}");
+
+    private final List<Segment> stable;
+    private final List<Segment> volatileSegments;
+
+    private PromptTemplate(List<Segment> stable, List<Segment> volatileSegments) {
+        this.stable = stable;
+        this.volatileSegments = volatileSegments;
+    }
+
+    static PromptTemplate compile(String template, Set<String> volatileTokens) {
+        List<Segment> stable = new ArrayList<>();
+        List<Segment> volatileSegments = new ArrayList<>();
+        List<Segment> target = stable;
+        Matcher matcher = TOKEN.matcher(template);
+        int last = 0;
+        while (matcher.find()) {
+            if (target == stable && volatileTokens.contains(matcher.group(1))) {
+                addLiteral(stable, template.substring(last, matcher.start()));
+                last = matcher.start();
+                target = volatileSegments;
+            }
+            addLiteral(target, template.substring(last, matcher.start()));
+            target.add(new Segment(null, matcher.group(1)));
+            last = matcher.end();
+        }
+        addLiteral(target, template.substring(last));
+        return new PromptTemplate(Collections.unmodifiableList(stable), Collections.unmodifiableList(volatileSegments));
+    }
+
+    /** Renders the byte-stable head and the volatile tail; {@code values} returns null for unknown tokens. */
+    AgentContextBuilder.SystemPrompt render(String stableHead, Function<String, String> values) {
+        Map<String, String> resolved = new HashMap<>();
+        Function<String, String> memoized = token -> resolved.computeIfAbsent(token, values);
+        return new AgentContextBuilder.SystemPrompt(
+                stableHead + render(stable, memoized),
+                render(volatileSegments, memoized));
+    }
+
+    private static String render(List<Segment> segments, Function<String, String> values) {
+        StringBuilder out = new StringBuilder();
+        for (Segment segment : segments) {
+            if (segment.literal != null) {
+                out.append(segment.literal);
+                continue;
+            }
+            String value = values.apply(segment.token);
+            out.append(value != null ? value : "{{" + segment.token + "}}");
+        }
+        return out.toString();
+    }
+
+    private static void addLiteral(List<Segment> segments, String literal) {
+        if (!literal.isEmpty()) {
+            segments.add(new Segment(literal, null));
+        }
+    }
+
+    private record Segment(String literal, String token) {
+    }
+}
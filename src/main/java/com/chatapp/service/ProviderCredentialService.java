@@ -7,10 +7,13 @@ import com.chatapp.entity.BotConfig;
 import com.chatapp.entity.User;
 import com.chatapp.repository.ProviderCredentialRepository;
 import com.chatapp.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.util.List;
 
 @Service
@@ -22,6 +25,16 @@ public class ProviderCredentialService {
     private final CredentialCryptoService cryptoService;
     private final OutboundUrlPolicy outboundUrlPolicy;
 
+    /**
+     * Plaintext keys by ciphertext, so LLM calls skip AES on every request. Keyed by
+     * the stored ciphertext, a rotated secret is simply a miss; the old entry is
+     * dropped on rotation or delete and otherwise ages out.
+     */
+    private final Cache<String, String> decrypted = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterAccess(Duration.ofHours(1))
+            .build();
+
     @Transactional
     public ProviderCredentialDto.Response create(Long ownerId, ProviderCredentialDto.CreateRequest request) {
         User owner = userRepository.findById(ownerId)
@@ -94,6 +107,7 @@ public class ProviderCredentialService {
     public void delete(Long ownerId, Long credentialId) {
         ProviderCredential credential = getOwnedCredential(ownerId, credentialId);
         credentialRepository.delete(credential);
+        forget(credential.getEncryptedSecret());
     }
 
     @Transactional(readOnly = true)
@@ -113,7 +127,7 @@ public class ProviderCredentialService {
         if (credential == null || Boolean.FALSE.equals(credential.getIsActive())) {
             return null;
         }
-        return cryptoService.decryptPossiblyLegacy(credential.getEncryptedSecret());
+        return decryptCached(credential.getEncryptedSecret());
     }
 
     public String encryptLegacyBotKey(String apiKey) {
@@ -121,7 +135,20 @@ public class ProviderCredentialService {
     }
 
     public String decryptLegacyBotKey(String encryptedOrLegacy) {
-        return cryptoService.decryptPossiblyLegacy(encryptedOrLegacy);
+        return decryptCached(encryptedOrLegacy);
+    }
+
+    private String decryptCached(String ciphertext) {
+        if (ciphertext == null || ciphertext.isEmpty()) {
+            return cryptoService.decryptPossiblyLegacy(ciphertext);
+        }
+        return decrypted.get(ciphertext, cryptoService::decryptPossiblyLegacy);
+    }
+
+    private void forget(String ciphertext) {
+        if (ciphertext != null) {
+            decrypted.invalidate(ciphertext);
+        }
     }
 
     public boolean isEncrypted(String value) {
@@ -165,6 +192,7 @@ public class ProviderCredentialService {
     }
 
     private void setSecret(ProviderCredential credential, String secret) {
+        forget(credential.getEncryptedSecret());
         credential.setEncryptedSecret(cryptoService.encrypt(secret));
         credential.setSecretFingerprint(cryptoService.fingerprint(secret));
         credential.setSecretLast4(cryptoService.last4(secret));
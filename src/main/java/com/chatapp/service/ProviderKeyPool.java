@@ -0,0 +1,563 @@
+package com.chatapp.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load-balances LLM calls over several server-configured keys of one provider.
+ *
+ * <p>A provider key setting may list several keys, comma separated, each optionally
+ * weighted with a {@code *N} suffix ({@code sk-a,sk-b*2}). {@link #select(String)}
+ * hands out the key with the fewest in-flight calls per unit of weight, skipping
+ * keys that are cooling down; {@link #execute} tracks in-flight calls until the
+ * response body is closed, cools a key down when it returns 429 (for Retry-After,
+ * or {@code llm.key-pool.cooldown-seconds}) and retries on the next available key.
+ *
+ * <p>With {@code llm.key-pool.hedge-percentile} set (e.g. {@code 0.95}), a blocking
+ * call that has not produced response headers within that percentile of the pool's
+ * recent latency is duplicated on a second key; the first response wins and the
+ * other call is cancelled. Hedging is off by default because the losing request may
+ * still be billed. Single keys (including vault credentials) pass straight through.
+ *
+ * <p>The reactive transport cannot hand its calls to {@link #execute}; it uses the
+ * package-private {@link #track}, {@link #failOver} and {@link #hedgeKey} hooks for
+ * the same bookkeeping.
+ */
+@Component
+@Slf4j
+public class ProviderKeyPool {
+
+    private static final Pattern WEIGHTED_KEY = Pattern.compile("^(.+)\\*(\\d{1,3})$");
+    private static final String BEARER = "Bearer ";
+    static final int LATENCY_WINDOW = 256;
+    static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final long defaultCooldownNanos;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayNanos;
+    private final ScheduledExecutorService timer;
+    private final LongSupplier nanoClock;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final Map<String, KeyState> keys = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProviderKeyPool(@Value("${llm.key-pool.cooldown-seconds:30}") long cooldownSeconds,
+                           @Value("${llm.key-pool.hedge-percentile:0}") double hedgePercentile,
+                           @Value("${llm.key-pool.hedge-min-delay-ms:2000}") long hedgeMinDelayMs) {
+        this(cooldownSeconds, hedgePercentile, hedgeMinDelayMs, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-key-hedge");
+            thread.setDaemon(true);
+            return thread;
+        }), System::nanoTime);
+    }
+
+    ProviderKeyPool(long cooldownSeconds, double hedgePercentile, long hedgeMinDelayMs,
+                    ScheduledExecutorService timer, LongSupplier nanoClock) {
+        this.defaultCooldownNanos = TimeUnit.SECONDS.toNanos(Math.max(1, cooldownSeconds));
+        this.hedgePercentile = hedgePercentile > 0 && hedgePercentile < 1 ? hedgePercentile : 0;
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, hedgeMinDelayMs));
+        this.timer = timer;
+        this.nanoClock = nanoClock;
+    }
+
+    /** Standalone instance without hedging, for callers constructed outside Spring. */
+    public static ProviderKeyPool standalone() {
+        return new ProviderKeyPool(30, 0, 0);
+    }
+
+    /**
+     * Picks a key from a configured key list. A single key is returned unchanged;
+     * when every key of a pool is cooling down, the one that recovers first is used.
+     */
+    public String select(String configuredKeys) {
+        if (configuredKeys == null || configuredKeys.indexOf(',') < 0) {
+            return configuredKeys;
+        }
+        Pool pool = pools.computeIfAbsent(configuredKeys, this::parse);
+        KeyState key = pool.pick(null, nanoClock.getAsLong());
+        return key != null ? key.secret : null;
+    }
+
+    /**
+     * Executes a provider call, balancing it over the pool its key belongs to.
+     * {@code hedgeable} must be false for streaming calls: their headers arrive
+     * before the slow part, so their latency says nothing about the blocking ones.
+     */
+    public Response execute(OkHttpClient client, Request request, boolean hedgeable) throws IOException {
+        KeyState key = keyOf(request);
+        if (key == null) {
+            return client.newCall(request).execute();
+        }
+        Request current = request;
+        for (int attempt = 1; ; attempt++) {
+            Response response = hedgeable && hedgePercentile > 0
+                    ? sendHedged(client, current, key)
+                    : send(client.newCall(current), key, hedgeable);
+            if (response.code() != 429) {
+                return response;
+            }
+            KeyState next = failOver(key, response.header("Retry-After"), attempt);
+            if (next == null) {
+                return response;
+            }
+            response.close();
+            current = withKey(current, next.secret);
+            key = next;
+        }
+    }
+
+    /**
+     * Counts a call made outside {@link #execute} (the reactive transport) as in flight
+     * on its key until the returned callback runs. A no-op for keys that are not pooled.
+     */
+    Runnable track(String secret) {
+        KeyState key = secret != null ? keys.get(secret) : null;
+        if (key == null) {
+            return () -> {
+            };
+        }
+        key.inFlight.incrementAndGet();
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                key.inFlight.decrementAndGet();
+            }
+        };
+    }
+
+    /** Records how long a call on this key took to answer, for the hedge delay. */
+    void recordLatency(String secret, long nanos) {
+        KeyState key = secret != null ? keys.get(secret) : null;
+        if (key != null) {
+            key.pool.recordLatency(nanos);
+        }
+    }
+
+    /**
+     * After a 429 on the {@code attempt}-th key tried: cools this key down and returns
+     * the key to try next, or null when the call should give up with the 429.
+     */
+    String failOver(String secret, String retryAfter, int attempt) {
+        KeyState key = secret != null ? keys.get(secret) : null;
+        if (key == null) {
+            return null;
+        }
+        KeyState next = failOver(key, retryAfter, attempt);
+        return next != null ? next.secret : null;
+    }
+
+    /** Delay after which a call on this key should be hedged, or 0 for none. */
+    long hedgeDelayNanos(String secret) {
+        KeyState key = secret != null ? keys.get(secret) : null;
+        if (key == null || hedgePercentile <= 0) {
+            return 0;
+        }
+        return key.pool.hedgeDelayNanos(hedgePercentile, hedgeMinDelayNanos);
+    }
+
+    /** Another key of the same pool to hedge onto, or null if none is ready. */
+    String hedgeKey(String secret) {
+        KeyState key = secret != null ? keys.get(secret) : null;
+        KeyState alternate = key != null ? alternate(key) : null;
+        return alternate != null ? alternate.secret : null;
+    }
+
+    /** The key a header map authenticates with, read the way {@link #execute} reads a request. */
+    static String keyIn(Map<String, String> headers) {
+        String secret = headers.get("x-api-key");
+        if (secret != null) {
+            return secret;
+        }
+        String authorization = headers.get("Authorization");
+        return authorization != null && authorization.startsWith(BEARER)
+                ? authorization.substring(BEARER.length())
+                : null;
+    }
+
+    /** Copy of {@code headers} authenticating with {@code secret} instead. */
+    static Map<String, String> withKey(Map<String, String> headers, String secret) {
+        if (secret == null || secret.equals(keyIn(headers))) {
+            return headers;
+        }
+        Map<String, String> swapped = new LinkedHashMap<>(headers);
+        if (headers.containsKey("x-api-key")) {
+            swapped.put("x-api-key", secret);
+        } else {
+            swapped.put("Authorization", BEARER + secret);
+        }
+        return swapped;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private Pool parse(String configuredKeys) {
+        List<KeyState> parsed = new ArrayList<>();
+        Pool pool = new Pool(parsed);
+        for (String entry : configuredKeys.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int weight = 1;
+            Matcher matcher = WEIGHTED_KEY.matcher(trimmed);
+            if (matcher.matches()) {
+                trimmed = matcher.group(1).trim();
+                weight = Math.max(1, Integer.parseInt(matcher.group(2)));
+            }
+            KeyState key = new KeyState(pool, trimmed, weight);
+            parsed.add(key);
+            keys.putIfAbsent(trimmed, key);
+        }
+        log.info("LLM 密钥池已加载 {} 个密钥", parsed.size());
+        return pool;
+    }
+
+    private KeyState keyOf(Request request) {
+        if (keys.isEmpty()) {
+            return null;
+        }
+        String secret = request.header("x-api-key");
+        if (secret == null) {
+            String authorization = request.header("Authorization");
+            if (authorization != null && authorization.startsWith(BEARER)) {
+                secret = authorization.substring(BEARER.length());
+            }
+        }
+        return secret != null ? keys.get(secret) : null;
+    }
+
+    private static Request withKey(Request request, String secret) {
+        Request.Builder builder = request.newBuilder();
+        if (request.header("x-api-key") != null) {
+            builder.header("x-api-key", secret);
+        } else {
+            builder.header("Authorization", BEARER + secret);
+        }
+        return builder.build();
+    }
+
+    private KeyState failOver(KeyState key, String retryAfter, int attempt) {
+        long cooldownNanos = coolDown(key, retryAfter);
+        KeyState next = key.pool.pick(key, nanoClock.getAsLong());
+        if (next == null || next.isCoolingDown(nanoClock.getAsLong()) || attempt >= key.pool.keys.size()) {
+            return null;
+        }
+        log.warn("LLM 密钥 {} 被限流(429)，冷却 {} 秒，改用密钥 {}",
+                key.label, TimeUnit.NANOSECONDS.toSeconds(cooldownNanos), next.label);
+        return next;
+    }
+
+    private KeyState alternate(KeyState key) {
+        KeyState alternate = key.pool.pick(key, nanoClock.getAsLong());
+        if (alternate == null || alternate == key || alternate.isCoolingDown(nanoClock.getAsLong())) {
+            return null;
+        }
+        return alternate;
+    }
+
+    private long coolDown(KeyState key, String retryAfter) {
+        long cooldownNanos = defaultCooldownNanos;
+        if (retryAfter != null) {
+            try {
+                cooldownNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException ignored) {
+                // HTTP-date form: keep the default.
+            }
+        }
+        key.coolUntilNanos = nanoClock.getAsLong() + cooldownNanos;
+        return cooldownNanos;
+    }
+
+    private Response send(Call call, KeyState key, boolean recordLatency) throws IOException {
+        key.inFlight.incrementAndGet();
+        long start = nanoClock.getAsLong();
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException | RuntimeException e) {
+            key.inFlight.decrementAndGet();
+            throw e;
+        }
+        if (recordLatency && response.code() != 429) {
+            key.pool.recordLatency(nanoClock.getAsLong() - start);
+        }
+        return releaseOnClose(response, key);
+    }
+
+    /**
+     * Runs the call on the caller's thread; if it has no headers after the hedge
+     * delay, the same request goes out on another key through the dispatcher and
+     * whichever answers first wins.
+     */
+    private Response sendHedged(OkHttpClient client, Request request, KeyState key) throws IOException {
+        long delayNanos = key.pool.hedgeDelayNanos(hedgePercentile, hedgeMinDelayNanos);
+        if (delayNanos <= 0) {
+            return send(client.newCall(request), key, true);
+        }
+        Call primary = client.newCall(request);
+        Hedge hedge = new Hedge(primary);
+        ScheduledFuture<?> trigger = timer.schedule(() -> launchHedge(client, request, key, hedge),
+                delayNanos, TimeUnit.NANOSECONDS);
+        Response response;
+        try {
+            response = send(primary, key, true);
+        } catch (IOException e) {
+            trigger.cancel(false);
+            if (!hedge.primaryFailed()) {
+                throw e;
+            }
+            return hedge.await(e);
+        }
+        trigger.cancel(false);
+        if (hedge.primaryAnswered()) {
+            return response;
+        }
+        response.close();
+        return hedge.await(null);
+    }
+
+    private void launchHedge(OkHttpClient client, Request request, KeyState key, Hedge hedge) {
+        KeyState alternate = alternate(key);
+        if (alternate == null) {
+            return;
+        }
+        Call secondary = client.newCall(withKey(request, alternate.secret));
+        if (!hedge.launch(secondary)) {
+            return;
+        }
+        log.debug("Hedging slow LLM call from key {} to key {}", key.label, alternate.label);
+        alternate.inFlight.incrementAndGet();
+        secondary.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                alternate.inFlight.decrementAndGet();
+                hedge.secondaryFailed(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                Response tracked = releaseOnClose(response, alternate);
+                if (tracked.code() == 429) {
+                    coolDown(alternate, tracked.header("Retry-After"));
+                    tracked.close();
+                    hedge.secondaryFailed(new IOException("hedged call rate limited"));
+                    return;
+                }
+                hedge.secondaryAnswered(tracked);
+            }
+        });
+    }
+
+    private Response releaseOnClose(Response response, KeyState key) {
+        ResponseBody body = response.body();
+        if (body == null) {
+            key.inFlight.decrementAndGet();
+            return response;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        ForwardingSource source = new ForwardingSource(body.source()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        key.inFlight.decrementAndGet();
+                    }
+                }
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+                .build();
+    }
+
+    int inFlight(String secret) {
+        KeyState key = keys.get(secret);
+        return key != null ? key.inFlight.get() : 0;
+    }
+
+    static final class Pool {
+        private final List<KeyState> keys;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int samples;
+
+        private Pool(List<KeyState> keys) {
+            this.keys = keys;
+        }
+
+        /**
+         * Least in-flight per weight among keys that are not cooling down, starting at a
+         * rotating offset so ties spread evenly. Falls back to the key that recovers first.
+         */
+        KeyState pick(KeyState exclude, long nowNanos) {
+            int size = keys.size();
+            if (size == 0) {
+                return null;
+            }
+            int start = Math.floorMod(cursor.getAndIncrement(), size);
+            KeyState best = null;
+            double bestLoad = Double.MAX_VALUE;
+            KeyState soonest = null;
+            for (int i = 0; i < size; i++) {
+                KeyState key = keys.get((start + i) % size);
+                if (key == exclude) {
+                    continue;
+                }
+                if (key.isCoolingDown(nowNanos)) {
+                    if (soonest == null || key.coolUntilNanos < soonest.coolUntilNanos) {
+                        soonest = key;
+                    }
+                    continue;
+                }
+                double load = (key.inFlight.get() + 1) / (double) key.weight;
+                if (load < bestLoad) {
+                    best = key;
+                    bestLoad = load;
+                }
+            }
+            return best != null ? best : soonest;
+        }
+
+        synchronized void recordLatency(long nanos) {
+            latencies[samples++ % LATENCY_WINDOW] = nanos;
+        }
+
+        /** Hedge delay for this pool, or 0 when it has a single key or too few samples. */
+        synchronized long hedgeDelayNanos(double percentile, long floorNanos) {
+            int count = Math.min(samples, LATENCY_WINDOW);
+            if (keys.size() < 2 || count < MIN_HEDGE_SAMPLES) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = Math.min(count - 1, (int) Math.ceil(percentile * count) - 1);
+            return Math.max(floorNanos, sorted[Math.max(0, index)]);
+        }
+    }
+
+    private static final class KeyState {
+        private final Pool pool;
+        private final String secret;
+        private final String label;
+        private final int weight;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long coolUntilNanos = Long.MIN_VALUE;
+
+        private KeyState(Pool pool, String secret, int weight) {
+            this.pool = pool;
+            this.secret = secret;
+            this.label = "…" + secret.substring(Math.max(0, secret.length() - 4));
+            this.weight = weight;
+        }
+
+        boolean isCoolingDown(long nowNanos) {
+            return coolUntilNanos != Long.MIN_VALUE && nowNanos - coolUntilNanos < 0;
+        }
+    }
+
+    /** First-answer-wins coordination between a blocking call and its hedge. */
+    private static final class Hedge {
+        private final Call primary;
+        private final CompletableFuture<Response> secondaryResult = new CompletableFuture<>();
+        private Call secondary;
+        private boolean decided;
+
+        private Hedge(Call primary) {
+            this.primary = primary;
+        }
+
+        synchronized boolean launch(Call call) {
+            if (decided) {
+                return false;
+            }
+            secondary = call;
+            return true;
+        }
+
+        /** The primary got headers; true if it won (and the hedge, if any, is cancelled). */
+        synchronized boolean primaryAnswered() {
+            if (decided) {
+                return false;
+            }
+            decided = true;
+            if (secondary != null) {
+                secondary.cancel();
+            }
+            return true;
+        }
+
+        /** The primary failed or was cancelled; true if a hedge is in flight to wait for. */
+        synchronized boolean primaryFailed() {
+            if (secondary == null) {
+                decided = true;
+                return false;
+            }
+            return true;
+        }
+
+        void secondaryAnswered(Response response) {
+            synchronized (this) {
+                if (decided) {
+                    response.close();
+                    return;
+                }
+                decided = true;
+            }
+            secondaryResult.complete(response);
+            primary.cancel();
+        }
+
+        void secondaryFailed(IOException e) {
+            secondaryResult.completeExceptionally(e);
+        }
+
+        Response await(IOException primaryFailure) throws IOException {
+            try {
+                return secondaryResult.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for hedged LLM call", e);
+            } catch (ExecutionException e) {
+                if (primaryFailure != null) {
+                    throw primaryFailure;
+                }
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+    }
+}
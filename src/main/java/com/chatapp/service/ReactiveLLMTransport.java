@@ -0,0 +1,268 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Non-blocking LLM transport on {@link WebClient} (Reactor Netty), enabled per provider
+ * with {@code llm.reactive.providers}. An in-flight generation holds a pooled connection
+ * and a little buffer instead of a parked thread, so thousands of them share the Netty
+ * event loops. Request bodies are encoded with the same {@link LLMJson.Writer}s as the
+ * OkHttp path; SSE streams are demand-driven, so a slow subscriber stops reads from the
+ * socket, and cancelling a subscription closes the connection.
+ *
+ * <p>Calls pass the same resilience layers as the OkHttp path: each attempt is admitted
+ * by the destination's {@link OutboundDestinationGuard} (bulkhead, circuit breaker,
+ * retry of refused connections within the retry budget), and {@link ProviderKeyPool}
+ * counts it against its key, fails over to the next key on 429 and hedges slow
+ * non-streaming calls. Nothing blocks: a full bulkhead rejects the call instead of
+ * waiting for a slot, and backoffs are timer delays.
+ */
+@Component
+@Slf4j
+public class ReactiveLLMTransport {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(120);
+    private static final int INITIAL_BODY_BUFFER = 8 * 1024;
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE =
+            new ParameterizedTypeReference<>() {
+            };
+
+    private final ObjectMapper objectMapper;
+    private final ProviderKeyPool keyPool;
+    private final Set<BotConfig.LLMProvider> providers;
+    private final ConnectionProvider connections;
+    private final WebClient webClient;
+
+    public ReactiveLLMTransport(ObjectMapper objectMapper, String providers, int maxConnections) {
+        this(objectMapper, ProviderKeyPool.standalone(), providers, maxConnections);
+    }
+
+    @Autowired
+    public ReactiveLLMTransport(ObjectMapper objectMapper, ProviderKeyPool keyPool,
+                                @Value("${llm.reactive.providers:}") String providers,
+                                @Value("${llm.reactive.max-connections:500}") int maxConnections) {
+        this.objectMapper = objectMapper;
+        this.keyPool = keyPool;
+        this.providers = parseProviders(providers);
+        if (this.providers.isEmpty()) {
+            this.connections = null;
+            this.webClient = null;
+            return;
+        }
+        this.connections = ConnectionProvider.builder("llm-reactive")
+                .maxConnections(Math.max(1, maxConnections))
+                .pendingAcquireMaxCount(-1)
+                .maxIdleTime(Duration.ofSeconds(60))
+                .build();
+        HttpClient httpClient = HttpClient.create(connections)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) CONNECT_TIMEOUT.toMillis())
+                .responseTimeout(RESPONSE_TIMEOUT);
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+        log.info("LLM 响应式传输已启用: {}", this.providers);
+    }
+
+    /** A transport that handles no provider, for callers constructed outside Spring. */
+    static ReactiveLLMTransport disabled(ObjectMapper objectMapper) {
+        return new ReactiveLLMTransport(objectMapper, "", 0);
+    }
+
+    public boolean handles(BotConfig.LLMProvider provider) {
+        return provider != null && providers.contains(provider);
+    }
+
+    /** POSTs {@code body} and parses the JSON response, keeping only {@code fields}. */
+    Mono<JsonNode> post(OutboundDestinationGuard guard, String url, Map<String, String> headers,
+                        LLMJson.Writer body, Set<String> fields) {
+        Call<JsonNode> call = new Call<>(guard, url, headers, body, MediaType.APPLICATION_JSON, true,
+                response -> DataBufferUtils.join(response.bodyToFlux(DataBuffer.class))
+                        .map(buffer -> {
+                            try (InputStream in = buffer.asInputStream(true)) {
+                                return LLMJson.readFields(objectMapper, in, fields);
+                            } catch (IOException e) {
+                                throw new RuntimeException("LLM服务调用失败", e);
+                            }
+                        })
+                        .flux());
+        String key = ProviderKeyPool.keyIn(headers);
+        Mono<JsonNode> primary = send(call, key, 1, 0).next();
+        long hedgeDelayNanos = keyPool.hedgeDelayNanos(key);
+        if (hedgeDelayNanos <= 0) {
+            return primary;
+        }
+        // First signal wins and cancels the other; a failed hedge never signals, so
+        // the primary's own outcome stands.
+        Mono<JsonNode> hedge = Mono.delay(Duration.ofNanos(hedgeDelayNanos))
+                .flatMap(tick -> {
+                    String alternate = keyPool.hedgeKey(key);
+                    if (alternate == null) {
+                        return Mono.<JsonNode>never();
+                    }
+                    log.debug("Hedging slow reactive LLM call onto another key");
+                    return send(call, alternate, 1, 0).next().onErrorResume(e -> Mono.never());
+                });
+        return Mono.firstWithSignal(primary, hedge);
+    }
+
+    /** POSTs {@code body} and emits the {@code data:} payload of each SSE event as it arrives. */
+    Flux<String> postForEvents(OutboundDestinationGuard guard, String url, Map<String, String> headers,
+                               LLMJson.Writer body) {
+        Call<String> call = new Call<>(guard, url, headers, body, MediaType.TEXT_EVENT_STREAM, false,
+                response -> response.bodyToFlux(SSE)
+                        .mapNotNull(ServerSentEvent::data)
+                        .map(String::trim)
+                        .filter(data -> !data.isEmpty()));
+        return send(call, ProviderKeyPool.keyIn(headers), 1, 0);
+    }
+
+    /**
+     * One attempt on {@code key}, holding a guard permit until the response is consumed
+     * (or the subscription cancelled). A 429 moves on to the next pooled key and a
+     * refused connection is retried after the guard's backoff.
+     */
+    private <T> Flux<T> send(Call<T> call, String key, int attempt, int retries) {
+        return Flux.using(() -> call.guard().admit(attempt > 1 || retries > 0), permit -> {
+                    Runnable untrack = keyPool.track(key);
+                    long start = System.nanoTime();
+                    return request(call.url(), ProviderKeyPool.withKey(call.headers(), key), call.body(), call.accept())
+                            .exchangeToFlux(response -> {
+                                int status = response.statusCode().value();
+                                permit.responded(status);
+                                if (status == 429) {
+                                    String next = keyPool.failOver(key,
+                                            response.headers().asHttpHeaders().getFirst("Retry-After"), attempt);
+                                    if (next != null) {
+                                        return response.releaseBody().thenMany(Flux.<T>error(new FailedOver(next)));
+                                    }
+                                } else if (call.hedgeable()) {
+                                    keyPool.recordLatency(key, System.nanoTime() - start);
+                                }
+                                return failOnError(response).thenMany(call.read().apply(response));
+                            })
+                            .doOnError(e -> permit.failed())
+                            .doFinally(signal -> untrack.run());
+                }, OutboundDestinationGuard.Permit::close)
+                .onErrorResume(e -> {
+                    if (e instanceof FailedOver failedOver) {
+                        return send(call, failedOver.key, attempt + 1, retries);
+                    }
+                    long delayMs = call.guard().retryDelayMillis(retries, e);
+                    if (delayMs < 0) {
+                        return Flux.error(e);
+                    }
+                    return Mono.delay(Duration.ofMillis(delayMs)).thenMany(send(call, key, attempt, retries + 1));
+                });
+    }
+
+    private WebClient.RequestHeadersSpec<?> request(String url, Map<String, String> headers,
+                                                    LLMJson.Writer body, MediaType accept) {
+        if (webClient == null) {
+            throw new IllegalStateException("Reactive LLM transport is not enabled");
+        }
+        return webClient.post()
+                .uri(url)
+                .headers(httpHeaders -> headers.forEach(httpHeaders::set))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(accept)
+                .body(encode(body));
+    }
+
+    /** Encodes on subscription into one pooled buffer, so a resubscribe re-encodes. */
+    private BodyInserter<Object, ReactiveHttpOutputMessage> encode(LLMJson.Writer body) {
+        return (message, context) -> message.writeWith(Mono.fromCallable(() -> {
+            DataBuffer buffer = message.bufferFactory().allocateBuffer(INITIAL_BODY_BUFFER);
+            try (OutputStream out = buffer.asOutputStream();
+                 JsonGenerator generator = objectMapper.createGenerator(out)) {
+                body.write(generator);
+            } catch (IOException | RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                throw e;
+            }
+            return buffer;
+        }));
+    }
+
+    /** Mirrors the OkHttp path: the provider's error body is logged, the status code thrown. */
+    private Mono<Void> failOnError(ClientResponse response) {
+        if (!response.statusCode().isError()) {
+            return Mono.empty();
+        }
+        int code = response.statusCode().value();
+        return response.bodyToMono(String.class)
+                .defaultIfEmpty("Unknown error")
+                .flatMap(errorBody -> {
+                    log.error("LLM API reactive error: {} - {}", code, errorBody);
+                    return Mono.error(new RuntimeException("LLM API调用失败: " + code));
+                });
+    }
+
+    private record Call<T>(OutboundDestinationGuard guard, String url, Map<String, String> headers,
+                           LLMJson.Writer body, MediaType accept, boolean hedgeable,
+                           Function<ClientResponse, Flux<T>> read) {
+    }
+
+    /** Signals that a 429 moved the call on to {@code key}; never reaches subscribers. */
+    private static final class FailedOver extends RuntimeException {
+        private final String key;
+
+        private FailedOver(String key) {
+            super(null, null, false, false);
+            this.key = key;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (connections != null) {
+            connections.dispose();
+        }
+    }
+
+    private static Set<BotConfig.LLMProvider> parseProviders(String value) {
+        Set<BotConfig.LLMProvider> parsed = EnumSet.noneOf(BotConfig.LLMProvider.class);
+        if (value == null || value.isBlank()) {
+            return parsed;
+        }
+        Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .forEach(name -> parsed.add(BotConfig.LLMProvider.valueOf(name.toUpperCase(Locale.ROOT))));
+        return parsed;
+    }
+}
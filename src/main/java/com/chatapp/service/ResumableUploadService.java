@@ -0,0 +1,430 @@
+package com.chatapp.service;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.exception.UploadSessionException;
+import com.chatapp.security.FileVaultService;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 大附件的断点续传，协议参照 tus：创建会话时声明文件长度，之后按偏移量 PATCH 分片，
+ * 传完后由发送文件消息的接口收尾。
+ *
+ * 每个 PATCH 带整段的 SHA-256，校验通过后按 v2 分块格式加密追加到暂存目录的 part 文件，
+ * 磁盘上不落明文；校验失败或中途断开的那一段直接丢弃，客户端从 HEAD 返回的偏移量重传。
+ * 会话状态存成 JSON，服务重启后可以接着传。
+ * 收尾时 part 文件流式解密校验一遍，然后硬链接进聊天文件目录，不重新加密，也不读进内存；
+ * 文件消息发送成功后才删除会话和 part 文件，发送失败可以直接重试。
+ *
+ * 暂存在本机磁盘上，多实例部署时同一会话的请求需要路由到同一实例。
+ */
+@Service
+public class ResumableUploadService {
+    private static final Logger log = LoggerFactory.getLogger(ResumableUploadService.class);
+    private static final String SESSION_SUFFIX = ".upload.json";
+    private static final String PART_SUFFIX = ".part";
+    private static final String CHECKSUM_ALGORITHM = "sha256";
+
+    /** tus 约定的校验和不匹配状态码 */
+    public static final int CHECKSUM_MISMATCH = 460;
+
+    private final FileStorageConfig config;
+    private final FileVaultService fileVaultService;
+    private final FileStorageService fileStorageService;
+    private final Clock clock;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentHashMap<String, ReentrantLock> sessionLocks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ResumableUploadService(FileStorageConfig config,
+                                  FileVaultService fileVaultService,
+                                  FileStorageService fileStorageService) {
+        this(config, fileVaultService, fileStorageService, Clock.systemUTC());
+    }
+
+    ResumableUploadService(FileStorageConfig config,
+                           FileVaultService fileVaultService,
+                           FileStorageService fileStorageService,
+                           Clock clock) {
+        if (config.getMaxUploadChunkBytes() < FileVaultService.CHUNK_BYTES) {
+            // 单次 PATCH 装不下一个完整加密分块时，偏移量永远推进不了
+            throw new IllegalStateException("file.storage.max-upload-chunk-bytes 不能小于加密分块大小 "
+                    + FileVaultService.CHUNK_BYTES + " 字节，当前为 " + config.getMaxUploadChunkBytes());
+        }
+        this.config = config;
+        this.fileVaultService = fileVaultService;
+        this.fileStorageService = fileStorageService;
+        this.clock = clock;
+    }
+
+    /**
+     * 创建上传会话。文件类型和大小在这里按聊天附件的规则校验，不合规的文件不会开始上传。
+     */
+    public UploadSession create(Long userId, String fileName, String contentType, long size) throws IOException {
+        String safeName = fileName == null || fileName.isBlank() ? "file" : fileName;
+        fileStorageService.validateChatUpload(safeName, size);
+        Files.createDirectories(stagingDir());
+        long active = listSessions().stream()
+                .filter(session -> userId.equals(session.ownerId()) && !isExpired(session))
+                .count();
+        if (active >= config.getMaxUploadSessionsPerUser()) {
+            throw new UploadSessionException(HttpStatus.TOO_MANY_REQUESTS.value(),
+                    "进行中的上传过多，请先完成或取消已有的上传");
+        }
+
+        String id = UUID.randomUUID().toString();
+        FileVaultService.VaultMeta staged = fileVaultService.beginStaged(partPath(id), size);
+        long now = clock.millis();
+        UploadSession session = new UploadSession(id, userId, safeName, contentType, size, 0, now,
+                now + ttlMillis(), staged);
+        try {
+            write(session);
+        } catch (IOException e) {
+            Files.deleteIfExists(partPath(id));
+            throw e;
+        }
+        log.info("UPLOAD_SESSION created id={} userId={} size={}", id, userId, size);
+        return session;
+    }
+
+    /**
+     * 单个 PATCH 请求体的上限
+     */
+    public int maxChunkBytes() {
+        return config.getMaxUploadChunkBytes();
+    }
+
+    /**
+     * 查询会话；不存在、已过期或不属于该用户时一律按不存在处理。
+     */
+    public UploadSession get(Long userId, String uploadId) {
+        UploadSession session = read(uploadId);
+        if (session == null || !session.ownerId().equals(userId) || isExpired(session)) {
+            throw new UploadSessionException(HttpStatus.NOT_FOUND.value(), "上传会话不存在或已过期");
+        }
+        return session;
+    }
+
+    /**
+     * 追加一段分片。offset 必须等于会话当前的偏移量，checksum 形如 {@code sha256 <base64>}，
+     * 覆盖整段请求体。整段先读进内存校验，通过后才加密写入：同一分块不能用同一个 nonce
+     * 加密两次不同的内容，所以校验失败或读到一半断开的数据一个字节也不落盘。返回推进后的
+     * 会话；偏移量只推进到最后一个完整分块，不足一块且不是文件末尾的字节不保存，客户端从
+     * 返回的偏移量继续。
+     */
+    public UploadSession append(Long userId, String uploadId, long offset, String checksum, InputStream body)
+            throws IOException {
+        return withSessionLock(uploadId, () -> {
+            UploadSession session = get(userId, uploadId);
+            if (offset != session.offset()) {
+                throw new UploadSessionException(HttpStatus.CONFLICT.value(),
+                        "上传偏移量不匹配，服务端当前为 " + session.offset());
+            }
+            byte[] expected = parseChecksum(checksum);
+            if (session.offset() == session.size()) {
+                return session;
+            }
+            int maxPiece = config.getMaxUploadChunkBytes();
+            byte[] piece = body.readNBytes(maxPiece + 1);
+            if (piece.length > maxPiece) {
+                throw new UploadSessionException(HttpStatus.PAYLOAD_TOO_LARGE.value(),
+                        "单次上传不能超过 " + maxPiece + " 字节");
+            }
+            if (!MessageDigest.isEqual(expected, sha256Digest().digest(piece))) {
+                throw new UploadSessionException(CHECKSUM_MISMATCH, "分片校验和不匹配");
+            }
+            long newOffset;
+            try {
+                newOffset = fileVaultService.appendStaged(partPath(uploadId), session.vault(), offset, piece);
+            } catch (IOException e) {
+                // 分片文件和会话对不上（写入失败或进程在写入时退出），已写的分块不能重写，只能重新上传
+                log.warn("UPLOAD_SESSION discarded id={} error={}", uploadId, e.toString());
+                delete(uploadId);
+                throw new UploadSessionException(HttpStatus.GONE.value(), "上传会话已失效，请重新上传");
+            }
+            UploadSession advanced = session.advancedTo(newOffset, clock.millis() + ttlMillis());
+            write(advanced);
+            return advanced;
+        });
+    }
+
+    /**
+     * 收尾：把传完的文件放进聊天文件目录，交给 {@code send} 发送文件消息，发送成功后才结束会话。
+     * {@code send} 抛异常时会话和分片都保留，客户端可以直接重试发送，不用重新上传；
+     * 这次放进聊天目录的文件由 {@code send} 负责清理。整个过程持有会话锁，同一会话不会发出两条消息。
+     */
+    public <T> T complete(Long userId, String uploadId, Function<CompletedUpload, T> send) throws IOException {
+        return withSessionLock(uploadId, () -> {
+            UploadSession session = get(userId, uploadId);
+            if (session.offset() != session.size()) {
+                throw new UploadSessionException(HttpStatus.CONFLICT.value(),
+                        "上传尚未完成: " + session.offset() + "/" + session.size());
+            }
+            String fileUrl = fileStorageService.completeChatUpload(
+                    session.fileName(), partPath(uploadId), session.vault());
+            T sent = send.apply(new CompletedUpload(fileUrl, session.fileName(), session.contentType(),
+                    session.size()));
+            try {
+                delete(uploadId);
+            } catch (IOException e) {
+                // 消息已经发出，不能再让客户端重试；残留的会话过期后由定时清理删除
+                log.warn("UPLOAD_SESSION cleanup failed id={} error={}", uploadId, e.toString());
+            }
+            log.info("UPLOAD_SESSION completed id={} userId={} size={}", uploadId, userId, session.size());
+            return sent;
+        });
+    }
+
+    /**
+     * 放弃上传，删除会话和已上传的分片。
+     */
+    public void terminate(Long userId, String uploadId) throws IOException {
+        withSessionLock(uploadId, () -> {
+            get(userId, uploadId);
+            delete(uploadId);
+            return null;
+        });
+    }
+
+    /**
+     * 清理过期的会话，以及没有会话文件的残留分片（创建到一半时进程退出）。
+     *
+     * @return 清理的会话数
+     */
+    @Scheduled(fixedDelayString = "${file.storage.upload-sweep-interval-ms:600000}")
+    public int sweepExpired() {
+        Path dir = stagingDir();
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int removed = 0;
+        long now = clock.millis();
+        List<Path> files;
+        try (var stream = Files.list(dir)) {
+            files = stream.toList();
+        } catch (IOException e) {
+            log.warn("UPLOAD_SESSION sweep failed to list {}", dir, e);
+            return 0;
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                if (name.endsWith(SESSION_SUFFIX)) {
+                    String id = name.substring(0, name.length() - SESSION_SUFFIX.length());
+                    if (sweepSession(id)) {
+                        removed++;
+                    }
+                } else if (!Files.exists(sessionPath(idOf(name)))
+                        && Files.getLastModifiedTime(file).toMillis() < now - ttlMillis()) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                log.warn("UPLOAD_SESSION sweep failed for {}", name, e);
+            }
+        }
+        if (removed > 0) {
+            log.info("UPLOAD_SESSION swept {} expired sessions", removed);
+        }
+        return removed;
+    }
+
+    private boolean sweepSession(String id) throws IOException {
+        ReentrantLock lock = sessionLocks.computeIfAbsent(id, key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            UploadSession session = read(id);
+            if (session != null && !isExpired(session)) {
+                return false;
+            }
+            delete(id);
+            sessionLocks.remove(id, lock);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> T withSessionLock(String uploadId, SessionAction<T> action) throws IOException {
+        if (!isValidId(uploadId)) {
+            throw new UploadSessionException(HttpStatus.NOT_FOUND.value(), "上传会话不存在或已过期");
+        }
+        // 同一会话的请求串行处理；客户端重试时旧请求可能还在写，直接拒绝而不是排队等它。
+        ReentrantLock lock = sessionLocks.computeIfAbsent(uploadId, key -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new UploadSessionException(HttpStatus.LOCKED.value(), "该上传会话正在写入，请稍后重试");
+        }
+        try {
+            return action.run();
+        } finally {
+            lock.unlock();
+            if (!Files.exists(sessionPath(uploadId))) {
+                sessionLocks.remove(uploadId, lock);
+            }
+        }
+    }
+
+    private List<UploadSession> listSessions() throws IOException {
+        List<UploadSession> sessions = new ArrayList<>();
+        try (var stream = Files.list(stagingDir())) {
+            for (Path path : stream.toList()) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SESSION_SUFFIX)) {
+                    UploadSession session = read(name.substring(0, name.length() - SESSION_SUFFIX.length()));
+                    if (session != null) {
+                        sessions.add(session);
+                    }
+                }
+            }
+        }
+        return sessions;
+    }
+
+    private UploadSession read(String uploadId) {
+        if (!isValidId(uploadId)) {
+            return null;
+        }
+        Path path = sessionPath(uploadId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            return mapper.readValue(path.toFile(), UploadSession.class);
+        } catch (IOException e) {
+            log.warn("UPLOAD_SESSION unreadable {}", path.getFileName(), e);
+            return null;
+        }
+    }
+
+    /** 先写临时文件再改名，崩溃时不会留下写了一半的会话文件。 */
+    private void write(UploadSession session) throws IOException {
+        Path path = sessionPath(session.id());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp-" + UUID.randomUUID());
+        try {
+            mapper.writeValue(tmp.toFile(), session);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void delete(String uploadId) throws IOException {
+        Files.deleteIfExists(partPath(uploadId));
+        Files.deleteIfExists(sessionPath(uploadId));
+    }
+
+    private byte[] parseChecksum(String header) {
+        if (header == null || header.isBlank()) {
+            throw new IllegalArgumentException("缺少 Upload-Checksum");
+        }
+        String[] parts = header.trim().split("\\s+");
+        if (parts.length != 2 || !CHECKSUM_ALGORITHM.equals(parts[0].toLowerCase(Locale.ROOT))) {
+            throw new IllegalArgumentException("Upload-Checksum 仅支持 sha256");
+        }
+        byte[] digest;
+        try {
+            digest = Base64.getDecoder().decode(parts[1]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Upload-Checksum 格式不正确");
+        }
+        if (digest.length != 32) {
+            throw new IllegalArgumentException("Upload-Checksum 长度不正确");
+        }
+        return digest;
+    }
+
+    private boolean isExpired(UploadSession session) {
+        return session.expiresAt() <= clock.millis();
+    }
+
+    private long ttlMillis() {
+        return config.getUploadSessionTtlMinutes() * 60_000L;
+    }
+
+    private Path stagingDir() {
+        return Paths.get(config.getFullUploadStagingDir());
+    }
+
+    private Path sessionPath(String uploadId) {
+        return stagingDir().resolve(uploadId + SESSION_SUFFIX);
+    }
+
+    private Path partPath(String uploadId) {
+        return stagingDir().resolve(uploadId + PART_SUFFIX);
+    }
+
+    private static String idOf(String fileName) {
+        int dot = fileName.indexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    /** 会话 ID 会拼进文件路径，只接受规范形式的 UUID。 */
+    private static boolean isValidId(String uploadId) {
+        if (uploadId == null) {
+            return false;
+        }
+        try {
+            return UUID.fromString(uploadId).toString().equals(uploadId);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SessionAction<T> {
+        T run() throws IOException;
+    }
+
+    public record UploadSession(
+            String id,
+            @JsonProperty("owner_id") Long ownerId,
+            @JsonProperty("file_name") String fileName,
+            @JsonProperty("content_type") String contentType,
+            long size,
+            long offset,
+            @JsonProperty("created_at") long createdAt,
+            @JsonProperty("expires_at") long expiresAt,
+            FileVaultService.VaultMeta vault) {
+
+        UploadSession advancedTo(long newOffset, long newExpiresAt) {
+            return new UploadSession(id, ownerId, fileName, contentType, size, newOffset, createdAt, newExpiresAt,
+                    vault);
+        }
+    }
+
+    public record CompletedUpload(String fileUrl, String fileName, String contentType, long size) {
+    }
+}
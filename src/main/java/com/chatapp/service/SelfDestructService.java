@@ -1,6 +1,7 @@
 package com.chatapp.service;
 
 import com.chatapp.repository.MessageRepository;
+import com.chatapp.util.TransactionHooks;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -8,6 +9,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
@@ -15,14 +18,37 @@ import java.time.LocalDateTime;
 public class SelfDestructService {
 
     private final MessageRepository messageRepository;
+    private final FileReferenceService fileReferenceService;
 
     @Scheduled(fixedRate = 30000) // Run every 30 seconds
     @Transactional
     public void destroyExpiredMessages() {
         LocalDateTime now = LocalDateTime.now();
+        Set<String> fileUrls = new LinkedHashSet<>();
+        for (MessageRepository.MessageFileUrls urls : messageRepository.findFileUrlsOfExpiredSelfDestructMessages(now)) {
+            addIfPresent(fileUrls, urls.getFileUrl());
+            addIfPresent(fileUrls, urls.getImageGenUrl());
+            addIfPresent(fileUrls, urls.getThumbnailUrl());
+            addIfPresent(fileUrls, urls.getPreviewUrl());
+        }
         int deleted = messageRepository.deleteExpiredSelfDestructMessages(now);
-        if (deleted > 0) {
-            log.info("已销毁 {} 条过期自毁消息", deleted);
+        // 消息行删除提交后，附件没有其他消息或贴纸引用时随之删除；回滚时文件保持原样
+        TransactionHooks.afterCommit(() -> {
+            int deletedFiles = 0;
+            for (String fileUrl : fileUrls) {
+                if (fileReferenceService.release(fileUrl)) {
+                    deletedFiles++;
+                }
+            }
+            if (deleted > 0) {
+                log.info("已销毁 {} 条过期自毁消息，删除 {} 个文件", deleted, deletedFiles);
+            }
+        });
+    }
+
+    private static void addIfPresent(Set<String> fileUrls, String fileUrl) {
+        if (fileUrl != null && !fileUrl.isBlank()) {
+            fileUrls.add(fileUrl);
         }
     }
 }
@@ -0,0 +1,12 @@
+package com.chatapp.service;
+
+/**
+ * Counts prompt tokens the way one model family's tokenizer does. Implementations
+ * must be thread-safe; {@link #name()} also namespaces memoized counts.
+ */
+public interface TokenCounter {
+
+    String name();
+
+    int count(String text);
+}
@@ -0,0 +1,173 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Chooses a tokenizer per provider/model and memoizes counts.
+ *
+ * <p>OpenAI models use the exact offline BPE vocabularies shipped with jtokkit:
+ * {@code o200k_base} for the gpt-4o, o-series and gpt-4.1+ families and
+ * {@code cl100k_base} for older models. Claude has no public tokenizer; its vocabulary
+ * splits the same text into more tokens than {@code cl100k_base} (noticeably more for
+ * code and CJK), so Claude counts are {@code cl100k_base} scaled by
+ * {@link #CLAUDE_SAFETY_FACTOR} and rounded up, which keeps budget trimming on the
+ * conservative side. Qwen, DeepSeek and
+ * Kimi use ~150k-entry vocabularies that are not available offline, so they use a
+ * script-aware estimate calibrated to DeepSeek's published ratios (about 0.6 tokens
+ * per Chinese character and 0.3 per English character). Everything else keeps the
+ * conservative default estimate.
+ *
+ * <p>Counts are memoized by tokenizer, optional message id and the SHA-256 of the
+ * content, so the same history and lore text is tokenized once across trimming
+ * passes and turns without the cache pinning every text it has seen.
+ */
+@Component
+public class TokenCounters {
+
+    private static final long MAX_MEMOIZED_COUNTS = 100_000;
+
+    /**
+     * Headroom applied to cl100k counts for Claude. Claude's tokenizer produces roughly
+     * 10-30% more tokens than cl100k depending on the text, so 1.3 covers the usual
+     * range without throwing away much of the context window.
+     */
+    static final double CLAUDE_SAFETY_FACTOR = 1.3d;
+
+    private final TokenCounter o200k;
+    private final TokenCounter cl100k;
+    private final TokenCounter claude;
+    private final TokenCounter cjkEstimate = new ScriptRatioTokenCounter("cjk-estimate", 1.0d / 0.6d, 1.0d / 0.3d, 3.0d);
+    private final TokenCounter defaultEstimate = new ScriptRatioTokenCounter("estimate", 1.5d, 4.0d, 3.0d);
+    private final Cache<CountKey, Integer> counts = Caffeine.newBuilder()
+            .maximumSize(MAX_MEMOIZED_COUNTS)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
+    public TokenCounters() {
+        EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+        this.o200k = new BpeTokenCounter(registry.getEncoding(EncodingType.O200K_BASE));
+        this.cl100k = new BpeTokenCounter(registry.getEncoding(EncodingType.CL100K_BASE));
+        this.claude = new ScaledTokenCounter("claude-estimate", cl100k, CLAUDE_SAFETY_FACTOR);
+    }
+
+    public TokenCounter forBot(BotConfig bot) {
+        if (bot == null || bot.getLlmProvider() == null) {
+            return defaultEstimate;
+        }
+        String model = bot.getModelName() != null ? bot.getModelName().toLowerCase(Locale.ROOT) : "";
+        return switch (bot.getLlmProvider()) {
+            case OPENAI -> model.isEmpty() || usesO200k(model) ? o200k : cl100k;
+            case CLAUDE -> claude;
+            case DEEPSEEK, DASHSCOPE, KIMI -> cjkEstimate;
+            case OLLAMA, HERMES -> model.contains("qwen") || model.contains("deepseek") ? cjkEstimate : defaultEstimate;
+            default -> defaultEstimate;
+        };
+    }
+
+    /** The dependency-free estimate used when no bot is known. */
+    public TokenCounter defaultEstimate() {
+        return defaultEstimate;
+    }
+
+    public int count(TokenCounter counter, String text) {
+        return count(counter, null, text);
+    }
+
+    /** Memoized count; {@code messageId} may be null for text that is not a stored message. */
+    public int count(TokenCounter counter, Long messageId, String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return counts.get(new CountKey(counter.name(), messageId, sha256(text)), key -> counter.count(text));
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static boolean usesO200k(String model) {
+        return model.startsWith("gpt-4o") || model.startsWith("chatgpt-4o") || model.startsWith("gpt-4.1")
+                || model.startsWith("gpt-4.5") || model.startsWith("gpt-5") || model.matches("^o\\d.*");
+    }
+
+    private record CountKey(String counter, Long messageId, String sha256) {
+    }
+
+    private record BpeTokenCounter(Encoding encoding) implements TokenCounter {
+        @Override
+        public String name() {
+            return encoding.getName();
+        }
+
+        @Override
+        public int count(String text) {
+            // Ordinary encoding: text that happens to contain "<|endoftext|>" is just text.
+            return encoding.countTokensOrdinary(text);
+        }
+    }
+
+    /** Another counter's result scaled by {@code factor} and rounded up; the name keeps memoized counts apart. */
+    record ScaledTokenCounter(String name, TokenCounter base, double factor) implements TokenCounter {
+        @Override
+        public int count(String text) {
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            return (int) Math.ceil(base.count(text) * factor);
+        }
+    }
+
+    /**
+     * Per-script characters-per-token estimate. Han characters are detected with a
+     * code-point range check rather than {@code Character.UnicodeScript.of}, which is
+     * a binary search per character.
+     */
+    record ScriptRatioTokenCounter(String name, double hanCharsPerToken, double asciiCharsPerToken,
+                                   double otherCharsPerToken) implements TokenCounter {
+        @Override
+        public int count(String text) {
+            if (text == null || text.isEmpty()) {
+                return 0;
+            }
+            int han = 0;
+            int ascii = 0;
+            int other = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char ch = text.charAt(i);
+                if (ch <= 127) {
+                    ascii++;
+                } else if (isHan(ch)) {
+                    han++;
+                } else {
+                    other++;
+                }
+            }
+            return (int) Math.ceil(han / hanCharsPerToken + ascii / asciiCharsPerToken + other / otherCharsPerToken);
+        }
+
+        private static boolean isHan(char ch) {
+            return (ch >= '\u4E00' && ch <= '\u9FFF')
+                    || (ch >= '\u3400' && ch <= '\u4DBF')
+                    || (ch >= '\uF900' && ch <= '\uFAFF');
+        }
+    }
+}
@@ -48,17 +48,31 @@ public class UrlPreviewService {
             "([a-zA-Z_:.-]+)\\s*=\\s*(['\"])(.*?)\\2",
             Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(Duration.ofSeconds(4))
-            .readTimeout(Duration.ofSeconds(5))
-            .callTimeout(Duration.ofSeconds(7))
-            .followRedirects(false)
-            .build();
+    private final OkHttpClient client;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Autowired(required = false)
     private StringRedisTemplate redisTemplate;
 
+    public UrlPreviewService() {
+        this(OutboundHttpClients.standalone());
+    }
+
+    // Arbitrary third-party hosts: no shared circuit breaker, and redirects are
+    // followed manually so every hop is re-validated.
+    @Autowired
+    public UrlPreviewService(OutboundHttpClients httpClients) {
+        this.client = httpClients.client("url-preview", OutboundHttpClients.Spec
+                        .timeouts(Duration.ofSeconds(4), Duration.ofSeconds(5), Duration.ofSeconds(5))
+                        .withCallTimeout(Duration.ofSeconds(7))
+                        .withMaxConcurrent(16)
+                        .withCircuitBreaker(0, Duration.ZERO)
+                        .withMaxRetries(0))
+                .newBuilder()
+                .followRedirects(false)
+                .build();
+    }
+
     public UrlPreviewDto fetch(String rawUrl) {
         URI uri = validateHttpsUrl(rawUrl);
         String key = cacheKey(uri.toString());
@@ -0,0 +1,274 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Shrinks images before they are sent to a multimodal model.
+ *
+ * <p>Providers downscale large images server-side anyway, so uploading a 12 MP phone
+ * photo only costs bandwidth and latency. The image is decoded with source subsampling
+ * (so a large photo never materializes at full size), rotated per its EXIF orientation,
+ * resized to the provider's effective resolution and re-encoded as JPEG, or PNG when it
+ * has transparency. Anything that cannot be decoded, or is already small enough, is
+ * passed through unchanged.
+ */
+@Component
+@Slf4j
+public class VisionImagePreprocessor {
+
+    static final float JPEG_QUALITY = 0.85f;
+    /** Images within the target and under this size are sent as uploaded. */
+    static final int PASS_THROUGH_MAX_BYTES = 512 * 1024;
+
+    public Prepared prepare(byte[] original, String mediaType, Target target) {
+        Prepared passThrough = new Prepared(original, mediaType);
+        if (original == null || original.length == 0) {
+            return passThrough;
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(original))) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return passThrough;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int orientation = exifOrientation(original);
+                boolean swapped = orientation >= 5;
+                int orientedWidth = swapped ? height : width;
+                int orientedHeight = swapped ? width : height;
+                double scale = target.scaleFor(orientedWidth, orientedHeight);
+                if (scale >= 1.0d && orientation == 1 && original.length <= PASS_THROUGH_MAX_BYTES) {
+                    return passThrough;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Decode at no less than twice the target size; the final resample smooths the rest.
+                int subsample = (int) Math.floor(1.0d / (Math.min(scale, 1.0d) * 2.0d));
+                if (subsample > 1) {
+                    param.setSourceSubsampling(subsample, subsample, 0, 0);
+                }
+                BufferedImage decoded = reader.read(0, param);
+                int targetWidth = scaled(orientedWidth, scale);
+                int targetHeight = scaled(orientedHeight, scale);
+                boolean alpha = decoded.getColorModel().hasAlpha();
+                BufferedImage output = render(decoded, orientation, targetWidth, targetHeight, alpha);
+                byte[] encoded = alpha ? encodePng(output) : encodeJpeg(output);
+                if (encoded.length >= original.length && orientation == 1 && scale >= 1.0d) {
+                    return passThrough;
+                }
+                return new Prepared(encoded, alpha ? "image/png" : "image/jpeg");
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception | OutOfMemoryError e) {
+            log.debug("Vision image preprocessing skipped ({}): {}", mediaType, e.toString());
+            return passThrough;
+        }
+    }
+
+    /** Rounds down so the result never exceeds the target's caps. */
+    static int scaled(int size, double scale) {
+        return Math.max(1, (int) Math.floor(size * Math.min(scale, 1.0d) + 1e-6d));
+    }
+
+    static BufferedImage render(BufferedImage source, int orientation, int targetWidth, int targetHeight,
+                                        boolean alpha) {
+        BufferedImage current = source;
+        // Halve first so the final bilinear pass never shrinks by more than 2x.
+        int longSide = Math.max(targetWidth, targetHeight);
+        while (Math.min(current.getWidth(), current.getHeight()) > 1
+                && Math.max(current.getWidth(), current.getHeight()) > longSide * 2) {
+            current = draw(current, new AffineTransform(0.5d, 0, 0, 0.5d, 0, 0),
+                    Math.max(1, current.getWidth() / 2), Math.max(1, current.getHeight() / 2), alpha);
+        }
+        int w = current.getWidth();
+        int h = current.getHeight();
+        boolean swapped = orientation >= 5;
+        AffineTransform transform = AffineTransform.getScaleInstance(
+                targetWidth / (double) (swapped ? h : w),
+                targetHeight / (double) (swapped ? w : h));
+        transform.concatenate(orientationTransform(orientation, w, h));
+        return draw(current, transform, targetWidth, targetHeight, alpha);
+    }
+
+    private static BufferedImage draw(BufferedImage source, AffineTransform transform, int width, int height,
+                                      boolean alpha) {
+        BufferedImage target = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            if (!alpha) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /** Maps source pixels of a {@code w x h} image to their EXIF-oriented position. */
+    static AffineTransform orientationTransform(int orientation, int w, int h) {
+        return switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, w);
+            default -> new AffineTransform();
+        };
+    }
+
+    static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("no JPEG writer");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", out)) {
+            throw new IOException("no PNG writer");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * EXIF orientation (1-8) from a JPEG's APP1 segment, or 1 when absent. Only IFD0 is
+     * read, which is where cameras and phones store the tag.
+     */
+    static int exifOrientation(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int marker = jpeg[offset + 1] & 0xFF;
+            int length = ((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF);
+            if (marker == 0xDA || length < 2) {
+                return 1;
+            }
+            int segment = offset + 4;
+            if (marker == 0xE1 && segment + 14 <= jpeg.length
+                    && jpeg[segment] == 'E' && jpeg[segment + 1] == 'x' && jpeg[segment + 2] == 'i'
+                    && jpeg[segment + 3] == 'f' && jpeg[segment + 4] == 0 && jpeg[segment + 5] == 0) {
+                return orientationFromTiff(jpeg, segment + 6, Math.min(jpeg.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return 1;
+    }
+
+    private static int orientationFromTiff(byte[] data, int tiff, int end) {
+        boolean little = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        if (!little && !(data[tiff] == 'M' && data[tiff + 1] == 'M')) {
+            return 1;
+        }
+        long ifd = tiff + readInt(data, tiff + 4, little);
+        if (ifd + 2 > end) {
+            return 1;
+        }
+        int entries = readShort(data, (int) ifd, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return 1;
+            }
+            if (readShort(data, entry, little) == 0x0112) {
+                int value = readShort(data, entry + 8, little);
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int at, boolean little) {
+        int a = data[at] & 0xFF;
+        int b = data[at + 1] & 0xFF;
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static long readInt(byte[] data, int at, boolean little) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = data[at + (little ? 3 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    public record Prepared(byte[] bytes, String mediaType) {
+    }
+
+    /**
+     * Effective input resolution of a provider. {@code maxPixels <= 0} means no area cap.
+     */
+    public record Target(int maxLongEdge, int maxShortEdge, long maxPixels) {
+
+        /** Claude's documented optimum: long edge 1568 px and about 1.15 MP. */
+        public static final Target DEFAULT = new Target(1568, 1568, 1_200_000L);
+        /** OpenAI high detail: fit within 2048 px, then shortest side 768 px. */
+        public static final Target OPENAI = new Target(2048, 768, 0L);
+
+        public static Target forBot(BotConfig bot) {
+            return bot != null && bot.getLlmProvider() == BotConfig.LLMProvider.OPENAI ? OPENAI : DEFAULT;
+        }
+
+        double scaleFor(int width, int height) {
+            double scale = 1.0d;
+            int longEdge = Math.max(width, height);
+            int shortEdge = Math.min(width, height);
+            if (longEdge > maxLongEdge) {
+                scale = Math.min(scale, maxLongEdge / (double) longEdge);
+            }
+            if (shortEdge > maxShortEdge) {
+                scale = Math.min(scale, maxShortEdge / (double) shortEdge);
+            }
+            if (maxPixels > 0 && (long) width * height > maxPixels) {
+                scale = Math.min(scale, Math.sqrt(maxPixels / ((double) width * height)));
+            }
+            return scale;
+        }
+    }
+}
@@ -4,8 +4,8 @@ import com.chatapp.websocket.RawWebSocketHandler;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
@@ -16,7 +16,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AgentToolDispatcher {
     static final long DEFAULT_CLIENT_TIMEOUT_MS = 15000L;
@@ -24,10 +23,28 @@ public class AgentToolDispatcher {
     private final PendingClientCallRegistry pendingClientCallRegistry;
     private final RawWebSocketHandler rawWebSocketHandler;
     private final ObjectMapper objectMapper;
+    private final ToolResultCache resultCache;
+
+    public AgentToolDispatcher(PendingClientCallRegistry pendingClientCallRegistry,
+                               RawWebSocketHandler rawWebSocketHandler,
+                               ObjectMapper objectMapper) {
+        this(pendingClientCallRegistry, rawWebSocketHandler, objectMapper, new ToolResultCache(0));
+    }
+
+    @Autowired
+    public AgentToolDispatcher(PendingClientCallRegistry pendingClientCallRegistry,
+                               RawWebSocketHandler rawWebSocketHandler,
+                               ObjectMapper objectMapper,
+                               ToolResultCache resultCache) {
+        this.pendingClientCallRegistry = pendingClientCallRegistry;
+        this.rawWebSocketHandler = rawWebSocketHandler;
+        this.objectMapper = objectMapper;
+        this.resultCache = resultCache;
+    }
 
     public JsonNode dispatch(Tool tool, JsonNode params, ToolContext context, long remainingWallclockMs) {
         if (tool.executionContext() == Tool.ExecutionContext.SERVER) {
-            return tool.execute(params, context);
+            return resultCache.get(tool, params, () -> tool.execute(params, context));
         }
         if (tool.executionContext() == Tool.ExecutionContext.EITHER) {
             // v1 has no EITHER tools; prefer server execution if one is introduced later.
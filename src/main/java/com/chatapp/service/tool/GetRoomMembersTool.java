@@ -20,6 +20,11 @@ public class GetRoomMembersTool implements Tool {
         return "get_room_members";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Return the full member list for the current room.";
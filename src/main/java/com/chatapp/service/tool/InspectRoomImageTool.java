@@ -28,6 +28,11 @@ public class InspectRoomImageTool implements Tool {
         return "inspect_room_image";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Inspect one image from the current room only when the user's request requires visual understanding. "
@@ -64,7 +69,7 @@ public class InspectRoomImageTool implements Tool {
             throw new ToolExecutionException("not_image_message", "The selected message is not an image.");
         }
 
-        AgentVisionAttachmentService.ImageContext image = visionAttachmentService.resolve(message, true);
+        AgentVisionAttachmentService.ImageContext image = visionAttachmentService.resolve(message, true, context.visionTarget());
         if (image.attachments().isEmpty()) {
             ObjectNode root = baseResult(message);
             ObjectNode error = root.putObject("error");
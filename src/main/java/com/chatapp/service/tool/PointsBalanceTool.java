@@ -19,6 +19,11 @@ public class PointsBalanceTool implements Tool {
         return "lookup_my_points_balance";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Look up the initiating PM chat user's current paid points and free daily quota remaining by feature.";
@@ -26,6 +26,11 @@ public class PointsFeaturesTool implements Tool {
         return "lookup_points_features";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "List enabled PM chat point-consuming features, their point cost, and the initiating user's remaining free quota.";
@@ -24,6 +24,11 @@ public class ReadRecentMessagesTool implements Tool {
         return "read_recent_messages";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Read more recent messages from the current room in chronological order.";
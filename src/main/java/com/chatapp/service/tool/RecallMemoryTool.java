@@ -33,6 +33,11 @@ public class RecallMemoryTool implements Tool {
         return "recall_memory";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Search this room's shared memory for facts saved earlier. Provide a query to "
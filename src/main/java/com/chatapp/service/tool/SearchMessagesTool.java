@@ -21,6 +21,11 @@ public class SearchMessagesTool implements Tool {
         return "search_messages";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Search text messages in the current room by keyword.";
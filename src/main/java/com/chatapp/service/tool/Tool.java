@@ -2,6 +2,8 @@ package com.chatapp.service.tool;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.time.Duration;
+
 public interface Tool {
     String name();
 
@@ -13,6 +15,23 @@ public interface Tool {
         return ExecutionContext.SERVER;
     }
 
+    /**
+     * Read-only tools may run concurrently with other read-only calls from the same
+     * model turn; mutating tools always run alone and in model order.
+     */
+    default Concurrency concurrency() {
+        return Concurrency.MUTATING;
+    }
+
+    /**
+     * How long a successful result may be reused for identical arguments from any room
+     * or bot, or null (never cached). Only read-only server tools whose output depends
+     * on nothing but their arguments should opt in; see {@link ToolResultCache}.
+     */
+    default Duration resultCacheTtl() {
+        return null;
+    }
+
     JsonNode execute(JsonNode params, ToolContext context);
 
     enum ExecutionContext {
@@ -20,4 +39,9 @@ public interface Tool {
         CLIENT,
         EITHER
     }
+
+    enum Concurrency {
+        READ_ONLY,
+        MUTATING
+    }
 }
@@ -1,10 +1,13 @@
 package com.chatapp.service.tool;
 
+import com.chatapp.service.VisionImagePreprocessor;
+
 /**
  * Execution context handed to every {@link Tool}. {@code botConfigId} identifies the
  * bot whose agent loop is invoking the tool, so capability-scoped tools (memory,
  * workspace, moderation) can resolve the calling bot. It may be {@code null} for
- * contexts not bound to a specific bot.
+ * contexts not bound to a specific bot. {@code visionTarget} is the image size the
+ * calling bot's provider accepts, for tools that hand images to the next LLM call.
  */
 public record ToolContext(
         Long roomId,
@@ -12,15 +15,22 @@ public record ToolContext(
         Long taskId,
         Long botConfigId,
         boolean anonymousRequest,
-        String anonymousName) {
+        String anonymousName,
+        VisionImagePreprocessor.Target visionTarget) {
+
+    public ToolContext {
+        if (visionTarget == null) {
+            visionTarget = VisionImagePreprocessor.Target.DEFAULT;
+        }
+    }
 
     /** Backward-compatible constructor for contexts without a bound bot. */
     public ToolContext(Long roomId, Long userId, Long taskId) {
-        this(roomId, userId, taskId, null, false, null);
+        this(roomId, userId, taskId, null, false, null, null);
     }
 
     /** Backward-compatible constructor for contexts without anonymous metadata. */
     public ToolContext(Long roomId, Long userId, Long taskId, Long botConfigId) {
-        this(roomId, userId, taskId, botConfigId, false, null);
+        this(roomId, userId, taskId, botConfigId, false, null, null);
     }
 }
@@ -0,0 +1,178 @@
+package com.chatapp.service.tool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Shares results of idempotent server tools across rooms and bots.
+ *
+ * <p>Only tools that opt in through {@link Tool#resultCacheTtl()} are cached, and
+ * only while they are read-only server tools, so mutating, client-side and
+ * user-scoped tools always run. Entries are keyed by tool name plus the arguments
+ * in canonical form (sorted fields, whitespace-collapsed strings) and live for the
+ * tool's TTL within a byte budget. Concurrent identical calls run the tool once:
+ * the first caller executes it and the rest wait for its result. Error results are
+ * neither cached nor shared; waiters rerun the tool themselves. A hit never
+ * reaches {@link Tool#execute}, so per-room limits enforced there (the web search
+ * budget) only count real upstream calls.
+ */
+@Component
+public class ToolResultCache {
+
+    private final Cache<Key, Entry> results;
+    private final Map<Key, CompletableFuture<JsonNode>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ToolResultCache(@Value("${agent.tool-cache.max-bytes:8388608}") long maxBytes) {
+        this(maxBytes, ForkJoinPool.commonPool(), Ticker.systemTicker());
+    }
+
+    ToolResultCache(long maxBytes, Executor executor, Ticker ticker) {
+        this.results = Caffeine.newBuilder()
+                .maximumWeight(Math.max(0, maxBytes))
+                .weigher((Key key, Entry entry) -> key.arguments.length() + entry.weight)
+                .expireAfter(new TtlExpiry())
+                .executor(executor)
+                .ticker(ticker)
+                .build();
+    }
+
+    /** Returns the shared result for an identical earlier or concurrent call, else runs {@code execute}. */
+    public JsonNode get(Tool tool, JsonNode params, Supplier<JsonNode> execute) {
+        Duration ttl = ttlOf(tool);
+        if (ttl == null) {
+            return execute.get();
+        }
+        Key key = new Key(tool.name(), canonical(params));
+        Entry cached = results.getIfPresent(key);
+        if (cached != null) {
+            return cached.result.deepCopy();
+        }
+        CompletableFuture<JsonNode> mine = new CompletableFuture<>();
+        CompletableFuture<JsonNode> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            JsonNode shared = leader.join();
+            return shared != null ? shared.deepCopy() : execute.get();
+        }
+        JsonNode result = null;
+        try {
+            // A previous leader may have finished between the lookup and taking the slot.
+            cached = results.getIfPresent(key);
+            if (cached != null) {
+                result = cached.result;
+                return result.deepCopy();
+            }
+            JsonNode fresh = execute.get();
+            if (fresh != null && !fresh.has("error")) {
+                String json = fresh.toString();
+                results.put(key, new Entry(fresh.deepCopy(), json.length(), ttl.toNanos()));
+                result = fresh;
+            }
+            return fresh;
+        } finally {
+            inFlight.remove(key, mine);
+            mine.complete(result);
+        }
+    }
+
+    void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    /** Cached entries, after running pending maintenance. */
+    long estimatedSize() {
+        results.cleanUp();
+        return results.estimatedSize();
+    }
+
+    private static Duration ttlOf(Tool tool) {
+        Duration ttl = tool.resultCacheTtl();
+        if (ttl == null || ttl.isZero() || ttl.isNegative()
+                || tool.concurrency() != Tool.Concurrency.READ_ONLY
+                || tool.executionContext() != Tool.ExecutionContext.SERVER) {
+            return null;
+        }
+        return ttl;
+    }
+
+    static String canonical(JsonNode params) {
+        StringBuilder out = new StringBuilder();
+        appendCanonical(params, out);
+        return out.toString();
+    }
+
+    private static void appendCanonical(JsonNode node, StringBuilder out) {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            out.append("null");
+        } else if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            node.fieldNames().forEachRemaining(names::add);
+            Collections.sort(names);
+            out.append('{');
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append('"').append(names.get(i)).append("\":");
+                appendCanonical(node.get(names.get(i)), out);
+            }
+            out.append('}');
+        } else if (node.isArray()) {
+            out.append('[');
+            Iterator<JsonNode> items = node.elements();
+            while (items.hasNext()) {
+                appendCanonical(items.next(), out);
+                if (items.hasNext()) {
+                    out.append(',');
+                }
+            }
+            out.append(']');
+        } else if (node.isTextual()) {
+            String text = node.asText().strip().replaceAll("\\s+", " ");
+            out.append('"').append(text.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        } else {
+            out.append(node.asText());
+        }
+    }
+
+    private record Key(String tool, String arguments) {
+    }
+
+    private record Entry(JsonNode result, int weight, long ttlNanos) {
+    }
+
+    private static final class TtlExpiry implements Expiry<Key, Entry> {
+        @Override
+        public long expireAfterCreate(Key key, Entry value, long currentTime) {
+            return value.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Entry value, long currentTime, long currentDuration) {
+            return value.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Entry value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
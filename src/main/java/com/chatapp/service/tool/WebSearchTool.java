@@ -1,6 +1,7 @@
 package com.chatapp.service.tool;
 
 import com.chatapp.service.BotRateLimitService;
+import com.chatapp.service.OutboundHttpClients;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -10,11 +11,12 @@ import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
 
 @Component
 @Slf4j
@@ -23,18 +25,25 @@ public class WebSearchTool implements Tool {
     private final OkHttpClient httpClient;
     private final String baseUrl;
     private final BotRateLimitService rateLimitService;
+    private final Duration cacheTtl;
 
+    public WebSearchTool(ObjectMapper objectMapper, String baseUrl, BotRateLimitService rateLimitService) {
+        this(objectMapper, baseUrl, rateLimitService, OutboundHttpClients.standalone(), 0);
+    }
+
+    @Autowired
     public WebSearchTool(ObjectMapper objectMapper,
                          @Value("${searxng.base-url:http://172.17.0.1:8888}") String baseUrl,
-                         BotRateLimitService rateLimitService) {
+                         BotRateLimitService rateLimitService,
+                         OutboundHttpClients httpClients,
+                         @Value("${searxng.cache-ttl-seconds:120}") long cacheTtlSeconds) {
         this.objectMapper = objectMapper;
         this.baseUrl = baseUrl;
         this.rateLimitService = rateLimitService;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(10, TimeUnit.SECONDS)
-                .writeTimeout(10, TimeUnit.SECONDS)
-                .build();
+        this.cacheTtl = Duration.ofSeconds(Math.max(0, cacheTtlSeconds));
+        this.httpClient = httpClients.client("web-search", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(10), Duration.ofSeconds(10), Duration.ofSeconds(10))
+                .withCallTimeout(Duration.ofSeconds(20)));
     }
 
     @Override
@@ -42,6 +51,17 @@ public class WebSearchTool implements Tool {
         return "web_search";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
+    /** Rooms searching the same trending query within the TTL share one SearXNG call. */
+    @Override
+    public Duration resultCacheTtl() {
+        return cacheTtl;
+    }
+
     @Override
     public String description() {
         return "Search the web through the self-hosted SearXNG instance.";
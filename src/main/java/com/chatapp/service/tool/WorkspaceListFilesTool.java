@@ -34,6 +34,11 @@ public class WorkspaceListFilesTool implements Tool {
         return "workspace_list_files";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "List files in a workspace you have access to (optionally within a folder). "
@@ -32,6 +32,11 @@ public class WorkspaceReadFileTool implements Tool {
         return "workspace_read_file";
     }
 
+    @Override
+    public Concurrency concurrency() {
+        return Concurrency.READ_ONLY;
+    }
+
     @Override
     public String description() {
         return "Read the current text content of a workspace file you have access to.";
@@ -0,0 +1,46 @@
+package com.chatapp.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Consumer;
+
+public final class TransactionHooks {
+
+    private TransactionHooks() {
+    }
+
+    /**
+     * Runs {@code action} once the surrounding transaction commits, or right away when
+     * there is none. Nothing runs on rollback.
+     */
+    public static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+            return;
+        }
+        action.run();
+    }
+
+    /**
+     * Runs {@code action} once the surrounding transaction has finished, with whether it
+     * committed, or right away (as committed) when there is none.
+     */
+    public static void afterCompletion(Consumer<Boolean> action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    action.accept(status == STATUS_COMMITTED);
+                }
+            });
+            return;
+        }
+        action.accept(true);
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatapp.websocket;
 
+import com.chatapp.dto.BotDto;
 import com.chatapp.dto.MessageDto;
 import com.chatapp.dto.PollDto;
 import com.chatapp.entity.AppVersion;
@@ -32,6 +33,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Raw WebSocket handler that speaks the Flutter client's JSON-framed protocol:
@@ -44,6 +47,7 @@ import java.util.concurrent.ConcurrentHashMap;
  *   → {"type":"typing","chatRoomId":1,"userId":2,"isTyping":true}
  *   → {"type":"call","action":"offer|answer|ice|hangup",...}
  *   → {"type":"agent_tool_request","callId":"...","toolName":"...","params":{...}}
+ *   → {"type":"bot_message_delta","chatRoomId":1,"streamId":"...","seq":0,"delta":"...","done":false}
  *   → {"type":"status","userId":2,"onlineStatus":"ONLINE"}
  *   → {"type":"pong"}
  *
@@ -70,6 +74,9 @@ public class RawWebSocketHandler extends TextWebSocketHandler {
 
     // userId -> sessions (a user may have multiple devices connected)
     private final Map<Long, Set<WebSocketSession>> userSessions = new ConcurrentHashMap<>();
+    // Serializes sends per session (the container allows one writer at a time); a
+    // ReentrantLock so a virtual thread waiting on a slow client does not pin its carrier.
+    private final Map<String, Lock> sendLocks = new ConcurrentHashMap<>();
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
@@ -86,6 +93,7 @@ public class RawWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        sendLocks.remove(session.getId());
         User user = (User) session.getAttributes().get(ATTR_USER);
         if (user == null) {
             return;
@@ -179,7 +187,9 @@ public class RawWebSocketHandler extends TextWebSocketHandler {
         if (messageType == Message.MessageType.TEXT
                 && (encryptedContent == null || encryptedContent.isBlank())) {
             botReplyDeliveryService.deliver(
-                    botService.processMessageForBots(chatRoomId, content, user.getId(), saved),
+                    botService.processMessageForBots(chatRoomId, content, user.getId(), saved,
+                            this::broadcastBotMessageDelta,
+                            replies -> botReplyDeliveryService.deliver(replies, this::broadcastMessage)),
                     this::broadcastMessage);
         }
     }
@@ -393,6 +403,20 @@ public class RawWebSocketHandler extends TextWebSocketHandler {
         broadcastMessage(saved, exceptUserId);
     }
 
+    /**
+     * Pushes a partial bot reply to the room. Clients append {@code delta} to a
+     * provisional bubble keyed by {@code streamId} and swap it for the persisted
+     * message(s) named in the {@code done} frame.
+     */
+    public void broadcastBotMessageDelta(BotDto.StreamDelta delta) {
+        if (delta == null || delta.getChatRoomId() == null) {
+            return;
+        }
+        ObjectNode envelope = objectMapper.valueToTree(delta);
+        envelope.put("type", "bot_message_delta");
+        broadcastToRoom(delta.getChatRoomId(), envelope);
+    }
+
     public void broadcastReadReceipt(Long chatRoomId, Long userId, Long lastReadMessageId) {
         ObjectNode envelope = objectMapper.createObjectNode();
         envelope.put("type", "read_receipt");
@@ -808,8 +832,13 @@ public class RawWebSocketHandler extends TextWebSocketHandler {
     private void sendJson(WebSocketSession session, Object payload) {
         if (!session.isOpen()) return;
         try {
-            synchronized (session) {
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(payload)));
+            TextMessage message = new TextMessage(objectMapper.writeValueAsString(payload));
+            Lock lock = sendLocks.computeIfAbsent(session.getId(), id -> new ReentrantLock());
+            lock.lock();
+            try {
+                session.sendMessage(message);
+            } finally {
+                lock.unlock();
             }
         } catch (IOException e) {
             log.warn("Failed to send ws message: {}", e.getMessage());
@@ -0,0 +1,3 @@
+-- Per room-bot debounce window for bursts of triggers; NULL = server default for the trigger mode.
+ALTER TABLE chat_room_bots
+    ADD COLUMN coalesce_window_ms INT NULL AFTER enabled_in_room;
@@ -0,0 +1,10 @@
+-- Durable agent task queue: a PENDING task is claimed by one node under a lease that
+-- the node's heartbeat keeps extending; an expired lease means the node died and the
+-- task is retried (up to max attempts) by whichever node claims it next.
+ALTER TABLE agent_tasks
+    ADD COLUMN attempts INT NOT NULL DEFAULT 0,
+    ADD COLUMN lease_owner VARCHAR(64) NULL,
+    ADD COLUMN lease_expires_at DATETIME(6) NULL,
+    ADD COLUMN next_attempt_at DATETIME(6) NULL,
+    ADD KEY idx_agent_tasks_status_next_attempt (status, next_attempt_at),
+    ADD KEY idx_agent_tasks_status_lease (status, lease_expires_at);
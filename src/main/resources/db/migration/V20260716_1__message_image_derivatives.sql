@@ -0,0 +1,9 @@
+-- Server-generated image derivatives: thumbnail_url (already present) holds the list
+-- thumbnail, preview_url the larger viewer image and blur_hash the placeholder shown
+-- while they load. Derivative files are served through /api/files/chat/, whose access
+-- check looks the message up by these columns.
+ALTER TABLE messages
+    ADD COLUMN preview_url VARCHAR(255) NULL AFTER thumbnail_url,
+    ADD COLUMN blur_hash VARCHAR(64) NULL AFTER preview_url,
+    ADD KEY idx_messages_thumbnail_url (thumbnail_url),
+    ADD KEY idx_messages_preview_url (preview_url);
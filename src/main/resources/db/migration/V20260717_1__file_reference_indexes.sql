@@ -0,0 +1,13 @@
+-- Files shared by URL (forwarded messages, sticker messages) are only deleted once no
+-- message, sticker or sticker pack cover references them any more. These keys back that
+-- lookup, which runs per file during retention and self-destruct cleanup. The sticker
+-- columns are VARCHAR(1024), over the utf8mb4 key length limit, so they get a prefix key.
+ALTER TABLE messages
+    ADD KEY idx_messages_file_url (file_url),
+    ADD KEY idx_messages_image_gen_url (image_gen_url);
+
+ALTER TABLE stickers
+    ADD KEY idx_stickers_url (url(255));
+
+ALTER TABLE sticker_packs
+    ADD KEY idx_sticker_packs_cover_url (cover_url(255));
@@ -0,0 +1,65 @@
+package com.chatapp.admin;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.security.FileVaultService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkVaultFilesRunnerTest {
+    @TempDir
+    Path tempDir;
+
+    private FileStorageConfig config;
+    private FileVaultService vault;
+
+    @BeforeEach
+    void setUp() {
+        config = new FileStorageConfig();
+        config.setUploadDir(tempDir.toString());
+        vault = new FileVaultService("chunk-runner-test-key", 1024 * 1024, "test");
+    }
+
+    @Test
+    void hardLinkedOwnersAndTheirBlobStayOneFileAfterMigration() throws Exception {
+        byte[] plain = "shared attachment ".repeat(5_000).getBytes();
+        Path owner = writeLegacy("chat-files/a.png", plain);
+        Path forward = link(owner, "chat-files/b.png");
+        Path blob = link(owner, "blobs/ab/abcdef");
+        Path single = writeLegacy("chat-files/c.png", "not shared".getBytes());
+
+        new ChunkVaultFilesRunner(config, vault).migrateAll();
+
+        for (Path path : new Path[] {owner, forward, blob}) {
+            assertThat(vault.isChunked(path)).isTrue();
+            assertThat(vault.loadDecrypted(path)).isEqualTo(plain);
+            assertThat(Files.isSameFile(vault.cipherPath(path), vault.cipherPath(owner))).isTrue();
+            assertThat(Files.isSameFile(vault.metaPath(path), vault.metaPath(owner))).isTrue();
+        }
+        assertThat(Files.getAttribute(vault.cipherPath(owner), "unix:nlink")).isEqualTo(3);
+        assertThat(vault.isChunked(single)).isTrue();
+        assertThat(vault.loadDecrypted(single)).isEqualTo("not shared".getBytes());
+    }
+
+    private Path writeLegacy(String relative, byte[] plain) throws Exception {
+        Path base = tempDir.resolve(relative);
+        Files.createDirectories(base.getParent());
+        FileVaultService.EncryptedPayload payload = vault.encryptObject(plain);
+        Files.write(vault.cipherPath(base), payload.ciphertext());
+        Files.write(vault.metaPath(base), payload.metaJson());
+        return base;
+    }
+
+    private Path link(Path existing, String relative) throws Exception {
+        Path base = tempDir.resolve(relative);
+        Files.createDirectories(base.getParent());
+        Files.createLink(vault.metaPath(base), vault.metaPath(existing));
+        Files.createLink(vault.cipherPath(base), vault.cipherPath(existing));
+        return base;
+    }
+}
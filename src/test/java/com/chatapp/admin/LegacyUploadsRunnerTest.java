@@ -99,6 +99,25 @@ class LegacyUploadsRunnerTest {
         assertThat(Files.exists(release.resolveSibling("pmchat.apk.enc"))).isFalse();
     }
 
+    @Test
+    void chunkRunnerRewritesSingleShotFilesAndLeavesChunkedOnesAlone() throws Exception {
+        Path legacy = tempDir.resolve("chat-files/old.mp4");
+        Files.createDirectories(legacy.getParent());
+        FileVaultService.EncryptedPayload payload = vault.encryptObject("old-video-bytes".getBytes());
+        Files.write(vault.cipherPath(legacy), payload.ciphertext());
+        Files.write(vault.metaPath(legacy), payload.metaJson());
+        Path current = write("avatars/new.png", "new-avatar");
+        vault.storeEncrypted(current, Files.readAllBytes(current));
+        Files.delete(current);
+        byte[] currentCipher = Files.readAllBytes(vault.cipherPath(current));
+
+        new ChunkVaultFilesRunner(config, vault).migrateAll();
+
+        assertThat(vault.isChunked(legacy)).isTrue();
+        assertThat(vault.loadDecrypted(legacy)).isEqualTo("old-video-bytes".getBytes());
+        assertThat(Files.readAllBytes(vault.cipherPath(current))).isEqualTo(currentCipher);
+    }
+
     private Path write(String relative, String value) throws Exception {
         Path path = tempDir.resolve(relative);
         Files.createDirectories(path.getParent());
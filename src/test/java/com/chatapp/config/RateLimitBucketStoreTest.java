@@ -0,0 +1,135 @@
+package com.chatapp.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RateLimitBucketStoreTest {
+
+    @Test
+    void millionDistinctKeysStayWithinEntryCap() {
+        LocalRateLimitBucketStore store = new LocalRateLimitBucketStore(10_000, Runnable::run, System::nanoTime);
+
+        for (int i = 0; i < 1_000_000; i++) {
+            assertThat(store.tryConsume("ip:10." + (i >>> 16) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff),
+                    60, Duration.ofMinutes(1))).isTrue();
+        }
+
+        assertThat(store.estimatedSize()).isLessThanOrEqualTo(10_000);
+    }
+
+    @Test
+    void hotKeyKeepsItsLimitWhileScanChurnsTheCache() {
+        LocalRateLimitBucketStore store = new LocalRateLimitBucketStore(1_000, Runnable::run, System::nanoTime);
+
+        assertThat(store.tryConsume("ip:attacker", 1, Duration.ofMinutes(1))).isTrue();
+        for (int i = 0; i < 50_000; i++) {
+            store.tryConsume("ip:scan-" + i, 60, Duration.ofMinutes(1));
+            if (i % 100 == 0) {
+                assertThat(store.tryConsume("ip:attacker", 1, Duration.ofMinutes(1))).isFalse();
+            }
+        }
+    }
+
+    @Test
+    void countersAreNotEvictedByKeyChurn() {
+        LocalRateLimitBucketStore store = new LocalRateLimitBucketStore(1_000, Runnable::run, System::nanoTime);
+
+        store.incrementCounter("login:alice", Duration.ofHours(24));
+        for (int i = 0; i < 50_000; i++) {
+            store.tryConsume("ip:scan-" + i, 60, Duration.ofMinutes(1));
+            store.incrementCounter("login:user-" + i, Duration.ofHours(24));
+        }
+
+        assertThat(store.getCounter("login:alice")).isEqualTo(1);
+    }
+
+    @Test
+    void idleBucketExpiresAfterOneRefillPeriod() {
+        AtomicLong nanos = new AtomicLong();
+        LocalRateLimitBucketStore store = new LocalRateLimitBucketStore(100, Runnable::run, nanos::get);
+
+        store.tryConsume("k", 1, Duration.ofMinutes(1));
+        assertThat(store.estimatedSize()).isEqualTo(1);
+
+        nanos.addAndGet(Duration.ofMinutes(1).plusSeconds(1).toNanos());
+        assertThat(store.estimatedSize()).isZero();
+    }
+
+    @Test
+    void counterResetsAtEndOfFixedWindowNotOnEachIncrement() {
+        AtomicLong nanos = new AtomicLong();
+        LocalRateLimitBucketStore store = new LocalRateLimitBucketStore(100, Runnable::run, nanos::get);
+
+        assertThat(store.incrementCounter("login", Duration.ofHours(24))).isEqualTo(1);
+        nanos.addAndGet(Duration.ofHours(20).toNanos());
+        assertThat(store.incrementCounter("login", Duration.ofHours(24))).isEqualTo(2);
+        nanos.addAndGet(Duration.ofHours(5).toNanos());
+        assertThat(store.getCounter("login")).isZero();
+
+        store.incrementCounter("login", Duration.ofHours(24));
+        store.resetCounter("login");
+        assertThat(store.getCounter("login")).isZero();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void redisStoreUsesScriptResult() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.execute(any(RedisScript.class), anyList(), anyString(), anyString())).thenReturn(0L);
+        RedisRateLimitBucketStore store = new RedisRateLimitBucketStore(redis,
+                new LocalRateLimitBucketStore(100));
+
+        assertThat(store.tryConsume("k", 10, Duration.ofMinutes(1))).isFalse();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void redisStoreFallsBackToLocalTierWhenRedisIsDown() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.execute(any(RedisScript.class), anyList(), anyString(), anyString()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        when(redis.execute(any(RedisScript.class), anyList(), anyString()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        RedisRateLimitBucketStore store = new RedisRateLimitBucketStore(redis,
+                new LocalRateLimitBucketStore(100));
+
+        assertThat(store.tryConsume("k", 1, Duration.ofMinutes(1))).isTrue();
+        assertThat(store.tryConsume("k", 1, Duration.ofMinutes(1))).isFalse();
+        assertThat(store.incrementCounter("c", Duration.ofMinutes(1))).isEqualTo(1);
+        assertThat(store.incrementCounter("c", Duration.ofMinutes(1))).isEqualTo(2);
+    }
+
+    @Test
+    void loginLockoutUsesStoreCounters() {
+        RateLimitConfig config = new RateLimitConfig(new LocalRateLimitBucketStore(100));
+        for (int i = 0; i < 49; i++) {
+            config.recordLoginFailure(" Alice ");
+        }
+        assertThat(config.isLoginLocked("alice")).isFalse();
+        config.recordLoginFailure("ALICE");
+        assertThat(config.isLoginLocked("alice")).isTrue();
+        config.resetLoginFailures("alice");
+        assertThat(config.isLoginLocked("alice")).isFalse();
+    }
+
+    @Test
+    void distinctKeysAreIndependent() {
+        LocalRateLimitBucketStore store = new LocalRateLimitBucketStore(100);
+        assertThat(store.tryConsume("a", 1, Duration.ofMinutes(1))).isTrue();
+        assertThat(store.tryConsume("a", 1, Duration.ofMinutes(1))).isFalse();
+        assertThat(store.tryConsume("b", 1, Duration.ofMinutes(1))).isTrue();
+        assertThat(store.getCounter("missing")).isZero();
+    }
+}
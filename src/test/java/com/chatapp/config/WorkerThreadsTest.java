@@ -0,0 +1,76 @@
+package com.chatapp.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkerThreadsTest {
+
+    @Test
+    void platformFactoryMakesNamedDaemonThreads() {
+        Thread thread = WorkerThreads.platform().threadFactory("bot-webhook-dispatch").newThread(() -> {
+        });
+
+        assertThat(thread.getName()).isEqualTo("bot-webhook-dispatch");
+        assertThat(thread.isDaemon()).isTrue();
+    }
+
+    @Test
+    void boundedExecutorRejectsPastItsLimitAndFreesPermitsOnCompletion() throws InterruptedException {
+        Executor executor = WorkerThreads.platform().boundedExecutor("test-bounded", 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        };
+
+        executor.execute(blocked);
+        executor.execute(blocked);
+        assertThatThrownBy(() -> executor.execute(() -> {
+        })).isInstanceOf(RejectedExecutionException.class);
+
+        release.countDown();
+        assertThat(finished.await(5, TimeUnit.SECONDS)).isTrue();
+        CountDownLatch ran = new CountDownLatch(1);
+        // The permit is returned just after the task body, so give it a moment.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ran.getCount() > 0 && System.nanoTime() < deadline) {
+            try {
+                executor.execute(ran::countDown);
+            } catch (RejectedExecutionException e) {
+                Thread.onSpinWait();
+            }
+        }
+        assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void callerRunsExecutorRunsOnTheSubmitterPastItsLimit() throws InterruptedException {
+        Executor executor = WorkerThreads.platform().boundedCallerRunsExecutor("test-caller-runs", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Thread[] ranOn = new Thread[1];
+        executor.execute(() -> ranOn[0] = Thread.currentThread());
+
+        assertThat(ranOn[0]).isSameAs(Thread.currentThread());
+        release.countDown();
+    }
+}
@@ -3,15 +3,27 @@ package com.chatapp.security;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class FileVaultServiceTest {
     @TempDir
@@ -63,6 +75,301 @@ class FileVaultServiceTest {
                 .isInstanceOf(IOException.class);
     }
 
+    @Test
+    void legacyFileTamperFailsAtEndOfStream() throws Exception {
+        FileVaultService vault = service();
+        Path base = tempDir.resolve("tamper-large.bin");
+        writeLegacy(vault, base, "pmchat-tamper-streaming-payload".repeat(4096 * 32).getBytes());
+
+        byte[] cipher = Files.readAllBytes(vault.cipherPath(base));
+        cipher[cipher.length / 2] ^= 0x01;
+        Files.write(vault.cipherPath(base), cipher);
+
+        assertThatThrownBy(() -> hash(vault.loadDecryptedStream(base)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("校验失败");
+    }
+
+    @Test
+    void chunkedRangesDecryptOnlyTheRequestedBytes() throws Exception {
+        FileVaultService vault = service();
+        Path base = tempDir.resolve("clip.mp4");
+        byte[] plain = new byte[300_000];
+        new Random(42).nextBytes(plain);
+        vault.storeEncryptedStream(base, new ByteArrayInputStream(plain), plain.length);
+
+        assertThat(vault.isChunked(base)).isTrue();
+        assertThat(vault.decryptedSize(base)).isEqualTo(plain.length);
+        long[][] ranges = {{0, 1}, {65_535, 2}, {65_536, 65_536}, {131_000, 100_000}, {299_999, 1}, {123, 0}};
+        for (long[] range : ranges) {
+            try (InputStream in = vault.openDecryptedRange(base, range[0], range[1])) {
+                assertThat(in.readAllBytes())
+                        .isEqualTo(Arrays.copyOfRange(plain, (int) range[0], (int) (range[0] + range[1])));
+            }
+        }
+        assertThatThrownBy(() -> vault.openDecryptedRange(base, 299_999, 2)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void reorderedOrTruncatedChunksFailAuthentication() throws Exception {
+        FileVaultService vault = service();
+        Path base = tempDir.resolve("chunks.bin");
+        byte[] plain = new byte[200_000];
+        new Random(7).nextBytes(plain);
+        vault.storeEncrypted(base, plain);
+        byte[] cipher = Files.readAllBytes(vault.cipherPath(base));
+        int sealedChunk = 64 * 1024 + 16;
+
+        byte[] swapped = cipher.clone();
+        System.arraycopy(cipher, sealedChunk, swapped, 0, sealedChunk);
+        System.arraycopy(cipher, 0, swapped, sealedChunk, sealedChunk);
+        Files.write(vault.cipherPath(base), swapped);
+        assertThatThrownBy(() -> vault.loadDecrypted(base)).isInstanceOf(IOException.class);
+
+        Files.write(vault.cipherPath(base), Arrays.copyOf(cipher, 2 * sealedChunk));
+        assertThatThrownBy(() -> vault.loadDecrypted(base)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void legacyFilesStayReadableAndMigrateToChunks() throws Exception {
+        FileVaultService vault = service();
+        Path base = tempDir.resolve("legacy.bin");
+        byte[] plain = "legacy single-shot payload ".repeat(10_000).getBytes();
+        writeLegacy(vault, base, plain);
+
+        assertThat(vault.isChunked(base)).isFalse();
+        assertThat(vault.loadDecrypted(base)).isEqualTo(plain);
+        try (InputStream in = vault.openDecryptedRange(base, 100, 50)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(plain, 100, 150));
+        }
+
+        assertThat(vault.migrateToChunked(base)).isTrue();
+        assertThat(vault.isChunked(base)).isTrue();
+        assertThat(vault.loadDecrypted(base)).isEqualTo(plain);
+        assertThat(vault.migrateToChunked(base)).isFalse();
+    }
+
+    @Test
+    void migrationCutOffBetweenItsStepsLeavesTheFileReadableAndIsFinishedLater() throws Exception {
+        FileVaultService vault = service();
+        byte[] plain = "legacy single-shot payload ".repeat(10_000).getBytes();
+        Path base = tempDir.resolve("legacy.bin");
+        writeLegacy(vault, base, plain);
+        byte[] oldCipher = Files.readAllBytes(vault.cipherPath(base));
+        String oldMeta = Files.readString(vault.metaPath(base));
+        vault.migrateToChunked(base);
+        byte[] newCipher = Files.readAllBytes(vault.cipherPath(base));
+        String newMeta = Files.readString(vault.metaPath(base));
+        assertThat(newMeta).contains("cipher_tail").doesNotContain("previous");
+        // The header written before the ciphertext moves: the new one, carrying the old one.
+        String bothMetas = newMeta.substring(0, newMeta.lastIndexOf('}')) + ",\"previous\":" + oldMeta + "}";
+
+        // Cut off before the new ciphertext moved into place.
+        Files.write(vault.cipherPath(base), oldCipher);
+        Files.writeString(vault.metaPath(base), bothMetas);
+        assertThat(vault.isChunked(base)).isFalse();
+        assertThat(vault.loadDecrypted(base)).isEqualTo(plain);
+        assertThat(vault.migrateToChunked(base)).isTrue();
+        assertThat(vault.loadDecrypted(base)).isEqualTo(plain);
+        assertThat(Files.readString(vault.metaPath(base))).doesNotContain("previous");
+
+        // Cut off after it moved, before the final header.
+        Files.write(vault.cipherPath(base), newCipher);
+        Files.writeString(vault.metaPath(base), bothMetas);
+        assertThat(vault.isChunked(base)).isTrue();
+        try (InputStream in = vault.openDecryptedRange(base, 100, 50)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(plain, 100, 150));
+        }
+        assertThat(vault.migrateToChunked(base)).isTrue();
+        assertThat(Files.readString(vault.metaPath(base))).doesNotContain("previous");
+        assertThat(vault.loadDecrypted(base)).isEqualTo(plain);
+    }
+
+    @Test
+    void relinkingAHardLinkedOwnerSharesTheMigratedPairAgain() throws Exception {
+        FileVaultService vault = service();
+        byte[] plain = "deduplicated payload ".repeat(5_000).getBytes();
+        Path owner = tempDir.resolve("owner.bin");
+        Path other = tempDir.resolve("other.bin");
+        writeLegacy(vault, owner, plain);
+        Files.createLink(vault.metaPath(other), vault.metaPath(owner));
+        Files.createLink(vault.cipherPath(other), vault.cipherPath(owner));
+
+        assertThat(vault.migrateToChunked(owner)).isTrue();
+        assertThat(vault.isChunked(other)).isFalse();
+        assertThat(vault.relinkToChunked(other, owner)).isTrue();
+
+        assertThat(Files.isSameFile(vault.cipherPath(other), vault.cipherPath(owner))).isTrue();
+        assertThat(Files.isSameFile(vault.metaPath(other), vault.metaPath(owner))).isTrue();
+        assertThat(vault.loadDecrypted(other)).isEqualTo(plain);
+        assertThat(vault.relinkToChunked(other, owner)).isFalse();
+    }
+
+    @Test
+    void ciphertextThatNoHeaderFitsIsRejectedInsteadOfMisread() throws Exception {
+        FileVaultService vault = service();
+        byte[] plain = "legacy single-shot payload ".repeat(1_000).getBytes();
+        Path base = tempDir.resolve("legacy.bin");
+        writeLegacy(vault, base, plain);
+        byte[] oldCipher = Files.readAllBytes(vault.cipherPath(base));
+        vault.migrateToChunked(base);
+
+        // What a reader holding the old ciphertext sees once the final header is in place.
+        Files.write(vault.cipherPath(base), oldCipher);
+
+        assertThatThrownBy(() -> vault.loadDecrypted(base))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("不匹配");
+    }
+
+    @Test
+    void contentTagIsKeyedAndSurvivesReencryption() throws Exception {
+        FileVaultService vault = service();
+        byte[] plain = "same sticker bytes".getBytes();
+        Path first = tempDir.resolve("first.png");
+        Path second = tempDir.resolve("second.png");
+        Path other = tempDir.resolve("other.png");
+        Path legacy = tempDir.resolve("legacy.png");
+        vault.storeEncrypted(first, plain);
+        vault.storeEncrypted(second, plain);
+        vault.storeEncrypted(other, "different bytes".getBytes());
+        writeLegacy(vault, legacy, plain);
+
+        String tag = vault.contentTag(first);
+        assertThat(vault.contentTag(second)).isEqualTo(tag);
+        assertThat(vault.contentTag(legacy)).isEqualTo(tag);
+        assertThat(vault.contentTag(other)).isNotEqualTo(tag);
+
+        vault.migrateToChunked(legacy);
+        assertThat(vault.contentTag(legacy)).isEqualTo(tag);
+
+        FileVaultService otherKey = new FileVaultService("another-master-key", 1024 * 1024, "test");
+        Path foreign = tempDir.resolve("foreign.png");
+        otherKey.storeEncrypted(foreign, plain);
+        assertThat(otherKey.contentTag(foreign)).isNotEqualTo(tag);
+    }
+
+    @Test
+    void contentAddressIsKeyedAndDiffersFromTheContentTag() throws Exception {
+        FileVaultService vault = service();
+        byte[] plain = "same meme bytes".getBytes();
+        Path stored = tempDir.resolve("meme.png");
+        vault.storeEncrypted(stored, plain);
+
+        String address = vault.contentAddress(new ByteArrayInputStream(plain));
+        assertThat(vault.contentAddress(new ByteArrayInputStream(plain.clone()))).isEqualTo(address);
+        assertThat(vault.contentAddress(new ByteArrayInputStream("other".getBytes()))).isNotEqualTo(address);
+        assertThat(address).isNotEqualTo(vault.contentTag(stored));
+        assertThat(new FileVaultService("another-master-key", 1024, "test")
+                .contentAddress(new ByteArrayInputStream(plain))).isNotEqualTo(address);
+    }
+
+    @Test
+    void stagedPiecesSealChunksIncrementallyAndDropUnfinishedTails() throws Exception {
+        FileVaultService vault = service();
+        int chunk = 64 * 1024;
+        byte[] plain = new byte[3 * chunk + 1000];
+        new Random(7).nextBytes(plain);
+        Path part = tempDir.resolve("upload.part");
+        FileVaultService.VaultMeta staged = vault.beginStaged(part, plain.length);
+
+        assertThat(vault.appendStaged(part, staged, 0, Arrays.copyOfRange(plain, 0, chunk + 500))).isEqualTo(chunk);
+        assertThat(vault.appendStaged(part, staged, chunk, Arrays.copyOfRange(plain, chunk, chunk + 100)))
+                .isEqualTo(chunk);
+        assertThat(vault.stagedOffset(part, staged)).isEqualTo(chunk);
+        assertThatThrownBy(() -> vault.appendStaged(part, staged, chunk, plain))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> vault.appendStaged(part, staged, 0, Arrays.copyOfRange(plain, 0, chunk)))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> vault.stagedDigest(part, staged)).isInstanceOf(IOException.class);
+
+        Path torn = tempDir.resolve("torn.part");
+        Files.copy(part, torn);
+        Files.write(torn, new byte[10], StandardOpenOption.APPEND);
+        assertThatThrownBy(() -> vault.stagedOffset(torn, staged)).isInstanceOf(IOException.class);
+
+        assertThat(vault.appendStaged(part, staged, chunk, Arrays.copyOfRange(plain, chunk, plain.length)))
+                .isEqualTo(plain.length);
+        assertThat(vault.stagedOffset(part, staged)).isEqualTo(plain.length);
+        Path base = tempDir.resolve("upload.bin");
+        vault.completeStaged(part, staged, vault.stagedDigest(part, staged), base);
+        Path oneShot = tempDir.resolve("one-shot.bin");
+        vault.storeEncrypted(oneShot, plain);
+
+        // The part stays until the caller is done with the stored file; dropping it then leaves the file intact.
+        assertThat(Files.exists(part)).isTrue();
+        Files.delete(part);
+        assertThat(vault.isChunked(base)).isTrue();
+        assertThat(vault.loadDecrypted(base)).isEqualTo(plain);
+        assertThat(vault.contentTag(base)).isEqualTo(vault.contentTag(oneShot));
+        try (InputStream range = vault.openDecryptedRange(base, chunk - 10, 20)) {
+            assertThat(range.readAllBytes()).isEqualTo(Arrays.copyOfRange(plain, chunk - 10, chunk + 10));
+        }
+    }
+
+    @Test
+    void filesWithoutRecordedContentTagFallBackToAStableTag() throws Exception {
+        FileVaultService vault = service();
+        Path base = tempDir.resolve("old.png");
+        vault.storeEncrypted(base, "written before content tags".getBytes());
+        String meta = Files.readString(vault.metaPath(base));
+        Files.writeString(vault.metaPath(base), meta.replaceAll(",\"content_tag\":\"[^\"]*\"", ""));
+
+        String fallback = vault.contentTag(base);
+        assertThat(Files.readString(vault.metaPath(base))).doesNotContain("content_tag");
+        assertThat(fallback).isNotBlank().isEqualTo(vault.contentTag(base));
+    }
+
+    @Test
+    void openDecryptedReportsPlaintextSizeAndAuthenticatesSmallFilesUpFront() throws Exception {
+        FileVaultService vault = new FileVaultService("test-master-key-not-secret", 64, "test");
+        Path base = tempDir.resolve("small.txt");
+        vault.storeEncrypted(base, "small enough to verify first".getBytes());
+        byte[] cipher = Files.readAllBytes(vault.cipherPath(base));
+        cipher[0] ^= 0x01;
+        Files.write(vault.cipherPath(base), cipher);
+
+        assertThat(vault.decryptedSize(base)).isEqualTo("small enough to verify first".length());
+        assertThatThrownBy(() -> vault.openDecrypted(base)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void concurrentLargeDownloadsStayWithinBoundedBuffers() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        FileVaultService vault = service();
+        Path base = tempDir.resolve("video.mp4");
+        byte[] chunk = "pmchat-concurrent-download-payload".repeat(1024).getBytes();
+        int repeats = 512;
+        long size = (long) chunk.length * repeats;
+        String expectedHash = hash(new RepeatingInputStream(chunk, repeats));
+        vault.storeEncryptedStream(base, new RepeatingInputStream(chunk, repeats), size);
+
+        int downloads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(downloads);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int i = 0; i < downloads; i++) {
+                results.add(pool.submit(() -> {
+                    long thread = Thread.currentThread().getId();
+                    long before = threads.getThreadAllocatedBytes(thread);
+                    String actual = hash(vault.openDecrypted(base));
+                    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+                    return new long[] {actual.equals(expectedHash) ? 1 : 0, allocated};
+                }));
+            }
+            for (Future<long[]> result : results) {
+                long[] outcome = result.get(60, TimeUnit.SECONDS);
+                assertThat(outcome[0]).isEqualTo(1);
+                // An ~18MB file; the old path allocated the whole plaintext and more per download.
+                assertThat(outcome[1]).isLessThan(size / 8);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     @Test
     void objectPayloadRoundTripSupportsMinioWorkspaceBranch() throws Exception {
         FileVaultService vault = service();
@@ -121,6 +428,13 @@ class FileVaultServiceTest {
         assertThat(Files.exists(vault.metaPath(base))).isFalse();
     }
 
+    /** Writes the v1 single-shot layout, as files stored before chunking have it. */
+    private void writeLegacy(FileVaultService vault, Path base, byte[] plain) throws Exception {
+        FileVaultService.EncryptedPayload payload = vault.encryptObject(plain);
+        Files.write(vault.cipherPath(base), payload.ciphertext());
+        Files.write(vault.metaPath(base), payload.metaJson());
+    }
+
     private String hash(InputStream in) throws Exception {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
         try (InputStream input = in) {
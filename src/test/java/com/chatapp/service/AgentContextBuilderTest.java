@@ -570,6 +570,38 @@ class AgentContextBuilderTest {
         assertTrue(prompt.contains("为何管理员没有积分"));
     }
 
+    @Test
+    @DisplayName("stable prompt prefix is byte-identical across turns and precedes per-turn sections")
+    void stablePrefixIsByteIdenticalAcrossTurns() {
+        mockMembers();
+        when(messageRepository.findRecentMessages(eq(10L), eq(5)))
+                .thenReturn(List.of(message(1L, bob, "first turn", 2)))
+                .thenReturn(List.of(message(1L, bob, "first turn", 3), message(2L, alice, "second turn", 1)));
+
+        AgentContextBuilder.SystemPrompt first = builder.assembleSystemPromptParts(builder.buildContext(task("one")));
+        AgentContextBuilder.SystemPrompt second = builder.assembleSystemPromptParts(builder.buildContext(task("two")));
+
+        assertEquals(first.stablePrefix(), second.stablePrefix());
+        assertTrue(first.stablePrefix().contains("[BEHAVIOR RULES]"));
+        assertTrue(first.stablePrefix().contains("Members (2): Alice, Bob"));
+        assertFalse(first.stablePrefix().contains("first turn"));
+        assertTrue(second.volatileSuffix().contains("second turn"));
+        assertTrue(second.volatileSuffix().endsWith("two"));
+        assertEquals(second.text(), builder.assembleSystemPrompt(builder.buildContext(task("two"))));
+    }
+
+    @Test
+    @DisplayName("template prompt splits at the first per-turn placeholder")
+    void templatePromptSplitsAtFirstVolatilePlaceholder() {
+        bot.setSystemPromptTemplate("Room={{room_name}}; Task={{task}}");
+        mockMembers();
+
+        AgentContextBuilder.SystemPrompt prompt = builder.assembleSystemPromptParts(builder.buildContext(task("ping")));
+
+        assertEquals("Room=Context Lab; Task=", prompt.stablePrefix());
+        assertEquals("ping", prompt.volatileSuffix());
+    }
+
     private AgentTask task(String prompt) {
         AgentTask task = new AgentTask();
         task.setId(77L);
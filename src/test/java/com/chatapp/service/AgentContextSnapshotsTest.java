@@ -0,0 +1,160 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.Message;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AgentContextSnapshotsTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    private final AtomicInteger renders = new AtomicInteger();
+    private final Function<Message, AgentContextBuilder.HistoricalMessage> render = message -> {
+        renders.incrementAndGet();
+        return message.getContent() == null ? null
+                : new AgentContextBuilder.HistoricalMessage("u", "TEXT", message.getContent(), "", message.getId(), List.of());
+    };
+
+    @Test
+    void advanceAppendsNewMessagesAndTrimsFromTheFront() {
+        AgentContextSnapshots.HistoryWindow window = AgentContextSnapshots.HistoryWindow.load(
+                List.of(message(1, "a"), message(2, "b"), message(3, "c")), render, NOW);
+        renders.set(0);
+
+        AgentContextSnapshots.HistoryWindow next = window.advance(
+                List.of(message(4, "d"), message(5, "e")), 3, render, NOW.plusSeconds(5));
+
+        assertEquals(List.of("c", "d", "e"), contents(next));
+        assertEquals(5, next.lastSeenId());
+        assertEquals(3L, next.fromId());
+        assertEquals(2, renders.get(), "only the new rows are rendered");
+    }
+
+    @Test
+    void editedMessageIsReplacedInPlace() {
+        AgentContextSnapshots.HistoryWindow window = AgentContextSnapshots.HistoryWindow.load(
+                List.of(message(1, "a"), message(2, "b")), render, NOW);
+
+        AgentContextSnapshots.HistoryWindow next = window.advance(
+                List.of(message(1, "a edited")), 5, render, NOW.plusSeconds(5));
+
+        assertEquals(List.of("a edited", "b"), contents(next));
+        assertEquals(2, next.lastSeenId());
+    }
+
+    @Test
+    void deletionThatLeavesAFullWindowShortForcesReload() {
+        AgentContextSnapshots.HistoryWindow window = AgentContextSnapshots.HistoryWindow.load(
+                List.of(message(1, "a"), message(2, "b")), render, NOW);
+        Message deleted = message(2, "b");
+        deleted.setIsDeleted(true);
+
+        assertNull(window.advance(List.of(deleted), 2, render, NOW.plusSeconds(5)));
+        assertEquals(List.of("a"), contents(window.advance(List.of(deleted), 5, render, NOW.plusSeconds(5))));
+    }
+
+    @Test
+    void messagesWithoutTextKeepTheirSlotButAreNotReturned() {
+        AgentContextSnapshots.HistoryWindow window = AgentContextSnapshots.HistoryWindow.load(
+                List.of(message(1, "a"), message(2, null), message(3, "c")), render, NOW);
+
+        assertEquals(List.of("a", "c"), contents(window));
+        assertEquals(1L, window.fromId());
+    }
+
+    @Test
+    void changedSinceLagsTheLastRefresh() {
+        AgentContextSnapshots.HistoryWindow window = AgentContextSnapshots.HistoryWindow.load(
+                List.of(message(1, "a")), render, NOW);
+
+        assertEquals(NOW.minus(AgentContextSnapshots.COMMIT_LAG), window.changedSince());
+    }
+
+    @Test
+    void staleOrSelfDestructingWindowsAreNotHandedOut() {
+        AgentContextSnapshots snapshots = new AgentContextSnapshots(60);
+        Message fleeting = message(2, "b");
+        fleeting.setSelfDestructAt(NOW.plusSeconds(30));
+        snapshots.putHistory(10L, 5, AgentContextSnapshots.HistoryWindow.load(
+                List.of(message(1, "a"), fleeting), render, NOW));
+
+        assertNotNull(snapshots.history(10L, 5, NOW.plusSeconds(10)));
+        assertNull(snapshots.history(10L, 8, NOW.plusSeconds(10)), "windows are keyed by limit");
+        assertNull(snapshots.history(10L, 5, NOW.plusSeconds(30)));
+        assertNull(snapshots.history(10L, 5, NOW.plusSeconds(61)));
+    }
+
+    @Test
+    void membersAreCachedUntilMembershipChanges() {
+        AgentContextSnapshots snapshots = new AgentContextSnapshots(60);
+        AtomicInteger loads = new AtomicInteger();
+        Function<Long, AgentContextSnapshots.RoomMembers> loader = roomId -> {
+            loads.incrementAndGet();
+            return new AgentContextSnapshots.RoomMembers(List.of("Alice"), 1);
+        };
+
+        AgentContextSnapshots.RoomMembers first = snapshots.members(10L, loader);
+        assertSame(first, snapshots.members(10L, loader));
+        assertEquals(1, loads.get());
+
+        snapshots.roomMembersChanged(10L);
+        snapshots.members(10L, loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void disabledSnapshotsKeepNothing() {
+        AgentContextSnapshots snapshots = AgentContextSnapshots.disabled();
+        AtomicInteger loads = new AtomicInteger();
+        snapshots.putHistory(10L, 5, AgentContextSnapshots.HistoryWindow.load(List.of(message(1, "a")), render, NOW));
+
+        assertNull(snapshots.history(10L, 5, NOW));
+        snapshots.members(10L, roomId -> new AgentContextSnapshots.RoomMembers(List.of(), loads.incrementAndGet()));
+        snapshots.members(10L, roomId -> new AgentContextSnapshots.RoomMembers(List.of(), loads.incrementAndGet()));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void compiledTemplateSplitsAtFirstVolatileTokenAndRendersOnePass() {
+        PromptTemplate template = PromptTemplate.compile(
+                "You are {{agent_display_name}} in {{room_name}}. Task: {{task}} ({{agent_display_name}}) {{unknown}}",
+                Set.of("task"));
+        AtomicInteger lookups = new AtomicInteger();
+
+        AgentContextBuilder.SystemPrompt prompt = template.render("FAQ\n", token -> {
+            lookups.incrementAndGet();
+            return switch (token) {
+                case "agent_display_name" -> "Agent";
+                case "room_name" -> "Lab";
+                case "task" -> "say {{room_name}}";
+                default -> null;
+            };
+        });
+
+        assertEquals("FAQ\nYou are Agent in Lab. Task: ", prompt.stablePrefix());
+        assertEquals("say {{room_name}} (Agent) {{unknown}}", prompt.volatileSuffix());
+        assertEquals(4, lookups.get(), "each token is resolved once per render");
+    }
+
+    private static List<String> contents(AgentContextSnapshots.HistoryWindow window) {
+        return window.messages().stream().map(AgentContextBuilder.HistoricalMessage::content).toList();
+    }
+
+    private static Message message(long id, String content) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent(content);
+        message.setIsDeleted(false);
+        return message;
+    }
+}
@@ -62,7 +62,8 @@ class AgentExecutionLoopClientToolE2ETest {
         AgentContextBuilder.AgentContextEnvelope envelope = envelope();
         Tool clientTool = new FakeClientTool();
 
-        when(contextBuilder.assembleSystemPrompt(envelope)).thenReturn("system prompt");
+        when(contextBuilder.assembleSystemPromptParts(envelope))
+                .thenReturn(new AgentContextBuilder.SystemPrompt("system prompt", ""));
         when(contextBuilder.estimateTokens(any())).thenAnswer(invocation -> {
             String value = invocation.getArgument(0);
             return value == null ? 0 : Math.max(1, value.length() / 4);
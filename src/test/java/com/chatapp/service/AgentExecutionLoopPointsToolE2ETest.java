@@ -47,7 +47,8 @@ class AgentExecutionLoopPointsToolE2ETest {
                 llmService, registry, dispatcher, contextBuilder, objectMapper);
 
         AgentContextBuilder.AgentContextEnvelope envelope = envelope();
-        when(contextBuilder.assembleSystemPrompt(envelope)).thenReturn("system prompt");
+        when(contextBuilder.assembleSystemPromptParts(envelope))
+                .thenReturn(new AgentContextBuilder.SystemPrompt("system prompt", ""));
         when(contextBuilder.estimateTokens(any())).thenAnswer(invocation -> {
             String text = invocation.getArgument(0);
             return text == null ? 0 : Math.max(1, text.length() / 4);
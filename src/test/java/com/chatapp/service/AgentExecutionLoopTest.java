@@ -15,8 +15,14 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -68,7 +74,8 @@ class AgentExecutionLoopTest {
                 6000,
                 20);
 
-        when(contextBuilder.assembleSystemPrompt(envelope)).thenReturn("system prompt");
+        when(contextBuilder.assembleSystemPromptParts(envelope))
+                .thenReturn(new AgentContextBuilder.SystemPrompt("system prompt", ""));
         when(contextBuilder.estimateTokens(any())).thenAnswer(invocation -> {
             String text = invocation.getArgument(0);
             return text == null ? 0 : Math.max(1, text.length() / 4);
@@ -170,7 +177,8 @@ class AgentExecutionLoopTest {
                 "please help",
                 6000,
                 20);
-        when(contextBuilder.assembleSystemPrompt(envelope)).thenReturn("system prompt");
+        when(contextBuilder.assembleSystemPromptParts(envelope))
+                .thenReturn(new AgentContextBuilder.SystemPrompt("system prompt", ""));
         when(llmService.chat(any(BotConfig.class), anyList(), anyList()))
                 .thenReturn(new BotDto.LLMResponse("", 5, "m",
                         List.of(new BotDto.ToolCall("call-1", "echo", "{\"value\":\"hello\"}"))))
@@ -209,7 +217,8 @@ class AgentExecutionLoopTest {
                 "我有多少积分",
                 6000,
                 20);
-        when(contextBuilder.assembleSystemPrompt(envelope)).thenReturn("system prompt");
+        when(contextBuilder.assembleSystemPromptParts(envelope))
+                .thenReturn(new AgentContextBuilder.SystemPrompt("system prompt", ""));
         when(llmService.chat(any(BotConfig.class), anyList(), anyList()))
                 .thenReturn(new BotDto.LLMResponse("done", 5, "m"));
 
@@ -285,6 +294,85 @@ class AgentExecutionLoopTest {
         return -1;
     }
 
+    @Test
+    void readOnlyToolCallsInOneTurnRunConcurrentlyAndKeepModelOrder() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Tool lookup = new RecordingTool("lookup", Tool.Concurrency.READ_ONLY, new ArrayList<>(), bothStarted);
+        when(registry.getTool("lookup")).thenReturn(Optional.of(lookup));
+        when(llmService.chat(any(BotConfig.class), anyList(), anyList()))
+                .thenReturn(new BotDto.LLMResponse("", 5, "m", List.of(
+                        new BotDto.ToolCall("call-1", "lookup", "{\"value\":\"first\"}"),
+                        new BotDto.ToolCall("call-2", "lookup", "{\"value\":\"second\"}"))))
+                .thenReturn(new BotDto.LLMResponse("done", 7, "m"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            loop = new AgentExecutionLoop(llmService, registry, dispatcher, contextBuilder, objectMapper, executor);
+
+            AgentExecutionLoop.AgentLoopResult result = loop.runLoop(task, envelope);
+
+            assertEquals("done", result.finalContent());
+            assertEquals(List.of("call-1", "call-2"),
+                    result.toolCallsMade().stream().map(AgentExecutionLoop.ToolCallRecord::id).toList());
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<List<BotDto.ChatMessage>> captor = ArgumentCaptor.forClass(List.class);
+            verify(llmService, times(2)).chat(eq(bot), captor.capture(), anyList());
+            List<BotDto.ChatMessage> toolMessages = captor.getAllValues().get(1).stream()
+                    .filter(message -> "tool".equals(message.getRole()))
+                    .toList();
+            assertEquals("call-1", toolMessages.get(0).getToolCallId());
+            assertTrue(toolMessages.get(0).textContent().contains("\"value\":\"first\""));
+            assertTrue(toolMessages.get(0).textContent().contains("\"overlapped\":true"));
+            assertEquals("call-2", toolMessages.get(1).getToolCallId());
+            assertTrue(toolMessages.get(1).textContent().contains("\"overlapped\":true"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void mutatingToolCallIsABarrierBetweenReadOnlyBatches() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        when(registry.getTool("lookup")).thenReturn(Optional.of(
+                new RecordingTool("lookup", Tool.Concurrency.READ_ONLY, events, null)));
+        when(registry.getTool("write")).thenReturn(Optional.of(
+                new RecordingTool("write", Tool.Concurrency.MUTATING, events, null)));
+        when(llmService.chat(any(BotConfig.class), anyList(), anyList()))
+                .thenReturn(new BotDto.LLMResponse("", 5, "m", List.of(
+                        new BotDto.ToolCall("call-1", "lookup", "{\"value\":\"a\"}"),
+                        new BotDto.ToolCall("call-2", "write", "{\"value\":\"w\"}"),
+                        new BotDto.ToolCall("call-3", "lookup", "{\"value\":\"b\"}"))))
+                .thenReturn(new BotDto.LLMResponse("done", 7, "m"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            loop = new AgentExecutionLoop(llmService, registry, dispatcher, contextBuilder, objectMapper, executor);
+
+            loop.runLoop(task, envelope);
+
+            assertEquals(List.of("start a", "end a", "start w", "end w", "start b", "end b"), events);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void toolsAfterBudgetHitInSameTurnGetErrorResults() {
+        bot.setMaxAgentTotalTokens(40);
+        when(registry.getTool("write")).thenReturn(Optional.of(
+                new RecordingTool("write", Tool.Concurrency.MUTATING, new ArrayList<>(), null)));
+        String bulky = "x".repeat(400);
+        when(llmService.chat(any(BotConfig.class), anyList(), anyList()))
+                .thenReturn(new BotDto.LLMResponse("", 1, "m", List.of(
+                        new BotDto.ToolCall("call-1", "write", "{\"value\":\"" + bulky + "\"}"),
+                        new BotDto.ToolCall("call-2", "write", "{\"value\":\"never\"}"))));
+
+        AgentExecutionLoop.AgentLoopResult result = loop.runLoop(task, envelope);
+
+        assertEquals(AgentExecutionLoop.TerminationReason.TOKEN_BUDGET, result.terminationReason());
+        assertEquals(2, result.toolCallsMade().size());
+        assertFalse(result.toolCallsMade().get(0).error());
+        assertTrue(result.toolCallsMade().get(1).error());
+    }
+
     private AgentTask task(BotConfig bot) {
         User user = new User();
         user.setId(1L);
@@ -321,4 +409,65 @@ class AgentExecutionLoopTest {
             return objectMapper.createObjectNode().put("value", params.path("value").asText());
         }
     }
+
+    private class RecordingTool implements Tool {
+        private final String name;
+        private final Concurrency concurrency;
+        private final List<String> events;
+        private final CountDownLatch rendezvous;
+
+        RecordingTool(String name, Concurrency concurrency, List<String> events, CountDownLatch rendezvous) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.events = events;
+            this.rendezvous = rendezvous;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String description() {
+            return name + " test tool";
+        }
+
+        @Override
+        public JsonNode parametersSchema() {
+            return objectMapper.createObjectNode().put("type", "object");
+        }
+
+        @Override
+        public Concurrency concurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public JsonNode execute(JsonNode params, ToolContext context) {
+            String value = params.path("value").asText();
+            events.add("start " + value);
+            boolean overlapped = false;
+            if (rendezvous != null) {
+                rendezvous.countDown();
+                try {
+                    overlapped = rendezvous.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                sleepQuietly(20);
+            }
+            events.add("end " + value);
+            return objectMapper.createObjectNode().put("value", value).put("overlapped", overlapped);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
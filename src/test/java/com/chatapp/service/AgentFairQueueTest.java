@@ -0,0 +1,94 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AgentFairQueueTest {
+
+    private static final Predicate<String> ANY = provider -> true;
+
+    private final AgentFairQueue<String> queue = new AgentFairQueue<>();
+
+    @Test
+    void floodingRoomDoesNotStarveOtherRooms() {
+        for (int i = 1; i <= 4; i++) {
+            queue.add(1L, 10L, "HERMES", 1, "r1-" + i);
+        }
+        queue.add(2L, 20L, "HERMES", 1, "r2-1");
+
+        assertThat(drain(5)).containsExactly("r1-1", "r2-1", "r1-2", "r1-3", "r1-4");
+        assertThat(queue.size()).isZero();
+        assertThat(queue.roomCount()).isZero();
+    }
+
+    @Test
+    void usersTakeTurnsWithinTheirRoom() {
+        queue.add(1L, 10L, "HERMES", 1, "alice-1");
+        queue.add(1L, 10L, "HERMES", 1, "alice-2");
+        queue.add(1L, 10L, "HERMES", 1, "alice-3");
+        queue.add(1L, 11L, "HERMES", 1, "bob-1");
+
+        assertThat(drain(4)).containsExactly("alice-1", "bob-1", "alice-2", "alice-3");
+    }
+
+    @Test
+    void heavierRunsGetAProportionalShare() {
+        for (int i = 0; i < 10; i++) {
+            queue.add(1L, 10L, "HERMES", 2, "interactive");
+            queue.add(2L, 20L, "HERMES", 1, "workflow");
+        }
+
+        List<String> first = drain(6);
+
+        assertThat(first.stream().filter("interactive"::equals).count()).isEqualTo(4);
+        assertThat(first.stream().filter("workflow"::equals).count()).isEqualTo(2);
+    }
+
+    @Test
+    void runsOfASaturatedProviderAreSkippedNotDropped() {
+        queue.add(1L, 10L, "HERMES", 1, "hermes");
+        queue.add(1L, 10L, "OPENAI", 1, "openai");
+
+        assertThat(queue.poll("OPENAI"::equals).item()).isEqualTo("openai");
+        assertThat(queue.poll("OPENAI"::equals)).isNull();
+        assertThat(queue.poll(ANY).item()).isEqualTo("hermes");
+    }
+
+    @Test
+    void roomJoiningLateStartsAtCurrentVirtualTime() {
+        for (int i = 0; i < 4; i++) {
+            queue.add(1L, 10L, "HERMES", 1, "r1");
+        }
+        drain(4);
+        for (int i = 0; i < 3; i++) {
+            queue.add(1L, 10L, "HERMES", 1, "r1");
+            queue.add(2L, 20L, "HERMES", 1, "r2");
+        }
+
+        assertThat(drain(6)).containsExactly("r1", "r2", "r1", "r2", "r1", "r2");
+    }
+
+    @Test
+    void removedTicketIsNeverPolled() {
+        AgentFairQueue.Ticket<String> gone = queue.add(1L, 10L, "HERMES", 1, "gone");
+        queue.add(1L, 10L, "HERMES", 1, "kept");
+
+        assertThat(queue.remove(gone)).isTrue();
+        assertThat(queue.remove(gone)).isFalse();
+        assertThat(drain(1)).containsExactly("kept");
+        assertThat(queue.poll(ANY)).isNull();
+    }
+
+    private List<String> drain(int count) {
+        List<String> polled = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            polled.add(queue.poll(ANY).item());
+        }
+        return polled;
+    }
+}
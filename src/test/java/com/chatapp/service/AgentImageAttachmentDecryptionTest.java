@@ -62,6 +62,23 @@ class AgentImageAttachmentDecryptionTest {
         assertThat(Base64.getDecoder().decode(encoded)).isEqualTo(png);
     }
 
+    @Test
+    void preparedImageIsCachedAcrossTurns() throws Exception {
+        byte[] png = new byte[] {(byte) 0x89, 'P', 'N', 'G', 13, 10, 4, 5, 6};
+        String url = storageService.uploadChatFile(new MockMultipartFile("file", "again.png", "image/png", png));
+        Message message = new Message();
+        message.setMessageType(Message.MessageType.IMAGE);
+        message.setFileUrl(url);
+        message.setFileName("again.png");
+        message.setFileType("image/png");
+
+        String first = visionService.resolve(message, true).attachments().get(0).dataUrl();
+        Files.delete(vault.cipherPath(Path.of(config.getFullChatFileDir()).resolve(url.substring("/api/files/chat/".length()))));
+        String second = visionService.resolve(message, true).attachments().get(0).dataUrl();
+
+        assertThat(second).isSameAs(first);
+    }
+
     @Test
     void missingOrTamperedImageFallsBackToTextAnnotation() {
         Message message = new Message();
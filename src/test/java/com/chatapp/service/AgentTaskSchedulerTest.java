@@ -0,0 +1,236 @@
+package com.chatapp.service;
+
+import com.chatapp.config.AgentSchedulerProperties;
+import com.chatapp.entity.AgentTask;
+import com.chatapp.entity.BotConfig;
+import com.chatapp.repository.AgentTaskRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AgentTaskSchedulerTest {
+
+    private AgentSchedulerProperties properties;
+    private AgentTaskRepository repository;
+    private AgentWorkflowService workflowService;
+    private Deque<Runnable> workers;
+    private SimpleMeterRegistry meterRegistry;
+    private AgentTaskScheduler scheduler;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        properties = new AgentSchedulerProperties();
+        properties.setAdmissionTimeoutMs(50);
+        repository = mock(AgentTaskRepository.class);
+        workflowService = mock(AgentWorkflowService.class);
+        ObjectProvider<AgentWorkflowService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(workflowService);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(inv ->
+                inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        doAnswer(inv -> {
+            inv.<Consumer<Object>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        workers = new ArrayDeque<>();
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = new AgentTaskScheduler(properties, repository, transactionTemplate, workers::add, provider,
+                meterRegistry);
+    }
+
+    @Test
+    void globalAndPerProviderCapsHoldUntilASlotIsClosed() {
+        properties.setMaxConcurrent(2);
+        properties.getProviderMaxConcurrent().put("HERMES", 1);
+
+        AgentTaskScheduler.Slot hermes = scheduler.admit(1L, 10L, bot(BotConfig.LLMProvider.HERMES));
+        assertThat(hermes).isNotNull();
+        assertThat(scheduler.admit(2L, 20L, bot(BotConfig.LLMProvider.HERMES))).isNull();
+        AgentTaskScheduler.Slot openai = scheduler.admit(3L, 30L, bot(BotConfig.LLMProvider.OPENAI));
+        assertThat(openai).isNotNull();
+        assertThat(scheduler.admit(4L, 40L, bot(BotConfig.LLMProvider.OPENAI))).isNull();
+        assertThat(scheduler.waiting()).isZero();
+
+        hermes.close();
+        hermes.close();
+
+        assertThat(scheduler.running()).isEqualTo(1);
+        assertThat(scheduler.admit(2L, 20L, bot(BotConfig.LLMProvider.HERMES))).isNotNull();
+        assertThat(meterRegistry.get("agent.scheduler.running").gauge().value()).isEqualTo(2.0);
+    }
+
+    @Test
+    void waitingRunStartsWhenTheRunAheadOfItFinishes() throws Exception {
+        properties.setMaxConcurrent(1);
+        properties.setAdmissionTimeoutMs(5_000);
+        AgentTaskScheduler.Slot first = scheduler.admit(1L, 10L, bot(BotConfig.LLMProvider.HERMES));
+
+        CompletableFuture<AgentTaskScheduler.Slot> second = CompletableFuture.supplyAsync(
+                () -> scheduler.admit(2L, 20L, bot(BotConfig.LLMProvider.HERMES)));
+        while (scheduler.waiting() == 0) {
+            Thread.onSpinWait();
+        }
+        first.close();
+
+        assertThat(second.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(scheduler.running()).isEqualTo(1);
+    }
+
+    @Test
+    void queuedInteractiveRunStartsOnTheExecutorOnceASlotFrees() {
+        properties.setMaxConcurrent(1);
+        AgentTaskScheduler.Slot first = scheduler.admit(1L, 10L, bot(BotConfig.LLMProvider.HERMES));
+        assertThat(scheduler.tryAdmit(2L, 20L, bot(BotConfig.LLMProvider.HERMES))).isNull();
+
+        List<AgentTaskScheduler.Slot> started = new ArrayList<>();
+        scheduler.enqueue(2L, 20L, bot(BotConfig.LLMProvider.HERMES), started::add, () -> { });
+        assertThat(scheduler.waiting()).isEqualTo(1);
+        assertThat(workers).isEmpty();
+
+        first.close();
+        workers.poll().run();
+
+        assertThat(started).hasSize(1);
+        assertThat(scheduler.running()).isZero();
+    }
+
+    @Test
+    void queuedRunTheExecutorRejectsIsDroppedAndFreesItsSlot() {
+        scheduler = new AgentTaskScheduler(properties, repository, null, task -> {
+            throw new RejectedExecutionException("full");
+        }, null, (MeterRegistry) null);
+        List<String> events = new ArrayList<>();
+
+        scheduler.enqueue(1L, 10L, bot(BotConfig.LLMProvider.HERMES), slot -> events.add("ran"),
+                () -> events.add("dropped"));
+
+        assertThat(events).containsExactly("dropped");
+        assertThat(scheduler.running()).isZero();
+    }
+
+    @Test
+    void shutdownDropsQueuedInteractiveRunsAndRefusesNewOnes() {
+        properties.setMaxConcurrent(1);
+        AgentTaskScheduler.Slot first = scheduler.admit(1L, 10L, bot(BotConfig.LLMProvider.HERMES));
+        List<String> events = new ArrayList<>();
+        scheduler.enqueue(2L, 20L, bot(BotConfig.LLMProvider.HERMES), slot -> events.add("ran"),
+                () -> events.add("dropped before shutdown"));
+
+        scheduler.shutdown();
+        scheduler.enqueue(3L, 30L, bot(BotConfig.LLMProvider.HERMES), slot -> events.add("ran"),
+                () -> events.add("dropped after shutdown"));
+        first.close();
+
+        assertThat(events).containsExactly("dropped before shutdown", "dropped after shutdown");
+        assertThat(workers).isEmpty();
+        assertThat(scheduler.waiting()).isZero();
+    }
+
+    @Test
+    void pollClaimsQueuedTasksAndRunsThemFairlyAcrossRooms() {
+        when(repository.countByStatus(AgentTask.Status.PENDING)).thenReturn(3L);
+        when(repository.findClaimable(any(), any())).thenReturn(List.of(
+                queued(1L, 100L, 10L), queued(2L, 100L, 10L), queued(3L, 200L, 20L)));
+        when(repository.claim(anyLong(), anyString(), any())).thenReturn(1);
+
+        scheduler.pollQueue();
+        while (!workers.isEmpty()) {
+            workers.poll().run();
+        }
+
+        InOrder order = inOrder(workflowService);
+        order.verify(workflowService).execute(1L, scheduler.nodeId());
+        order.verify(workflowService).execute(3L, scheduler.nodeId());
+        order.verify(workflowService).execute(2L, scheduler.nodeId());
+        assertThat(scheduler.running()).isZero();
+        assertThat(meterRegistry.get("agent.tasks.queued").gauge().value()).isEqualTo(3.0);
+    }
+
+    @Test
+    void taskClaimedByAnotherNodeIsNotRun() {
+        when(repository.countByStatus(AgentTask.Status.PENDING)).thenReturn(1L);
+        when(repository.findClaimable(any(), any())).thenReturn(List.of(queued(1L, 100L, 10L)));
+        when(repository.claim(anyLong(), anyString(), any())).thenReturn(0);
+
+        scheduler.pollQueue();
+
+        assertThat(workers).isEmpty();
+        assertThat(scheduler.waiting()).isZero();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void heartbeatRenewsHeldLeasesAndRequeuesAbandonedTasks() {
+        when(repository.countByStatus(AgentTask.Status.PENDING)).thenReturn(1L);
+        when(repository.findClaimable(any(), any())).thenReturn(List.of(queued(7L, 100L, 10L)));
+        when(repository.claim(anyLong(), anyString(), any())).thenReturn(1);
+        scheduler.pollQueue();
+
+        scheduler.heartbeat();
+
+        ArgumentCaptor<Collection<Long>> ids = ArgumentCaptor.forClass(Collection.class);
+        verify(repository).renewLeases(ids.capture(), eq(scheduler.nodeId()), any());
+        assertThat(ids.getValue()).containsExactly(7L);
+        verify(repository).requeueAbandoned(any(), any(), eq(properties.getMaxAttempts()));
+        verify(repository).failAbandoned(any(), anyInt(), anyString());
+    }
+
+    private static BotConfig bot(BotConfig.LLMProvider provider) {
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(provider);
+        return bot;
+    }
+
+    private static AgentTaskRepository.QueuedTask queued(Long id, Long roomId, Long userId) {
+        return new AgentTaskRepository.QueuedTask() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public Long getRoomId() {
+                return roomId;
+            }
+
+            @Override
+            public Long getUserId() {
+                return userId;
+            }
+
+            @Override
+            public BotConfig.LLMProvider getProvider() {
+                return BotConfig.LLMProvider.HERMES;
+            }
+        };
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatapp.service;
 
+import com.chatapp.config.AgentSchedulerProperties;
 import com.chatapp.dto.BotDto;
 import com.chatapp.entity.BotAllowedUser;
 import com.chatapp.entity.BotConfig;
@@ -14,11 +15,13 @@ import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
 import com.chatapp.service.tool.AgentToolRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.ObjectProvider;
 
@@ -47,6 +50,9 @@ class BotAccessPolicyTest {
     @Mock private RichContentSanitizer richContentSanitizer;
     @Mock private BotWebhookService botWebhookService;
     @Mock private BotVisionAttachmentSelector botVisionAttachmentSelector;
+    @Spy private BotTriggerIndex botTriggerIndex = new BotTriggerIndex();
+    @Spy private AgentTaskScheduler agentTaskScheduler = new AgentTaskScheduler(
+            new AgentSchedulerProperties(), null, null, Runnable::run, null, (MeterRegistry) null);
     @Mock private ObjectProvider<AgentExecutionLoop> agentExecutionLoopProvider;
 
     @InjectMocks private BotService botService;
@@ -0,0 +1,239 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.ChatRoomBot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BotInvocationCoalescerTest {
+
+    private ManualTimer timer;
+    private Deque<Runnable> workers;
+    private long now;
+    private BotInvocationCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        timer = new ManualTimer();
+        workers = new ArrayDeque<>();
+        now = 0;
+        coalescer = new BotInvocationCoalescer(1500, 6000, workers::add, timer, () -> now);
+    }
+
+    @Test
+    void burstCollapsesIntoOneRunOfTheLatestTrigger() {
+        List<String> ran = new ArrayList<>();
+        for (String message : List.of("a", "b", "c")) {
+            coalescer.submit(1L, 10L, 1500, run -> ran.add(message));
+            now += 500;
+        }
+
+        timer.fireAll();
+        runWorkers();
+
+        assertEquals(List.of("c"), ran);
+        assertEquals(0, coalescer.activeSlots());
+    }
+
+    @Test
+    void windowNeverDelaysPastMaxWaitFromTheFirstTrigger() {
+        coalescer.submit(1L, 10L, 1500, run -> { });
+        now = 5000;
+        coalescer.submit(1L, 10L, 1500, run -> { });
+
+        assertEquals(List.of(1500L, 1000L), timer.delays);
+    }
+
+    @Test
+    void triggerDuringRunSupersedesItAndStartsNextWhenItFinishes() {
+        List<String> ran = new ArrayList<>();
+        coalescer.submit(1L, 10L, 1500, run -> ran.add("first superseded=" + run.isSuperseded()));
+        timer.fireAll();
+        Runnable first = workers.poll();
+
+        coalescer.submit(1L, 10L, 1500, run -> ran.add("second superseded=" + run.isSuperseded()));
+        timer.fireAll();
+        assertTrue(workers.isEmpty(), "only one run per binding may be in flight");
+
+        first.run();
+        runWorkers();
+
+        assertEquals(List.of("first superseded=true", "second superseded=false"), ran);
+        assertEquals(0, coalescer.activeSlots());
+    }
+
+    @Test
+    void continuousTriggersDuringRunsStillGetAReplyAfterMaxWait() {
+        List<Long> delivered = new ArrayList<>();
+        coalescer.submit(1L, 10L, 1500, run -> deliverUnlessSuperseded(run, delivered));
+        timer.fireAll();
+
+        // Each LLM call takes 2s and a new message lands every 500ms while it runs.
+        for (int call = 0; call < 5 && delivered.isEmpty(); call++) {
+            Runnable inFlight = workers.poll();
+            for (int i = 0; i < 4; i++) {
+                now += 500;
+                coalescer.submit(1L, 10L, 1500, run -> deliverUnlessSuperseded(run, delivered));
+                timer.fireAll();
+            }
+            inFlight.run();
+        }
+
+        assertFalse(delivered.isEmpty(), "a busy room must still get a reply");
+        assertTrue(delivered.get(0) <= 6000 + 2000, "reply at most one call past max wait");
+    }
+
+    @Test
+    void runRejectedByASaturatedExecutorIsRetriedOnTheNextTick() {
+        List<String> ran = new ArrayList<>();
+        boolean[] saturated = {true};
+        coalescer = new BotInvocationCoalescer(1500, 6000, task -> {
+            if (saturated[0]) {
+                throw new RejectedExecutionException("full");
+            }
+            workers.add(task);
+        }, timer, () -> now);
+        coalescer.submit(1L, 10L, 1500, run -> ran.add("burst"));
+
+        timer.fireAll();
+        assertEquals(1, coalescer.activeSlots(), "the rejected trigger must stay pending");
+        assertEquals(BotInvocationCoalescer.REJECTED_RETRY_MS, (long) timer.delays.get(timer.delays.size() - 1));
+
+        saturated[0] = false;
+        timer.fireAll();
+        runWorkers();
+
+        assertEquals(List.of("burst"), ran);
+        assertEquals(0, coalescer.activeSlots());
+    }
+
+    @Test
+    void handedOffRunStaysInFlightUntilItsCallbackRuns() {
+        List<Runnable> handedOff = new ArrayList<>();
+        List<String> ran = new ArrayList<>();
+        coalescer.submit(1L, 10L, 1500, run -> handedOff.add(run.handOff()));
+        timer.fireAll();
+        runWorkers();
+
+        coalescer.submit(1L, 10L, 1500, run -> ran.add("second"));
+        timer.fireAll();
+        assertTrue(workers.isEmpty(), "the handed-off run is still in flight");
+
+        handedOff.get(0).run();
+        runWorkers();
+
+        assertEquals(List.of("second"), ran);
+        assertEquals(0, coalescer.activeSlots());
+    }
+
+    @Test
+    void bindingsAreCoalescedIndependently() {
+        List<Long> ran = new ArrayList<>();
+        coalescer.submit(1L, 10L, 1500, run -> ran.add(10L));
+        coalescer.submit(1L, 11L, 1500, run -> ran.add(11L));
+
+        timer.fireAll();
+        runWorkers();
+
+        assertEquals(List.of(10L, 11L), ran);
+    }
+
+    @Test
+    void windowDefaultsDependOnTriggerModeAndRoomOverride() {
+        assertEquals(0, coalescer.windowMs(binding(ChatRoomBot.TriggerMode.MENTION, null)));
+        assertEquals(1500, coalescer.windowMs(binding(ChatRoomBot.TriggerMode.KEYWORD, null)));
+        assertEquals(1500, coalescer.windowMs(binding(ChatRoomBot.TriggerMode.ALL, null)));
+        assertEquals(800, coalescer.windowMs(binding(ChatRoomBot.TriggerMode.MENTION, 800)));
+        assertEquals(0, coalescer.windowMs(binding(ChatRoomBot.TriggerMode.ALL, 0)));
+        assertEquals(6000, coalescer.windowMs(binding(ChatRoomBot.TriggerMode.ALL, 60_000)));
+    }
+
+    @Test
+    void supersededRunAbortsStreaming() {
+        List<BotInvocationCoalescer.Run> runs = new ArrayList<>();
+        coalescer.submit(1L, 10L, 1500, runs::add);
+        timer.fireAll();
+        workers.poll().run();
+        BotInvocationCoalescer.Run run = runs.get(0);
+        assertFalse(run.isSuperseded());
+
+        run.supersede();
+
+        assertThrows(BotInvocationCoalescer.SupersededException.class, run::throwIfSuperseded);
+    }
+
+    private void deliverUnlessSuperseded(BotInvocationCoalescer.Run run, List<Long> delivered) {
+        if (!run.isSuperseded()) {
+            delivered.add(now);
+        }
+    }
+
+    private void runWorkers() {
+        while (!workers.isEmpty()) {
+            workers.poll().run();
+        }
+    }
+
+    private static ChatRoomBot binding(ChatRoomBot.TriggerMode mode, Integer windowMs) {
+        ChatRoomBot crb = new ChatRoomBot();
+        crb.setId(10L);
+        crb.setTriggerMode(mode);
+        crb.setCoalesceWindowMs(windowMs);
+        return crb;
+    }
+
+    /** Records scheduled tasks and runs them on demand, in submission order. */
+    private static final class ManualTimer extends ScheduledThreadPoolExecutor {
+        private final List<Task> tasks = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+
+        ManualTimer() {
+            super(0);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            Task task = new Task(command);
+            tasks.add(task);
+            delays.add(unit.toMillis(delay));
+            return task;
+        }
+
+        void fireAll() {
+            List<Task> due = new ArrayList<>(tasks);
+            tasks.clear();
+            due.forEach(Task::run);
+        }
+    }
+
+    private static final class Task extends FutureTask<Void> implements ScheduledFuture<Void> {
+        Task(Runnable command) {
+            super(command, null);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return 0;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.BotDto;
+import com.chatapp.entity.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BotReplyStreamTest {
+
+    @Test
+    void coalescesSmallDeltasUntilSizeOrDelayThreshold() {
+        AtomicLong clock = new AtomicLong(1_000);
+        List<BotDto.StreamDelta> frames = new ArrayList<>();
+        BotReplyStream stream = new BotReplyStream(frames::add, 100L, 10L, "Helper", clock::get);
+
+        stream.accept("a");
+        stream.accept("b");
+        stream.accept("");
+        assertTrue(frames.isEmpty());
+
+        clock.addAndGet(BotReplyStream.MAX_DELAY_MS);
+        stream.accept("c");
+        assertEquals(1, frames.size());
+        assertEquals("abc", frames.get(0).getDelta());
+
+        stream.accept("x".repeat(BotReplyStream.MIN_CHARS));
+        assertEquals(2, frames.size());
+        assertEquals(1, frames.get(1).getSeq());
+        assertFalse(frames.get(1).getDone());
+    }
+
+    @Test
+    void completeFlushesTailThenSendsDoneFrameWithMessageIds() {
+        List<BotDto.StreamDelta> frames = new ArrayList<>();
+        BotReplyStream stream = new BotReplyStream(frames::add, 100L, 10L, "Helper", () -> 0L);
+        Message first = new Message();
+        first.setId(7L);
+        Message second = new Message();
+        second.setId(8L);
+
+        stream.accept("tail");
+        stream.complete(List.of(first, second));
+
+        assertEquals(2, frames.size());
+        assertEquals("tail", frames.get(0).getDelta());
+        BotDto.StreamDelta done = frames.get(1);
+        assertTrue(done.getDone());
+        assertNull(done.getDelta());
+        assertEquals(List.of(7L, 8L), done.getMessageIds());
+        assertEquals(stream.streamId(), done.getStreamId());
+        assertEquals(100L, done.getChatRoomId());
+        assertEquals("Helper", done.getBotDisplayName());
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatapp.service;
 
+import com.chatapp.config.AgentSchedulerProperties;
 import com.chatapp.dto.BotDto;
 import com.chatapp.entity.AgentTask;
 import com.chatapp.entity.BotConfig;
@@ -15,6 +16,7 @@ import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
 import com.chatapp.service.tool.AgentToolRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -22,9 +24,13 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -59,6 +65,11 @@ class BotServiceAgentRoutingTest {
     @Mock private RichContentSanitizer richContentSanitizer;
     @Mock private BotWebhookService botWebhookService;
     @Mock private BotVisionAttachmentSelector botVisionAttachmentSelector;
+    @Spy private BotTriggerIndex botTriggerIndex = new BotTriggerIndex();
+    @Spy private AgentTaskScheduler agentTaskScheduler = new AgentTaskScheduler(
+            new AgentSchedulerProperties(), null, null, Runnable::run, null, (MeterRegistry) null);
+    @Mock private BotInvocationCoalescer botInvocationCoalescer;
+    @Mock private TransactionTemplate transactionTemplate;
     @Mock private ObjectProvider<AgentExecutionLoop> agentExecutionLoopProvider;
     @Mock private AgentExecutionLoop agentExecutionLoop;
 
@@ -130,6 +141,39 @@ class BotServiceAgentRoutingTest {
         assertEquals(1, result.size());
     }
 
+    @Test
+    @DisplayName("with deferred delivery the agent run is queued for a slot and its reply handed over later")
+    void deferredAgentRunIsQueuedInsteadOfRunningInline() {
+        crb.setId(7L);
+        when(chatRoomBotRepository.findActiveBotsWithConfig(100L)).thenReturn(List.of(crb));
+        when(chatRoomBotRepository.findActiveBotsWithConfigByIdIn(List.of(7L))).thenReturn(List.of(crb));
+        when(transactionTemplate.execute(any())).thenAnswer(inv ->
+                inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(agentToolRegistry.hasExplicitToolWhitelist(bot)).thenReturn(true);
+        when(botRateLimitService.tryAcquireAgentRun(100L, 10L)).thenReturn(true);
+        when(chatRoomRepository.findById(100L)).thenReturn(Optional.of(room));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(alice));
+        when(agentTaskRepository.save(any(AgentTask.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(agentExecutionLoopProvider.getObject()).thenReturn(agentExecutionLoop);
+        when(agentExecutionLoop.runLoop(any(), any())).thenReturn(new AgentExecutionLoop.AgentLoopResult(
+                "queued answer",
+                1,
+                List.of(),
+                AgentExecutionLoop.TerminationReason.FINAL_ANSWER,
+                new AgentExecutionLoop.BudgetSnapshot(0, 0)));
+        when(messageRepository.save(any(Message.class))).thenAnswer(inv -> inv.getArgument(0));
+        List<List<Message>> deferred = new ArrayList<>();
+
+        List<Message> result = service.processMessageForBots(100L, "search the news", 1L, null, null, deferred::add);
+
+        assertEquals(0, result.size());
+        verify(agentTaskScheduler).enqueue(eq(100L), eq(1L), eq(bot), any(), any());
+        verify(agentTaskScheduler, never()).admit(any(), any(), any());
+        assertEquals(1, deferred.size());
+        assertEquals("queued answer", deferred.get(0).get(0).getContent());
+        assertEquals(0, agentTaskScheduler.running());
+    }
+
     @Test
     @DisplayName("webhook-subscribed bot forwards externally and skips the LLM")
     void webhookSubscribedBotForwardsAndSkipsLlm() {
@@ -1,5 +1,6 @@
 package com.chatapp.service;
 
+import com.chatapp.config.AgentSchedulerProperties;
 import com.chatapp.dto.BotDto;
 import com.chatapp.entity.AgentTask;
 import com.chatapp.entity.BotConfig;
@@ -16,6 +17,7 @@ import com.chatapp.repository.MessageRepository;
 import com.chatapp.repository.UserRepository;
 import com.chatapp.repository.AgentTaskRepository;
 import com.chatapp.service.tool.AgentToolRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -23,15 +25,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.access.AccessDeniedException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -56,6 +63,10 @@ class BotServiceTest {
     @Mock private BotWebhookService botWebhookService;
     @Mock private FileStorageService fileStorageService;
     @Mock private BotVisionAttachmentSelector botVisionAttachmentSelector;
+    @Spy private BotTriggerIndex botTriggerIndex = new BotTriggerIndex();
+    @Spy private AgentTaskScheduler agentTaskScheduler = new AgentTaskScheduler(
+            new AgentSchedulerProperties(), null, null, Runnable::run, null, (MeterRegistry) null);
+    @Mock private BotInvocationCoalescer botInvocationCoalescer;
     @Mock private ObjectProvider<AgentExecutionLoop> agentExecutionLoopProvider;
 
     @InjectMocks private BotService service;
@@ -111,14 +122,15 @@ class BotServiceTest {
                             6000,
                             120);
                 });
-        lenient().when(agentContextBuilder.assembleSystemPrompt(any(AgentContextBuilder.AgentContextEnvelope.class)))
+        lenient().when(agentContextBuilder.assembleSystemPromptParts(any(AgentContextBuilder.AgentContextEnvelope.class)))
                 .thenAnswer(inv -> {
                     AgentContextBuilder.AgentContextEnvelope env = inv.getArgument(0);
-                    return "Room: " + env.roomMetadata().name()
-                            + "\nMembers (" + env.roomMetadata().memberCount() + "): "
-                            + String.join(", ", env.roomMetadata().memberNames())
-                            + "\nRecent: " + env.conversationHistory().get(0).content()
-                            + "\nTask: " + env.taskText();
+                    return new AgentContextBuilder.SystemPrompt(
+                            "Room: " + env.roomMetadata().name()
+                                    + "\nMembers (" + env.roomMetadata().memberCount() + "): "
+                                    + String.join(", ", env.roomMetadata().memberNames()) + "\n",
+                            "\nRecent: " + env.conversationHistory().get(0).content()
+                                    + "\nTask: " + env.taskText());
                 });
     }
 
@@ -391,6 +403,98 @@ class BotServiceTest {
         assertEquals("Deploy Bot", saved.getBotDisplayName());
     }
 
+    @Test
+    @DisplayName("processMessageForBots streams one-shot replies as deltas and persists once")
+    void process_streaming_reply_emits_deltas_then_done_frame() {
+        ChatRoomBot crb = new ChatRoomBot();
+        crb.setBotConfig(bot);
+        crb.setTriggerMode(ChatRoomBot.TriggerMode.ALL);
+        when(chatRoomBotRepository.findActiveBotsWithConfig(100L)).thenReturn(List.of(crb));
+        when(llmService.chatStream(any(BotConfig.class), any(), any())).thenAnswer(inv -> {
+            Consumer<String> listener = inv.getArgument(2);
+            listener.accept("streamed reply that is long enough to flush, ");
+            listener.accept("then the tail");
+            return new BotDto.LLMResponse("streamed reply that is long enough to flush, then the tail", 12, "gpt-4o");
+        });
+        when(chatRoomRepository.findById(100L)).thenReturn(Optional.of(room));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(alice));
+        when(messageRepository.save(any(Message.class))).thenAnswer(inv -> {
+            Message message = inv.getArgument(0);
+            message.setId(555L);
+            return message;
+        });
+        List<BotDto.StreamDelta> frames = new ArrayList<>();
+
+        List<Message> replies = service.processMessageForBots(100L, "anything", 1L, null, frames::add);
+
+        verify(llmService, never()).chat(any(BotConfig.class), any());
+        verify(messageRepository, times(1)).save(any(Message.class));
+        assertEquals(1, replies.size());
+        assertEquals(3, frames.size());
+        assertEquals("streamed reply that is long enough to flush, ", frames.get(0).getDelta());
+        assertEquals("then the tail", frames.get(1).getDelta());
+        assertTrue(frames.get(2).getDone());
+        assertEquals(List.of(555L), frames.get(2).getMessageIds());
+        assertEquals(frames.get(0).getStreamId(), frames.get(2).getStreamId());
+        assertEquals(10L, frames.get(0).getBotConfigId());
+    }
+
+    @Test
+    @DisplayName("processMessageForBots sends the stream's done frame only once the reply has committed")
+    void process_streaming_reply_sends_done_frame_after_commit() {
+        ChatRoomBot crb = new ChatRoomBot();
+        crb.setBotConfig(bot);
+        crb.setTriggerMode(ChatRoomBot.TriggerMode.ALL);
+        when(chatRoomBotRepository.findActiveBotsWithConfig(100L)).thenReturn(List.of(crb));
+        when(llmService.chatStream(any(BotConfig.class), any(), any())).thenAnswer(inv -> {
+            Consumer<String> listener = inv.getArgument(2);
+            listener.accept("streamed reply that is long enough to flush");
+            return new BotDto.LLMResponse("streamed reply that is long enough to flush", 12, "gpt-4o");
+        });
+        when(chatRoomRepository.findById(100L)).thenReturn(Optional.of(room));
+        when(userRepository.findById(1L)).thenReturn(Optional.of(alice));
+        when(messageRepository.save(any(Message.class))).thenAnswer(inv -> {
+            Message message = inv.getArgument(0);
+            message.setId(556L);
+            return message;
+        });
+        List<BotDto.StreamDelta> frames = new ArrayList<>();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.processMessageForBots(100L, "anything", 1L, null, frames::add);
+            assertEquals(1, frames.size());
+            assertFalse(frames.get(0).getDone());
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(2, frames.size());
+        assertTrue(frames.get(1).getDone());
+        assertEquals(List.of(556L), frames.get(1).getMessageIds());
+    }
+
+    @Test
+    @DisplayName("processMessageForBots hands debounced bindings to the coalescer instead of replying inline")
+    void process_coalesced_binding_is_deferred() {
+        ChatRoomBot crb = new ChatRoomBot();
+        crb.setId(7L);
+        crb.setBotConfig(bot);
+        crb.setTriggerMode(ChatRoomBot.TriggerMode.ALL);
+        when(chatRoomBotRepository.findActiveBotsWithConfig(100L)).thenReturn(List.of(crb));
+        when(botInvocationCoalescer.windowMs(crb)).thenReturn(1500L);
+        List<List<Message>> deferred = new ArrayList<>();
+
+        List<Message> replies = service.processMessageForBots(100L, "anything", 1L, null, null, deferred::add);
+
+        assertTrue(replies.isEmpty());
+        verify(botInvocationCoalescer).submit(eq(100L), eq(7L), eq(1500L), any());
+        verifyNoInteractions(llmService);
+        assertTrue(deferred.isEmpty());
+    }
+
     @Test
     @DisplayName("processMessageForBots saves bot media URL replies as attachment messages")
     void process_media_url_reply() {
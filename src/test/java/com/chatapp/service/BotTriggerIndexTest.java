@@ -0,0 +1,119 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import com.chatapp.entity.ChatRoomBot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BotTriggerIndexTest {
+
+    private BotTriggerIndex index;
+    private List<ChatRoomBot> bindings;
+    private int roomLoads;
+    private List<Collection<Long>> idLoads;
+
+    @BeforeEach
+    void setUp() {
+        index = new BotTriggerIndex();
+        bindings = new ArrayList<>();
+        roomLoads = 0;
+        idLoads = new ArrayList<>();
+    }
+
+    @Test
+    void eachTriggerModeMatchesInBindingOrder() {
+        bindings.add(binding(1L, "Aurora", ChatRoomBot.TriggerMode.MENTION, null, "小光"));
+        bindings.add(binding(2L, "Echo", ChatRoomBot.TriggerMode.KEYWORD, "天气, weather", null));
+        bindings.add(binding(3L, "Rex", ChatRoomBot.TriggerMode.REGEX, "^/roll\\s+\\d+", null));
+        bindings.add(binding(4L, "Logger", ChatRoomBot.TriggerMode.ALL, null, null));
+
+        assertEquals(List.of(4L), ids(triggered("hello there")));
+        assertEquals(List.of(1L, 4L), ids(triggered("@小光 在吗")));
+        assertEquals(List.of(1L, 4L), ids(triggered("ping @Aurora")));
+        assertEquals(List.of(2L, 3L, 4L), ids(triggered("/ROLL 20 for the weather")));
+        assertTrue(triggered("Weather?").stream().noneMatch(crb -> crb.getId() == 2L));
+    }
+
+    @Test
+    void warmRoomIsMatchedWithoutLoadingItAndFetchesOnlyMatches() {
+        bindings.add(binding(1L, "Aurora", ChatRoomBot.TriggerMode.MENTION, null, null));
+        bindings.add(binding(2L, "Echo", ChatRoomBot.TriggerMode.MENTION, null, null));
+
+        triggered("warm up");
+        assertTrue(triggered("nobody was mentioned").isEmpty());
+        assertEquals(List.of(2L), ids(triggered("@Echo hi")));
+
+        assertEquals(1, roomLoads);
+        assertEquals(List.of(List.of(2L)), idLoads);
+    }
+
+    @Test
+    void invalidatedRoomIsRecompiled() {
+        bindings.add(binding(1L, "Aurora", ChatRoomBot.TriggerMode.KEYWORD, "old", null));
+        assertEquals(List.of(1L), ids(triggered("old story")));
+
+        bindings.set(0, binding(1L, "Aurora", ChatRoomBot.TriggerMode.KEYWORD, "new", null));
+        assertEquals(List.of(1L), ids(triggered("old story")));
+
+        index.invalidate(10L);
+        assertTrue(triggered("old story").isEmpty());
+        assertEquals(List.of(1L), ids(triggered("new story")));
+        assertEquals(2, roomLoads);
+    }
+
+    @Test
+    void disabledBindingsAndInvalidRegexNeverMatch() {
+        ChatRoomBot disabled = binding(1L, "Logger", ChatRoomBot.TriggerMode.ALL, null, null);
+        disabled.setEnabledInRoom(false);
+        bindings.add(disabled);
+        bindings.add(binding(2L, "Rex", ChatRoomBot.TriggerMode.REGEX, "([unclosed", null));
+
+        assertTrue(triggered("([unclosed").isEmpty());
+    }
+
+    @Test
+    void roomsWithUnsavedBindingsAreNotCached() {
+        bindings.add(binding(null, "Aurora", ChatRoomBot.TriggerMode.MENTION, null, null));
+
+        assertEquals(1, triggered("@Aurora").size());
+        assertEquals(1, triggered("@Aurora").size());
+        assertEquals(2, roomLoads);
+        assertTrue(idLoads.isEmpty());
+    }
+
+    private List<ChatRoomBot> triggered(String content) {
+        return index.triggered(10L, content,
+                roomId -> {
+                    roomLoads++;
+                    return List.copyOf(bindings);
+                },
+                ids -> {
+                    idLoads.add(List.copyOf(ids));
+                    return bindings.stream().filter(crb -> ids.contains(crb.getId())).toList();
+                });
+    }
+
+    private static List<Long> ids(List<ChatRoomBot> bots) {
+        return bots.stream().map(ChatRoomBot::getId).toList();
+    }
+
+    private static ChatRoomBot binding(Long id, String botName, ChatRoomBot.TriggerMode mode,
+                                       String keywords, String nickname) {
+        BotConfig bot = new BotConfig();
+        bot.setBotName(botName);
+        ChatRoomBot crb = new ChatRoomBot();
+        crb.setId(id);
+        crb.setBotConfig(bot);
+        crb.setTriggerMode(mode);
+        crb.setTriggerKeywords(keywords);
+        crb.setRoomNickname(nickname);
+        return crb;
+    }
+}
@@ -44,7 +44,7 @@ class BotVisionAttachmentSelectorTest {
     void directImageWinsWithoutHistoryQuery() {
         Message source = image(30L, 7L, "direct.png");
         when(visionService.isImageMessage(source)).thenReturn(true);
-        when(visionService.resolve(source, true)).thenReturn(imageContext("direct.png"));
+        when(visionService.resolve(eq(source), eq(true), any())).thenReturn(imageContext("direct.png"));
 
         BotVisionAttachmentSelector.Selection selected = selector.select(bot, 7L, source, "@Bot 看看");
 
@@ -61,7 +61,7 @@ class BotVisionAttachmentSelectorTest {
         source.setReplyToMessage(replied);
         when(visionService.isImageMessage(source)).thenReturn(false);
         when(visionService.isImageMessage(replied)).thenReturn(true);
-        when(visionService.resolve(replied, true)).thenReturn(imageContext("reply.png"));
+        when(visionService.resolve(eq(replied), eq(true), any())).thenReturn(imageContext("reply.png"));
 
         BotVisionAttachmentSelector.Selection selected = selector.select(bot, 7L, source, source.getContent());
         assertEquals(29L, selected.messageId());
@@ -84,7 +84,7 @@ class BotVisionAttachmentSelectorTest {
         when(visionService.isImageMessage(older)).thenReturn(true);
         when(messageRepository.findFileMessagesInChatRoom(eq(7L), eq(null), any()))
                 .thenReturn(new PageImpl<>(List.of(latest, older)));
-        when(visionService.resolve(latest, true)).thenReturn(imageContext("latest.png"));
+        when(visionService.resolve(eq(latest), eq(true), any())).thenReturn(imageContext("latest.png"));
 
         BotVisionAttachmentSelector.Selection selected = selector.select(bot, 7L, source, source.getContent());
 
@@ -114,7 +114,7 @@ class BotVisionAttachmentSelectorTest {
 
         assertTrue(selected.image().attachments().isEmpty());
         verify(messageRepository, never()).findFileMessagesInChatRoom(any(), any(), any());
-        verify(visionService, never()).resolve(any(), eq(true));
+        verify(visionService, never()).resolve(any(), eq(true), any());
     }
 
     @Test
@@ -137,7 +137,7 @@ class BotVisionAttachmentSelectorTest {
         BotVisionAttachmentSelector.Selection selected = selector.select(bot, 7L, source, "看图");
 
         assertTrue(selected.image().attachments().isEmpty());
-        verify(visionService, never()).resolve(any(), eq(true));
+        verify(visionService, never()).resolve(any(), eq(true), any());
     }
 
     private AgentVisionAttachmentService.ImageContext imageContext(String fileName) {
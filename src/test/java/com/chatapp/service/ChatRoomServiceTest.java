@@ -54,6 +54,9 @@ class ChatRoomServiceTest {
     @Mock
     private ChatRoomBotRepository chatRoomBotRepository;
 
+    @Mock
+    private AgentContextSnapshots agentContextSnapshots;
+
     @InjectMocks
     private ChatRoomService chatRoomService;
 
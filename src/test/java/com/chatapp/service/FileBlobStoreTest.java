@@ -0,0 +1,112 @@
+package com.chatapp.service;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.security.FileVaultService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class FileBlobStoreTest {
+    private static final byte[] MEME = "pmchat-meme".repeat(100).getBytes();
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageConfig config;
+    private FileVaultService vault;
+    private FileBlobStore blobStore;
+    private FileStorageService service;
+
+    @BeforeEach
+    void setUp() {
+        config = new FileStorageConfig();
+        config.setUploadDir(tempDir.toString());
+        vault = new FileVaultService("blob-store-test-key", 1024, "test");
+        blobStore = new FileBlobStore(config, vault);
+        service = new FileStorageService();
+        ReflectionTestUtils.setField(service, "fileStorageConfig", config);
+        ReflectionTestUtils.setField(service, "fileVaultService", vault);
+        ReflectionTestUtils.setField(service, "fileBlobStore", blobStore);
+        service.init();
+    }
+
+    @Test
+    void identicalUploadsShareOneCiphertext() throws Exception {
+        Path first = chatFile(service.uploadChatFile(new MockMultipartFile("file", "a.png", "image/png", MEME)));
+        Path second = chatFile(service.uploadStickerFile("b.png", "image/png", MEME));
+        Path other = chatFile(service.uploadChatFile(
+                new MockMultipartFile("file", "c.png", "image/png", new byte[] {1, 2, 3})));
+
+        assertThat(Files.isSameFile(vault.cipherPath(first), vault.cipherPath(second))).isTrue();
+        assertThat(Files.isSameFile(vault.metaPath(first), vault.metaPath(second))).isTrue();
+        assertThat(Files.isSameFile(vault.cipherPath(first), vault.cipherPath(other))).isFalse();
+        assertThat(FileBlobStore.linkCount(vault.cipherPath(first))).isEqualTo(3);
+        assertThat(service.getFile("chat", second.getFileName().toString())).isEqualTo(MEME);
+    }
+
+    @Test
+    void deletingAnUploadDropsOnlyItsOwnLink() throws Exception {
+        String firstUrl = service.uploadChatFile(new MockMultipartFile("file", "a.png", "image/png", MEME));
+        String secondUrl = service.uploadChatFile(new MockMultipartFile("file", "b.png", "image/png", MEME));
+        Path second = chatFile(secondUrl);
+        age(second);
+
+        assertThat(service.deleteFile(firstUrl)).isTrue();
+
+        assertThat(FileBlobStore.linkCount(vault.cipherPath(second))).isEqualTo(2);
+        assertThat(blobStore.sweep()).isZero();
+        assertThat(service.getFile("chat", second.getFileName().toString())).isEqualTo(MEME);
+
+        assertThat(service.deleteFile(secondUrl)).isTrue();
+        assertThat(blobStore.sweep()).isEqualTo(1);
+        try (var files = Files.walk(Path.of(config.getFullBlobDir()))) {
+            assertThat(files.filter(Files::isRegularFile)).isEmpty();
+        }
+    }
+
+    @Test
+    void recentlyWrittenBlobsSurviveTheSweep() throws Exception {
+        String url = service.uploadChatFile(new MockMultipartFile("file", "a.png", "image/png", MEME));
+        service.deleteFile(url);
+
+        assertThat(blobStore.sweep()).isZero();
+
+        String again = service.uploadChatFile(new MockMultipartFile("file", "b.png", "image/png", MEME));
+        assertThat(FileBlobStore.linkCount(vault.cipherPath(chatFile(again)))).isEqualTo(2);
+        assertThat(service.getFile("chat", chatFile(again).getFileName().toString())).isEqualTo(MEME);
+    }
+
+    @Test
+    void disabledDedupStoresEveryUploadSeparately() throws Exception {
+        config.setDedupEnabled(false);
+
+        Path first = chatFile(service.uploadChatFile(new MockMultipartFile("file", "a.png", "image/png", MEME)));
+        Path second = chatFile(service.uploadChatFile(new MockMultipartFile("file", "b.png", "image/png", MEME)));
+
+        assertThat(Files.isSameFile(vault.cipherPath(first), vault.cipherPath(second))).isFalse();
+        assertThat(Files.exists(Path.of(config.getFullBlobDir()))).isFalse();
+    }
+
+    private Path chatFile(String url) {
+        return Path.of(config.getFullChatFileDir()).resolve(url.substring("/api/files/chat/".length()));
+    }
+
+    private void age(Path basePath) throws Exception {
+        FileTime old = FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS));
+        Files.setLastModifiedTime(vault.cipherPath(basePath), old);
+        Files.setLastModifiedTime(vault.metaPath(basePath), old);
+    }
+}
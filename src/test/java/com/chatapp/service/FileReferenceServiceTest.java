@@ -0,0 +1,55 @@
+package com.chatapp.service;
+
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.repository.StickerPackRepository;
+import com.chatapp.repository.StickerRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FileReferenceServiceTest {
+    @Mock private MessageRepository messageRepository;
+    @Mock private StickerRepository stickerRepository;
+    @Mock private StickerPackRepository stickerPackRepository;
+    @Mock private FileStorageService fileStorageService;
+    @InjectMocks private FileReferenceService service;
+
+    @Test
+    void releaseDeletesFileOnceNothingReferencesIt() {
+        String url = "/api/files/chat/photo.png";
+        when(fileStorageService.deleteFile(url)).thenReturn(true);
+
+        assertThat(service.release(url)).isTrue();
+
+        verify(messageRepository).existsActiveMessageReferencingFileUrl(url);
+        verify(stickerRepository).existsByUrl(url);
+        verify(stickerPackRepository).existsByCoverUrl(url);
+    }
+
+    @Test
+    void releaseKeepsFilesStillUsedByAForwardOrASticker() {
+        String forwarded = "/api/files/chat/forwarded.png";
+        String sticker = "/api/files/chat/sticker.gif";
+        when(messageRepository.existsActiveMessageReferencingFileUrl(forwarded)).thenReturn(true);
+        when(stickerRepository.existsByUrl(sticker)).thenReturn(true);
+
+        assertThat(service.release(forwarded)).isFalse();
+        assertThat(service.release(sticker)).isFalse();
+
+        verifyNoInteractions(fileStorageService);
+    }
+
+    @Test
+    void releaseIgnoresFilesThatAreNotMessageScoped() {
+        assertThat(service.release("/api/files/avatar/me.png")).isFalse();
+        assertThat(service.release(null)).isFalse();
+
+        verifyNoInteractions(messageRepository, stickerRepository, stickerPackRepository, fileStorageService);
+    }
+}
@@ -8,10 +8,13 @@ import org.junit.jupiter.api.io.TempDir;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class FileStorageServiceEncryptionTest {
     @TempDir
@@ -47,6 +50,71 @@ class FileStorageServiceEncryptionTest {
         assertThat(service.getFile("avatar", fileName)).isEqualTo(png);
     }
 
+    @Test
+    void openFileStreamsLargeChatFileWithPlaintextSize() throws Exception {
+        byte[] payload = "pmchat-stream".repeat(1000).getBytes();
+        MockMultipartFile file = new MockMultipartFile("file", "notes.txt", "text/plain", payload);
+        String url = service.uploadChatFile(file);
+        String fileName = url.substring("/api/files/chat/".length());
+
+        FileStorageService.FileDownload download = service.openFile("chat", fileName);
+
+        assertThat(download.size()).isEqualTo(payload.length);
+        try (InputStream in = download.stream()) {
+            assertThat(in.readAllBytes()).isEqualTo(payload);
+        }
+    }
+
+    @Test
+    void openFileRangeReturnsOnlyTheRequestedBytes() throws Exception {
+        byte[] payload = "0123456789".repeat(20_000).getBytes();
+        MockMultipartFile file = new MockMultipartFile("file", "clip.mp4", "video/mp4", payload);
+        String url = service.uploadChatFile(file);
+        String fileName = url.substring("/api/files/chat/".length());
+
+        assertThat(service.fileSize("chat", fileName)).isEqualTo(payload.length);
+        FileStorageService.FileDownload download = service.openFile("chat", fileName, 70_000, 25);
+
+        assertThat(download.size()).isEqualTo(25);
+        try (InputStream in = download.stream()) {
+            assertThat(new String(in.readAllBytes())).isEqualTo("0123456789012345678901234");
+        }
+    }
+
+    @Test
+    void hotAssetsAreServedFromMemoryUntilDeleted() throws Exception {
+        byte[] png = new byte[] {(byte) 0x89, 'P', 'N', 'G', 5, 6, 7, 8};
+        String url = service.uploadAvatar(new MockMultipartFile("avatar", "me.png", "image/png", png));
+        String fileName = url.substring("/api/files/avatar/".length());
+        Path base = Path.of(config.getFullAvatarDir()).resolve(fileName);
+
+        try (InputStream in = service.openHotAsset("avatar", fileName, 0, png.length).stream()) {
+            assertThat(in.readAllBytes()).isEqualTo(png);
+        }
+        Files.delete(vault.cipherPath(base));
+        try (InputStream in = service.openHotAsset("avatar", fileName, 4, 4).stream()) {
+            assertThat(in.readAllBytes()).containsExactly(5, 6, 7, 8);
+        }
+
+        service.deleteFile(url);
+        assertThatThrownBy(() -> service.openHotAsset("avatar", fileName, 0, png.length))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void fileVersionTagFollowsContentNotUpload() throws Exception {
+        byte[] png = new byte[] {(byte) 0x89, 'P', 'N', 'G', 1};
+        String first = service.uploadAvatar(new MockMultipartFile("avatar", "a.png", "image/png", png));
+        String second = service.uploadAvatar(new MockMultipartFile("avatar", "b.png", "image/png", png));
+        String other = service.uploadAvatar(new MockMultipartFile("avatar", "c.png", "image/png", new byte[] {2}));
+
+        String tag = service.fileVersion("avatar", first.substring("/api/files/avatar/".length())).tag();
+        assertThat(service.fileVersion("avatar", second.substring("/api/files/avatar/".length())).tag())
+                .isEqualTo(tag);
+        assertThat(service.fileVersion("avatar", other.substring("/api/files/avatar/".length())).tag())
+                .isNotEqualTo(tag);
+    }
+
     @Test
     void deleteFileRemovesEncryptedSidecars() throws Exception {
         MockMultipartFile file = new MockMultipartFile("avatar", "me.png", "image/png", new byte[] {1, 2, 3});
@@ -0,0 +1,211 @@
+package com.chatapp.service;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.config.WorkerThreads;
+import com.chatapp.entity.ChatRoom;
+import com.chatapp.entity.Message;
+import com.chatapp.repository.MessageRepository;
+import com.chatapp.security.FileVaultService;
+import com.chatapp.websocket.RawWebSocketHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageDerivativeServiceTest {
+    @TempDir
+    Path tempDir;
+
+    private FileStorageConfig config;
+    private FileStorageService storage;
+    private MessageRepository messageRepository;
+    private RawWebSocketHandler rawWebSocketHandler;
+    private ImageDerivativeService service;
+
+    @BeforeEach
+    void setUp() {
+        config = new FileStorageConfig();
+        config.setUploadDir(tempDir.toString());
+        storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "fileStorageConfig", config);
+        ReflectionTestUtils.setField(storage, "fileVaultService",
+                new FileVaultService("image-derivative-test-key", 1024, "test"));
+        storage.init();
+        messageRepository = mock(MessageRepository.class);
+        rawWebSocketHandler = mock(RawWebSocketHandler.class);
+        service = new ImageDerivativeService(storage, messageRepository, new ImageThumbnailer(),
+                rawWebSocketHandler, config, WorkerThreads.platform());
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void generateStoresEncryptedThumbnailAndAttachesIt() throws Exception {
+        String fileUrl = storage.uploadStickerFile("photo.png", "image/png", png(800, 400));
+        when(messageRepository.attachImageDerivatives(eq(7L), anyString(), isNull(), anyString(), eq(800), eq(400)))
+                .thenReturn(1);
+
+        assertThat(service.generate(7L, 3L, fileUrl)).isTrue();
+
+        ArgumentCaptor<String> thumbnailUrl = ArgumentCaptor.forClass(String.class);
+        verify(messageRepository).attachImageDerivatives(eq(7L), thumbnailUrl.capture(), isNull(), anyString(),
+                eq(800), eq(400));
+        verify(rawWebSocketHandler).broadcastMessageAction(eq(3L), eq("image_derivatives_ready"), any());
+        String thumbnailName = thumbnailUrl.getValue().substring("/api/files/chat/".length());
+        assertThat(Files.exists(Path.of(config.getFullChatFileDir()).resolve(thumbnailName))).isFalse();
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(storage.getFile("chat", thumbnailName)));
+        assertThat(thumbnail.getWidth()).isEqualTo(320);
+        assertThat(thumbnail.getHeight()).isEqualTo(160);
+    }
+
+    @Test
+    void derivativesAreRemovedWhenTheMessageAlreadyHasOne() throws Exception {
+        String fileUrl = storage.uploadStickerFile("photo.png", "image/png", png(800, 400));
+        long filesBefore = chatFileCount();
+        when(messageRepository.attachImageDerivatives(any(), any(), any(), any(), any(), any())).thenReturn(0);
+
+        assertThat(service.generate(7L, 3L, fileUrl)).isFalse();
+
+        verify(rawWebSocketHandler, never()).broadcastMessageAction(any(), any(), any());
+        assertThat(chatFileCount()).isEqualTo(filesBefore);
+    }
+
+    @Test
+    void undecodableUploadsAreSkippedWithoutStoringAnything() throws Exception {
+        String fileUrl = storage.uploadStickerFile("photo.png", "image/png", new byte[] {1, 2, 3});
+        long filesBefore = chatFileCount();
+
+        assertThat(service.generate(7L, 3L, fileUrl)).isFalse();
+
+        verify(messageRepository, never()).attachImageDerivatives(any(), any(), any(), any(), any(), any());
+        verify(messageRepository).markImageUndecodable(7L);
+        assertThat(chatFileCount()).isEqualTo(filesBefore);
+    }
+
+    @Test
+    void uploadsSkippedByAFullQueueAreRequeuedByTheCatchUpPass() throws Exception {
+        config.setThumbnailWorkers(1);
+        config.setThumbnailQueueCapacity(1);
+        ImageDerivativeService small = new ImageDerivativeService(storage, messageRepository, new ImageThumbnailer(),
+                rawWebSocketHandler, config, WorkerThreads.platform());
+        try {
+            String fileUrl = storage.uploadStickerFile("photo.png", "image/png", png(800, 400));
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            when(messageRepository.attachImageDerivatives(any(), any(), any(), any(), any(), any())).thenAnswer(inv -> {
+                entered.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return 1;
+            });
+            when(messageRepository.findImagesWithoutThumbnail(eq(Message.MessageType.IMAGE), eq(2L), any()))
+                    .thenReturn(List.of(imageMessage(3L, fileUrl)));
+
+            small.schedule(imageMessage(1L, fileUrl));
+            assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+            small.schedule(imageMessage(2L, fileUrl));
+            small.schedule(imageMessage(3L, fileUrl));
+
+            small.catchUp();
+            verify(messageRepository, never()).findImagesWithoutThumbnail(any(), any(), any());
+
+            release.countDown();
+            verify(messageRepository, timeout(5_000)).attachImageDerivatives(eq(2L), any(), any(), any(), any(), any());
+            small.catchUp();
+            verify(messageRepository, timeout(5_000)).attachImageDerivatives(eq(3L), any(), any(), any(), any(), any());
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void theCatchUpPassDoesNotQueueAnUploadThatIsAlreadyQueued() throws Exception {
+        config.setThumbnailWorkers(1);
+        config.setThumbnailQueueCapacity(3);
+        ImageDerivativeService small = new ImageDerivativeService(storage, messageRepository, new ImageThumbnailer(),
+                rawWebSocketHandler, config, WorkerThreads.platform());
+        try {
+            String fileUrl = storage.uploadStickerFile("photo.png", "image/png", png(800, 400));
+            Semaphore entered = new Semaphore(0);
+            Semaphore gate = new Semaphore(0);
+            when(messageRepository.attachImageDerivatives(any(), any(), any(), any(), any(), any())).thenAnswer(inv -> {
+                entered.release();
+                gate.tryAcquire(5, TimeUnit.SECONDS);
+                return 1;
+            });
+            when(messageRepository.findImagesWithoutThumbnail(eq(Message.MessageType.IMAGE), eq(4L), any()))
+                    .thenReturn(List.of(imageMessage(6L, fileUrl)));
+
+            small.schedule(imageMessage(1L, fileUrl));
+            assertThat(entered.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+            for (long id = 2; id <= 5; id++) {
+                small.schedule(imageMessage(id, fileUrl));
+            }
+            // 1 is running, 2-4 fill the queue and 5 is skipped; let the worker reach 3.
+            for (int i = 0; i < 2; i++) {
+                gate.release();
+                assertThat(entered.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+            }
+            small.schedule(imageMessage(6L, fileUrl));
+
+            small.catchUp();
+            small.schedule(imageMessage(7L, fileUrl));
+            gate.release(100);
+
+            verify(messageRepository, timeout(5_000)).attachImageDerivatives(eq(7L), any(), any(), any(), any(), any());
+            verify(messageRepository).attachImageDerivatives(eq(6L), any(), any(), any(), any(), any());
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    private static Message imageMessage(Long id, String fileUrl) {
+        ChatRoom room = new ChatRoom();
+        room.setId(3L);
+        Message message = new Message();
+        message.setId(id);
+        message.setChatRoom(room);
+        message.setMessageType(Message.MessageType.IMAGE);
+        message.setFileUrl(fileUrl);
+        return message;
+    }
+
+    private long chatFileCount() throws Exception {
+        try (Stream<Path> files = Files.list(Path.of(config.getFullChatFileDir()))) {
+            return files.count();
+        }
+    }
+
+    private static byte[] png(int width, int height) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+}
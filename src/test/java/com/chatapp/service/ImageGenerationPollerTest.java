@@ -0,0 +1,146 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageGenerationPollerTest {
+
+    @Test
+    void hundredsOfJobsShareTwoPollThreads() throws Exception {
+        FakeProvider provider = new FakeProvider();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService pollPool = Executors.newFixedThreadPool(2);
+        ImageGenerationPoller poller = new ImageGenerationPoller(provider, timer, pollPool, 5, 5, 40, 30_000,
+                System::currentTimeMillis);
+        try {
+            List<CompletableFuture<ImageGenerationClient.PollResult>> results = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                provider.pollsUntilDone.put("job-" + i, 1 + i % 4);
+                results.add(poller.await("", "job-" + i));
+            }
+
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(20, TimeUnit.SECONDS);
+
+            for (int i = 0; i < 500; i++) {
+                assertThat(results.get(i).get().status()).isEqualTo(ImageGenerationClient.PollResult.Status.SUCCEEDED);
+                assertThat(results.get(i).get().imageUrl()).isEqualTo("/images/job-" + i + ".png");
+            }
+            assertThat(provider.pollThreads).hasSizeLessThanOrEqualTo(2);
+            // Job i needs 1 + i % 4 polls, so 125 jobs each need 1, 2, 3 and 4.
+            assertThat(provider.polls.get()).isEqualTo(125 * (1 + 2 + 3 + 4));
+            assertThat(poller.pending()).isZero();
+        } finally {
+            poller.shutdown();
+            pollPool.shutdownNow();
+        }
+    }
+
+    @Test
+    void runningJobIsRecheckedWithDoublingDelay() {
+        FakeProvider provider = new FakeProvider();
+        provider.pollsUntilDone.put("slow", 100);
+        AtomicLong now = new AtomicLong();
+        ImageGenerationPoller poller = new ImageGenerationPoller(provider, null, Runnable::run, 250, 1_000, 4_000,
+                60_000, now::get);
+
+        poller.await("", "slow");
+        assertThat(provider.polls.get()).isEqualTo(1);
+
+        now.set(999);
+        poller.tick();
+        assertThat(provider.polls.get()).isEqualTo(1);
+        now.set(1_000);
+        poller.tick();
+        assertThat(provider.polls.get()).isEqualTo(2);
+        now.set(2_999);
+        poller.tick();
+        assertThat(provider.polls.get()).isEqualTo(2);
+        now.set(3_000);
+        poller.tick();
+        assertThat(provider.polls.get()).isEqualTo(3);
+        now.set(7_000);
+        poller.tick();
+        now.set(11_000);
+        poller.tick();
+        assertThat(provider.polls.get()).isEqualTo(5);
+    }
+
+    @Test
+    void jobStillRunningAtTheDeadlineFailsWithTimeout() throws Exception {
+        FakeProvider provider = new FakeProvider();
+        provider.pollsUntilDone.put("stuck", Integer.MAX_VALUE);
+        AtomicLong now = new AtomicLong();
+        ImageGenerationPoller poller = new ImageGenerationPoller(provider, null, Runnable::run, 250, 1_000, 5_000,
+                3_000, now::get);
+
+        CompletableFuture<ImageGenerationClient.PollResult> result = poller.await("", "stuck");
+        for (long t = 0; t <= 3_000; t += 250) {
+            now.set(t);
+            poller.tick();
+        }
+
+        assertThat(result).isDone();
+        assertThat(result.get().status()).isEqualTo(ImageGenerationClient.PollResult.Status.FAILED);
+        assertThat(result.get().errorMessage()).isEqualTo("图片生成超时");
+        assertThat(poller.pending()).isZero();
+    }
+
+    @Test
+    void providerErrorCompletesTheJobExceptionally() {
+        FakeProvider provider = new FakeProvider();
+        ImageGenerationPoller poller = new ImageGenerationPoller(provider, null, Runnable::run, 250, 1_000, 5_000,
+                60_000, System::currentTimeMillis);
+
+        CompletableFuture<ImageGenerationClient.PollResult> result = poller.await("", "unknown");
+
+        assertThatThrownBy(result::join).hasRootCauseMessage("no such task: unknown");
+        assertThat(poller.pending()).isZero();
+    }
+
+    /** In-memory provider: a task reports RUNNING until it has been polled the configured number of times. */
+    private static final class FakeProvider implements ImageGenerationClient {
+        private final Map<String, Integer> pollsUntilDone = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> pollsByTask = new ConcurrentHashMap<>();
+        private final Set<String> pollThreads = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger polls = new AtomicInteger();
+
+        @Override
+        public SubmitResult submit(String apiKey, String prompt, int count, String size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PollResult poll(String apiKey, String taskId) {
+            Integer needed = pollsUntilDone.get(taskId);
+            if (needed == null) {
+                throw new IllegalStateException("no such task: " + taskId);
+            }
+            polls.incrementAndGet();
+            pollThreads.add(Thread.currentThread().getName());
+            int seen = pollsByTask.computeIfAbsent(taskId, id -> new AtomicInteger()).incrementAndGet();
+            return seen >= needed
+                    ? new PollResult(PollResult.Status.SUCCEEDED, "/images/" + taskId + ".png", null)
+                    : new PollResult(PollResult.Status.RUNNING, null, null);
+        }
+
+        @Override
+        public byte[] download(String imageUrl) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
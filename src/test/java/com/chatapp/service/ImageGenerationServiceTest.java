@@ -63,6 +63,8 @@ class ImageGenerationServiceTest {
                 pointsService,
                 generationClient,
                 botImageGenerationClient,
+                new ImageGenerationPoller(generationClient, null, directExecutor, 250, 1_000, 5_000, 120_000,
+                        System::currentTimeMillis),
                 fileStorageService,
                 rawWebSocketHandler,
                 transactionTemplate,
@@ -133,6 +135,29 @@ class ImageGenerationServiceTest {
         verify(pointsService).refund(1L, "image_generation", "image_generation:77", "图片生成失败自动退还");
     }
 
+    @Test
+    void submitRefundsPointsWhenProviderTaskFailsWhilePolled() {
+        arrangeRoomAndUser();
+        when(pointsService.debit(1L, "image_generation", "image_generation:77"))
+                .thenReturn(new PointsDto.DebitResult(0, 10, 90, 123L));
+        when(generationClient.submit("", "违规图", 1, "1024*1024", true))
+                .thenReturn(new ImageGenerationClient.SubmitResult("task-3"));
+        when(generationClient.poll("", "task-3"))
+                .thenReturn(new ImageGenerationClient.PollResult(
+                        ImageGenerationClient.PollResult.Status.FAILED,
+                        null,
+                        "内容不合规"));
+
+        service.submit(
+                1L,
+                new ImageGenerationDto.GenerateRequest(10L, "违规图", 1, "1024*1024", true));
+
+        assertThat(persistedMessage.getImageGenStatus()).isEqualTo(Message.ImageGenerationStatus.FAILED);
+        assertThat(persistedMessage.getContent()).endsWith("内容不合规");
+        verify(generationClient, never()).download(anyString());
+        verify(pointsService).refund(1L, "image_generation", "image_generation:77", "图片生成失败自动退还");
+    }
+
     @Test
     void submitAsBotChargesUserButMarksMessageAsBot() throws Exception {
         arrangeRoomAndUser();
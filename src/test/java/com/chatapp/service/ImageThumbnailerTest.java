@@ -0,0 +1,129 @@
+package com.chatapp.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageThumbnailerTest {
+
+    private final ImageThumbnailer thumbnailer = new ImageThumbnailer();
+
+    @Test
+    void largePhotoGetsThumbnailPreviewAndBlurHash() throws Exception {
+        byte[] photo = encode(gradient(4000, 2000, BufferedImage.TYPE_INT_RGB), "jpeg");
+
+        ImageThumbnailer.Rendered rendered = thumbnailer.render(photo);
+
+        assertThat(rendered.width()).isEqualTo(4000);
+        assertThat(rendered.height()).isEqualTo(2000);
+        assertThat(rendered.derivatives()).extracting(ImageThumbnailer.Derivative::edge)
+                .containsExactly(ImageThumbnailer.THUMBNAIL_EDGE, ImageThumbnailer.PREVIEW_EDGE);
+        BufferedImage thumbnail = decode(rendered.derivatives().get(0).bytes());
+        BufferedImage preview = decode(rendered.derivatives().get(1).bytes());
+        assertThat(thumbnail.getWidth()).isEqualTo(320);
+        assertThat(thumbnail.getHeight()).isEqualTo(160);
+        assertThat(preview.getWidth()).isEqualTo(1280);
+        assertThat(preview.getHeight()).isEqualTo(640);
+        assertThat(rendered.derivatives().get(0).extension()).isEqualTo("jpg");
+        // 4x3 components: size flag, max AC, 4-char DC and 11 two-char AC values.
+        assertThat(rendered.blurHash()).hasSize(28).startsWith("L");
+    }
+
+    @Test
+    void exifIsAppliedAndStrippedAndSmallImagesGetNoPreview() throws Exception {
+        BufferedImage landscape = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = landscape.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 100, 100);
+        g.setColor(Color.BLUE);
+        g.fillRect(100, 0, 100, 100);
+        g.dispose();
+        byte[] rotated = withExifOrientation(encode(landscape, "jpeg"), 6);
+
+        ImageThumbnailer.Rendered rendered = thumbnailer.render(rotated);
+
+        assertThat(rendered.width()).isEqualTo(100);
+        assertThat(rendered.height()).isEqualTo(200);
+        assertThat(rendered.derivatives()).hasSize(1);
+        byte[] thumbnail = rendered.derivatives().get(0).bytes();
+        assertThat(new String(thumbnail, StandardCharsets.ISO_8859_1)).doesNotContain("Exif");
+        BufferedImage out = decode(thumbnail);
+        assertThat(out.getWidth()).isEqualTo(100);
+        assertThat(out.getHeight()).isEqualTo(200);
+        assertThat(new Color(out.getRGB(50, 40)).getRed()).isGreaterThan(200);
+        // Portrait images use 3x4 components.
+        assertThat(rendered.blurHash()).startsWith("T");
+    }
+
+    @Test
+    void transparentImagesStayPngAndGarbageIsSkipped() throws Exception {
+        BufferedImage sticker = new BufferedImage(600, 600, BufferedImage.TYPE_INT_ARGB);
+        ImageThumbnailer.Rendered rendered = thumbnailer.render(encode(sticker, "png"));
+
+        assertThat(rendered.derivatives()).singleElement()
+                .satisfies(d -> assertThat(d.extension()).isEqualTo("png"));
+        assertThat(decode(rendered.derivatives().get(0).bytes()).getColorModel().hasAlpha()).isTrue();
+        assertThat(thumbnailer.render(new byte[] {(byte) 0x89, 'P', 'N', 'G', 13, 10, 1, 2})).isNull();
+    }
+
+    @Test
+    void blurHashEncodesSizeFlagAndAverageColour() {
+        BufferedImage red = new BufferedImage(16, 12, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = red.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 16, 12);
+        g.dispose();
+
+        // Pure red averages to 0xFF0000, which is "TI:j" in base 83.
+        assertThat(BlurHash.encode(red, 1, 1)).isEqualTo("00TI:j");
+        String hash = BlurHash.encode(red, 4, 3);
+        assertThat(hash).hasSize(28).startsWith("L");
+        assertThat(hash.substring(2, 6)).isEqualTo("TI:j");
+    }
+
+    private static BufferedImage gradient(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | 0x40);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] bytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    /** Inserts a minimal big-endian EXIF APP1 segment carrying only the orientation tag. */
+    private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+        byte[] app1 = {
+                (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        byte[] out = new byte[jpeg.length + app1.length];
+        System.arraycopy(jpeg, 0, out, 0, 2);
+        System.arraycopy(app1, 0, out, 2, app1.length);
+        System.arraycopy(jpeg, 2, out, 2 + app1.length, jpeg.length - 2);
+        return out;
+    }
+}
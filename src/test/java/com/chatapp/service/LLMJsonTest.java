@@ -0,0 +1,77 @@
+package com.chatapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LLMJsonTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void requestBodyIsReplayableAndMatchesTreeSerialization() throws IOException {
+        Object parts = List.of(Map.of("type", "text", "text", "hi \"there\""));
+        RequestBody body = LLMJson.requestBody(objectMapper, json -> {
+            json.writeStartObject();
+            json.writeStringField("model", "m");
+            json.writeFieldName("content");
+            json.writeObject(parts);
+            json.writeNumberField("temperature", 0.7);
+            json.writeEndObject();
+        });
+
+        Buffer first = new Buffer();
+        body.writeTo(first);
+        Buffer second = new Buffer();
+        body.writeTo(second);
+
+        String expected = objectMapper.writeValueAsString(objectMapper.createObjectNode()
+                .put("model", "m")
+                .<ObjectNode>set("content", objectMapper.valueToTree(parts))
+                .put("temperature", 0.7));
+        assertEquals(expected, first.readUtf8());
+        assertEquals(expected, second.readUtf8());
+        assertEquals(-1, body.contentLength());
+        assertEquals("application/json", body.contentType().type() + "/" + body.contentType().subtype());
+    }
+
+    @Test
+    void readFieldsKeepsOnlyRequestedTopLevelFields() throws IOException {
+        String response = """
+                {"id":"x","choices":[{"message":{"content":"hello"}}],
+                 "system_fingerprint":{"nested":[1,2,{"deep":true}]},"usage":{"total_tokens":7}}
+                """;
+
+        JsonNode fields = LLMJson.readFields(objectMapper, stream(response), Set.of("choices", "usage"));
+
+        assertEquals("hello", fields.path("choices").path(0).path("message").path("content").asText());
+        assertEquals(7, fields.path("usage").path("total_tokens").asInt());
+        assertFalse(fields.has("id"));
+        assertFalse(fields.has("system_fingerprint"));
+        assertTrue(LLMJson.readFields(objectMapper, stream("{}"), Set.of("usage")).isEmpty());
+    }
+
+    @Test
+    void readFieldsRejectsNonObjectBodies() {
+        assertThrows(IOException.class, () -> LLMJson.readFields(objectMapper, stream("[1,2]"), Set.of("usage")));
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
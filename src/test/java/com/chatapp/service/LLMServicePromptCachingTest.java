@@ -0,0 +1,131 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.BotDto;
+import com.chatapp.entity.BotConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class LLMServicePromptCachingTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void claudeRequestMarksStablePrefixAndKeepsEverySystemMessage() throws Exception {
+        StringBuilder capturedRequest = new StringBuilder();
+        startServer("/v1/messages", capturedRequest, """
+                {"content":[{"type":"text","text":"ok"}],
+                 "usage":{"input_tokens":12,"cache_creation_input_tokens":0,
+                          "cache_read_input_tokens":2048,"output_tokens":5}}
+                """);
+        LLMService service = new LLMService(objectMapper, mock(ProviderCredentialService.class));
+        ReflectionTestUtils.setField(service, "claudeApiKey", "test-key");
+        ReflectionTestUtils.setField(service, "claudeBaseUrl", baseUrl() + "/v1");
+        ReflectionTestUtils.setField(service, "claudeModel", "claude-test");
+
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.CLAUDE);
+        BotDto.LLMResponse response = service.chat(bot, List.of(
+                BotDto.ChatMessage.systemWithCacheablePrefix("[PERSONA]\nstable\n", "[TASK]\nturn"),
+                new BotDto.ChatMessage("system", "post history"),
+                new BotDto.ChatMessage("user", "hi")));
+
+        JsonNode system = objectMapper.readTree(capturedRequest.toString()).path("system");
+        assertEquals(3, system.size());
+        assertEquals("[PERSONA]\nstable\n", system.path(0).path("text").asText());
+        assertEquals("ephemeral", system.path(0).path("cache_control").path("type").asText());
+        assertEquals("[TASK]\nturn", system.path(1).path("text").asText());
+        assertTrue(system.path(1).path("cache_control").isMissingNode());
+        assertEquals("post history", system.path(2).path("text").asText());
+        assertEquals(2048, response.getCachedTokens());
+        assertEquals(12 + 2048 + 5, response.getTokensUsed());
+    }
+
+    @Test
+    void claudeRequestWithoutBreakpointKeepsPlainSystemString() throws Exception {
+        StringBuilder capturedRequest = new StringBuilder();
+        startServer("/v1/messages", capturedRequest, """
+                {"content":[{"type":"text","text":"ok"}],"usage":{"input_tokens":3,"output_tokens":1}}
+                """);
+        LLMService service = new LLMService(objectMapper, mock(ProviderCredentialService.class));
+        ReflectionTestUtils.setField(service, "claudeApiKey", "test-key");
+        ReflectionTestUtils.setField(service, "claudeBaseUrl", baseUrl() + "/v1");
+        ReflectionTestUtils.setField(service, "claudeModel", "claude-test");
+
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.CLAUDE);
+        BotDto.LLMResponse response = service.chat(bot, List.of(
+                new BotDto.ChatMessage("system", "be brief"),
+                new BotDto.ChatMessage("user", "hi")));
+
+        JsonNode system = objectMapper.readTree(capturedRequest.toString()).path("system");
+        assertTrue(system.isTextual());
+        assertEquals("be brief", system.asText());
+        assertNull(response.getCachedTokens());
+    }
+
+    @Test
+    void openAiCompatibleResponseReportsCachedPromptTokens() throws Exception {
+        StringBuilder capturedRequest = new StringBuilder();
+        startServer("/v1/chat/completions", capturedRequest, """
+                {"choices":[{"message":{"role":"assistant","content":"ok"}}],
+                 "usage":{"total_tokens":1500,"prompt_tokens_details":{"cached_tokens":1280}}}
+                """);
+        LLMService service = new LLMService(objectMapper, mock(ProviderCredentialService.class));
+        ReflectionTestUtils.setField(service, "dashscopeBaseUrl", baseUrl() + "/v1");
+        ReflectionTestUtils.setField(service, "dashscopeModel", "qwen-plus");
+
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.DASHSCOPE);
+        BotDto.LLMResponse response = service.chat(bot, List.of(
+                BotDto.ChatMessage.systemWithCacheablePrefix("stable ", "turn"),
+                new BotDto.ChatMessage("user", "hi")));
+
+        JsonNode request = objectMapper.readTree(capturedRequest.toString());
+        assertEquals("stable turn", request.path("messages").path(0).path("content").asText());
+        assertFalse(capturedRequest.toString().contains("cache"));
+        assertEquals(1280, response.getCachedTokens());
+        assertEquals(1500, response.getTokensUsed());
+    }
+
+    private void startServer(String path, StringBuilder capturedRequest, String responseBody) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(path, exchange -> {
+            capturedRequest.append(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] body = responseBody.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,224 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.BotDto;
+import com.chatapp.entity.BotConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class LLMServiceReactiveTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpServer server;
+    private ReactiveLLMTransport transport;
+    private LLMService service;
+
+    @BeforeEach
+    void setUp() {
+        transport = new ReactiveLLMTransport(objectMapper, "dashscope, CLAUDE", 16);
+        service = new LLMService(objectMapper, mock(ProviderCredentialService.class), null,
+                OutboundHttpClients.standalone(), ProviderKeyPool.standalone(), transport);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transport.shutdown();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void selectedProvidersOnly() {
+        assertTrue(transport.handles(BotConfig.LLMProvider.DASHSCOPE));
+        assertTrue(transport.handles(BotConfig.LLMProvider.CLAUDE));
+        assertFalse(transport.handles(BotConfig.LLMProvider.OPENAI));
+        assertFalse(ReactiveLLMTransport.disabled(objectMapper).handles(BotConfig.LLMProvider.DASHSCOPE));
+    }
+
+    @Test
+    void chatReactiveParsesOpenAiCompatibleResponse() throws Exception {
+        StringBuilder capturedRequest = new StringBuilder();
+        startServer("/v1/chat/completions", "application/json", capturedRequest, 200, out -> writeChunk(out,
+                "{\"id\":\"x\",\"choices\":[{\"message\":{\"content\":\"hi there\"}}],"
+                        + "\"usage\":{\"total_tokens\":12,\"prompt_tokens_details\":{\"cached_tokens\":8}}}"));
+
+        BotDto.LLMResponse response = service.chatReactive(
+                dashscopeBot(), List.of(new BotDto.ChatMessage("user", "hi")), List.of()).block();
+
+        assertEquals("hi there", response.getContent());
+        assertEquals(12, response.getTokensUsed());
+        assertEquals(8, response.getCachedTokens());
+        assertTrue(capturedRequest.toString().contains("\"model\":\"qwen-plus\""));
+        assertFalse(capturedRequest.toString().contains("\"stream\""));
+    }
+
+    @Test
+    void chatStreamReactiveEmitsDeltasThenCompletedResponse() throws Exception {
+        startServer("/v1/chat/completions", "text/event-stream", new StringBuilder(), 200, out -> {
+            writeChunk(out, "data: {\"choices\":[{\"delta\":{\"content\":\"Hel\"}}]}\n\n");
+            writeChunk(out, ": keep-alive\n\n");
+            writeChunk(out, "data: {\"choices\":[{\"delta\":{\"content\":\"lo\"}}]}\n\n");
+            writeChunk(out, "data: {\"choices\":[],\"usage\":{\"total_tokens\":17}}\n\n");
+            writeChunk(out, "data: [DONE]\n\n");
+        });
+
+        List<LLMService.StreamEvent> events = service.chatStreamReactive(
+                dashscopeBot(), List.of(new BotDto.ChatMessage("user", "hi"))).collectList().block();
+
+        assertEquals(3, events.size());
+        assertEquals("Hel", events.get(0).delta());
+        assertEquals("lo", events.get(1).delta());
+        assertEquals("Hello", events.get(2).completed().getContent());
+        assertEquals(17, events.get(2).completed().getTokensUsed());
+    }
+
+    @Test
+    void blockingChatStreamRoutesSelectedProviderThroughReactiveTransport() throws Exception {
+        startServer("/v1/messages", "text/event-stream", new StringBuilder(), 200, out -> {
+            writeChunk(out, "event: message_start\ndata: {\"type\":\"message_start\",\"message\":{\"usage\":{\"input_tokens\":9}}}\n\n");
+            writeChunk(out, "event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"delta\":{\"text\":\"你好\"}}\n\n");
+            writeChunk(out, "event: message_delta\ndata: {\"type\":\"message_delta\",\"usage\":{\"output_tokens\":4}}\n\n");
+            writeChunk(out, "event: message_stop\ndata: {\"type\":\"message_stop\"}\n\n");
+        });
+        ReflectionTestUtils.setField(service, "claudeApiKey", "test-key");
+        ReflectionTestUtils.setField(service, "claudeBaseUrl", baseUrl() + "/v1");
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.CLAUDE);
+        bot.setModelName("claude-test");
+
+        List<String> deltas = new ArrayList<>();
+        BotDto.LLMResponse response = service.chatStream(bot, List.of(new BotDto.ChatMessage("user", "hi")), deltas::add);
+
+        assertEquals(List.of("你好"), deltas);
+        assertEquals("你好", response.getContent());
+        assertEquals(13, response.getTokensUsed());
+    }
+
+    @Test
+    void errorStatusSurfacesAsProviderFailure() throws Exception {
+        startServer("/v1/chat/completions", "application/json", new StringBuilder(), 503,
+                out -> writeChunk(out, "{\"error\":\"overloaded\"}"));
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> service.chat(dashscopeBot(), List.of(new BotDto.ChatMessage("user", "hi"))));
+        assertEquals("LLM API调用失败: 503", error.getMessage());
+    }
+
+    @Test
+    void rateLimitedKeyFailsOverToTheNextPooledKey() throws Exception {
+        List<String> seenKeys = new CopyOnWriteArrayList<>();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            String key = exchange.getRequestHeaders().getFirst("Authorization");
+            seenKeys.add(key);
+            boolean limited = "Bearer sk-aaaa".equals(key);
+            byte[] body = (limited ? "{\"error\":\"rate limited\"}"
+                    : "{\"choices\":[{\"message\":{\"content\":\"ok\"}}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(limited ? 429 : 200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        ProviderKeyPool keyPool = ProviderKeyPool.standalone();
+        ReactiveLLMTransport pooledTransport = new ReactiveLLMTransport(objectMapper, keyPool, "dashscope", 16);
+        LLMService pooledService = new LLMService(objectMapper, mock(ProviderCredentialService.class), null,
+                OutboundHttpClients.standalone(), keyPool, pooledTransport);
+        ReflectionTestUtils.setField(pooledService, "dashscopeApiKey", "sk-aaaa,sk-bbbb");
+        try {
+            BotDto.LLMResponse response = pooledService.chatReactive(
+                    dashscopeBot(pooledService), List.of(new BotDto.ChatMessage("user", "hi")), List.of()).block();
+
+            assertEquals("ok", response.getContent());
+            assertEquals(List.of("Bearer sk-aaaa", "Bearer sk-bbbb"), seenKeys);
+            assertEquals(0, keyPool.inFlight("sk-aaaa"));
+            assertEquals(0, keyPool.inFlight("sk-bbbb"));
+        } finally {
+            pooledTransport.shutdown();
+        }
+    }
+
+    @Test
+    void reactiveCallsTripAndRespectTheDestinationCircuit() throws Exception {
+        AtomicInteger hits = new AtomicInteger();
+        startServer("/v1/chat/completions", "application/json", new StringBuilder(), 503, out -> {
+            hits.incrementAndGet();
+            writeChunk(out, "{\"error\":\"overloaded\"}");
+        });
+        OutboundHttpClients clients = OutboundHttpClients.standalone();
+        LLMService guarded = new LLMService(objectMapper, mock(ProviderCredentialService.class), null,
+                clients, ProviderKeyPool.standalone(), transport);
+        BotConfig bot = dashscopeBot(guarded);
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(RuntimeException.class,
+                    () -> guarded.chatReactive(bot, List.of(new BotDto.ChatMessage("user", "hi")), List.of()).block());
+        }
+        assertEquals(OutboundHttpClients.CircuitState.OPEN, clients.circuitState("llm-dashscope"));
+
+        RuntimeException rejected = assertThrows(RuntimeException.class,
+                () -> guarded.chatReactive(bot, List.of(new BotDto.ChatMessage("user", "hi")), List.of()).block());
+        assertTrue(rejected.getCause() instanceof OutboundCallRejectedException);
+        assertEquals(5, hits.get());
+    }
+
+    private BotConfig dashscopeBot() {
+        return dashscopeBot(service);
+    }
+
+    private BotConfig dashscopeBot(LLMService service) {
+        ReflectionTestUtils.setField(service, "dashscopeBaseUrl", baseUrl() + "/v1");
+        ReflectionTestUtils.setField(service, "dashscopeModel", "qwen-plus");
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.DASHSCOPE);
+        return bot;
+    }
+
+    private void startServer(String path, String contentType, StringBuilder capturedRequest, int status,
+                             StreamBody body) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(path, exchange -> {
+            capturedRequest.append(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.write(out);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void writeChunk(OutputStream out, String chunk) throws IOException {
+        out.write(chunk.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @FunctionalInterface
+    private interface StreamBody {
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,162 @@
+package com.chatapp.service;
+
+import com.chatapp.dto.BotDto;
+import com.chatapp.entity.BotConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class LLMServiceStreamingTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void openAiCompatibleStreamDeliversDeltasBeforeResponseCompletes() throws Exception {
+        CountDownLatch firstDeltaSeen = new CountDownLatch(1);
+        AtomicBoolean deltaArrivedMidStream = new AtomicBoolean();
+        StringBuilder capturedRequest = new StringBuilder();
+        startServer("/v1/chat/completions", "text/event-stream", capturedRequest, out -> {
+            writeChunk(out, "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\",\"content\":\"Hel\"}}]}\n\n");
+            // The rest of the reply is only produced once the client has surfaced the first delta.
+            deltaArrivedMidStream.set(awaitQuietly(firstDeltaSeen));
+            writeChunk(out, ": keep-alive\n\n");
+            writeChunk(out, "data: {\"choices\":[{\"delta\":{\"content\":\"lo\"}}]}\n\n");
+            writeChunk(out, "data: {\"choices\":[],\"usage\":{\"total_tokens\":17}}\n\n");
+            writeChunk(out, "data: [DONE]\n\n");
+        });
+        LLMService service = new LLMService(objectMapper, mock(ProviderCredentialService.class));
+        ReflectionTestUtils.setField(service, "dashscopeBaseUrl", baseUrl() + "/v1");
+        ReflectionTestUtils.setField(service, "dashscopeModel", "qwen-plus");
+
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.DASHSCOPE);
+        List<String> deltas = new ArrayList<>();
+        BotDto.LLMResponse response = service.chatStream(bot,
+                List.of(new BotDto.ChatMessage("user", "hi")),
+                delta -> {
+                    deltas.add(delta);
+                    firstDeltaSeen.countDown();
+                });
+
+        assertTrue(capturedRequest.toString().contains("\"stream\":true"));
+        assertTrue(capturedRequest.toString().contains("\"include_usage\":true"));
+        assertTrue(deltaArrivedMidStream.get());
+        assertEquals(List.of("Hel", "lo"), deltas);
+        assertEquals("Hello", response.getContent());
+        assertEquals(17, response.getTokensUsed());
+    }
+
+    @Test
+    void claudeStreamParsesContentBlockDeltasAndUsage() throws Exception {
+        startServer("/v1/messages", "text/event-stream", new StringBuilder(), out -> {
+            writeChunk(out, "event: message_start\ndata: {\"type\":\"message_start\",\"message\":{\"usage\":{\"input_tokens\":9}}}\n\n");
+            writeChunk(out, "event: ping\ndata: {\"type\":\"ping\"}\n\n");
+            writeChunk(out, "event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"你好\"}}\n\n");
+            writeChunk(out, "event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"，世界\"}}\n\n");
+            writeChunk(out, "event: message_delta\ndata: {\"type\":\"message_delta\",\"usage\":{\"output_tokens\":4}}\n\n");
+            writeChunk(out, "event: message_stop\ndata: {\"type\":\"message_stop\"}\n\n");
+        });
+        LLMService service = new LLMService(objectMapper, mock(ProviderCredentialService.class));
+        ReflectionTestUtils.setField(service, "claudeApiKey", "test-key");
+        ReflectionTestUtils.setField(service, "claudeBaseUrl", baseUrl() + "/v1");
+        ReflectionTestUtils.setField(service, "claudeModel", "claude-test");
+
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.CLAUDE);
+        List<String> deltas = new ArrayList<>();
+        BotDto.LLMResponse response = service.chatStream(bot,
+                List.of(new BotDto.ChatMessage("system", "be brief"), new BotDto.ChatMessage("user", "hi")),
+                deltas::add);
+
+        assertEquals(List.of("你好", "，世界"), deltas);
+        assertEquals("你好，世界", response.getContent());
+        assertEquals(13, response.getTokensUsed());
+    }
+
+    @Test
+    void nativeOllamaStreamReadsNdjsonUntilDone() throws Exception {
+        StringBuilder capturedRequest = new StringBuilder();
+        startServer("/api/chat", "application/x-ndjson", capturedRequest, out -> {
+            writeChunk(out, "{\"message\":{\"role\":\"assistant\",\"content\":\"one \"},\"done\":false}\n");
+            writeChunk(out, "{\"message\":{\"role\":\"assistant\",\"content\":\"two\"},\"done\":false}\n");
+            writeChunk(out, "{\"message\":{\"role\":\"assistant\",\"content\":\"\"},\"done\":true,\"prompt_eval_count\":5,\"eval_count\":2}\n");
+        });
+        LLMService service = new LLMService(objectMapper, mock(ProviderCredentialService.class));
+        ReflectionTestUtils.setField(service, "ollamaBaseUrl", baseUrl());
+        ReflectionTestUtils.setField(service, "ollamaModel", "llama3");
+        ReflectionTestUtils.setField(service, "ollamaApiKey", "");
+
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.OLLAMA);
+        List<String> deltas = new ArrayList<>();
+        BotDto.LLMResponse response = service.chatStream(bot,
+                List.of(new BotDto.ChatMessage("user", "count")),
+                deltas::add);
+
+        assertTrue(capturedRequest.toString().contains("\"stream\":true"));
+        assertEquals(List.of("one ", "two"), deltas);
+        assertEquals("one two", response.getContent());
+        assertEquals(7, response.getTokensUsed());
+    }
+
+    private void startServer(String path, String contentType, StringBuilder capturedRequest,
+                             StreamBody body) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(path, exchange -> {
+            capturedRequest.append(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.write(out);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void writeChunk(OutputStream out, String chunk) throws IOException {
+        out.write(chunk.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static boolean awaitQuietly(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface StreamBody {
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,127 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoreBookMatcherTest {
+
+    private LoreBookMatcher matcher;
+    private BotConfig bot;
+
+    @BeforeEach
+    void setUp() {
+        matcher = new LoreBookMatcher();
+        bot = new BotConfig();
+        bot.setId(7L);
+        bot.setUpdatedAt(LocalDateTime.of(2026, 1, 1, 0, 0));
+    }
+
+    @Test
+    void overlappingKeysAllMatchInOnePass() {
+        bot.setCharacterBookJson("""
+                {"entries":[
+                  {"keys":["she"],"content":"she"},
+                  {"keys":["he"],"content":"he"},
+                  {"keys":["hers"],"content":"hers"},
+                  {"keys":["巨龙"],"content":"dragon"}
+                ]}
+                """);
+
+        List<String> matched = contents(List.of("USHERS", "远方的巨龙醒了"));
+
+        assertEquals(List.of("she", "he", "hers", "dragon"), matched);
+    }
+
+    @Test
+    void keysDoNotMatchAcrossMessageBoundaries() {
+        bot.setCharacterBookJson("""
+                {"entries":[{"keys":["red dragon"],"content":"Lore"}]}
+                """);
+
+        assertTrue(contents(List.of("a red", "dragon appears")).isEmpty());
+        assertEquals(List.of("Lore"), contents(List.of("a red dragon appears")));
+    }
+
+    @Test
+    void caseSensitiveAndWholeWordOptionsAreHonoured() {
+        bot.setCharacterBookJson("""
+                {"entries":[
+                  {"keys":["Ash"],"content":"case","case_sensitive":true},
+                  {"keys":["cat"],"content":"word","extensions":{"match_whole_words":true}},
+                  {"keys":["猫"],"content":"cjk","extensions":{"match_whole_words":true}}
+                ]}
+                """);
+
+        assertTrue(contents(List.of("ash and concatenate")).isEmpty());
+        assertEquals(List.of("case", "word", "cjk"), contents(List.of("Ash saw the cat", "小猫来了")));
+    }
+
+    @Test
+    void regexKeysAndSelectiveSecondaryKeysMatch() {
+        bot.setCharacterBookJson("""
+                {"entries":[
+                  {"keys":["/dragon(s)?\\\\b/i"],"content":"slash regex"},
+                  {"keys":["^cast \\\\w+$"],"content":"use_regex","use_regex":true},
+                  {"keys":["castle"],"secondary_keys":["king"],"selective":true,"content":"selective"},
+                  {"keys":[],"content":"constant","constant":true}
+                ]}
+                """);
+
+        assertEquals(List.of("constant"), contents(List.of("the castle is quiet")));
+        assertEquals(List.of("slash regex", "use_regex", "selective", "constant"),
+                contents(List.of("DRAGONS fly", "cast fireball", "the castle", "the king waits")));
+    }
+
+    @Test
+    void resultsFollowInsertionOrderAndSkipDisabledEntries() {
+        bot.setCharacterBookJson("""
+                {"entries":[
+                  {"keys":["parcel"],"content":"second","insertion_order":2},
+                  {"keys":["parcel"],"content":"first","insertion_order":1},
+                  {"keys":["parcel"],"content":"disabled","enabled":false,"insertion_order":0}
+                ]}
+                """);
+
+        assertEquals(List.of("first", "second"), contents(List.of("parcel")));
+    }
+
+    @Test
+    void compiledBookIsCachedUntilBotChanges() {
+        bot.setCharacterBookJson("{\"entries\":[{\"keys\":[\"parcel\"],\"content\":\"old\"}]}");
+        LoreBookMatcher.CompiledBook first = matcher.compiled(bot);
+
+        assertSame(first, matcher.compiled(bot));
+
+        bot.setCharacterBookJson("{\"entries\":[{\"keys\":[\"parcel\"],\"content\":\"new\"}]}");
+        bot.setUpdatedAt(bot.getUpdatedAt().plusSeconds(1));
+        assertNotSame(first, matcher.compiled(bot));
+        assertEquals(List.of("new"), contents(List.of("parcel")));
+
+        LoreBookMatcher.CompiledBook current = matcher.compiled(bot);
+        matcher.evict(bot.getId());
+        assertNotSame(current, matcher.compiled(bot));
+    }
+
+    @Test
+    void malformedBookMatchesNothingAndIsNotReparsed() {
+        bot.setCharacterBookJson("{bad json");
+
+        assertTrue(contents(List.of("parcel")).isEmpty());
+        assertSame(matcher.compiled(bot), matcher.compiled(bot));
+    }
+
+    private List<String> contents(List<String> messages) {
+        return matcher.match(bot, messages).stream()
+                .map(AgentContextBuilder.LoreBookEntry::content)
+                .toList();
+    }
+}
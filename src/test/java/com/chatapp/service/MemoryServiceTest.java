@@ -3,9 +3,9 @@ package com.chatapp.service;
 import com.chatapp.entity.MemoryEntry;
 import com.chatapp.repository.ChatRoomRepository;
 import com.chatapp.repository.MemoryEntryRepository;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Pageable;
@@ -29,7 +29,12 @@ class MemoryServiceTest {
 
     @Mock private MemoryEntryRepository memoryRepository;
     @Mock private ChatRoomRepository chatRoomRepository;
-    @InjectMocks private MemoryService service;
+    private MemoryService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new MemoryService(memoryRepository, chatRoomRepository, new MemoryRecallIndex(memoryRepository));
+    }
 
     private static MemoryEntry entry(Long id, Long roomId, MemoryEntry.Visibility vis, Long authorUserId) {
         MemoryEntry m = new MemoryEntry();
@@ -42,6 +47,12 @@ class MemoryServiceTest {
         return m;
     }
 
+    private static MemoryEntry content(MemoryEntry m, String title, String content) {
+        m.setTitle(title);
+        m.setContent(content);
+        return m;
+    }
+
     // ---- create (user) ----
 
     @Test
@@ -122,7 +133,7 @@ class MemoryServiceTest {
     }
 
     @Test
-    void recallWithQueryUsesSearchAndClampsLimit() {
+    void recallWithShortUnindexedQueryFallsBackToSearchAndClampsLimit() {
         when(memoryRepository.search(eq(10L), eq(null), eq("blue"), any(Pageable.class)))
                 .thenReturn(List.of());
 
@@ -132,6 +143,61 @@ class MemoryServiceTest {
         verify(memoryRepository, never()).recent(anyLong(), any(), any());
     }
 
+    @Test
+    void recallRanksIndexedEntriesWithoutSubstringSearch() {
+        MemoryEntry sky = content(entry(1L, 10L, MemoryEntry.Visibility.ROOM, null), "Sky", "blue sky today");
+        MemoryEntry sea = content(entry(2L, 10L, MemoryEntry.Visibility.ROOM, null), "Sea", "the sea is green");
+        MemoryEntry cat = content(entry(3L, 10L, MemoryEntry.Visibility.ROOM, null), "猫的名字", "房间里的猫叫年糕");
+        when(memoryRepository.findByChatRoomIdAndArchivedFalse(10L)).thenReturn(List.of(sky, sea, cat));
+        when(memoryRepository.findAllById(any())).thenAnswer(inv -> List.of(cat, sea, sky));
+
+        List<MemoryEntry> out = service.recall(10L, null, "what did alice say about the sea and 猫的名字", 5);
+
+        assertEquals(List.of(3L, 2L), out.stream().map(MemoryEntry::getId).toList());
+        verify(memoryRepository, never()).search(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void recallHidesOtherUsersPrivateEntries() {
+        MemoryEntry mine = content(entry(1L, 10L, MemoryEntry.Visibility.PRIVATE, 1L), "Plan", "secret plan");
+        MemoryEntry theirs = content(entry(2L, 10L, MemoryEntry.Visibility.PRIVATE, 2L), "Plan", "other plan");
+        when(memoryRepository.findByChatRoomIdAndArchivedFalse(10L)).thenReturn(List.of(mine, theirs));
+        when(memoryRepository.findAllById(List.of(1L))).thenReturn(List.of(mine));
+
+        assertEquals(List.of(mine), service.recall(10L, 1L, "plan", 5));
+        assertTrue(service.recall(10L, null, "a plan that nobody shared with the room at all", 5).isEmpty());
+    }
+
+    @Test
+    void writesUpdateTheLoadedIndex() {
+        MemoryEntry sky = content(entry(1L, 10L, MemoryEntry.Visibility.ROOM, null), "Sky", "the sky is blue");
+        when(memoryRepository.findByChatRoomIdAndArchivedFalse(10L)).thenReturn(List.of(sky));
+        when(memoryRepository.findAllById(any())).thenAnswer(inv -> {
+            List<MemoryEntry> found = new java.util.ArrayList<>();
+            for (Long id : inv.<Iterable<Long>>getArgument(0)) {
+                found.add(id == 1L ? sky : entry(id, 10L, MemoryEntry.Visibility.ROOM, null));
+            }
+            return found;
+        });
+        service.recall(10L, null, "sky", 5);
+        when(memoryRepository.countByChatRoomIdAndArchivedFalse(10L)).thenReturn(1L);
+        when(memoryRepository.save(any(MemoryEntry.class))).thenAnswer(inv -> {
+            MemoryEntry saved = inv.getArgument(0);
+            saved.setId(9L);
+            return saved;
+        });
+
+        service.saveForBot(10L, 5L, "Weather", "rain tomorrow", null);
+
+        assertEquals(List.of(9L), service.recall(10L, null, "rain", 5).stream().map(MemoryEntry::getId).toList());
+        when(memoryRepository.findById(1L)).thenReturn(Optional.of(sky));
+        when(chatRoomRepository.isMember(10L, 1L)).thenReturn(true);
+        service.delete(1L, 1L);
+        verify(memoryRepository, never()).search(anyLong(), any(), eq("sky"), any());
+        assertTrue(service.recall(10L, null, "which colour is the sky when it is not raining", 5).stream()
+                .noneMatch(e -> e.getId() == 1L));
+    }
+
     // ---- access control on mutate ----
 
     @Test
@@ -6,17 +6,22 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -24,19 +29,24 @@ import static org.mockito.Mockito.*;
 class MessageRetentionServiceTest {
     @Mock private MessageRepository messageRepository;
     @Mock private FileStorageService fileStorageService;
+    @Mock private FileReferenceService fileReferenceService;
+    @Mock private TransactionTemplate transactionTemplate;
 
     private MessageRetentionService service;
 
     @BeforeEach
     void setUp() {
-        service = new MessageRetentionService(messageRepository, fileStorageService);
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(inv ->
+                inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        service = new MessageRetentionService(messageRepository, fileStorageService, fileReferenceService,
+                transactionTemplate);
         ReflectionTestUtils.setField(service, "enabled", true);
         ReflectionTestUtils.setField(service, "retentionDays", 30L);
         ReflectionTestUtils.setField(service, "batchSize", 10);
     }
 
     @Test
-    void cleanupExpiredMessagesSoftDeletesRowsAndDeletesMessageScopedFiles() throws Exception {
+    void cleanupExpiredMessagesSoftDeletesRowsAndReleasesMessageScopedFiles() throws Exception {
         Message image = new Message();
         image.setId(1L);
         image.setContent("old image");
@@ -56,9 +66,9 @@ class MessageRetentionServiceTest {
         when(messageRepository.findExpiredForRetention(any(LocalDateTime.class), any(Pageable.class)))
                 .thenReturn(new PageImpl<>(List.of(image, text)))
                 .thenReturn(new PageImpl<>(List.of()));
-        when(fileStorageService.deleteFile("/api/files/chat/old.png")).thenReturn(true);
-        when(fileStorageService.deleteFile("/api/files/chat/thumb.png")).thenReturn(true);
-        when(fileStorageService.deleteFile("/api/files/image-gen/generated.png")).thenReturn(true);
+        when(fileReferenceService.release("/api/files/chat/old.png")).thenReturn(true);
+        when(fileReferenceService.release("/api/files/chat/thumb.png")).thenReturn(true);
+        when(fileReferenceService.release("/api/files/image-gen/generated.png")).thenReturn(true);
         when(fileStorageService.listExpiredImageGenFileUrls(any(LocalDateTime.class), anyInt())).thenReturn(List.of());
 
         MessageRetentionService.CleanupResult result = service.cleanupExpiredMessages();
@@ -72,7 +82,50 @@ class MessageRetentionServiceTest {
         assertThat(image.getThumbnailUrl()).isNull();
         assertThat(image.getEncryptedContent()).isNull();
         assertThat(text.getIsDeleted()).isTrue();
-        verify(messageRepository).saveAll(List.of(image, text));
+        InOrder inOrder = inOrder(messageRepository, fileReferenceService);
+        inOrder.verify(messageRepository).saveAll(List.of(image, text));
+        inOrder.verify(fileReferenceService).release("/api/files/chat/old.png");
+    }
+
+    @Test
+    void cleanupExpiredMessagesReleasesNoFilesWhenTheBatchFailsToCommit() {
+        Message image = new Message();
+        image.setId(5L);
+        image.setFileUrl("/api/files/chat/kept.png");
+        when(messageRepository.findExpiredForRetention(any(LocalDateTime.class), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(List.of(image)));
+        when(transactionTemplate.execute(any())).thenAnswer(inv -> {
+            inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            throw new TransactionSystemException("commit failed");
+        });
+
+        assertThatThrownBy(() -> service.cleanupExpiredMessages()).isInstanceOf(TransactionSystemException.class);
+
+        verifyNoInteractions(fileReferenceService);
+    }
+
+    @Test
+    void cleanupExpiredMessagesKeepsFilesStillReferencedElsewhere() throws Exception {
+        Message sticker = new Message();
+        sticker.setId(3L);
+        sticker.setFileUrl("/api/files/chat/sticker.png");
+        Message avatarLink = new Message();
+        avatarLink.setId(4L);
+        avatarLink.setFileUrl("/api/files/avatar/me.png");
+
+        when(messageRepository.findExpiredForRetention(any(LocalDateTime.class), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(List.of(sticker, avatarLink)))
+                .thenReturn(new PageImpl<>(List.of()));
+        when(fileReferenceService.release("/api/files/chat/sticker.png")).thenReturn(false);
+        when(fileStorageService.listExpiredImageGenFileUrls(any(LocalDateTime.class), anyInt())).thenReturn(List.of());
+
+        MessageRetentionService.CleanupResult result = service.cleanupExpiredMessages();
+
+        assertThat(result.expiredMessages()).isEqualTo(2);
+        assertThat(result.deletedFiles()).isZero();
+        assertThat(sticker.getFileUrl()).isNull();
+        verify(fileReferenceService, never()).release("/api/files/avatar/me.png");
+        verify(fileStorageService, never()).deleteFile(anyString());
     }
 
     @Test
@@ -81,17 +134,14 @@ class MessageRetentionServiceTest {
                 .thenReturn(new PageImpl<>(List.of()));
         when(fileStorageService.listExpiredImageGenFileUrls(any(LocalDateTime.class), anyInt()))
                 .thenReturn(List.of("/api/files/image-gen/orphan.png", "/api/files/image-gen/live.png"));
-        when(messageRepository.existsActiveMessageReferencingFileUrl("/api/files/image-gen/orphan.png"))
-                .thenReturn(false);
-        when(messageRepository.existsActiveMessageReferencingFileUrl("/api/files/image-gen/live.png"))
-                .thenReturn(true);
-        when(fileStorageService.deleteFile("/api/files/image-gen/orphan.png")).thenReturn(true);
+        when(fileReferenceService.release("/api/files/image-gen/orphan.png")).thenReturn(true);
+        when(fileReferenceService.release("/api/files/image-gen/live.png")).thenReturn(false);
 
         MessageRetentionService.CleanupResult result = service.cleanupExpiredMessages();
 
         assertThat(result.orphanImageFiles()).isEqualTo(1);
-        verify(fileStorageService).deleteFile("/api/files/image-gen/orphan.png");
-        verify(fileStorageService, never()).deleteFile("/api/files/image-gen/live.png");
+        verify(fileReferenceService).release("/api/files/image-gen/orphan.png");
+        verify(fileReferenceService).release("/api/files/image-gen/live.png");
     }
 
     @Test
@@ -101,7 +151,7 @@ class MessageRetentionServiceTest {
         MessageRetentionService.CleanupResult result = service.cleanupExpiredMessages();
 
         assertThat(result.disabled()).isTrue();
-        verifyNoInteractions(messageRepository, fileStorageService);
+        verifyNoInteractions(messageRepository, fileStorageService, fileReferenceService);
     }
 
     @Test
@@ -26,6 +26,7 @@ class ModerationServiceTest {
 
     @Mock private ChatRoomBotRepository chatRoomBotRepository;
     @Mock private ChatRoomRepository chatRoomRepository;
+    @Mock private AgentContextSnapshots agentContextSnapshots;
     @InjectMocks private ModerationService service;
 
     private static ChatRoomBot binding(ChatRoomBot.ModerationGrant grant, boolean active) {
@@ -101,6 +102,7 @@ class ModerationServiceTest {
         targetIsPlainMember();
         service.kickByBot(5L, 100L, 9L);
         verify(chatRoomRepository).removeMember(100L, 9L);
+        verify(agentContextSnapshots).roomMembersChanged(100L);
     }
 
     @Test
@@ -0,0 +1,286 @@
+package com.chatapp.service;
+
+import com.chatapp.config.OutboundHttpProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OutboundHttpClientsTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OutboundHttpClients clients;
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clients = new OutboundHttpClients(new OutboundHttpProperties(), meterRegistry, nanos::get);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        clients.shutdown();
+    }
+
+    @Test
+    void circuitOpensAfterConsecutiveFailuresAndFailsFastUntilTrialSucceeds() throws Exception {
+        AtomicInteger hits = new AtomicInteger();
+        AtomicInteger status = new AtomicInteger(500);
+        respond("/flaky", exchange -> {
+            hits.incrementAndGet();
+            return status.get();
+        });
+        OkHttpClient client = clients.client("flaky", spec()
+                .withCircuitBreaker(3, Duration.ofSeconds(10))
+                .withMaxRetries(0));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(get(client, "/flaky")).isEqualTo(500);
+        }
+        assertThat(clients.circuitState("flaky")).isEqualTo(OutboundHttpClients.CircuitState.OPEN);
+
+        assertThatThrownBy(() -> get(client, "/flaky")).isInstanceOf(OutboundCallRejectedException.class);
+        assertThat(hits.get()).isEqualTo(3);
+        assertThat(meterRegistry.counter("outbound.http.rejections",
+                "destination", "flaky", "reason", "circuit_open").count()).isEqualTo(1.0);
+
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        status.set(200);
+        assertThat(get(client, "/flaky")).isEqualTo(200);
+        assertThat(clients.circuitState("flaky")).isEqualTo(OutboundHttpClients.CircuitState.CLOSED);
+        assertThat(hits.get()).isEqualTo(4);
+    }
+
+    @Test
+    void failedHalfOpenTrialReopensCircuit() throws Exception {
+        respond("/down", exchange -> 503);
+        OkHttpClient client = clients.client("down", spec()
+                .withCircuitBreaker(1, Duration.ofSeconds(10))
+                .withMaxRetries(0));
+
+        get(client, "/down");
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+        get(client, "/down");
+
+        assertThat(clients.circuitState("down")).isEqualTo(OutboundHttpClients.CircuitState.OPEN);
+        assertThatThrownBy(() -> get(client, "/down")).isInstanceOf(OutboundCallRejectedException.class);
+    }
+
+    @Test
+    void cancelledCallsDoNotCountAsFailures() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        respond("/hedged", exchange -> {
+            await(release);
+            return 200;
+        });
+        OkHttpClient client = clients.client("hedged", spec()
+                .withCircuitBreaker(1, Duration.ofSeconds(10))
+                .withMaxRetries(0));
+        Call loser = client.newCall(new Request.Builder().url(url("/hedged")).get().build());
+
+        CompletableFuture<Void> execution = CompletableFuture.runAsync(() -> {
+            try (Response ignored = loser.execute()) {
+                // not reached: the call is cancelled before the server answers
+            } catch (IOException expected) {
+                // cancellation surfaces as an IOException
+            }
+        });
+        waitUntil(() -> meterRegistry.get("outbound.http.in_flight").tag("destination", "hedged").gauge().value() == 1.0);
+        loser.cancel();
+        execution.get(5, TimeUnit.SECONDS);
+        release.countDown();
+
+        assertThat(clients.circuitState("hedged")).isEqualTo(OutboundHttpClients.CircuitState.CLOSED);
+        assertThat(get(client, "/hedged")).isEqualTo(200);
+    }
+
+    @Test
+    void idempotentRequestsAreRetriedOnGatewayErrorsButPostsAreNot() throws Exception {
+        AtomicInteger getHits = new AtomicInteger();
+        respond("/recovering", exchange -> getHits.incrementAndGet() < 3 ? 503 : 200);
+        AtomicInteger postHits = new AtomicInteger();
+        respond("/post", exchange -> {
+            postHits.incrementAndGet();
+            return 503;
+        });
+        OkHttpClient client = clients.client("retrying", spec().withMaxRetries(2));
+
+        assertThat(get(client, "/recovering")).isEqualTo(200);
+        assertThat(getHits.get()).isEqualTo(3);
+        assertThat(meterRegistry.counter("outbound.http.retries", "destination", "retrying").count())
+                .isEqualTo(2.0);
+
+        Request post = new Request.Builder()
+                .url(url("/post"))
+                .post(RequestBody.create("{}", MediaType.parse("application/json")))
+                .build();
+        try (Response response = client.newCall(post).execute()) {
+            assertThat(response.code()).isEqualTo(503);
+        }
+        assertThat(postHits.get()).isEqualTo(1);
+    }
+
+    @Test
+    void retryBudgetCapsRetriesDuringSustainedOutage() throws Exception {
+        AtomicInteger hits = new AtomicInteger();
+        respond("/outage", exchange -> {
+            hits.incrementAndGet();
+            return 503;
+        });
+        OkHttpClient client = clients.client("outage", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(2))
+                .withCircuitBreaker(0, Duration.ZERO)
+                .withMaxRetries(1)
+                .overriddenBy(backoffMs(1)));
+
+        for (int i = 0; i < 40; i++) {
+            get(client, "/outage");
+        }
+
+        // 10 banked tokens plus 0.2 per call, instead of one retry for each of the 40 calls.
+        assertThat(hits.get()).isLessThan(40 + 20);
+        assertThat(hits.get()).isGreaterThan(40);
+    }
+
+    @Test
+    void bulkheadRejectsCallsBeyondConcurrencyLimitUntilBodyIsClosed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        respond("/slow", exchange -> {
+            await(release);
+            return 200;
+        });
+        OkHttpClient client = clients.client("slow", spec().withMaxConcurrent(1).withMaxRetries(0));
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(client, "/slow");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waitUntil(() -> meterRegistry.get("outbound.http.in_flight").tag("destination", "slow").gauge().value() == 1.0);
+
+        assertThatThrownBy(() -> get(client, "/slow"))
+                .isInstanceOf(OutboundCallRejectedException.class)
+                .hasMessageContaining("bulkhead_full");
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+        assertThat(get(client, "/slow")).isEqualTo(200);
+        assertThat(meterRegistry.get("outbound.http.in_flight").tag("destination", "slow").gauge().value())
+                .isZero();
+    }
+
+    @Test
+    void destinationsShareOneConnectionPoolWithTheirOwnTimeouts() {
+        OkHttpClient fast = clients.client("fast", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(1), Duration.ofSeconds(2), Duration.ofSeconds(3)));
+        OkHttpClient slow = clients.client("slow-llm", OutboundHttpClients.Spec
+                .timeouts(Duration.ofSeconds(30), Duration.ofSeconds(120), Duration.ofSeconds(30)));
+
+        assertThat(fast.connectionPool()).isSameAs(slow.connectionPool());
+        assertThat(fast.dispatcher()).isSameAs(slow.dispatcher());
+        assertThat(fast.readTimeoutMillis()).isEqualTo(2_000);
+        assertThat(slow.readTimeoutMillis()).isEqualTo(120_000);
+        assertThat(clients.client("fast", OutboundHttpClients.Spec
+                .timeouts(Duration.ZERO, Duration.ZERO, Duration.ZERO))).isSameAs(fast);
+    }
+
+    @Test
+    void propertiesOverrideCallerDefaults() {
+        OutboundHttpProperties properties = new OutboundHttpProperties();
+        OutboundHttpProperties.Destination override = new OutboundHttpProperties.Destination();
+        override.setReadTimeoutMs(5_000L);
+        properties.getDestinations().put("tuned", override);
+        OutboundHttpClients tuned = new OutboundHttpClients(properties);
+        try {
+            OkHttpClient client = tuned.client("tuned", spec());
+
+            assertThat(client.readTimeoutMillis()).isEqualTo(5_000);
+            assertThat(client.connectTimeoutMillis()).isEqualTo(2_000);
+        } finally {
+            tuned.shutdown();
+        }
+    }
+
+    private OutboundHttpClients.Spec spec() {
+        return OutboundHttpClients.Spec.timeouts(Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(2));
+    }
+
+    private OutboundHttpProperties.Destination backoffMs(long millis) {
+        OutboundHttpProperties.Destination destination = new OutboundHttpProperties.Destination();
+        destination.setRetryBackoffMs(millis);
+        return destination;
+    }
+
+    private void respond(String path, StatusHandler handler) {
+        server.createContext(path, exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            int status = handler.status(exchange);
+            byte[] body = ("status " + status).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+    }
+
+    private int get(OkHttpClient client, String path) throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(url(path)).get().build()).execute()) {
+            response.body().string();
+            return response.code();
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    @FunctionalInterface
+    private interface StatusHandler {
+        int status(HttpExchange exchange) throws IOException;
+    }
+}
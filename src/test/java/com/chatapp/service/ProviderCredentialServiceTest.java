@@ -159,4 +159,24 @@ class ProviderCredentialServiceTest {
         assertThat(result).hasSize(1);
         assertThat(result.get(0).getLabel()).isEqualTo("hermes");
     }
+
+    @Test
+    void rotatedSecretIsNotServedFromTheDecryptionCache() {
+        ProviderCredential credential = new ProviderCredential();
+        credential.setId(30L);
+        credential.setOwner(owner);
+        credential.setIsActive(true);
+        credential.setEncryptedSecret(new CredentialCryptoService("test-master-key-material-32-bytes-long")
+                .encrypt("sk-old"));
+        when(credentialRepository.findByIdAndOwnerId(30L, 1L)).thenReturn(Optional.of(credential));
+        when(credentialRepository.save(any(ProviderCredential.class))).thenAnswer(inv -> inv.getArgument(0));
+        assertThat(service.decrypt(credential)).isEqualTo("sk-old");
+        assertThat(service.decrypt(credential)).isEqualTo("sk-old");
+
+        ProviderCredentialDto.UpdateRequest request = new ProviderCredentialDto.UpdateRequest();
+        request.setSecret("sk-new");
+        service.update(1L, 30L, request);
+
+        assertThat(service.decrypt(credential)).isEqualTo("sk-new");
+    }
 }
@@ -0,0 +1,168 @@
+package com.chatapp.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProviderKeyPoolTest {
+
+    private static final String KEYS = "sk-aaaa,sk-bbbb";
+
+    private final List<String> seenKeys = new CopyOnWriteArrayList<>();
+    private final OkHttpClient client = new OkHttpClient();
+    private ScheduledExecutorService timer;
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        timer.shutdownNow();
+    }
+
+    @Test
+    void singleKeyPassesThroughUntouched() {
+        ProviderKeyPool pool = new ProviderKeyPool(30, 0, 0, timer, System::nanoTime);
+
+        assertThat(pool.select("sk-only")).isEqualTo("sk-only");
+        assertThat(pool.select("")).isEmpty();
+        assertThat(pool.select(null)).isNull();
+    }
+
+    @Test
+    void selectionSpreadsOverKeysAndHonoursWeights() {
+        ProviderKeyPool pool = new ProviderKeyPool(30, 0, 0, timer, System::nanoTime);
+
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            picked.add(pool.select(KEYS));
+        }
+        assertThat(picked).containsExactlyInAnyOrder("sk-aaaa", "sk-bbbb");
+        assertThat(pool.select("sk-light, sk-heavy*3")).isIn("sk-light", "sk-heavy");
+    }
+
+    @Test
+    void inFlightCallsSteerSelectionUntilTheBodyIsClosed() throws IOException {
+        ProviderKeyPool pool = new ProviderKeyPool(30, 0, 0, timer, System::nanoTime);
+        respond(exchange -> 200);
+        pool.select(KEYS);
+
+        Response open = pool.execute(client, request("sk-aaaa"), false);
+        assertThat(pool.inFlight("sk-aaaa")).isEqualTo(1);
+        for (int i = 0; i < 3; i++) {
+            assertThat(pool.select(KEYS)).isEqualTo("sk-bbbb");
+        }
+
+        open.close();
+        assertThat(pool.inFlight("sk-aaaa")).isZero();
+    }
+
+    @Test
+    void rateLimitedKeyCoolsDownAndTheCallMovesToTheNextKey() throws IOException {
+        ProviderKeyPool pool = new ProviderKeyPool(30, 0, 0, timer, System::nanoTime);
+        respond(exchange -> "Bearer sk-aaaa".equals(exchange.getRequestHeaders().getFirst("Authorization")) ? 429 : 200);
+        pool.select(KEYS);
+
+        try (Response response = pool.execute(client, request("sk-aaaa"), false)) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+
+        assertThat(seenKeys).containsExactly("Bearer sk-aaaa", "Bearer sk-bbbb");
+        for (int i = 0; i < 3; i++) {
+            assertThat(pool.select(KEYS)).isEqualTo("sk-bbbb");
+        }
+        assertThat(pool.inFlight("sk-aaaa")).isZero();
+        assertThat(pool.inFlight("sk-bbbb")).isZero();
+    }
+
+    @Test
+    void rateLimitIsReturnedWhenNoOtherKeyIsAvailable() throws IOException {
+        ProviderKeyPool pool = new ProviderKeyPool(30, 0, 0, timer, System::nanoTime);
+        respond(exchange -> 429);
+        pool.select(KEYS);
+
+        try (Response response = pool.execute(client, request("sk-aaaa"), false)) {
+            assertThat(response.code()).isEqualTo(429);
+        }
+        assertThat(seenKeys).hasSize(2);
+    }
+
+    @Test
+    void slowCallIsHedgedOnAnotherKeyAndTheFirstAnswerWins() throws IOException {
+        ProviderKeyPool pool = new ProviderKeyPool(30, 0.5, 0, timer, System::nanoTime);
+        respond(exchange -> {
+            if ("Bearer sk-aaaa".equals(exchange.getRequestHeaders().getFirst("Authorization"))
+                    && seenKeys.size() > ProviderKeyPool.MIN_HEDGE_SAMPLES) {
+                sleep(3_000);
+            }
+            return 200;
+        });
+        pool.select(KEYS);
+        for (int i = 0; i < ProviderKeyPool.MIN_HEDGE_SAMPLES; i++) {
+            pool.execute(client, request("sk-bbbb"), true).close();
+        }
+
+        long start = System.nanoTime();
+        try (Response response = pool.execute(client, request("sk-aaaa"), true)) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(response.request().header("Authorization")).isEqualTo("Bearer sk-bbbb");
+        }
+        assertThat(System.nanoTime() - start).isLessThan(2_000_000_000L);
+    }
+
+    private Request request(String key) {
+        return new Request.Builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort() + "/chat/completions")
+                .header("Authorization", "Bearer " + key)
+                .get()
+                .build();
+    }
+
+    private void respond(StatusHandler handler) {
+        server.createContext("/chat/completions", exchange -> {
+            seenKeys.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            int status = handler.status(exchange);
+            byte[] body = ("status " + status).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface StatusHandler {
+        int status(HttpExchange exchange) throws IOException;
+    }
+}
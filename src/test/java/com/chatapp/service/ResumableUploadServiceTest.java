@@ -0,0 +1,183 @@
+package com.chatapp.service;
+
+import com.chatapp.config.FileStorageConfig;
+import com.chatapp.exception.UploadSessionException;
+import com.chatapp.security.FileVaultService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResumableUploadServiceTest {
+    private static final int CHUNK = 64 * 1024;
+    private static final Instant NOW = Instant.parse("2026-10-01T00:00:00Z");
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageConfig config;
+    private FileVaultService vault;
+    private FileStorageService storage;
+
+    @BeforeEach
+    void setUp() {
+        config = new FileStorageConfig();
+        config.setUploadDir(tempDir.toString());
+        config.setMaxFileSize(1024 * 1024);
+        config.setMaxUploadSessionsPerUser(2);
+        vault = new FileVaultService("resumable-upload-test-key", 1024, "test");
+        storage = new FileStorageService();
+        ReflectionTestUtils.setField(storage, "fileStorageConfig", config);
+        ReflectionTestUtils.setField(storage, "fileVaultService", vault);
+        storage.init();
+    }
+
+    @Test
+    void piecesResumeFromTheAcceptedOffsetAndCompleteIntoAChatFile() throws Exception {
+        byte[] plain = new byte[2 * CHUNK + 300];
+        new Random(11).nextBytes(plain);
+        ResumableUploadService uploads = service(NOW);
+        String id = uploads.create(1L, "clip.mp4", "video/mp4", plain.length).id();
+
+        ResumableUploadService.UploadSession session = uploads.append(1L, id, 0, checksum(plain, 0, CHUNK + 10),
+                slice(plain, 0, CHUNK + 10));
+        assertThat(session.offset()).isEqualTo(CHUNK);
+
+        assertThatThrownBy(() -> uploads.append(1L, id, CHUNK + 10, checksum(plain, CHUNK + 10, 10),
+                slice(plain, CHUNK + 10, 10)))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(409));
+        assertThatThrownBy(() -> uploads.append(1L, id, CHUNK, checksum(plain, 0, CHUNK),
+                slice(plain, CHUNK, CHUNK)))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus())
+                        .isEqualTo(ResumableUploadService.CHECKSUM_MISMATCH));
+        assertThatThrownBy(() -> uploads.complete(1L, id, upload -> upload))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(409));
+
+        ResumableUploadService restarted = service(NOW.plusSeconds(60));
+        assertThat(restarted.get(1L, id).offset()).isEqualTo(CHUNK);
+        session = restarted.append(1L, id, CHUNK, checksum(plain, CHUNK, plain.length - CHUNK),
+                slice(plain, CHUNK, plain.length - CHUNK));
+        assertThat(session.offset()).isEqualTo(plain.length);
+
+        assertThatThrownBy(() -> restarted.complete(1L, id, failed -> {
+            storage.deleteFile(failed.fileUrl());
+            throw new IllegalStateException("message not saved");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(restarted.get(1L, id).offset()).isEqualTo(plain.length);
+
+        ResumableUploadService.CompletedUpload upload = restarted.complete(1L, id, sent -> sent);
+        assertThat(upload.fileName()).isEqualTo("clip.mp4");
+        assertThat(upload.size()).isEqualTo(plain.length);
+        assertThat(upload.fileUrl()).startsWith("/api/files/chat/").endsWith(".mp4");
+        assertThat(storage.getFile("chat", upload.fileUrl().substring("/api/files/chat/".length())))
+                .isEqualTo(plain);
+        try (var staged = Files.list(Paths.get(config.getFullUploadStagingDir()))) {
+            assertThat(staged).isEmpty();
+        }
+    }
+
+    @Test
+    void aChunkLimitBelowTheVaultChunkIsRejectedAtStartup() {
+        config.setMaxUploadChunkBytes(CHUNK - 1);
+
+        assertThatThrownBy(() -> service(NOW)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void sessionsAreValidatedLimitedAndPrivateToTheirOwner() throws Exception {
+        ResumableUploadService uploads = service(NOW);
+
+        assertThatThrownBy(() -> uploads.create(1L, "setup.exe", null, 100))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> uploads.create(1L, "big.zip", null, config.getMaxFileSize() + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        String id = uploads.create(1L, "a.zip", null, 100).id();
+        uploads.create(1L, "b.zip", null, 100);
+        assertThatThrownBy(() -> uploads.create(1L, "c.zip", null, 100))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(429));
+
+        assertThatThrownBy(() -> uploads.get(2L, id))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(404));
+        assertThatThrownBy(() -> uploads.terminate(2L, id)).isInstanceOf(UploadSessionException.class);
+        assertThatThrownBy(() -> uploads.get(1L, "../../chat-files/x"))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(404));
+        assertThatThrownBy(() -> uploads.append(1L, id, 0, "md5 AAAA", slice(new byte[100], 0, 100)))
+                .isInstanceOf(IllegalArgumentException.class);
+        config.setMaxUploadChunkBytes(64);
+        assertThatThrownBy(() -> uploads.append(1L, id, 0, checksum(new byte[100], 0, 100),
+                slice(new byte[100], 0, 100)))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(413));
+
+        uploads.terminate(1L, id);
+        assertThatThrownBy(() -> uploads.get(1L, id)).isInstanceOf(UploadSessionException.class);
+        uploads.create(1L, "c.zip", null, 100);
+    }
+
+    @Test
+    void aPartThatNoLongerMatchesItsSessionIsDiscarded() throws Exception {
+        ResumableUploadService uploads = service(NOW);
+        String id = uploads.create(1L, "a.zip", null, 2 * CHUNK).id();
+        Path part = Paths.get(config.getFullUploadStagingDir()).resolve(id + ".part");
+        Files.write(part, new byte[10], StandardOpenOption.APPEND);
+        byte[] piece = new byte[CHUNK];
+
+        assertThatThrownBy(() -> uploads.append(1L, id, 0, checksum(piece, 0, CHUNK), slice(piece, 0, CHUNK)))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(410));
+        assertThat(part).doesNotExist();
+        assertThatThrownBy(() -> uploads.get(1L, id))
+                .isInstanceOfSatisfying(UploadSessionException.class, e -> assertThat(e.getStatus()).isEqualTo(404));
+    }
+
+    @Test
+    void abandonedSessionsExpireAndAreSwept() throws Exception {
+        ResumableUploadService uploads = service(NOW);
+        String abandoned = uploads.create(1L, "old.zip", null, 3 * CHUNK).id();
+        byte[] piece = new byte[CHUNK];
+        uploads.append(1L, abandoned, 0, checksum(piece, 0, CHUNK), slice(piece, 0, CHUNK));
+
+        Duration ttl = Duration.ofMinutes(config.getUploadSessionTtlMinutes());
+        ResumableUploadService later = service(NOW.plus(ttl).minusSeconds(30));
+        String active = later.create(1L, "new.zip", null, 100).id();
+        assertThat(later.sweepExpired()).isZero();
+
+        ResumableUploadService expired = service(NOW.plus(ttl).plusSeconds(1));
+        assertThatThrownBy(() -> expired.get(1L, abandoned)).isInstanceOf(UploadSessionException.class);
+        assertThat(expired.sweepExpired()).isEqualTo(1);
+        Path staging = Paths.get(config.getFullUploadStagingDir());
+        assertThat(staging.resolve(abandoned + ".part")).doesNotExist();
+        assertThat(staging.resolve(abandoned + ".upload.json")).doesNotExist();
+        assertThat(expired.get(1L, active).size()).isEqualTo(100);
+    }
+
+    private ResumableUploadService service(Instant now) {
+        return new ResumableUploadService(config, vault, storage, Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static InputStream slice(byte[] bytes, int from, int length) {
+        return new ByteArrayInputStream(bytes, from, length);
+    }
+
+    private static String checksum(byte[] bytes, int from, int length) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(bytes, from, from + length));
+        return "sha256 " + Base64.getEncoder().encodeToString(digest);
+    }
+}
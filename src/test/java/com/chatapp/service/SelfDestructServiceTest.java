@@ -5,11 +5,15 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -19,6 +23,7 @@ import static org.mockito.Mockito.*;
 class SelfDestructServiceTest {
 
     @Mock private MessageRepository messageRepository;
+    @Mock private FileReferenceService fileReferenceService;
     @InjectMocks private SelfDestructService service;
 
     @Test
@@ -41,4 +46,46 @@ class SelfDestructServiceTest {
         service.destroyExpiredMessages(); // no exception
         verify(messageRepository).deleteExpiredSelfDestructMessages(any(LocalDateTime.class));
     }
+
+    @Test
+    @DisplayName("destroyExpiredMessages releases the files of destroyed messages after deleting the rows")
+    void releases_files_after_delete() {
+        MessageRepository.MessageFileUrls image = mock(MessageRepository.MessageFileUrls.class);
+        when(image.getFileUrl()).thenReturn("/api/files/chat/a.png");
+        when(image.getThumbnailUrl()).thenReturn("/api/files/chat/a-thumb.jpg");
+        MessageRepository.MessageFileUrls forward = mock(MessageRepository.MessageFileUrls.class);
+        when(forward.getFileUrl()).thenReturn("/api/files/chat/a.png");
+        when(messageRepository.findFileUrlsOfExpiredSelfDestructMessages(any(LocalDateTime.class)))
+                .thenReturn(List.of(image, forward));
+        when(messageRepository.deleteExpiredSelfDestructMessages(any(LocalDateTime.class))).thenReturn(2);
+
+        service.destroyExpiredMessages();
+
+        InOrder inOrder = inOrder(messageRepository, fileReferenceService);
+        inOrder.verify(messageRepository).deleteExpiredSelfDestructMessages(any(LocalDateTime.class));
+        inOrder.verify(fileReferenceService).release("/api/files/chat/a.png");
+        inOrder.verify(fileReferenceService).release("/api/files/chat/a-thumb.jpg");
+        verifyNoMoreInteractions(fileReferenceService);
+    }
+
+    @Test
+    @DisplayName("destroyExpiredMessages leaves files alone until the deletion commits")
+    void releases_files_only_after_commit() {
+        MessageRepository.MessageFileUrls image = mock(MessageRepository.MessageFileUrls.class);
+        when(image.getFileUrl()).thenReturn("/api/files/chat/a.png");
+        when(messageRepository.findFileUrlsOfExpiredSelfDestructMessages(any(LocalDateTime.class)))
+                .thenReturn(List.of(image));
+        when(messageRepository.deleteExpiredSelfDestructMessages(any(LocalDateTime.class))).thenReturn(1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.destroyExpiredMessages();
+            verifyNoInteractions(fileReferenceService);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(fileReferenceService).release("/api/files/chat/a.png");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
 }
@@ -0,0 +1,111 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenCountersTest {
+
+    private final TokenCounters tokenCounters = new TokenCounters();
+
+    @Test
+    void tokenizerFollowsProviderAndModel() {
+        assertEquals("o200k_base", tokenCounters.forBot(bot(BotConfig.LLMProvider.OPENAI, "gpt-4o-mini")).name());
+        assertEquals("o200k_base", tokenCounters.forBot(bot(BotConfig.LLMProvider.OPENAI, "o3-mini")).name());
+        assertEquals("cl100k_base", tokenCounters.forBot(bot(BotConfig.LLMProvider.OPENAI, "gpt-4-turbo")).name());
+        assertEquals("claude-estimate", tokenCounters.forBot(bot(BotConfig.LLMProvider.CLAUDE, "claude-sonnet")).name());
+        assertEquals("cjk-estimate", tokenCounters.forBot(bot(BotConfig.LLMProvider.DEEPSEEK, "deepseek-chat")).name());
+        assertEquals("cjk-estimate", tokenCounters.forBot(bot(BotConfig.LLMProvider.OLLAMA, "qwen2.5:7b")).name());
+        assertEquals("estimate", tokenCounters.forBot(bot(BotConfig.LLMProvider.OLLAMA, "llama3")).name());
+        assertEquals("estimate", tokenCounters.forBot(null).name());
+    }
+
+    @Test
+    void bpeCountsMatchBundledVocabularies() {
+        TokenCounter o200k = tokenCounters.forBot(bot(BotConfig.LLMProvider.OPENAI, "gpt-4o"));
+        TokenCounter cl100k = tokenCounters.forBot(bot(BotConfig.LLMProvider.OPENAI, "gpt-4"));
+
+        assertEquals(2, o200k.count("hello world"));
+        assertEquals(2, cl100k.count("hello world"));
+        // Special-token text is counted as ordinary text instead of being rejected.
+        assertTrue(cl100k.count("<|endoftext|>") > 1);
+    }
+
+    @Test
+    void claudeCountsScaleCl100kBySafetyFactor() {
+        TokenCounter claude = tokenCounters.forBot(bot(BotConfig.LLMProvider.CLAUDE, "claude-sonnet"));
+        TokenCounter cl100k = tokenCounters.forBot(bot(BotConfig.LLMProvider.OPENAI, "gpt-4"));
+        String text = "The quick brown fox jumps over the lazy dog. 敏捷的棕色狐狸跳过了懒狗。";
+
+        int base = cl100k.count(text);
+        assertEquals((int) Math.ceil(base * TokenCounters.CLAUDE_SAFETY_FACTOR), claude.count(text));
+        assertTrue(claude.count(text) > base);
+        // Memoized separately from plain cl100k counts of the same text.
+        assertEquals(base, tokenCounters.count(cl100k, text));
+        assertEquals(claude.count(text), tokenCounters.count(claude, text));
+    }
+
+    @Test
+    void cjkEstimateUsesPublishedRatios() {
+        TokenCounter deepseek = tokenCounters.forBot(bot(BotConfig.LLMProvider.DEEPSEEK, "deepseek-chat"));
+
+        assertEquals(3, deepseek.count("你好世界"));
+        assertEquals(4, deepseek.count("hello world"));
+    }
+
+    @Test
+    void countsAreMemoizedPerCounterMessageAndContent() {
+        AtomicInteger invocations = new AtomicInteger();
+        TokenCounter counting = new TokenCounter() {
+            @Override
+            public String name() {
+                return "counting";
+            }
+
+            @Override
+            public int count(String text) {
+                invocations.incrementAndGet();
+                return text.length();
+            }
+        };
+
+        assertEquals(5, tokenCounters.count(counting, 1L, "hello"));
+        assertEquals(5, tokenCounters.count(counting, 1L, "hello"));
+        assertEquals(1, invocations.get());
+
+        assertEquals(5, tokenCounters.count(counting, 2L, "hello"));
+        assertEquals(6, tokenCounters.count(counting, 1L, "hello!"));
+        assertEquals(3, invocations.get());
+        assertEquals(0, tokenCounters.count(counting, null, ""));
+    }
+
+    @Test
+    void textsWithEqualHashCodesAreCountedSeparately() {
+        TokenCounter byContent = new TokenCounter() {
+            @Override
+            public String name() {
+                return "by-content";
+            }
+
+            @Override
+            public int count(String text) {
+                return text.equals("Aa") ? 1 : 2;
+            }
+        };
+
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals(1, tokenCounters.count(byContent, "Aa"));
+        assertEquals(2, tokenCounters.count(byContent, "BB"));
+    }
+
+    private BotConfig bot(BotConfig.LLMProvider provider, String model) {
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(provider);
+        bot.setModelName(model);
+        return bot;
+    }
+}
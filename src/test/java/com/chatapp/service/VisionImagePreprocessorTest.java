@@ -0,0 +1,132 @@
+package com.chatapp.service;
+
+import com.chatapp.entity.BotConfig;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisionImagePreprocessorTest {
+
+    private final VisionImagePreprocessor preprocessor = new VisionImagePreprocessor();
+
+    @Test
+    void largePhotoIsDownscaledToTheProviderTargetAsJpeg() throws Exception {
+        byte[] photo = encode(noise(4000, 3000, BufferedImage.TYPE_INT_RGB), "png");
+
+        VisionImagePreprocessor.Prepared prepared =
+                preprocessor.prepare(photo, "image/png", VisionImagePreprocessor.Target.DEFAULT);
+
+        BufferedImage out = decode(prepared.bytes());
+        assertThat(prepared.mediaType()).isEqualTo("image/jpeg");
+        assertThat(Math.max(out.getWidth(), out.getHeight())).isLessThanOrEqualTo(1568);
+        assertThat((long) out.getWidth() * out.getHeight()).isLessThanOrEqualTo(1_200_000L);
+        assertThat(out.getWidth() / (double) out.getHeight()).isCloseTo(4.0 / 3.0, org.assertj.core.data.Offset.offset(0.01));
+        assertThat(prepared.bytes().length).isLessThan(photo.length / 10);
+    }
+
+    @Test
+    void openAiTargetCapsTheShortSideAt768() throws Exception {
+        BotConfig bot = new BotConfig();
+        bot.setLlmProvider(BotConfig.LLMProvider.OPENAI);
+        byte[] photo = encode(noise(3000, 2000, BufferedImage.TYPE_INT_RGB), "jpeg");
+
+        BufferedImage out = decode(preprocessor.prepare(photo, "image/jpeg",
+                VisionImagePreprocessor.Target.forBot(bot)).bytes());
+
+        assertThat(out.getHeight()).isEqualTo(768);
+        assertThat(out.getWidth()).isEqualTo(1152);
+    }
+
+    @Test
+    void exifOrientationIsAppliedBeforeResizing() throws Exception {
+        BufferedImage landscape = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = landscape.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 100, 100);
+        g.setColor(Color.BLUE);
+        g.fillRect(100, 0, 100, 100);
+        g.dispose();
+        byte[] rotated = withExifOrientation(encode(landscape, "jpeg"), 6);
+        assertThat(VisionImagePreprocessor.exifOrientation(rotated)).isEqualTo(6);
+
+        BufferedImage out = decode(preprocessor.prepare(rotated, "image/jpeg",
+                VisionImagePreprocessor.Target.DEFAULT).bytes());
+
+        // Rotated 90 degrees clockwise: the left (red) half ends up on top.
+        assertThat(out.getWidth()).isEqualTo(100);
+        assertThat(out.getHeight()).isEqualTo(200);
+        assertThat(new Color(out.getRGB(50, 40)).getRed()).isGreaterThan(200);
+        assertThat(new Color(out.getRGB(50, 160)).getBlue()).isGreaterThan(200);
+    }
+
+    @Test
+    void transparentImagesStayPng() throws Exception {
+        byte[] sticker = encode(noise(2000, 2000, BufferedImage.TYPE_INT_ARGB), "png");
+
+        VisionImagePreprocessor.Prepared prepared =
+                preprocessor.prepare(sticker, "image/png", VisionImagePreprocessor.Target.DEFAULT);
+
+        assertThat(prepared.mediaType()).isEqualTo("image/png");
+        assertThat(decode(prepared.bytes()).getColorModel().hasAlpha()).isTrue();
+    }
+
+    @Test
+    void smallOrUndecodableImagesPassThroughUnchanged() throws Exception {
+        byte[] small = encode(noise(64, 64, BufferedImage.TYPE_INT_RGB), "png");
+        byte[] garbage = new byte[] {(byte) 0x89, 'P', 'N', 'G', 13, 10, 1, 2, 3};
+
+        assertThat(preprocessor.prepare(small, "image/png", VisionImagePreprocessor.Target.DEFAULT).bytes())
+                .isSameAs(small);
+        VisionImagePreprocessor.Prepared broken =
+                preprocessor.prepare(garbage, "image/png", VisionImagePreprocessor.Target.DEFAULT);
+        assertThat(broken.bytes()).isSameAs(garbage);
+        assertThat(broken.mediaType()).isEqualTo("image/png");
+    }
+
+    private static BufferedImage noise(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        java.util.Random random = new java.util.Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int alpha = type == BufferedImage.TYPE_INT_ARGB ? (x < width / 2 ? 0 : 255) : 255;
+                image.setRGB(x, y, (alpha << 24) | (random.nextInt() & 0xFFFFFF));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] bytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    /** Inserts a minimal big-endian EXIF APP1 segment carrying only the orientation tag. */
+    private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+        byte[] app1 = {
+                (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        byte[] out = new byte[jpeg.length + app1.length];
+        System.arraycopy(jpeg, 0, out, 0, 2);
+        System.arraycopy(app1, 0, out, 2, app1.length);
+        System.arraycopy(jpeg, 2, out, 2 + app1.length, jpeg.length - 2);
+        return out;
+    }
+}
@@ -5,6 +5,7 @@ import com.chatapp.entity.ChatRoom;
 import com.chatapp.entity.Message;
 import com.chatapp.repository.MessageRepository;
 import com.chatapp.service.AgentVisionAttachmentService;
+import com.chatapp.service.VisionImagePreprocessor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
@@ -39,7 +40,7 @@ class InspectRoomImageToolTest {
                 PageRequest.of(0, 1)))
                 .thenReturn(new PageImpl<>(List.of(image)));
         when(visionAttachmentService.isImageMessage(image)).thenReturn(true);
-        when(visionAttachmentService.resolve(image, true))
+        when(visionAttachmentService.resolve(image, true, VisionImagePreprocessor.Target.DEFAULT))
                 .thenReturn(new AgentVisionAttachmentService.ImageContext(
                         List.of(new BotDto.ImageAttachment(
                                 "photo.jpg",
@@ -56,6 +57,28 @@ class InspectRoomImageToolTest {
         verify(visionAttachmentService).resolve(image, true);
     }
 
+    @Test
+    void imageIsShrunkForTheCallingBotsProvider() {
+        Message image = imageMessage(123L, 10L);
+        when(messageRepository.findWithSenderById(123L)).thenReturn(Optional.of(image));
+        when(visionAttachmentService.isImageMessage(image)).thenReturn(true);
+        when(visionAttachmentService.resolve(image, true, VisionImagePreprocessor.Target.OPENAI))
+                .thenReturn(new AgentVisionAttachmentService.ImageContext(
+                        List.of(new BotDto.ImageAttachment(
+                                "photo.jpg",
+                                "image/jpeg",
+                                "data:image/jpeg;base64,OK")),
+                        "[图片: photo.jpg]",
+                        false));
+
+        JsonNode result = tool.execute(
+                objectMapper.createObjectNode().put("messageId", 123L),
+                new ToolContext(10L, 42L, 77L, 99L, false, null, VisionImagePreprocessor.Target.OPENAI));
+
+        assertEquals("data:image/jpeg;base64,OK", result.path("llm_image_attachment").path("dataUrl").asText());
+        verify(visionAttachmentService).resolve(image, true, VisionImagePreprocessor.Target.OPENAI);
+    }
+
     @Test
     void messageIdOutsideCurrentRoomIsRejected() {
         Message image = imageMessage(123L, 11L);
@@ -74,7 +97,7 @@ class InspectRoomImageToolTest {
         Message image = imageMessage(123L, 10L);
         when(messageRepository.findWithSenderById(123L)).thenReturn(Optional.of(image));
         when(visionAttachmentService.isImageMessage(image)).thenReturn(true);
-        when(visionAttachmentService.resolve(image, true))
+        when(visionAttachmentService.resolve(image, true, VisionImagePreprocessor.Target.DEFAULT))
                 .thenReturn(new AgentVisionAttachmentService.ImageContext(
                         List.of(new BotDto.ImageAttachment(
                                 "huge.jpg",
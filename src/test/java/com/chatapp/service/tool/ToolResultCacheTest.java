@@ -0,0 +1,179 @@
+package com.chatapp.service.tool;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ToolResultCacheTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong nanos = new AtomicLong();
+    private final ToolResultCache cache = new ToolResultCache(1 << 20, Runnable::run, nanos::get);
+
+    @Test
+    void identicalArgumentsInAnyOrderShareOneExecution() throws Exception {
+        CountingTool tool = new CountingTool(Duration.ofMinutes(2), Tool.Concurrency.READ_ONLY);
+
+        JsonNode first = cache.get(tool, params("{\"query\":\"  java  21 \",\"max_results\":5}"), tool::run);
+        JsonNode second = cache.get(tool, params("{\"max_results\":5,\"query\":\"java 21\"}"), tool::run);
+
+        assertEquals(1, tool.executions.get());
+        assertEquals(first, second);
+        cache.get(tool, params("{\"max_results\":3,\"query\":\"java 21\"}"), tool::run);
+        assertEquals(2, tool.executions.get());
+    }
+
+    @Test
+    void entriesExpireAfterTheToolsTtl() throws Exception {
+        CountingTool tool = new CountingTool(Duration.ofSeconds(30), Tool.Concurrency.READ_ONLY);
+
+        cache.get(tool, params("{\"query\":\"news\"}"), tool::run);
+        nanos.addAndGet(Duration.ofSeconds(29).toNanos());
+        cache.get(tool, params("{\"query\":\"news\"}"), tool::run);
+        assertEquals(1, tool.executions.get());
+
+        nanos.addAndGet(Duration.ofSeconds(2).toNanos());
+        cache.get(tool, params("{\"query\":\"news\"}"), tool::run);
+        assertEquals(2, tool.executions.get());
+    }
+
+    @Test
+    void concurrentIdenticalCallsWaitForTheFirst() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingTool tool = new CountingTool(Duration.ofMinutes(2), Tool.Concurrency.READ_ONLY) {
+            @Override
+            JsonNode run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.run();
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<JsonNode>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                calls.add(pool.submit(() -> cache.get(tool, params("{\"query\":\"trending\"}"), tool::run)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<JsonNode> call : calls) {
+                assertEquals("ok", call.get(5, TimeUnit.SECONDS).path("echo").asText());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, tool.executions.get());
+    }
+
+    @Test
+    void errorResultsAreNotCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountingTool tool = new CountingTool(Duration.ofMinutes(2), Tool.Concurrency.READ_ONLY);
+
+        for (int i = 0; i < 2; i++) {
+            cache.get(tool, params("{\"query\":\"down\"}"), () -> {
+                calls.incrementAndGet();
+                ObjectNode failed = objectMapper.createObjectNode();
+                failed.putObject("error").put("code", "search_unavailable");
+                return failed;
+            });
+        }
+
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.estimatedSize());
+    }
+
+    @Test
+    void mutatingAndNonOptedInToolsAlwaysRun() throws Exception {
+        CountingTool mutating = new CountingTool(Duration.ofMinutes(2), Tool.Concurrency.MUTATING);
+        CountingTool uncached = new CountingTool(null, Tool.Concurrency.READ_ONLY);
+
+        for (int i = 0; i < 2; i++) {
+            cache.get(mutating, params("{\"query\":\"x\"}"), mutating::run);
+            cache.get(uncached, params("{\"query\":\"x\"}"), uncached::run);
+        }
+
+        assertEquals(2, mutating.executions.get());
+        assertEquals(2, uncached.executions.get());
+    }
+
+    @Test
+    void cachedResultIsACopyCallersCannotCorrupt() throws Exception {
+        CountingTool tool = new CountingTool(Duration.ofMinutes(2), Tool.Concurrency.READ_ONLY);
+
+        JsonNode first = cache.get(tool, params("{\"query\":\"q\"}"), tool::run);
+        ((ObjectNode) first).put("echo", "tampered");
+        JsonNode second = cache.get(tool, params("{\"query\":\"q\"}"), tool::run);
+
+        assertEquals("ok", second.path("echo").asText());
+        assertTrue(cache.estimatedSize() > 0);
+    }
+
+    private JsonNode params(String json) throws Exception {
+        return objectMapper.readTree(json);
+    }
+
+    private class CountingTool implements Tool {
+        private final Duration ttl;
+        private final Concurrency concurrency;
+        private final AtomicInteger executions = new AtomicInteger();
+
+        private CountingTool(Duration ttl, Concurrency concurrency) {
+            this.ttl = ttl;
+            this.concurrency = concurrency;
+        }
+
+        JsonNode run() {
+            executions.incrementAndGet();
+            return objectMapper.createObjectNode().put("echo", "ok");
+        }
+
+        @Override
+        public String name() {
+            return "counting";
+        }
+
+        @Override
+        public String description() {
+            return "test";
+        }
+
+        @Override
+        public JsonNode parametersSchema() {
+            return objectMapper.createObjectNode().put("type", "object");
+        }
+
+        @Override
+        public Concurrency concurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public Duration resultCacheTtl() {
+            return ttl;
+        }
+
+        @Override
+        public JsonNode execute(JsonNode params, ToolContext context) {
+            return run();
+        }
+    }
+}